@@ -0,0 +1,304 @@
+package com.group12.ciserver.client;
+
+import com.group12.ciserver.metrics.MetricsRegistry;
+import com.group12.ciserver.model.github.CommitState;
+import com.group12.ciserver.model.github.PushEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends commit statuses to GitHub in the background, so that a slow or unavailable GitHub never holds up or fails a
+ * pipeline.
+ * <p>
+ * Only the latest status of a commit is sent. A status that has not been sent yet when a newer one for the same
+ * commit is published is dropped, e.g. PENDING followed by SUCCESS only sends SUCCESS.
+ * <p>
+ * Statuses are sent one at a time, as GitHub recommends for requests that create content. Failed requests are retried
+ * with exponential backoff. When GitHub reports that the rate limit is used up, nothing is sent until it resets.
+ * <p>
+ * The time from publishing a status until GitHub accepted it, or it was given up, is recorded per repository in the
+ * {@link MetricsRegistry}.
+ */
+@Component
+@Slf4j
+public class CommitStatusPublisher {
+
+    private final GithubClient githubClient;
+
+    private final int maxAttempts;
+
+    private final long initialBackoffMillis;
+
+    private final long maxBackoffMillis;
+
+    private final MetricsRegistry metrics;
+
+    private final ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "commit-status-publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Commits that have a status waiting to be sent or being sent, by {@link #keyOf(PushEvent)}. Guarded by this.
+     */
+    private final Map<String, CommitStatuses> commits = new HashMap<>();
+
+    /**
+     * Nothing is sent before this time, because the rate limit is used up. Guarded by this.
+     */
+    private long pausedUntil = 0;
+
+    CommitStatusPublisher(GithubClient githubClient, int maxAttempts, long initialBackoffMillis,
+                          long maxBackoffMillis) {
+        this(githubClient, new MetricsRegistry(), maxAttempts, initialBackoffMillis, maxBackoffMillis);
+    }
+
+    @Autowired
+    public CommitStatusPublisher(GithubClient githubClient, MetricsRegistry metrics,
+                                 @Value("${githubclient.status.max-attempts:8}") int maxAttempts,
+                                 @Value("${githubclient.status.initial-backoff-ms:1000}") long initialBackoffMillis,
+                                 @Value("${githubclient.status.max-backoff-ms:300000}") long maxBackoffMillis) {
+        this.githubClient = githubClient;
+        this.metrics = metrics;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        sender.shutdown();
+        sender.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Queues a status for the commit of a push event. Returns immediately.
+     *
+     * @param pushEvent The {@link PushEvent} of the commit.
+     * @param commitState The {@link CommitState} that is to be set.
+     * @param message A message that can be set in addition to the status. Can be an empty string.
+     * @param buildId An ID that references this specific build. Can be set to null if it should be omitted.
+     */
+    public synchronized void publish(PushEvent pushEvent, CommitState commitState, String message, Long buildId) {
+        StatusUpdate update = new StatusUpdate(pushEvent, commitState, message, buildId);
+        String key = keyOf(pushEvent);
+        CommitStatuses statuses = commits.get(key);
+        if (statuses == null) {
+            statuses = new CommitStatuses(key);
+            commits.put(key, statuses);
+        }
+        if (statuses.next != null) {
+            log.debug("Coalescing commit status, commit={}, dropped={}, state={}", key, statuses.next.commitState,
+                    commitState);
+        }
+        statuses.next = update;
+        statuses.attempts = 0;
+        if (!statuses.scheduled) {
+            schedule(statuses, 0);
+        }
+    }
+
+    /**
+     * @return the number of commits that have a status that has not been sent yet.
+     */
+    public synchronized int pendingCommits() {
+        return commits.size();
+    }
+
+    private static String keyOf(PushEvent pushEvent) {
+        return repositoryOf(pushEvent) + "@" + pushEvent.getAfter();
+    }
+
+    private static String repositoryOf(PushEvent pushEvent) {
+        return pushEvent.getRepository().getOwner().getName() + "/" + pushEvent.getRepository().getName();
+    }
+
+    // Must hold the lock
+    private void schedule(CommitStatuses statuses, long delayMillis) {
+        statuses.scheduled = true;
+        long delay = Math.max(delayMillis, pausedUntil - System.currentTimeMillis());
+        sender.schedule(() -> send(statuses), Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    private void send(CommitStatuses statuses) {
+        StatusUpdate update;
+        synchronized (this) {
+            long pause = pausedUntil - System.currentTimeMillis();
+            if (pause > 0) {
+                // Another commit hit the rate limit after this one was scheduled
+                schedule(statuses, pause);
+                return;
+            }
+            update = statuses.next;
+            statuses.next = null;
+        }
+
+        long retryDelay = -1;
+        boolean sent = false;
+        try {
+            HttpHeaders headers = githubClient.createStatusMsg(update.pushEvent, update.commitState, update.message,
+                    update.buildId).getHeaders();
+            sent = true;
+            pauseIfRateLimited(headers, false);
+        } catch (HttpStatusCodeException e) {
+            retryDelay = retryDelay(statuses, update, e);
+        } catch (Exception e) {
+            log.warn("Failed to send commit status, commit={}, state={}, error={}", statuses.key,
+                    update.commitState, e.getMessage());
+            retryDelay = backoff(statuses, update);
+        }
+
+        if (retryDelay < 0) {
+            metrics.histogram("ciserver_status_publish_seconds",
+                    "Time from publishing a commit status until GitHub accepted it or it was given up.",
+                    MetricsRegistry.LATENCY_BUCKETS, "repository", repositoryOf(update.pushEvent),
+                    "outcome", sent ? "sent" : "failed").recordSince(update.publishedAt);
+        }
+
+        synchronized (this) {
+            if (retryDelay >= 0 && statuses.next == null) {
+                statuses.next = update;
+            }
+            if (statuses.next != null) {
+                schedule(statuses, Math.max(retryDelay, 0));
+            } else {
+                statuses.scheduled = false;
+                commits.remove(statuses.key);
+            }
+        }
+    }
+
+    /**
+     * @return the delay before retrying the update, or -1 if it must not be retried.
+     */
+    private long retryDelay(CommitStatuses statuses, StatusUpdate update, HttpStatusCodeException e) {
+        HttpStatus status = e.getStatusCode();
+        if (status == HttpStatus.FORBIDDEN || status == HttpStatus.TOO_MANY_REQUESTS) {
+            long pause = pauseIfRateLimited(e.getResponseHeaders(), true);
+            if (pause >= 0) {
+                log.warn("Rate limited by GitHub, sending commit statuses again in {} ms", pause);
+                // Waiting for the rate limit is not a failed attempt
+                return 0;
+            }
+        }
+        if (status.is5xxServerError() || status == HttpStatus.TOO_MANY_REQUESTS) {
+            log.warn("Failed to send commit status, commit={}, state={}, status={}", statuses.key,
+                    update.commitState, status.value());
+            return backoff(statuses, update);
+        }
+        log.error("GitHub rejected commit status, commit={}, state={}, status={}, body={}", statuses.key,
+                update.commitState, status.value(), e.getResponseBodyAsString());
+        return -1;
+    }
+
+    private long backoff(CommitStatuses statuses, StatusUpdate update) {
+        synchronized (this) {
+            statuses.attempts++;
+            if (statuses.attempts >= maxAttempts) {
+                log.error("Giving up on commit status, commit={}, state={}, attempts={}", statuses.key,
+                        update.commitState, statuses.attempts);
+                statuses.attempts = 0;
+                return -1;
+            }
+            long delay = initialBackoffMillis << Math.min(statuses.attempts - 1, 30);
+            return Math.min(delay, maxBackoffMillis);
+        }
+    }
+
+    /**
+     * Pauses sending until the rate limit resets if the headers of a response say it is used up.
+     *
+     * @param headers the headers of a response from GitHub, may be null
+     * @param rejected true if the request was rejected, then a <code>Retry-After</code> header is honored as well
+     * @return the pause in milliseconds, or -1 if the rate limit is not used up
+     */
+    private long pauseIfRateLimited(HttpHeaders headers, boolean rejected) {
+        if (headers == null) {
+            return -1;
+        }
+        long now = System.currentTimeMillis();
+        long until = -1;
+        String retryAfter = headers.getFirst("Retry-After");
+        if (rejected && retryAfter != null) {
+            until = now + parseLong(retryAfter, 60) * 1000;
+        } else if ("0".equals(headers.getFirst("X-RateLimit-Remaining"))) {
+            String reset = headers.getFirst("X-RateLimit-Reset");
+            until = reset != null ? parseLong(reset, now / 1000 + 60) * 1000 : now + 60_000;
+        }
+        if (until < 0) {
+            return -1;
+        }
+        synchronized (this) {
+            pausedUntil = Math.max(pausedUntil, until);
+        }
+        return Math.max(0, until - now);
+    }
+
+    private static long parseLong(String value, long fallback) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static class StatusUpdate {
+
+        private final PushEvent pushEvent;
+
+        private final CommitState commitState;
+
+        private final String message;
+
+        private final Long buildId;
+
+        /**
+         * {@link System#nanoTime()} when the status was published.
+         */
+        private final long publishedAt = System.nanoTime();
+
+        StatusUpdate(PushEvent pushEvent, CommitState commitState, String message, Long buildId) {
+            this.pushEvent = pushEvent;
+            this.commitState = commitState;
+            this.message = message;
+            this.buildId = buildId;
+        }
+    }
+
+    /**
+     * The statuses of one commit. Guarded by the publisher.
+     */
+    private static class CommitStatuses {
+
+        private final String key;
+
+        /**
+         * The latest status that has not been sent yet.
+         */
+        private StatusUpdate next;
+
+        /**
+         * True while a send is scheduled or running.
+         */
+        private boolean scheduled;
+
+        private int attempts;
+
+        CommitStatuses(String key) {
+            this.key = key;
+        }
+    }
+}
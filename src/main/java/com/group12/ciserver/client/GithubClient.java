@@ -1,27 +1,18 @@
 package com.group12.ciserver.client;
 
-import com.auth0.jwt.JWT;
-import com.auth0.jwt.algorithms.Algorithm;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.group12.ciserver.model.github.CommitState;
 import com.group12.ciserver.model.github.PushEvent;
 
-import org.bouncycastle.util.io.pem.PemObject;
-import org.bouncycastle.util.io.pem.PemReader;
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 
 import java.io.File;
-import java.io.FileReader;
-import java.security.KeyFactory;
-import java.security.interfaces.RSAPrivateKey;
-import java.security.spec.PKCS8EncodedKeySpec;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -32,45 +23,38 @@ public class GithubClient {
 
     @Value("${githubclient.server-url}")
     private String ciServerUrl;
-    @Value("${githubclient.repo-clone-base-directory}")
-    private String repoCloneBaseDirectory;
-    @Value("${githubclient.app-installation-id}")
-    private String appInstallationId;
-    @Value("${githubclient.pem-location}")
-    private String pemLocation;
-    @Value("${githubclient.app-identifier}")
-    private String appIdentifier;
+    @Value("${githubclient.api-url:https://api.github.com}")
+    private String apiUrl;
 
-    private String token = null;
-    private Date tokenCreated = new Date((new Date()).getTime() - 120*60000);
+    @Autowired
+    private RepositoryMirrorCache repositoryMirrorCache;
 
     /**
-     * Constructor for the GitHub client.
+     * Shared by all calls, so connections to GitHub are kept alive between calls.
+     * See {@link GithubHttpClientConfiguration}.
      */
-    public GithubClient() {
-        java.security.Security.addProvider(
-            new org.bouncycastle.jce.provider.BouncyCastleProvider()
-        );
-    }
+    @Autowired
+    private RestTemplate githubRestTemplate;
+
+    @Autowired
+    private GithubTokenManager githubTokenManager;
 
     /**
-     * Clones a repository and checks out to the specified branch.
+     * Checks out the commit of a push event on the specified branch. The repository is fetched into a local mirror
+     * by {@link RepositoryMirrorCache}, so only commits that are not in the mirror yet are downloaded.
+     * <p>
+     * The directory may already contain an earlier checkout of the repository, in which case only the changed files
+     * are written and untracked files are removed. Ignored files, such as the <code>target</code> directory, are kept.
      *
      * @param pushEvent The {@link PushEvent} that contains information about the push event.
-     * @return The {@link File} that represents the directory the repository was cloned to.
-     * @throws GitAPIException is thrown if the clone fails.
+     * @param directory The directory to check out to.
+     * @return The {@link File} that represents the directory the repository was checked out to.
+     * @throws GitAPIException is thrown if the fetch or checkout fails.
+     * @throws IOException is thrown if the repository cannot be written to disk.
      */
-    public File cloneRepoAndSwitchBranch(PushEvent pushEvent) throws GitAPIException {
-        File cloneDirectory = getCloneDirectory();
-
-        Git git = Git.cloneRepository()
-            .setURI(pushEvent.getRepository().getCloneUrl())
-            .setDirectory(cloneDirectory)
-            .setBranchesToClone(Arrays.asList(pushEvent.getRef()))
-            .setBranch(pushEvent.getRef())
-            .call();
-
-        return cloneDirectory;
+    public File cloneRepoAndSwitchBranch(PushEvent pushEvent, File directory) throws GitAPIException, IOException {
+        repositoryMirrorCache.checkout(pushEvent, directory);
+        return directory;
     }
 
     /**
@@ -86,11 +70,7 @@ public class GithubClient {
      *          parameters, etc).
      */
     public ResponseEntity<JsonNode> createStatusMsg(PushEvent pushEvent, CommitState commitState, String message, Long buildId) throws Exception {
-        if ((new Date()).getTime() - tokenCreated.getTime() > 30*60000) {
-            createInstallationToken();
-        }
-
-        String url = "https://api.github.com/repos/"
+        String url = apiUrl + "/repos/"
                 + pushEvent.getRepository().getOwner().getName() + "/"
                 + pushEvent.getRepository().getName() + "/statuses/"
                 + pushEvent.getAfter();
@@ -98,7 +78,7 @@ public class GithubClient {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
         headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
-        headers.setBearerAuth(token);
+        headers.setBearerAuth(githubTokenManager.getToken());
 
         Map<String, Object> map = new HashMap<>();
         map.put("state", commitState.name().toLowerCase());
@@ -108,67 +88,6 @@ public class GithubClient {
         }
 
         HttpEntity<Map<String, Object>> entity = new HttpEntity<>(map, headers);
-        RestTemplate restTemplate = new RestTemplate();
-        return restTemplate.postForEntity(url, entity, JsonNode.class);
-    }
-
-    private String getJwtToken() throws Exception {
-        RSAPrivateKey privateRSA = null;
-        String token = null;
-        privateRSA = readPrivateKey(new File(pemLocation));
-
-        Algorithm algorithm = Algorithm.RSA256(null, privateRSA);
-        token = JWT.create()
-                .withIssuer(appIdentifier)
-                .withExpiresAt(new Date((new Date()).getTime() + 5*60000))
-                .withIssuedAt(new Date((new Date()).getTime() - 1*60000))
-                .sign(algorithm);
-
-        return token;
-    }
-
-    // Taken from the web: https://www.baeldung.com/java-read-pem-file-keys
-    private RSAPrivateKey readPrivateKey(File file) throws Exception {
-        KeyFactory factory = KeyFactory.getInstance("RSA");
-
-        try (FileReader keyReader = new FileReader(file);
-             PemReader pemReader = new PemReader(keyReader)) {
-
-            PemObject pemObject = pemReader.readPemObject();
-            byte[] content = pemObject.getContent();
-            PKCS8EncodedKeySpec privKeySpec = new PKCS8EncodedKeySpec(content);
-            return (RSAPrivateKey) factory.generatePrivate(privKeySpec);
-        }
-    }
-
-    private void createInstallationToken() throws Exception {
-        String url = "https://api.github.com/app/installations/" + appInstallationId + "/access_tokens";
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
-
-        String jwtToken = getJwtToken();
-        headers.setBearerAuth(jwtToken);
-
-        Map<String, Object> map = new HashMap<>();
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(map, headers);
-        RestTemplate restTemplate = new RestTemplate();
-        ResponseEntity<JsonNode> response = null;
-
-        response = restTemplate.postForEntity(url, entity, JsonNode.class);
-        token = response.getBody().findValue("token").toString();
-
-        if (token != null) {
-            token = token.replaceAll("\"", "");
-        } else {
-            throw new Exception("Could not fetch token: " + response.getBody());
-        }
-    }
-
-    private File getCloneDirectory() {
-        DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm-ss");
-        LocalDateTime now = LocalDateTime.now();
-        String name = dtf.format(now);
-        return new File(repoCloneBaseDirectory, name);
+        return githubRestTemplate.postForEntity(url, entity, JsonNode.class);
     }
 }
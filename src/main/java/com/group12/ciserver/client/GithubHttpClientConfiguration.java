@@ -0,0 +1,79 @@
+package com.group12.ciserver.client;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the HTTP client used for all calls to the GitHub API.
+ * <p>
+ * Connections are pooled and kept alive between calls, so a pipeline's status updates reuse the TLS connection of
+ * earlier calls instead of doing a new handshake for every call.
+ */
+@Configuration
+public class GithubHttpClientConfiguration {
+
+    @Value("${githubclient.http.max-connections:20}")
+    private int maxConnections;
+
+    @Value("${githubclient.http.max-connections-per-host:10}")
+    private int maxConnectionsPerHost;
+
+    @Value("${githubclient.http.connect-timeout-ms:5000}")
+    private int connectTimeoutMillis;
+
+    @Value("${githubclient.http.read-timeout-ms:10000}")
+    private int readTimeoutMillis;
+
+    @Value("${githubclient.http.idle-timeout-ms:60000}")
+    private long idleTimeoutMillis;
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient githubHttpClient() {
+        return createHttpClient(maxConnections, maxConnectionsPerHost, connectTimeoutMillis, readTimeoutMillis,
+                idleTimeoutMillis);
+    }
+
+    @Bean
+    public RestTemplate githubRestTemplate(CloseableHttpClient githubHttpClient) {
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(githubHttpClient));
+    }
+
+    /**
+     * @param maxConnections maximum number of open connections
+     * @param maxConnectionsPerHost maximum number of open connections to one host
+     * @param connectTimeoutMillis timeout for connecting, and for waiting for a free connection when the pool is full
+     * @param readTimeoutMillis timeout for reading the response
+     * @param idleTimeoutMillis connections that have been idle this long are closed
+     */
+    static CloseableHttpClient createHttpClient(int maxConnections, int maxConnectionsPerHost,
+                                                int connectTimeoutMillis, int readTimeoutMillis,
+                                                long idleTimeoutMillis) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+        // A connection closed by GitHub while idle in the pool is detected before it is used again
+        connectionManager.setValidateAfterInactivity(2000);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setConnectionRequestTimeout(connectTimeoutMillis)
+                .setSocketTimeout(readTimeoutMillis)
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+}
@@ -0,0 +1,243 @@
+package com.group12.ciserver.client;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.util.io.pem.PemObject;
+import org.bouncycastle.util.io.pem.PemReader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.FileReader;
+import java.security.KeyFactory;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides the installation token of the GitHub App, which authenticates the calls to the GitHub API.
+ * <p>
+ * The token is fetched on first use and then refreshed in the background some time before it expires, so calls
+ * normally never wait for a token. When several threads need a new token at the same time, only one of them fetches
+ * it and the others wait for its result. The private key of the app is read from the PEM file once.
+ */
+@Component
+@Slf4j
+public class GithubTokenManager {
+
+    /**
+     * Used when GitHub does not say when a token expires. Installation tokens are valid for one hour.
+     */
+    private static final Duration DEFAULT_LIFETIME = Duration.ofMinutes(60);
+
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(30);
+
+    private static final Duration MIN_REFRESH_DELAY = Duration.ofSeconds(1);
+
+    private final RestTemplate githubRestTemplate;
+
+    private final String apiUrl;
+
+    private final String appInstallationId;
+
+    private final String appIdentifier;
+
+    private final String pemLocation;
+
+    private final Duration refreshAhead;
+
+    /**
+     * A token that expires within this time is not handed out, so it does not expire during the call.
+     */
+    private final Duration minValidity;
+
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "github-token-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Object refreshLock = new Object();
+
+    private volatile InstallationToken current;
+
+    /**
+     * Guarded by refreshLock.
+     */
+    private Algorithm signingAlgorithm;
+
+    /**
+     * Guarded by refreshLock.
+     */
+    private ScheduledFuture<?> scheduledRefresh;
+
+    @Autowired
+    public GithubTokenManager(RestTemplate githubRestTemplate,
+                              @Value("${githubclient.api-url:https://api.github.com}") String apiUrl,
+                              @Value("${githubclient.app-installation-id}") String appInstallationId,
+                              @Value("${githubclient.app-identifier}") String appIdentifier,
+                              @Value("${githubclient.pem-location}") String pemLocation,
+                              @Value("${githubclient.token.refresh-ahead-ms:600000}") long refreshAheadMillis,
+                              @Value("${githubclient.token.min-validity-ms:60000}") long minValidityMillis) {
+        java.security.Security.addProvider(
+            new org.bouncycastle.jce.provider.BouncyCastleProvider()
+        );
+        this.githubRestTemplate = githubRestTemplate;
+        this.apiUrl = apiUrl;
+        this.appInstallationId = appInstallationId;
+        this.appIdentifier = appIdentifier;
+        this.pemLocation = pemLocation;
+        this.refreshAhead = Duration.ofMillis(refreshAheadMillis);
+        this.minValidity = Duration.ofMillis(minValidityMillis);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    /**
+     * Returns a valid installation token, fetching a new one from GitHub only if there is none or it is about to
+     * expire.
+     *
+     * @return The installation token.
+     * @throws Exception is thrown if a new token is needed and cannot be fetched.
+     */
+    public String getToken() throws Exception {
+        InstallationToken token = current;
+        if (token == null || !token.isValidFor(minValidity)) {
+            token = refresh(minValidity);
+        }
+        return token.value;
+    }
+
+    /**
+     * Fetches a new token unless the current one is valid for at least the given time. Callers that wait for the lock
+     * while another thread fetches a token get that token.
+     */
+    private InstallationToken refresh(Duration validFor) throws Exception {
+        synchronized (refreshLock) {
+            InstallationToken token = current;
+            if (token != null && token.isValidFor(validFor)) {
+                return token;
+            }
+            token = createInstallationToken();
+            current = token;
+            log.info("Fetched GitHub installation token, expiresAt={}", token.expiresAt);
+            // A token that lives shorter than refreshAhead is refreshed halfway through its lifetime instead
+            Duration lifetime = Duration.between(Instant.now(), token.expiresAt);
+            Duration ahead = refreshAhead.compareTo(lifetime.dividedBy(2)) < 0 ? refreshAhead : lifetime.dividedBy(2);
+            Duration untilRefresh = lifetime.minus(ahead);
+            scheduleRefresh(untilRefresh.compareTo(MIN_REFRESH_DELAY) < 0 ? MIN_REFRESH_DELAY : untilRefresh);
+            return token;
+        }
+    }
+
+    private void refreshInBackground() {
+        try {
+            refresh(refreshAhead);
+        } catch (Exception e) {
+            log.warn("Failed to refresh GitHub installation token, retrying in {} s, error={}",
+                    RETRY_DELAY.toSeconds(), e.getMessage());
+            synchronized (refreshLock) {
+                scheduleRefresh(RETRY_DELAY);
+            }
+        }
+    }
+
+    // Must hold refreshLock
+    private void scheduleRefresh(Duration delay) {
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+        }
+        scheduledRefresh = refresher.schedule(this::refreshInBackground, delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Must hold refreshLock
+    private InstallationToken createInstallationToken() throws Exception {
+        String url = apiUrl + "/app/installations/" + appInstallationId + "/access_tokens";
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+        headers.setBearerAuth(getJwtToken());
+
+        HttpEntity<HashMap<String, Object>> entity = new HttpEntity<>(new HashMap<>(), headers);
+        ResponseEntity<JsonNode> response = githubRestTemplate.postForEntity(url, entity, JsonNode.class);
+        JsonNode body = response.getBody();
+        String token = body != null ? body.path("token").asText(null) : null;
+        if (token == null) {
+            throw new Exception("Could not fetch token: " + body);
+        }
+
+        Instant expiresAt = Instant.now().plus(DEFAULT_LIFETIME);
+        String expiresAtText = body.path("expires_at").asText(null);
+        if (expiresAtText != null) {
+            try {
+                expiresAt = Instant.parse(expiresAtText);
+            } catch (DateTimeParseException e) {
+                log.warn("Unexpected expires_at of GitHub installation token, expiresAt={}", expiresAtText);
+            }
+        }
+        return new InstallationToken(token, expiresAt);
+    }
+
+    // Must hold refreshLock
+    private String getJwtToken() throws Exception {
+        if (signingAlgorithm == null) {
+            signingAlgorithm = Algorithm.RSA256(null, readPrivateKey(new File(pemLocation)));
+        }
+        return JWT.create()
+                .withIssuer(appIdentifier)
+                .withExpiresAt(new Date((new Date()).getTime() + 5*60000))
+                .withIssuedAt(new Date((new Date()).getTime() - 1*60000))
+                .sign(signingAlgorithm);
+    }
+
+    // Taken from the web: https://www.baeldung.com/java-read-pem-file-keys
+    private RSAPrivateKey readPrivateKey(File file) throws Exception {
+        KeyFactory factory = KeyFactory.getInstance("RSA");
+
+        try (FileReader keyReader = new FileReader(file);
+             PemReader pemReader = new PemReader(keyReader)) {
+
+            PemObject pemObject = pemReader.readPemObject();
+            byte[] content = pemObject.getContent();
+            PKCS8EncodedKeySpec privKeySpec = new PKCS8EncodedKeySpec(content);
+            return (RSAPrivateKey) factory.generatePrivate(privKeySpec);
+        }
+    }
+
+    private static class InstallationToken {
+
+        private final String value;
+
+        private final Instant expiresAt;
+
+        InstallationToken(String value, Instant expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isValidFor(Duration duration) {
+            return expiresAt.isAfter(Instant.now().plus(duration));
+        }
+    }
+}
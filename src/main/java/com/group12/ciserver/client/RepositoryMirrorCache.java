@@ -0,0 +1,255 @@
+package com.group12.ciserver.client;
+
+import com.group12.ciserver.model.github.PushEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.util.FileUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Keeps a bare mirror of every repository that has been built, so that a build only has to fetch the commits that
+ * are new since the previous build of the same repository.
+ * <p>
+ * Build directories do not get their own copy of the objects. They are initialised with an
+ * <code>objects/info/alternates</code> file that points at the mirror, so a checkout only writes the working tree.
+ * <p>
+ * Fetching into a mirror takes its write lock and checking out from it takes its read lock, so several builds of the
+ * same repository can check out at the same time. Mirrors that have not been used recently are evicted when the cache
+ * grows beyond its size or count limit.
+ * <p>
+ * A directory needs its mirror for as long as it exists, not only during the checkout: builds, the build output cache
+ * and the test impact analysis all read objects through the alternates file. Checking out pins the mirror for the
+ * directory until {@link #release(File)} is called once the directory is deleted, and pinned mirrors are never
+ * evicted.
+ */
+@Component
+@Slf4j
+public class RepositoryMirrorCache {
+
+    private static final String MIRROR_DIRECTORY = "mirrors";
+
+    @Value("${githubclient.repo-clone-base-directory}")
+    private String repoCloneBaseDirectory;
+
+    @Value("${githubclient.mirror-cache.max-size-mb:10240}")
+    private long maxSizeMb;
+
+    @Value("${githubclient.mirror-cache.max-mirrors:50}")
+    private int maxMirrors;
+
+    private final Map<String, Mirror> mirrors = new ConcurrentHashMap<>();
+
+    /**
+     * The mirror every checked out directory uses, by the absolute path of the directory.
+     */
+    private final Map<File, Mirror> pins = new ConcurrentHashMap<>();
+
+    public RepositoryMirrorCache() {
+    }
+
+    RepositoryMirrorCache(String repoCloneBaseDirectory, long maxSizeMb, int maxMirrors) {
+        this.repoCloneBaseDirectory = repoCloneBaseDirectory;
+        this.maxSizeMb = maxSizeMb;
+        this.maxMirrors = maxMirrors;
+        loadExistingMirrors();
+    }
+
+    /**
+     * Registers the mirrors that are already on disk, so that they are reused and can be evicted.
+     */
+    @PostConstruct
+    void loadExistingMirrors() {
+        File[] owners = getMirrorBaseDirectory().listFiles(File::isDirectory);
+        if (owners == null) {
+            return;
+        }
+        for (File owner : owners) {
+            File[] repositories = owner.listFiles(file -> file.isDirectory() && file.getName().endsWith(".git"));
+            if (repositories == null) {
+                continue;
+            }
+            for (File repository : repositories) {
+                Mirror mirror = new Mirror(repository);
+                mirror.lastUsed = repository.lastModified();
+                mirror.sizeBytes = sizeOf(repository.toPath());
+                mirrors.put(owner.getName() + "/" + repository.getName(), mirror);
+            }
+        }
+        log.info("Loaded {} repository mirrors", mirrors.size());
+    }
+
+    /**
+     * Checks out the commit of the push event into a directory. The mirror of the repository is created or updated
+     * first if it does not contain the commit yet.
+     *
+     * @param pushEvent The {@link PushEvent} that contains information about the push event.
+     * @param directory The directory to check out to. It is initialised as a repository if it is not one already,
+     *                  otherwise untracked files that are not ignored are removed. It keeps the mirror from being
+     *                  evicted until it is released with {@link #release(File)}.
+     * @throws GitAPIException is thrown if the fetch or checkout fails.
+     * @throws IOException is thrown if the mirror or the directory cannot be written.
+     */
+    public void checkout(PushEvent pushEvent, File directory) throws GitAPIException, IOException {
+        Mirror mirror = getMirror(pushEvent, directory);
+        ObjectId commit = ObjectId.fromString(pushEvent.getAfter());
+
+        mirror.lock.writeLock().lock();
+        try {
+            fetchIfMissing(mirror, pushEvent.getRepository().getCloneUrl(), commit);
+            // Downgrade to the read lock so that other builds of this repository can check out concurrently
+            mirror.lock.readLock().lock();
+        } finally {
+            mirror.lock.writeLock().unlock();
+        }
+        try {
+            checkoutFromMirror(mirror, pushEvent, commit, directory);
+        } finally {
+            mirror.lock.readLock().unlock();
+        }
+        evictIfNeeded(mirror);
+    }
+
+    /**
+     * Releases the mirror a directory was checked out from, once the directory has been deleted, so the mirror can
+     * be evicted again.
+     */
+    public void release(File directory) {
+        pins.remove(directory.getAbsoluteFile());
+    }
+
+    /**
+     * Finds the mirror of the repository and pins it for the directory. Synchronized with the eviction, so a mirror
+     * is either pinned or evicted.
+     */
+    private synchronized Mirror getMirror(PushEvent pushEvent, File directory) {
+        String owner = pushEvent.getRepository().getOwner().getName();
+        String name = pushEvent.getRepository().getName() + ".git";
+        Mirror mirror = mirrors.computeIfAbsent(owner + "/" + name,
+                key -> new Mirror(new File(new File(getMirrorBaseDirectory(), owner), name)));
+        mirror.lastUsed = System.currentTimeMillis();
+        pins.put(directory.getAbsoluteFile(), mirror);
+        return mirror;
+    }
+
+    private void fetchIfMissing(Mirror mirror, String cloneUrl, ObjectId commit) throws GitAPIException, IOException {
+        if (!mirror.directory.exists()) {
+            log.info("Creating mirror, directory={}", mirror.directory);
+            Git.init().setBare(true).setDirectory(mirror.directory).call().close();
+        }
+        try (Git git = Git.open(mirror.directory)) {
+            if (git.getRepository().getObjectDatabase().has(commit)) {
+                return;
+            }
+            log.info("Fetching into mirror, directory={}", mirror.directory);
+            git.fetch()
+                    .setRemote(cloneUrl)
+                    .setRefSpecs(new RefSpec("+refs/heads/*:refs/heads/*"), new RefSpec("+refs/tags/*:refs/tags/*"))
+                    .call();
+        }
+        mirror.sizeBytes = sizeOf(mirror.directory.toPath());
+    }
+
+    private void checkoutFromMirror(Mirror mirror, PushEvent pushEvent, ObjectId commit, File directory)
+            throws GitAPIException, IOException {
+        if (!new File(directory, Constants.DOT_GIT).exists()) {
+            Git.init().setDirectory(directory).call().close();
+        }
+        Path alternates = directory.toPath().resolve(Constants.DOT_GIT).resolve("objects/info/alternates");
+        Files.createDirectories(alternates.getParent());
+        Files.writeString(alternates, new File(mirror.directory, "objects").getAbsolutePath() + "\n",
+                StandardCharsets.UTF_8);
+
+        try (Git git = Git.open(directory)) {
+            git.checkout().setName(commit.name()).setForced(true).call();
+            git.clean().setCleanDirectories(true).call();
+            if (pushEvent.getRef().startsWith(Constants.R_HEADS)) {
+                Repository repository = git.getRepository();
+                RefUpdate branchUpdate = repository.updateRef(pushEvent.getRef());
+                branchUpdate.setNewObjectId(commit);
+                branchUpdate.setForceUpdate(true);
+                branchUpdate.update();
+                repository.updateRef(Constants.HEAD).link(pushEvent.getRef());
+            }
+        }
+    }
+
+    private synchronized void evictIfNeeded(Mirror current) {
+        long maxSizeBytes = maxSizeMb * 1024 * 1024;
+        List<Map.Entry<String, Mirror>> candidates = new ArrayList<>(mirrors.entrySet());
+        candidates.sort(Comparator.comparingLong(entry -> entry.getValue().lastUsed));
+        long totalSize = candidates.stream().mapToLong(entry -> entry.getValue().sizeBytes).sum();
+        int count = candidates.size();
+        for (Map.Entry<String, Mirror> entry : candidates) {
+            if (totalSize <= maxSizeBytes && count <= maxMirrors) {
+                return;
+            }
+            Mirror mirror = entry.getValue();
+            if (mirror == current || pins.containsValue(mirror) || !mirror.lock.writeLock().tryLock()) {
+                continue;
+            }
+            try {
+                if (mirror.lock.hasQueuedThreads()) {
+                    continue;
+                }
+                log.info("Evicting mirror, directory={}, sizeBytes={}", mirror.directory, mirror.sizeBytes);
+                mirrors.remove(entry.getKey(), mirror);
+                FileUtils.delete(mirror.directory, FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+                totalSize -= mirror.sizeBytes;
+                count--;
+            } catch (IOException e) {
+                log.error("Failed to evict mirror, directory={}", mirror.directory, e);
+            } finally {
+                mirror.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private File getMirrorBaseDirectory() {
+        return new File(repoCloneBaseDirectory, MIRROR_DIRECTORY);
+    }
+
+    private static long sizeOf(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        } catch (IOException | UncheckedIOException e) {
+            return 0;
+        }
+    }
+
+    private static class Mirror {
+
+        private final File directory;
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private volatile long lastUsed;
+
+        private volatile long sizeBytes;
+
+        Mirror(File directory) {
+            this.directory = directory;
+        }
+    }
+}
@@ -1,43 +1,195 @@
 package com.group12.ciserver.controller;
 
 
-import com.group12.ciserver.model.github.PushEvent;
-import com.group12.ciserver.service.CIService;
+import com.group12.ciserver.database.WebhookInbox;
+import com.group12.ciserver.metrics.MetricsRegistry;
+import com.group12.ciserver.model.BuildSummary;
+import com.group12.ciserver.model.FlakyTest;
+import com.group12.ciserver.model.SlowTest;
+import com.group12.ciserver.model.TestResult;
+import com.group12.ciserver.model.TestStatus;
+import com.group12.ciserver.model.ci.BuildQueueStats;
+import com.group12.ciserver.model.ci.DependencyCacheStats;
+import com.group12.ciserver.model.github.CommitState;
+import com.group12.ciserver.service.BuildScheduler;
+import com.group12.ciserver.service.DependencyCache;
+import com.group12.ciserver.service.LiveLogBroadcaster;
+import com.group12.ciserver.service.WebhookAdmissionFilter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
 
-import com.group12.ciserver.database.DatabaseWrapper;
+import com.group12.ciserver.database.BuildStore;
 import com.group12.ciserver.model.BuildInfo;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 
 @RestController
 @Slf4j
 public class EventController {
 
+    private static final int DEFAULT_HISTORY_PAGE_SIZE = 50;
+
+    private static final int MAX_HISTORY_PAGE_SIZE = 500;
+
+    private static final int DEFAULT_TEST_STATS_BUILDS = 50;
+
+    private static final int MAX_TEST_STATS_BUILDS = 1000;
+
+    private static final int DEFAULT_TEST_STATS_SIZE = 20;
+
+    @Autowired
+    private BuildScheduler buildScheduler;
+
+    @Autowired
+    private BuildStore buildStore;
+
     @Autowired
-    private CIService ciService;
+    private LiveLogBroadcaster liveLogBroadcaster;
 
     @Autowired
-    private DatabaseWrapper databaseWrapper;
+    private WebhookInbox webhookInbox;
 
+    @Autowired
+    private WebhookAdmissionFilter webhookAdmissionFilter;
+
+    @Autowired
+    private DependencyCache dependencyCache;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    /**
+     * Stores a push event in the {@link WebhookInbox} and returns, the build is queued by
+     * {@link com.group12.ciserver.service.WebhookDispatcher}. An event that GitHub redelivers is only built once.
+     * <p>
+     * Events that cannot lead to a build are dropped by the {@link WebhookAdmissionFilter} first.
+     */
     @PostMapping("/push-events")
-    public ResponseEntity<Void> pushEvent(@RequestBody PushEvent pushEvent) {
-        log.info("Received push event, pushEvent={}", pushEvent);
-        ciService.startCIPipeline(pushEvent);
-        return ResponseEntity.noContent().build();
+    public ResponseEntity<Void> pushEvent(@RequestHeader(value = "X-GitHub-Delivery", required = false)
+                                                  String deliveryId,
+                                          @RequestHeader(value = "X-GitHub-Event", required = false) String event,
+                                          @RequestHeader(value = "X-Hub-Signature-256", required = false)
+                                                  String signature,
+                                          @RequestBody byte[] payload) {
+        if (deliveryId != null && deliveryId.length() > WebhookInbox.MAX_DELIVERY_ID_LENGTH) {
+            System.err.println("Bad delivery ID: " + deliveryId.substring(0, 40) + "...");
+            return ResponseEntity.badRequest().build();
+        }
+        WebhookAdmissionFilter.Admission admission = webhookAdmissionFilter.admit(event, signature, payload);
+        switch (admission) {
+            case ACCEPTED:
+                break;
+            case BAD_SIGNATURE:
+                log.warn("Rejecting webhook with bad signature, deliveryId={}", deliveryId);
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+            case MALFORMED:
+                System.err.println("Bad push event, deliveryId=" + deliveryId);
+                return ResponseEntity.badRequest().build();
+            default:
+                log.debug("Dropping webhook event, deliveryId={}, reason={}", deliveryId, admission);
+                return ResponseEntity.noContent().build();
+        }
+
+        switch (webhookInbox.append(deliveryId, new String(payload, StandardCharsets.UTF_8))) {
+            case ACCEPTED:
+                log.info("Received push event, deliveryId={}", deliveryId);
+                return ResponseEntity.noContent().build();
+            case DUPLICATE:
+                log.info("Ignoring redelivered push event, deliveryId={}", deliveryId);
+                return ResponseEntity.noContent().build();
+            case FULL:
+                log.warn("Webhook inbox is full, rejecting deliveryId={}", deliveryId);
+                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+            default:
+                return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Returns how many webhook events were built or dropped by the {@link WebhookAdmissionFilter}, per reason.
+     */
+    @GetMapping("/push-events/stats")
+    @ResponseBody
+    public Map<WebhookAdmissionFilter.Admission, Long> pushEventStats() {
+        return webhookAdmissionFilter.getCounts();
+    }
+
+    @GetMapping("/queue")
+    @ResponseBody
+    public BuildQueueStats buildQueue() {
+        return buildScheduler.getStats();
+    }
+
+    /**
+     * Returns the size of the shared dependency cache and what builds downloaded since the server started.
+     */
+    @GetMapping("/dependency-cache/stats")
+    @ResponseBody
+    public DependencyCacheStats dependencyCacheStats() {
+        return dependencyCache.getStats();
     }
 
+    /**
+     * Returns the metrics of the server in the Prometheus text format, for Prometheus to scrape.
+     */
+    @GetMapping(path = "/metrics", produces = "text/plain; version=0.0.4; charset=utf-8")
+    @ResponseBody
+    public String metrics() {
+        return metricsRegistry.scrape();
+    }
+
+    /**
+     * Returns a page of the build history, newest build first. Only the summary of each build is returned, the log
+     * of a build is fetched through <code>/history/{buildId}</code>.
+     * <p>
+     * When the page is full, the <code>Link</code> header points at the next page.
+     */
     @GetMapping("/history")
     @ResponseBody
-    public ArrayList<BuildInfo> buildHistory() {
-        return databaseWrapper.getAllBuilds();
+    public ResponseEntity<List<BuildSummary>> buildHistory(@RequestParam(required = false) String repository,
+                                                           @RequestParam(required = false) String branch,
+                                                           @RequestParam(required = false) String status,
+                                                           @RequestParam(required = false) Long before,
+                                                           @RequestParam(defaultValue = "" + DEFAULT_HISTORY_PAGE_SIZE)
+                                                                   int limit) {
+        CommitState commitState = null;
+        if (status != null) {
+            try {
+                commitState = CommitState.valueOf(status.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Bad build status: " + status);
+                return ResponseEntity.badRequest().build();
+            }
+        }
+        int pageSize = Math.max(1, Math.min(limit, MAX_HISTORY_PAGE_SIZE));
+
+        List<BuildSummary> builds = buildStore.getBuildSummaries(repository, branch, commitState, before,
+                pageSize);
+        if (builds == null) {
+            return ResponseEntity.internalServerError().build();
+        }
+        if (builds.size() < pageSize) {
+            return ResponseEntity.ok(builds);
+        }
+        String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                .replaceQueryParam("before", builds.get(builds.size() - 1).getUid())
+                .replaceQueryParam("limit", pageSize)
+                .toUriString();
+        return ResponseEntity.ok().header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"").body(builds);
     }
 
     @GetMapping("/history/{buildId}")
@@ -52,7 +204,7 @@ public class EventController {
         }
 
         // Query database for the buildId
-        BuildInfo b = databaseWrapper.getBuildInfo(uid);
+        BuildInfo b = buildStore.getBuildInfo(uid);
 
         if (b != null)
         {
@@ -62,4 +214,94 @@ public class EventController {
         }
 
     }
+
+    /**
+     * Returns the results of the tests a build ran, read from its surefire reports, optionally only those with the
+     * given status, e.g. <code>failed</code>.
+     */
+    @GetMapping("/history/{buildId}/tests")
+    @ResponseBody
+    public ResponseEntity<List<TestResult>> buildTests(@PathVariable String buildId,
+                                                       @RequestParam(required = false) String status) {
+        long uid;
+        TestStatus testStatus = null;
+        try {
+            uid = Long.parseLong(buildId);
+            if (status != null) {
+                testStatus = TestStatus.valueOf(status.toUpperCase(Locale.ROOT));
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Bad build ID or test status: " + e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (!buildStore.buildExists(uid)) {
+            return ResponseEntity.notFound().build();
+        }
+        List<TestResult> results = buildStore.getTestResults(uid, testStatus);
+        if (results == null) {
+            return ResponseEntity.internalServerError().build();
+        }
+        return ResponseEntity.ok(results);
+    }
+
+    /**
+     * Returns the tests of a repository that took the longest on average in its newest builds.
+     */
+    @GetMapping("/tests/slowest")
+    @ResponseBody
+    public ResponseEntity<List<SlowTest>> slowestTests(@RequestParam String repository,
+                                                       @RequestParam(defaultValue = "" + DEFAULT_TEST_STATS_BUILDS)
+                                                               int builds,
+                                                       @RequestParam(defaultValue = "" + DEFAULT_TEST_STATS_SIZE)
+                                                               int limit) {
+        int buildCount = Math.max(1, Math.min(builds, MAX_TEST_STATS_BUILDS));
+        List<SlowTest> tests = buildStore.getSlowestTests(repository, buildCount,
+                Math.max(1, Math.min(limit, MAX_HISTORY_PAGE_SIZE)));
+        if (tests == null) {
+            return ResponseEntity.internalServerError().build();
+        }
+        return ResponseEntity.ok(tests);
+    }
+
+    /**
+     * Returns the tests of a repository that both passed and failed on the same commit, or needed a rerun to pass, in
+     * its newest builds.
+     */
+    @GetMapping("/tests/flaky")
+    @ResponseBody
+    public ResponseEntity<List<FlakyTest>> flakyTests(@RequestParam String repository,
+                                                      @RequestParam(defaultValue = "" + DEFAULT_TEST_STATS_BUILDS)
+                                                              int builds,
+                                                      @RequestParam(defaultValue = "" + DEFAULT_TEST_STATS_SIZE)
+                                                              int limit) {
+        int buildCount = Math.max(1, Math.min(builds, MAX_TEST_STATS_BUILDS));
+        List<FlakyTest> tests = buildStore.getFlakyTests(repository, buildCount,
+                Math.max(1, Math.min(limit, MAX_HISTORY_PAGE_SIZE)));
+        if (tests == null) {
+            return ResponseEntity.internalServerError().build();
+        }
+        return ResponseEntity.ok(tests);
+    }
+
+    @GetMapping(path = "/history/{buildId}/log/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> buildLogStream(@PathVariable String buildId,
+                                                     @RequestParam(required = false) Long offset,
+                                                     @RequestHeader(value = "Last-Event-ID", required = false)
+                                                             String lastEventId) {
+        long uid;
+        long startOffset;
+        try {
+            uid = Long.parseLong(buildId);
+            startOffset = lastEventId != null ? Long.parseLong(lastEventId) : (offset != null ? offset : 0);
+        } catch (NumberFormatException e) {
+            System.err.println("Bad format for build ID or offset: " + e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (!buildStore.buildExists(uid)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(liveLogBroadcaster.subscribe(uid, Math.max(0, startOffset)));
+    }
 }
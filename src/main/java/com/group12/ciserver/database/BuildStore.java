@@ -0,0 +1,182 @@
+package com.group12.ciserver.database;
+
+import com.group12.ciserver.model.BuildInfo;
+import com.group12.ciserver.model.BuildSummary;
+import com.group12.ciserver.model.FlakyTest;
+import com.group12.ciserver.model.SlowTest;
+import com.group12.ciserver.model.TestResult;
+import com.group12.ciserver.model.TestStatus;
+import com.group12.ciserver.model.github.CommitState;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the history of builds and their logs.
+ * <p>
+ * {@link DatabaseWrapper} stores the history in a local SQLite file. {@link PostgresBuildStore} stores it in a
+ * PostgreSQL database that several servers can share. The store is selected with <code>ciserver.storage.type</code>,
+ * see {@link BuildStoreConfiguration}.
+ */
+public interface BuildStore {
+
+    /**
+     * Add a build.
+     * @param b BuildInfo object to be stored. The object's uid property is ignored.
+     * @return unique identifier assigned by the store to the build if successful, otherwise -1
+     */
+    long addBuild(BuildInfo b);
+
+    /**
+     * Record the result of a build when its pipeline has finished.
+     * @param uid unique identifier of the build
+     * @param status the final status of the build
+     * @param durationMillis wall-clock time of the pipeline in milliseconds
+     * @return true if the operation was successful, otherwise false
+     */
+    boolean finishBuild(long uid, CommitState status, long durationMillis);
+
+    /**
+     * Record what the processes of a build used.
+     * @param uid unique identifier of the build
+     * @param peakMemoryBytes highest memory use of the build in bytes, or null if unknown
+     * @param cpuTimeMillis CPU time of the build in milliseconds, or null if unknown
+     * @return true if the operation was successful, otherwise false
+     */
+    boolean setResourceUsage(long uid, Long peakMemoryBytes, Long cpuTimeMillis);
+
+    /**
+     * Record the inputs of a build, so that later builds of the same inputs can reuse its result.
+     * @param uid unique identifier of the build
+     * @param inputKey identifies the source tree and pipeline definition of the build, see BuildOutputCache
+     * @return true if the operation was successful, otherwise false
+     */
+    boolean setInputKey(long uid, String inputKey);
+
+    /**
+     * Find the newest successful build of a repository with the given inputs.
+     * @param repository the repository, e.g. DD2480-G12/a2-ci-server
+     * @param inputKey identifies the source tree and pipeline definition of the build
+     * @return unique identifier of the build, or null if there is none or the query failed
+     */
+    Long findSuccessfulBuild(String repository, String inputKey);
+
+    /**
+     * Store the results of the tests a build ran, in one batch.
+     * @param buildId unique identifier of the build
+     * @param results the results read from the surefire reports of the build
+     * @return true if the operation was successful, otherwise false
+     */
+    boolean addTestResults(long buildId, List<TestResult> results);
+
+    /**
+     * Get the results of the tests a build ran, ordered by class and test name.
+     * @param buildId unique identifier of the build
+     * @param status only return results with this status, or null for all
+     * @return list of TestResult objects, or null if the query failed
+     */
+    List<TestResult> getTestResults(long buildId, TestStatus status);
+
+    /**
+     * Get the tests that took the longest on average in the newest builds of a repository. Skipped tests are ignored.
+     * @param repository the repository, e.g. DD2480-G12/a2-ci-server
+     * @param builds number of newest builds of the repository to look at
+     * @param limit maximum number of tests to return
+     * @return list of SlowTest objects, slowest first, or null if the query failed
+     */
+    List<SlowTest> getSlowestTests(String repository, int builds, int limit);
+
+    /**
+     * Get how long the test classes of a repository took on average in its newest builds that ran them.
+     * @param repository the repository, e.g. DD2480-G12/a2-ci-server
+     * @param builds number of newest builds of the repository to look at
+     * @return milliseconds by fully qualified test class name, or null if the query failed
+     */
+    Map<String, Long> getTestClassDurations(String repository, int builds);
+
+    /**
+     * Get the tests that both passed and failed on the same commit, or only passed when they were run again, in the
+     * newest builds of a repository.
+     * @param repository the repository, e.g. DD2480-G12/a2-ci-server
+     * @param builds number of newest builds of the repository to look at
+     * @param limit maximum number of tests to return
+     * @return list of FlakyTest objects, most often flaky first, or null if the query failed
+     */
+    List<FlakyTest> getFlakyTests(String repository, int builds, int limit);
+
+    /**
+     * Append a chunk to the log of a build.
+     * @param buildId unique identifier of the build
+     * @param seq sequence number of the chunk, starting at 0 for the first chunk of the log
+     * @param startOffset offset in characters of the first character of the chunk within the whole log
+     * @param content the text of the chunk
+     * @return true if the operation was successful, otherwise false
+     */
+    boolean appendLogChunk(long buildId, int seq, long startOffset, String content);
+
+    /**
+     * Check if a build exists without reading its log.
+     * @param uid unique identifier of requested build
+     * @return true if the build exists, otherwise false
+     */
+    boolean buildExists(long uid);
+
+    /**
+     * Get a part of the log of a build. Only the chunks overlapping the requested range are read.
+     * @param uid unique identifier of requested build
+     * @param from offset in characters of the first character to return
+     * @param to offset in characters after the last character to return
+     * @return the characters of the log in the range, fewer if the log is shorter, or null if the query failed
+     */
+    String getLogRange(long uid, long from, long to);
+
+    /**
+     * Remove a build and its log.
+     * @param uid unique identifier of requested build
+     * @return true if the operation was successful, otherwise false
+     */
+    boolean removeBuild(long uid);
+
+    /**
+     * Edit the content associated with a build. The content replaces the streamed log of the build.
+     * @param uid unique identifier of requested build
+     * @param content content string to replace previous content
+     * @return true if the operation was successful, otherwise false
+     */
+    boolean editBuildContent(long uid, String content);
+
+    /**
+     * Get the information stored about a build, including its whole log.
+     * @param uid unique identifier of requested build
+     * @return BuildInfo object if build is found, else null
+     */
+    BuildInfo getBuildInfo(long uid);
+
+    /**
+     * Get a page of the build history, newest build first, without the logs.
+     * <p>
+     * Pages are found by uid rather than by offset, so a page is read straight from the index no matter how far back
+     * in the history it is.
+     * @param repository only return builds of this repository, e.g. DD2480-G12/a2-ci-server, or null for all
+     * @param branch only return builds of this branch, or null for all
+     * @param status only return builds with this status, or null for all
+     * @param beforeUid only return builds with a uid lower than this, or null to start at the newest build
+     * @param limit maximum number of builds to return
+     * @return list of BuildSummary objects, or null if the query failed
+     */
+    List<BuildSummary> getBuildSummaries(String repository, String branch, CommitState status, Long beforeUid,
+                                         int limit);
+
+    /**
+     * Compress the logs of some builds that were stored before logs were compressed. Logs are readable before and
+     * after they are compressed.
+     * @param maxBuilds maximum number of builds to compress the logs of
+     * @return the number of builds whose logs were compressed, 0 when there are none left or the operation failed
+     */
+    int compressLegacyLogs(int maxBuilds);
+
+    /**
+     * Close the connections of the store.
+     */
+    void closeConnection();
+}
@@ -0,0 +1,56 @@
+package com.group12.ciserver.database;
+
+import com.group12.ciserver.metrics.MetricsRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Creates the {@link BuildStore} selected by <code>ciserver.storage.type</code>.
+ * <ul>
+ *     <li>sqlite - a local database file, for a single server</li>
+ *     <li>postgres - a PostgreSQL database that several servers share</li>
+ * </ul>
+ */
+@Configuration
+@Slf4j
+public class BuildStoreConfiguration {
+
+    @Value("${ciserver.storage.type:sqlite}")
+    private String storageType;
+
+    @Value("${ciserver.storage.sqlite.path:ci-server.db}")
+    private String sqlitePath;
+
+    @Value("${ciserver.storage.postgres.url:}")
+    private String postgresUrl;
+
+    @Value("${ciserver.storage.postgres.username:}")
+    private String postgresUsername;
+
+    @Value("${ciserver.storage.postgres.password:}")
+    private String postgresPassword;
+
+    @Value("${ciserver.storage.postgres.max-pool-size:10}")
+    private int postgresMaxPoolSize;
+
+    @Bean(destroyMethod = "closeConnection")
+    public BuildStore buildStore(MetricsRegistry metrics) {
+        switch (storageType) {
+            case "sqlite":
+                log.info("Storing build history in SQLite, path={}", sqlitePath);
+                DatabaseWrapper sqlite = new DatabaseWrapper(sqlitePath);
+                sqlite.setMetrics(metrics);
+                return sqlite;
+            case "postgres":
+                log.info("Storing build history in PostgreSQL, url={}", postgresUrl);
+                PostgresBuildStore postgres = new PostgresBuildStore(postgresUrl, postgresUsername, postgresPassword,
+                        postgresMaxPoolSize);
+                postgres.setMetrics(metrics);
+                return postgres;
+            default:
+                throw new IllegalStateException("Unknown ciserver.storage.type: " + storageType);
+        }
+    }
+}
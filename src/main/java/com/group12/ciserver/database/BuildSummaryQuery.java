@@ -0,0 +1,54 @@
+package com.group12.ciserver.database;
+
+import com.group12.ciserver.model.github.CommitState;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The query for a page of the build history, shared by the SQL build stores.
+ */
+final class BuildSummaryQuery {
+
+    static final String SUMMARY_COLUMNS = "uid, commit_hash, repository, branch, status, timestamp, duration_ms, "
+            + "peak_memory_bytes, cpu_time_ms";
+
+    private final String sql;
+
+    private final List<Object> parameters = new ArrayList<>();
+
+    BuildSummaryQuery(String repository, String branch, CommitState status, Long beforeUid, int limit) {
+        StringBuilder sql = new StringBuilder("select " + SUMMARY_COLUMNS + " from builds where 1 = 1");
+        if (repository != null) {
+            sql.append(" and repository = ?");
+            parameters.add(repository);
+        }
+        if (branch != null) {
+            sql.append(" and branch = ?");
+            parameters.add(branch);
+        }
+        if (status != null) {
+            sql.append(" and status = ?");
+            parameters.add(status.name());
+        }
+        if (beforeUid != null) {
+            sql.append(" and uid < ?");
+            parameters.add(beforeUid);
+        }
+        sql.append(" order by uid desc limit ?");
+        parameters.add(limit);
+        this.sql = sql.toString();
+    }
+
+    String getSql() {
+        return sql;
+    }
+
+    void bind(PreparedStatement statement) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            statement.setObject(i + 1, parameters.get(i));
+        }
+    }
+}
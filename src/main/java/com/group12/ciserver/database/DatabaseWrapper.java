@@ -1,7 +1,13 @@
 package com.group12.ciserver.database;
 
+import com.group12.ciserver.metrics.MetricsRegistry;
 import com.group12.ciserver.model.BuildInfo;
-import org.springframework.stereotype.Component;
+import com.group12.ciserver.model.BuildSummary;
+import com.group12.ciserver.model.FlakyTest;
+import com.group12.ciserver.model.SlowTest;
+import com.group12.ciserver.model.TestResult;
+import com.group12.ciserver.model.TestStatus;
+import com.group12.ciserver.model.github.CommitState;
 
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
@@ -9,11 +15,18 @@ import java.time.format.DateTimeParseException;
 import java.time.temporal.TemporalAccessor;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
-@Component
-public class DatabaseWrapper {
-    private Connection connection;
+/**
+ * Stores the build history in a local SQLite database file.
+ */
+public class DatabaseWrapper implements BuildStore {
+    private static final int DEFAULT_READERS = 4;
+    private final SqliteConnectionPool pool;
     private boolean isConnected = false;
+    private volatile MetricsRegistry metrics = new MetricsRegistry();
     public DatabaseWrapper()
     {
         this("ci-server.db");
@@ -21,25 +34,47 @@ public class DatabaseWrapper {
 
     /**
      * Create a database wrapper given a path to a database. The database is created if the path does not exist.
-     * Also, a connection to the database is established.
+     * Also, the connections to the database are established.
      * @param dbPath path to the database file
      */
     public DatabaseWrapper(String dbPath) {
+        this(dbPath, DEFAULT_READERS);
+    }
+
+    /**
+     * Create a database wrapper given a path to a database and the number of connections used for reading.
+     * @param dbPath path to the database file
+     * @param readers number of connections used for reading, there is always one connection for writing
+     */
+    public DatabaseWrapper(String dbPath, int readers) {
+        SqliteConnectionPool connections = null;
         try {
-            connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
-            createBuildTableIfNotExists();
+            connections = new SqliteConnectionPool(dbPath, readers);
+            connections.write(connection -> {
+                createBuildTableIfNotExists(connection.getConnection());
+                createBuildLogTableIfNotExists(connection.getConnection());
+                createTestResultTableIfNotExists(connection.getConnection());
+                return null;
+            });
             isConnected = true;
         } catch (SQLException e) {
             System.err.println(e.getMessage());
         }
+        pool = connections;
     }
 
     /**
-     * Close the connection to the database. Required to move or delete the database file.
+     * Records the latency of inserts in the metrics of the server, instead of metrics of its own.
+     * @param metrics the registry of the server
      */
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
     public void closeConnection() {
         try {
-            connection.close();
+            pool.close();
             isConnected = false;
         } catch(java.sql.SQLException e) {
             System.err.println("Closing database connection failed: " + e.getMessage());
@@ -47,165 +82,589 @@ public class DatabaseWrapper {
 
     }
 
-    private void createBuildTableIfNotExists() {
+    private static void createBuildTableIfNotExists(Connection connection) throws SQLException {
         String existCheck = "SELECT count(name) FROM sqlite_master WHERE type='table' AND name='builds'";
         String sql = """
                 CREATE TABLE builds (
                         uid INTEGER PRIMARY KEY,
                         commit_hash TEXT,
                         content TEXT,
-                        timestamp TEXT
+                        timestamp TEXT,
+                        repository TEXT,
+                        branch TEXT,
+                        status TEXT,
+                        duration_ms INTEGER,
+                        input_key TEXT,
+                        peak_memory_bytes INTEGER,
+                        cpu_time_ms INTEGER
                 );
                 """;
 
-        try {
-            Statement statement1 = connection.createStatement();
-            ResultSet rs = statement1.executeQuery(existCheck);
-            if (rs.next())
-            {
-                int exists = rs.getInt(1);
-                if (exists == 0)
-                {
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet rs = statement.executeQuery(existCheck)) {
+                if (rs.next() && rs.getInt(1) == 0) {
                     System.err.println("Added builds table as it did not exist");
-                    Statement statement2 = connection.createStatement();
-                    statement2.execute(sql);
+                    statement.execute(sql);
                 }
             }
+            addColumnIfMissing(connection, "builds", "repository", "TEXT");
+            addColumnIfMissing(connection, "builds", "branch", "TEXT");
+            addColumnIfMissing(connection, "builds", "status", "TEXT");
+            addColumnIfMissing(connection, "builds", "duration_ms", "INTEGER");
+            addColumnIfMissing(connection, "builds", "input_key", "TEXT");
+            addColumnIfMissing(connection, "builds", "peak_memory_bytes", "INTEGER");
+            addColumnIfMissing(connection, "builds", "cpu_time_ms", "INTEGER");
 
-        } catch (SQLException e) {
-            System.err.println(e.getMessage());
+            // The history is paged by descending uid, optionally filtered by repository, branch and status
+            statement.execute("CREATE INDEX IF NOT EXISTS builds_repository_branch ON builds(repository, branch, uid)");
+            statement.execute("CREATE INDEX IF NOT EXISTS builds_status ON builds(status, uid)");
+            statement.execute("CREATE INDEX IF NOT EXISTS builds_uncompressed ON builds(uid) WHERE content IS NOT NULL");
+            statement.execute("CREATE INDEX IF NOT EXISTS builds_input_key ON builds(repository, input_key, uid) "
+                    + "WHERE input_key IS NOT NULL");
+        }
+    }
+
+    private static void createTestResultTableIfNotExists(Connection connection) throws SQLException {
+        String sql = """
+                CREATE TABLE IF NOT EXISTS test_results (
+                        build_id INTEGER,
+                        class_name TEXT,
+                        name TEXT,
+                        status TEXT,
+                        duration_ms INTEGER,
+                        message TEXT
+                );
+                """;
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+            statement.execute("CREATE INDEX IF NOT EXISTS test_results_build ON test_results(build_id, status)");
         }
     }
 
     /**
-     * Add a build to the database.
-     * @param b BuildInfo object to be stored in the database. The object's uid property is ignored.
-     * @return unique identifier assigned by the database to the build if successful, otherwise -1
+     * Build logs are stored as numbered chunks, so they can be written while the build is running without keeping
+     * the whole log in memory.
      */
+    private static void createBuildLogTableIfNotExists(Connection connection) throws SQLException {
+        String sql = """
+                CREATE TABLE IF NOT EXISTS build_logs (
+                        build_id INTEGER,
+                        seq INTEGER,
+                        start_offset INTEGER,
+                        length INTEGER,
+                        content TEXT,
+                        codec INTEGER,
+                        data BLOB,
+                        PRIMARY KEY (build_id, seq)
+                );
+                """;
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+        if (addColumnIfMissing(connection, "build_logs", "start_offset", "INTEGER")) {
+            addColumnIfMissing(connection, "build_logs", "length", "INTEGER");
+            backfillLogOffsets(connection);
+        }
+        addColumnIfMissing(connection, "build_logs", "codec", "INTEGER");
+        addColumnIfMissing(connection, "build_logs", "data", "BLOB");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE INDEX IF NOT EXISTS build_logs_uncompressed ON build_logs(build_id) "
+                    + "WHERE codec IS NULL");
+        }
+    }
+
+    /**
+     * Add a column to a table that was created by an older version of the server.
+     * @return true if the column was added, false if it already existed
+     */
+    private static boolean addColumnIfMissing(Connection connection, String table, String column, String type)
+            throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet rs = statement.executeQuery("PRAGMA table_info(" + table + ")")) {
+                while (rs.next()) {
+                    if (rs.getString("name").equals(column)) {
+                        return false;
+                    }
+                }
+            }
+            System.err.println("Added column " + column + " to " + table + " as it did not exist");
+            statement.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+            return true;
+        }
+    }
+
+    private static void backfillLogOffsets(Connection connection) throws SQLException {
+        String select = "select build_id, seq, content from build_logs order by build_id, seq";
+        String update = "update build_logs set start_offset = ?, length = ? where build_id = ? and seq = ?";
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(select);
+             PreparedStatement pstmt = connection.prepareStatement(update)) {
+            long buildId = -1;
+            long offset = 0;
+            while (rs.next()) {
+                if (rs.getLong(1) != buildId) {
+                    buildId = rs.getLong(1);
+                    offset = 0;
+                }
+                int length = rs.getString(3).length();
+                pstmt.setLong(1, offset);
+                pstmt.setInt(2, length);
+                pstmt.setLong(3, buildId);
+                pstmt.setInt(4, rs.getInt(2));
+                pstmt.executeUpdate();
+                offset += length;
+            }
+        }
+    }
+
+    @Override
     public long addBuild(BuildInfo b) {
 
-        String sql = "insert into builds(commit_hash,content,timestamp) values(?,?,?)";
+        // The content is stored as compressed log chunks
+        String sql = "insert into builds(commit_hash,timestamp,repository,branch,status) values(?,?,?,?,?)";
+        long started = System.nanoTime();
         try {
-            PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-            pstmt.setString(1, b.getCommitId());
-            pstmt.setString(2, b.getContent());
-            pstmt.setString(3, offsetDateTimeToString(b.getTimestamp()));
+            return pool.write(connection -> {
+                PreparedStatement pstmt = connection.prepareReturningKeys(sql);
+                pstmt.setString(1, b.getCommitId());
+                pstmt.setString(2, offsetDateTimeToString(b.getTimestamp()));
+                pstmt.setString(3, b.getRepository());
+                pstmt.setString(4, b.getBranch());
+                pstmt.setString(5, b.getStatus() == null ? null : b.getStatus().name());
 
-            int affectedRows = pstmt.executeUpdate();
+                int affectedRows = pstmt.executeUpdate();
 
-            if (affectedRows == 1) {
-                ResultSet keys = pstmt.getGeneratedKeys();
-                if (keys.next())
-                {
-                    return keys.getLong(1);
+                if (affectedRows == 1) {
+                    try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                        if (keys.next())
+                        {
+                            long uid = keys.getLong(1);
+                            if (b.getContent() != null) {
+                                LogChunks.insertLog(connection.getConnection(), uid, b.getContent());
+                            }
+                            return uid;
+                        }
+                    }
                 }
-            }
 
-            return -1;
+                return -1L;
+            });
         } catch (SQLException e) {
             System.err.println(e.getMessage());
             return -1;
+        } finally {
+            InsertMetrics.record(metrics, "sqlite", InsertMetrics.ADD_BUILD, started);
         }
     }
 
-    /**
-     * Remove a build from the database.
-     * @param uid unique identifier of requested build
-     * @return true if the database operation was successful, otherwise false
-     */
+    @Override
+    public boolean finishBuild(long uid, CommitState status, long durationMillis) {
+        String sql = "update builds set status = ?, duration_ms = ? where uid = ?";
+        try {
+            return pool.write(connection -> {
+                PreparedStatement pstmt = connection.prepare(sql);
+                pstmt.setString(1, status.name());
+                pstmt.setLong(2, durationMillis);
+                pstmt.setLong(3, uid);
+
+                return pstmt.executeUpdate() == 1;
+            });
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean setResourceUsage(long uid, Long peakMemoryBytes, Long cpuTimeMillis) {
+        String sql = "update builds set peak_memory_bytes = ?, cpu_time_ms = ? where uid = ?";
+        try {
+            return pool.write(connection -> {
+                PreparedStatement pstmt = connection.prepare(sql);
+                pstmt.setObject(1, peakMemoryBytes);
+                pstmt.setObject(2, cpuTimeMillis);
+                pstmt.setLong(3, uid);
+
+                return pstmt.executeUpdate() == 1;
+            });
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean setInputKey(long uid, String inputKey) {
+        String sql = "update builds set input_key = ? where uid = ?";
+        try {
+            return pool.write(connection -> {
+                PreparedStatement pstmt = connection.prepare(sql);
+                pstmt.setString(1, inputKey);
+                pstmt.setLong(2, uid);
+
+                return pstmt.executeUpdate() == 1;
+            });
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public Long findSuccessfulBuild(String repository, String inputKey) {
+        String sql = "select max(uid) from builds where repository = ? and input_key = ? and status = ?";
+        try {
+            return pool.read(connection -> {
+                PreparedStatement pstmt = connection.prepare(sql);
+                pstmt.setString(1, repository);
+                pstmt.setString(2, inputKey);
+                pstmt.setString(3, CommitState.SUCCESS.name());
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    // max() returns one row, with null if no build matches
+                    rs.next();
+                    long uid = rs.getLong(1);
+                    return rs.wasNull() ? null : uid;
+                }
+            });
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public boolean addTestResults(long buildId, List<TestResult> results) {
+        long started = System.nanoTime();
+        try {
+            return pool.write(connection -> {
+                PreparedStatement pstmt = connection.prepare(TestResultQueries.INSERT);
+                for (TestResult result : results) {
+                    TestResultQueries.bindInsert(pstmt, buildId, result);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                return true;
+            });
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return false;
+        } finally {
+            InsertMetrics.record(metrics, "sqlite", InsertMetrics.ADD_TEST_RESULTS, started);
+        }
+    }
+
+    @Override
+    public List<TestResult> getTestResults(long buildId, TestStatus status) {
+        try {
+            return pool.read(connection -> {
+                PreparedStatement pstmt = connection.prepare(status == null
+                        ? TestResultQueries.BY_BUILD : TestResultQueries.BY_BUILD_AND_STATUS);
+                pstmt.setLong(1, buildId);
+                if (status != null) {
+                    pstmt.setString(2, status.name());
+                }
+                List<TestResult> results = new ArrayList<>();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        results.add(TestResultQueries.toTestResult(rs));
+                    }
+                }
+                return results;
+            });
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public List<SlowTest> getSlowestTests(String repository, int builds, int limit) {
+        try {
+            return pool.read(connection -> {
+                PreparedStatement pstmt = connection.prepare(TestResultQueries.SLOWEST);
+                TestResultQueries.bindRecentBuilds(pstmt, repository, builds, limit);
+                List<SlowTest> tests = new ArrayList<>();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        tests.add(TestResultQueries.toSlowTest(rs));
+                    }
+                }
+                return tests;
+            });
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public Map<String, Long> getTestClassDurations(String repository, int builds) {
+        try {
+            return pool.read(connection -> {
+                PreparedStatement pstmt = connection.prepare(TestResultQueries.CLASS_DURATIONS);
+                pstmt.setString(1, repository);
+                pstmt.setInt(2, builds);
+                Map<String, Long> durations = new HashMap<>();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        durations.put(rs.getString(1), rs.getLong(2) / rs.getLong(3));
+                    }
+                }
+                return durations;
+            });
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public List<FlakyTest> getFlakyTests(String repository, int builds, int limit) {
+        try {
+            return pool.read(connection -> {
+                PreparedStatement pstmt = connection.prepare(TestResultQueries.FLAKY);
+                TestResultQueries.bindRecentBuilds(pstmt, repository, builds, limit);
+                List<FlakyTest> tests = new ArrayList<>();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        tests.add(TestResultQueries.toFlakyTest(rs));
+                    }
+                }
+                return tests;
+            });
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public boolean appendLogChunk(long buildId, int seq, long startOffset, String content) {
+        // Compress before taking the writer, so other builds can write in the meantime
+        byte[] data = LogCodec.compress(content);
+        long started = System.nanoTime();
+        try {
+            return pool.write(connection -> {
+                PreparedStatement pstmt = connection.prepare(LogChunks.INSERT_SQL);
+                LogChunks.bindInsert(pstmt, buildId, seq, startOffset, content.length(), data);
+
+                return pstmt.executeUpdate() == 1;
+            });
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return false;
+        } finally {
+            InsertMetrics.record(metrics, "sqlite", InsertMetrics.APPEND_LOG_CHUNK, started);
+        }
+    }
+
+    @Override
+    public boolean buildExists(long uid) {
+        String sql = "select 1 from builds where uid = ?";
+        try {
+            return pool.read(connection -> {
+                PreparedStatement pstmt = connection.prepare(sql);
+                pstmt.setLong(1, uid);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next();
+                }
+            });
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public String getLogRange(long uid, long from, long to) {
+        String contentSql = "select content from builds where uid = ?";
+        String chunkSql = """
+                select start_offset, codec, content, data from build_logs
+                where build_id = ? and start_offset < ? and start_offset + length > ?
+                order by seq
+                """;
+        try {
+            return pool.read(connection -> {
+                PreparedStatement contentStmt = connection.prepare(contentSql);
+                contentStmt.setLong(1, uid);
+                try (ResultSet contentRs = contentStmt.executeQuery()) {
+                    if (contentRs.next() && contentRs.getString(1) != null) {
+                        String content = contentRs.getString(1);
+                        int start = (int) Math.min(from, content.length());
+                        return content.substring(start, (int) Math.min(to, content.length()));
+                    }
+                }
+
+                PreparedStatement pstmt = connection.prepare(chunkSql);
+                pstmt.setLong(1, uid);
+                pstmt.setLong(2, to);
+                pstmt.setLong(3, from);
+                StringBuilder range = new StringBuilder();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        long startOffset = rs.getLong(1);
+                        String chunk = LogChunks.read(rs, 2);
+                        int start = (int) Math.max(0, from - startOffset);
+                        int end = (int) Math.min(chunk.length(), to - startOffset);
+                        range.append(chunk, start, end);
+                    }
+                }
+                return range.toString();
+            });
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
     public boolean removeBuild(long uid) {
         String sql = "delete from builds where uid = ?";
         try {
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            pstmt.setLong(1, uid);
+            return pool.write(connection -> {
+                deleteLogChunks(connection, uid);
+                PreparedStatement deleteResults = connection.prepare("delete from test_results where build_id = ?");
+                deleteResults.setLong(1, uid);
+                deleteResults.executeUpdate();
+                PreparedStatement pstmt = connection.prepare(sql);
+                pstmt.setLong(1, uid);
 
-            int affectedRows = pstmt.executeUpdate();
+                int affectedRows = pstmt.executeUpdate();
 
-            return affectedRows == 1;
+                return affectedRows == 1;
+            });
         } catch (SQLException e) {
             System.err.println(e.getMessage());
             return false;
         }
     }
 
-    /**
-     * Edit the content associated with a build.
-     * @param uid unique identifier of requested build
-     * @param content content string to replace previous content
-     * @return true if the database operation was successful, otherwise false
-     */
+    @Override
     public boolean editBuildContent(long uid, String content) {
-        String sql = "update builds set content = ? where uid = ?";
+        String sql = "update builds set content = null where uid = ?";
 
         try {
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            pstmt.setString(1, content);
-            pstmt.setLong(2, uid);
+            return pool.write(connection -> {
+                deleteLogChunks(connection, uid);
+                PreparedStatement pstmt = connection.prepare(sql);
+                pstmt.setLong(1, uid);
 
-            int affectedRows = pstmt.executeUpdate();
+                int affectedRows = pstmt.executeUpdate();
+                if (affectedRows == 1) {
+                    LogChunks.insertLog(connection.getConnection(), uid, content);
+                }
 
-            return affectedRows == 1;
+                return affectedRows == 1;
+            });
         } catch (SQLException e) {
             System.err.println(e.getMessage());
             return false;
         }
     }
 
-    /**
-     * Get the information stored about a build.
-     * @param uid unique identifier of requested build
-     * @return BuildInfo object if build is found, else null
-     */
+    @Override
     public BuildInfo getBuildInfo(long uid) {
-        String sql = "select * from builds where uid = ?";
+        String sql = "select " + BuildSummaryQuery.SUMMARY_COLUMNS + ", content from builds where uid = ?";
 
         try {
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            pstmt.setLong(1, uid);
-            ResultSet rs = pstmt.executeQuery();
-
-            if(rs.next())
-            {
-                String commit_hash = rs.getString(2);
-                String content = rs.getString(3);
-                String tsString = rs.getString(4);
-                OffsetDateTime ts = stringToOffsetDateTime(tsString);
-                return new BuildInfo(uid, commit_hash, content, ts);
-            }
-
+            return pool.read(connection -> {
+                PreparedStatement pstmt = connection.prepare(sql);
+                pstmt.setLong(1, uid);
+                BuildSummary summary;
+                String content;
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    summary = toBuildSummary(rs);
+                    content = rs.getString(10);
+                }
+                return new BuildInfo(summary, contentOrLog(connection, uid, content));
+            });
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
             return null;
+        }
+    }
+
+    @Override
+    public List<BuildSummary> getBuildSummaries(String repository, String branch, CommitState status, Long beforeUid,
+                                                int limit) {
+        BuildSummaryQuery query = new BuildSummaryQuery(repository, branch, status, beforeUid, limit);
+        try {
+            return pool.read(connection -> {
+                PreparedStatement pstmt = connection.prepare(query.getSql());
+                query.bind(pstmt);
+                List<BuildSummary> builds = new ArrayList<>();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        builds.add(toBuildSummary(rs));
+                    }
+                }
+                return builds;
+            });
         } catch (SQLException e) {
             System.err.println(e.getMessage());
             return null;
         }
     }
 
+    @Override
+    public int compressLegacyLogs(int maxBuilds) {
+        try {
+            return pool.write(connection -> LogChunks.compressLegacyLogs(connection.getConnection(), maxBuilds));
+        } catch (SQLException | IllegalStateException e) {
+            System.err.println("Compressing logs failed: " + e.getMessage());
+            return 0;
+        }
+    }
+
     /**
-     * Get a list of all builds stored in the database.
-     * @return ArrayList list of BuildInfo objects
+     * Builds created before logs were streamed may still have their log in the content column, if it has not been
+     * compressed yet. Newer builds have it in chunks.
      */
-    public ArrayList<BuildInfo> getAllBuilds() {
-        String sql = "select * from builds";
-        ArrayList<BuildInfo> builds = new ArrayList<>();
-        try {
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            ResultSet rs = pstmt.executeQuery();
-
-            while(rs.next())
-            {
-                long uid = rs.getLong(1);
-                String commit_hash = rs.getString(2);
-                String content = rs.getString(3);
-                String tsString = rs.getString(4);
-                OffsetDateTime ts = stringToOffsetDateTime(tsString);
-                builds.add(new BuildInfo(uid, commit_hash, content, ts));
+    private static String contentOrLog(SqliteConnectionPool.PooledConnection connection, long uid, String content)
+            throws SQLException {
+        if (content != null) {
+            return content;
+        }
+        String sql = "select codec, content, data from build_logs where build_id = ? order by seq";
+        PreparedStatement pstmt = connection.prepare(sql);
+        pstmt.setLong(1, uid);
+        StringBuilder log = new StringBuilder();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                log.append(LogChunks.read(rs, 1));
             }
-
-            return builds;
-        } catch (SQLException e) {
-            System.err.println(e.getMessage());
-            return null;
         }
+        return log.toString();
+    }
+
+    private static void deleteLogChunks(SqliteConnectionPool.PooledConnection connection, long uid)
+            throws SQLException {
+        String sql = "delete from build_logs where build_id = ?";
+        PreparedStatement pstmt = connection.prepare(sql);
+        pstmt.setLong(1, uid);
+        pstmt.executeUpdate();
+    }
+
+    private static BuildSummary toBuildSummary(ResultSet rs) throws SQLException {
+        String status = rs.getString(5);
+        long duration = rs.getLong(7);
+        boolean running = rs.wasNull();
+        return BuildSummary.builder()
+                .uid(rs.getLong(1))
+                .commitId(rs.getString(2))
+                .repository(rs.getString(3))
+                .branch(rs.getString(4))
+                .status(status == null ? null : CommitState.valueOf(status))
+                .timestamp(stringToOffsetDateTime(rs.getString(6)))
+                .durationMillis(running ? null : duration)
+                .peakMemoryBytes(rs.getObject(8) == null ? null : rs.getLong(8))
+                .cpuTimeMillis(rs.getObject(9) == null ? null : rs.getLong(9))
+                .build();
     }
 
     private static OffsetDateTime stringToOffsetDateTime(String s) {
@@ -0,0 +1,24 @@
+package com.group12.ciserver.database;
+
+import com.group12.ciserver.metrics.MetricsRegistry;
+
+/**
+ * Records how long inserts into a build store take, shared by the SQL build stores. The time includes waiting for a
+ * connection, so a busy writer shows up as slow inserts.
+ */
+final class InsertMetrics {
+
+    static final String ADD_BUILD = "add_build";
+
+    static final String APPEND_LOG_CHUNK = "append_log_chunk";
+
+    static final String ADD_TEST_RESULTS = "add_test_results";
+
+    private InsertMetrics() {
+    }
+
+    static void record(MetricsRegistry metrics, String store, String operation, long startNanos) {
+        metrics.histogram("ciserver_db_insert_seconds", "Time to insert into the build store.",
+                MetricsRegistry.LATENCY_BUCKETS, "store", store, "operation", operation).recordSince(startNanos);
+    }
+}
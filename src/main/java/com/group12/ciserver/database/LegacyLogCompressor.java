@@ -0,0 +1,50 @@
+package com.group12.ciserver.database;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+/**
+ * Compresses the logs that were stored before logs were compressed, in the background after startup.
+ * <p>
+ * Logs are compressed a few builds per transaction, so running builds can keep writing their logs in between. The
+ * space freed in a SQLite database file is reused for new logs, run <code>VACUUM</code> to shrink the file.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class LegacyLogCompressor {
+
+    private static final int BUILDS_PER_BATCH = 20;
+
+    private final BuildStore buildStore;
+
+    private Thread worker;
+
+    @PostConstruct
+    void start() {
+        worker = new Thread(this::compressAll, "legacy-log-compressor");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        worker.interrupt();
+    }
+
+    private void compressAll() {
+        long builds = 0;
+        int compressed;
+        while (!Thread.currentThread().isInterrupted()
+                && (compressed = buildStore.compressLegacyLogs(BUILDS_PER_BATCH)) > 0) {
+            builds += compressed;
+        }
+        if (builds > 0) {
+            log.info("Compressed legacy build logs, builds={}", builds);
+        }
+    }
+}
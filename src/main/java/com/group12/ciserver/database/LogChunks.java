@@ -0,0 +1,132 @@
+package com.group12.ciserver.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes compressed log chunks, shared by the SQL build stores.
+ * <p>
+ * A chunk written before logs were compressed has no codec and its text in the <code>content</code> column. Logs
+ * written before they were streamed are in <code>builds.content</code>. Both are still read, and are compressed in
+ * the background by {@link #compressLegacyLogs(Connection, int)}.
+ */
+final class LogChunks {
+
+    /**
+     * Number of characters per chunk when a whole log is stored at once.
+     */
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    static final String INSERT_SQL =
+            "insert into build_logs(build_id,seq,start_offset,length,codec,data) values(?,?,?,?,?,?)";
+
+    private LogChunks() {
+    }
+
+    /**
+     * Bind a chunk compressed with {@link LogCodec#compress(String)} to {@link #INSERT_SQL}.
+     */
+    static void bindInsert(PreparedStatement pstmt, long buildId, int seq, long startOffset, int length,
+                           byte[] data) throws SQLException {
+        pstmt.setLong(1, buildId);
+        pstmt.setInt(2, seq);
+        pstmt.setLong(3, startOffset);
+        pstmt.setInt(4, length);
+        pstmt.setInt(5, LogCodec.DEFLATE_MAVEN_V1);
+        pstmt.setBytes(6, data);
+    }
+
+    /**
+     * Get the text of a chunk from a result set with the codec, content and data columns next to each other.
+     */
+    static String read(ResultSet rs, int codecColumn) throws SQLException {
+        return LogCodec.decode(rs.getInt(codecColumn), rs.getString(codecColumn + 1), rs.getBytes(codecColumn + 2));
+    }
+
+    /**
+     * Store a whole log as compressed chunks. The build must not have any chunks yet.
+     */
+    static void insertLog(Connection connection, long buildId, String log) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(INSERT_SQL)) {
+            int seq = 0;
+            for (int start = 0; start < log.length(); start += CHUNK_SIZE) {
+                String chunk = log.substring(start, Math.min(log.length(), start + CHUNK_SIZE));
+                bindInsert(pstmt, buildId, seq++, start, chunk.length(), LogCodec.compress(chunk));
+                pstmt.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Compress the logs of some builds that were stored uncompressed.
+     * @param connection connection in a transaction
+     * @param maxBuilds maximum number of builds to compress the logs of
+     * @return the number of builds whose logs were compressed, 0 when there are none left
+     */
+    static int compressLegacyLogs(Connection connection, int maxBuilds) throws SQLException {
+        Map<Long, String> wholeLogs = new LinkedHashMap<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "select uid, content from builds where content is not null limit ?")) {
+            pstmt.setInt(1, maxBuilds);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    wholeLogs.put(rs.getLong(1), rs.getString(2));
+                }
+            }
+        }
+        try (PreparedStatement deleteChunks = connection.prepareStatement("delete from build_logs where build_id = ?");
+             PreparedStatement clearContent = connection.prepareStatement(
+                     "update builds set content = null where uid = ?")) {
+            for (Map.Entry<Long, String> log : wholeLogs.entrySet()) {
+                // The content column took precedence over any chunks, so they were never read
+                deleteChunks.setLong(1, log.getKey());
+                deleteChunks.executeUpdate();
+                insertLog(connection, log.getKey(), log.getValue());
+                clearContent.setLong(1, log.getKey());
+                clearContent.executeUpdate();
+            }
+        }
+        if (wholeLogs.size() == maxBuilds) {
+            return wholeLogs.size();
+        }
+
+        List<Long> buildIds = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "select distinct build_id from build_logs where codec is null limit ?")) {
+            pstmt.setInt(1, maxBuilds - wholeLogs.size());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    buildIds.add(rs.getLong(1));
+                }
+            }
+        }
+        try (PreparedStatement select = connection.prepareStatement(
+                "select seq, content from build_logs where build_id = ? and codec is null");
+             PreparedStatement update = connection.prepareStatement(
+                     "update build_logs set codec = ?, data = ?, content = null where build_id = ? and seq = ?")) {
+            for (long buildId : buildIds) {
+                Map<Integer, String> chunks = new LinkedHashMap<>();
+                select.setLong(1, buildId);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        chunks.put(rs.getInt(1), rs.getString(2));
+                    }
+                }
+                for (Map.Entry<Integer, String> chunk : chunks.entrySet()) {
+                    update.setInt(1, LogCodec.DEFLATE_MAVEN_V1);
+                    update.setBytes(2, LogCodec.compress(chunk.getValue()));
+                    update.setLong(3, buildId);
+                    update.setInt(4, chunk.getKey());
+                    update.executeUpdate();
+                }
+            }
+        }
+        return wholeLogs.size() + buildIds.size();
+    }
+}
@@ -0,0 +1,106 @@
+package com.group12.ciserver.database;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the chunks of build logs. Every chunk is compressed on its own, so a range of a log is read by only
+ * decompressing the chunks that overlap it.
+ * <p>
+ * Chunks are deflated with a preset dictionary of common Maven output, which mostly helps the small chunks written
+ * when a build ends. The dictionary can never change once chunks have been written with it, a new dictionary needs a
+ * new codec.
+ */
+final class LogCodec {
+
+    /**
+     * The chunk is stored as text.
+     */
+    static final int PLAIN = 0;
+
+    /**
+     * The chunk is stored as UTF-8 deflated with the <code>maven-v1</code> dictionary.
+     */
+    static final int DEFLATE_MAVEN_V1 = 1;
+
+    private static final byte[] MAVEN_V1_DICTIONARY = loadDictionary("/log-dictionaries/maven-v1.txt");
+
+    private LogCodec() {
+    }
+
+    private static byte[] loadDictionary(String resource) {
+        try (InputStream in = LogCodec.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing log dictionary " + resource);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Compress a chunk with {@link #DEFLATE_MAVEN_V1}.
+     */
+    static byte[] compress(String text) {
+        byte[] input = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setDictionary(MAVEN_V1_DICTIONARY);
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, input.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Get the text of a chunk.
+     * @param codec the codec the chunk was stored with, {@link #PLAIN} for chunks written before logs were compressed
+     * @param content the text of a {@link #PLAIN} chunk
+     * @param data the bytes of a compressed chunk
+     * @throws IllegalStateException if the codec is unknown or the data is corrupt
+     */
+    static String decode(int codec, String content, byte[] data) {
+        if (codec == PLAIN) {
+            return content;
+        }
+        if (codec != DEFLATE_MAVEN_V1) {
+            throw new IllegalStateException("Unknown log codec " + codec);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(MAVEN_V1_DICTIONARY);
+                    } else if (inflater.needsInput() && !inflater.finished()) {
+                        throw new IllegalStateException("Truncated log chunk");
+                    }
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt log chunk: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,557 @@
+package com.group12.ciserver.database;
+
+import com.group12.ciserver.metrics.MetricsRegistry;
+import com.group12.ciserver.model.BuildInfo;
+import com.group12.ciserver.model.BuildSummary;
+import com.group12.ciserver.model.FlakyTest;
+import com.group12.ciserver.model.SlowTest;
+import com.group12.ciserver.model.TestResult;
+import com.group12.ciserver.model.TestStatus;
+import com.group12.ciserver.model.github.CommitState;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the build history in a PostgreSQL database, so that several servers can share it.
+ * <p>
+ * Connections are pooled by HikariCP. The PostgreSQL driver prepares statements on the server once they are used
+ * repeatedly on a connection, so they are not cached here.
+ */
+public class PostgresBuildStore implements BuildStore {
+
+    /**
+     * Key of the advisory lock that is held while creating the schema, so servers starting at the same time do not
+     * race each other.
+     */
+    private static final long SCHEMA_LOCK_KEY = 0x6369736572766572L;
+
+    private final HikariDataSource dataSource;
+
+    private volatile MetricsRegistry metrics = new MetricsRegistry();
+
+    /**
+     * Create a store for a PostgreSQL database. The tables are created if they do not exist.
+     * @param jdbcUrl JDBC URL of the database, e.g. jdbc:postgresql://localhost:5432/ciserver
+     * @param username user to connect as
+     * @param password password of the user
+     * @param maxPoolSize maximum number of connections to the database
+     */
+    public PostgresBuildStore(String jdbcUrl, String username, String password, int maxPoolSize) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("build-store");
+        config.setJdbcUrl(jdbcUrl);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setMaximumPoolSize(maxPoolSize);
+        dataSource = new HikariDataSource(config);
+        try {
+            createTablesIfNotExist();
+        } catch (SQLException e) {
+            dataSource.close();
+            throw new IllegalStateException("Could not create the build history tables: " + e.getMessage(), e);
+        }
+    }
+
+    private void createTablesIfNotExist() throws SQLException {
+        String builds = """
+                CREATE TABLE IF NOT EXISTS builds (
+                        uid BIGSERIAL PRIMARY KEY,
+                        commit_hash TEXT,
+                        content TEXT,
+                        timestamp TIMESTAMPTZ,
+                        repository TEXT,
+                        branch TEXT,
+                        status TEXT,
+                        duration_ms BIGINT,
+                        input_key TEXT,
+                        peak_memory_bytes BIGINT,
+                        cpu_time_ms BIGINT
+                );
+                """;
+        String buildLogs = """
+                CREATE TABLE IF NOT EXISTS build_logs (
+                        build_id BIGINT REFERENCES builds(uid) ON DELETE CASCADE,
+                        seq INTEGER,
+                        start_offset BIGINT,
+                        length INTEGER,
+                        content TEXT,
+                        codec INTEGER,
+                        data BYTEA,
+                        PRIMARY KEY (build_id, seq)
+                );
+                """;
+        String testResults = """
+                CREATE TABLE IF NOT EXISTS test_results (
+                        build_id BIGINT REFERENCES builds(uid) ON DELETE CASCADE,
+                        class_name TEXT,
+                        name TEXT,
+                        status TEXT,
+                        duration_ms BIGINT,
+                        message TEXT
+                );
+                """;
+
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            statement.execute("SELECT pg_advisory_xact_lock(" + SCHEMA_LOCK_KEY + ")");
+            statement.execute(builds);
+            statement.execute(buildLogs);
+            statement.execute(testResults);
+            statement.execute("ALTER TABLE build_logs ADD COLUMN IF NOT EXISTS codec INTEGER");
+            statement.execute("ALTER TABLE build_logs ADD COLUMN IF NOT EXISTS data BYTEA");
+            statement.execute("ALTER TABLE builds ADD COLUMN IF NOT EXISTS input_key TEXT");
+            statement.execute("ALTER TABLE builds ADD COLUMN IF NOT EXISTS peak_memory_bytes BIGINT");
+            statement.execute("ALTER TABLE builds ADD COLUMN IF NOT EXISTS cpu_time_ms BIGINT");
+            // The history is paged by descending uid, optionally filtered by repository, branch and status
+            statement.execute("CREATE INDEX IF NOT EXISTS builds_repository_branch ON builds(repository, branch, uid)");
+            statement.execute("CREATE INDEX IF NOT EXISTS builds_status ON builds(status, uid)");
+            statement.execute("CREATE INDEX IF NOT EXISTS builds_uncompressed ON builds(uid) WHERE content IS NOT NULL");
+            statement.execute("CREATE INDEX IF NOT EXISTS build_logs_uncompressed ON build_logs(build_id) "
+                    + "WHERE codec IS NULL");
+            statement.execute("CREATE INDEX IF NOT EXISTS builds_input_key ON builds(repository, input_key, uid) "
+                    + "WHERE input_key IS NOT NULL");
+            statement.execute("CREATE INDEX IF NOT EXISTS test_results_build ON test_results(build_id, status)");
+            connection.commit();
+        }
+    }
+
+    /**
+     * Records the latency of inserts in the metrics of the server, instead of metrics of its own.
+     * @param metrics the registry of the server
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void closeConnection() {
+        dataSource.close();
+    }
+
+    @Override
+    public long addBuild(BuildInfo b) {
+        // The content is stored as compressed log chunks
+        String sql = """
+                insert into builds(commit_hash,timestamp,repository,branch,status) values(?,?,?,?,?)
+                returning uid
+                """;
+        long started = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                pstmt.setString(1, b.getCommitId());
+                pstmt.setObject(2, b.getTimestamp());
+                pstmt.setString(3, b.getRepository());
+                pstmt.setString(4, b.getBranch());
+                pstmt.setString(5, b.getStatus() == null ? null : b.getStatus().name());
+                long uid;
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    uid = rs.next() ? rs.getLong(1) : -1;
+                }
+                if (uid != -1 && b.getContent() != null) {
+                    LogChunks.insertLog(connection, uid, b.getContent());
+                }
+                connection.commit();
+                return uid;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return -1;
+        } finally {
+            InsertMetrics.record(metrics, "postgres", InsertMetrics.ADD_BUILD, started);
+        }
+    }
+
+    @Override
+    public boolean finishBuild(long uid, CommitState status, long durationMillis) {
+        String sql = "update builds set status = ?, duration_ms = ? where uid = ?";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setString(1, status.name());
+            pstmt.setLong(2, durationMillis);
+            pstmt.setLong(3, uid);
+
+            return pstmt.executeUpdate() == 1;
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean setResourceUsage(long uid, Long peakMemoryBytes, Long cpuTimeMillis) {
+        String sql = "update builds set peak_memory_bytes = ?, cpu_time_ms = ? where uid = ?";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setObject(1, peakMemoryBytes, Types.BIGINT);
+            pstmt.setObject(2, cpuTimeMillis, Types.BIGINT);
+            pstmt.setLong(3, uid);
+
+            return pstmt.executeUpdate() == 1;
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean setInputKey(long uid, String inputKey) {
+        String sql = "update builds set input_key = ? where uid = ?";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setString(1, inputKey);
+            pstmt.setLong(2, uid);
+
+            return pstmt.executeUpdate() == 1;
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public Long findSuccessfulBuild(String repository, String inputKey) {
+        String sql = "select max(uid) from builds where repository = ? and input_key = ? and status = ?";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setString(1, repository);
+            pstmt.setString(2, inputKey);
+            pstmt.setString(3, CommitState.SUCCESS.name());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                // max() returns one row, with null if no build matches
+                rs.next();
+                long uid = rs.getLong(1);
+                return rs.wasNull() ? null : uid;
+            }
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public boolean addTestResults(long buildId, List<TestResult> results) {
+        long started = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement pstmt = connection.prepareStatement(TestResultQueries.INSERT)) {
+                for (TestResult result : results) {
+                    TestResultQueries.bindInsert(pstmt, buildId, result);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                connection.commit();
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return false;
+        } finally {
+            InsertMetrics.record(metrics, "postgres", InsertMetrics.ADD_TEST_RESULTS, started);
+        }
+    }
+
+    @Override
+    public List<TestResult> getTestResults(long buildId, TestStatus status) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(status == null
+                     ? TestResultQueries.BY_BUILD : TestResultQueries.BY_BUILD_AND_STATUS)) {
+            pstmt.setLong(1, buildId);
+            if (status != null) {
+                pstmt.setString(2, status.name());
+            }
+            List<TestResult> results = new ArrayList<>();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    results.add(TestResultQueries.toTestResult(rs));
+                }
+            }
+            return results;
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public List<SlowTest> getSlowestTests(String repository, int builds, int limit) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(TestResultQueries.SLOWEST)) {
+            TestResultQueries.bindRecentBuilds(pstmt, repository, builds, limit);
+            List<SlowTest> tests = new ArrayList<>();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    tests.add(TestResultQueries.toSlowTest(rs));
+                }
+            }
+            return tests;
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public Map<String, Long> getTestClassDurations(String repository, int builds) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(TestResultQueries.CLASS_DURATIONS)) {
+            pstmt.setString(1, repository);
+            pstmt.setInt(2, builds);
+            Map<String, Long> durations = new HashMap<>();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    durations.put(rs.getString(1), rs.getLong(2) / rs.getLong(3));
+                }
+            }
+            return durations;
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public List<FlakyTest> getFlakyTests(String repository, int builds, int limit) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(TestResultQueries.FLAKY)) {
+            TestResultQueries.bindRecentBuilds(pstmt, repository, builds, limit);
+            List<FlakyTest> tests = new ArrayList<>();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    tests.add(TestResultQueries.toFlakyTest(rs));
+                }
+            }
+            return tests;
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public boolean appendLogChunk(long buildId, int seq, long startOffset, String content) {
+        byte[] data = LogCodec.compress(content);
+        long started = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(LogChunks.INSERT_SQL)) {
+            LogChunks.bindInsert(pstmt, buildId, seq, startOffset, content.length(), data);
+
+            return pstmt.executeUpdate() == 1;
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return false;
+        } finally {
+            InsertMetrics.record(metrics, "postgres", InsertMetrics.APPEND_LOG_CHUNK, started);
+        }
+    }
+
+    @Override
+    public boolean buildExists(long uid) {
+        String sql = "select 1 from builds where uid = ?";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setLong(1, uid);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public String getLogRange(long uid, long from, long to) {
+        String contentSql = "select content from builds where uid = ?";
+        String chunkSql = """
+                select start_offset, codec, content, data from build_logs
+                where build_id = ? and start_offset < ? and start_offset + length > ?
+                order by seq
+                """;
+        try (Connection connection = dataSource.getConnection()) {
+            try (PreparedStatement contentStmt = connection.prepareStatement(contentSql)) {
+                contentStmt.setLong(1, uid);
+                try (ResultSet contentRs = contentStmt.executeQuery()) {
+                    if (contentRs.next() && contentRs.getString(1) != null) {
+                        String content = contentRs.getString(1);
+                        int start = (int) Math.min(from, content.length());
+                        return content.substring(start, (int) Math.min(to, content.length()));
+                    }
+                }
+            }
+
+            StringBuilder range = new StringBuilder();
+            try (PreparedStatement pstmt = connection.prepareStatement(chunkSql)) {
+                pstmt.setLong(1, uid);
+                pstmt.setLong(2, to);
+                pstmt.setLong(3, from);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        long startOffset = rs.getLong(1);
+                        String chunk = LogChunks.read(rs, 2);
+                        int start = (int) Math.max(0, from - startOffset);
+                        int end = (int) Math.min(chunk.length(), to - startOffset);
+                        range.append(chunk, start, end);
+                    }
+                }
+            }
+            return range.toString();
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public boolean removeBuild(long uid) {
+        // The log chunks and test results are deleted by the foreign key
+        String sql = "delete from builds where uid = ?";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setLong(1, uid);
+
+            return pstmt.executeUpdate() == 1;
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean editBuildContent(long uid, String content) {
+        String deleteSql = "delete from build_logs where build_id = ?";
+        String sql = "update builds set content = null where uid = ?";
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement deleteStmt = connection.prepareStatement(deleteSql);
+                 PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                deleteStmt.setLong(1, uid);
+                deleteStmt.executeUpdate();
+                pstmt.setLong(1, uid);
+                boolean updated = pstmt.executeUpdate() == 1;
+                if (updated) {
+                    LogChunks.insertLog(connection, uid, content);
+                }
+                connection.commit();
+                return updated;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public BuildInfo getBuildInfo(long uid) {
+        String sql = "select " + BuildSummaryQuery.SUMMARY_COLUMNS + ", content from builds where uid = ?";
+        String logSql = "select codec, content, data from build_logs where build_id = ? order by seq";
+        try (Connection connection = dataSource.getConnection()) {
+            BuildSummary summary;
+            String content;
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                pstmt.setLong(1, uid);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    summary = toBuildSummary(rs);
+                    content = rs.getString(10);
+                }
+            }
+            // Builds created before logs were streamed may still have their log in the content column
+            if (content == null) {
+                StringBuilder log = new StringBuilder();
+                try (PreparedStatement pstmt = connection.prepareStatement(logSql)) {
+                    pstmt.setLong(1, uid);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            log.append(LogChunks.read(rs, 1));
+                        }
+                    }
+                }
+                content = log.toString();
+            }
+            return new BuildInfo(summary, content);
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public List<BuildSummary> getBuildSummaries(String repository, String branch, CommitState status, Long beforeUid,
+                                                int limit) {
+        BuildSummaryQuery query = new BuildSummaryQuery(repository, branch, status, beforeUid, limit);
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(query.getSql())) {
+            query.bind(pstmt);
+            List<BuildSummary> builds = new ArrayList<>();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    builds.add(toBuildSummary(rs));
+                }
+            }
+            return builds;
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public int compressLegacyLogs(int maxBuilds) {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                int compressed = LogChunks.compressLegacyLogs(connection, maxBuilds);
+                connection.commit();
+                return compressed;
+            } catch (SQLException | IllegalStateException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException | IllegalStateException e) {
+            System.err.println("Compressing logs failed: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    private static BuildSummary toBuildSummary(ResultSet rs) throws SQLException {
+        String status = rs.getString(5);
+        long duration = rs.getLong(7);
+        boolean running = rs.wasNull();
+        return BuildSummary.builder()
+                .uid(rs.getLong(1))
+                .commitId(rs.getString(2))
+                .repository(rs.getString(3))
+                .branch(rs.getString(4))
+                .status(status == null ? null : CommitState.valueOf(status))
+                .timestamp(rs.getObject(6, OffsetDateTime.class))
+                .durationMillis(running ? null : duration)
+                .peakMemoryBytes(rs.getObject(8) == null ? null : rs.getLong(8))
+                .cpuTimeMillis(rs.getObject(9) == null ? null : rs.getLong(9))
+                .build();
+    }
+}
@@ -0,0 +1,214 @@
+package com.group12.ciserver.database;
+
+import org.sqlite.SQLiteConfig;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Connections to one SQLite database file, shared by the pipelines and the request threads.
+ * <p>
+ * SQLite only allows one writer at a time, so there is a single writer connection and callers take turns using it
+ * instead of contending for the database lock. Reads use a pool of read-only connections. The database is put in WAL
+ * mode, so readers see the last committed state and neither block nor are blocked by the writer.
+ * <p>
+ * Every connection keeps its prepared statements, so each SQL string is only compiled once per connection.
+ */
+class SqliteConnectionPool {
+
+    private static final int BUSY_TIMEOUT_MILLIS = 5000;
+
+    private static final long ACQUIRE_TIMEOUT_MILLIS = 30_000;
+
+    private static final int STATEMENT_CACHE_SIZE = 64;
+
+    private final PooledConnection writer;
+
+    private final ReentrantLock writeLock = new ReentrantLock(true);
+
+    private final BlockingQueue<PooledConnection> readers;
+
+    private final List<PooledConnection> allReaders = new ArrayList<>();
+
+    /**
+     * Work done with a connection of the pool.
+     */
+    @FunctionalInterface
+    interface SqlWork<T> {
+        T run(PooledConnection connection) throws SQLException;
+    }
+
+    SqliteConnectionPool(String dbPath, int readerCount) throws SQLException {
+        SQLiteConfig writerConfig = baseConfig();
+        writerConfig.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        writer = new PooledConnection(writerConfig.createConnection("jdbc:sqlite:" + dbPath));
+
+        readers = new ArrayBlockingQueue<>(readerCount);
+        try {
+            for (int i = 0; i < readerCount; i++) {
+                SQLiteConfig readerConfig = baseConfig();
+                readerConfig.setReadOnly(true);
+                PooledConnection reader = new PooledConnection(readerConfig.createConnection("jdbc:sqlite:" + dbPath));
+                allReaders.add(reader);
+                readers.add(reader);
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private static SQLiteConfig baseConfig() {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setBusyTimeout(BUSY_TIMEOUT_MILLIS);
+        // In WAL mode NORMAL only syncs at checkpoints and can not corrupt the database, only lose the latest commits
+        config.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+        return config;
+    }
+
+    /**
+     * Run work with a reader connection. Blocks while all reader connections are in use.
+     */
+    <T> T read(SqlWork<T> work) throws SQLException {
+        PooledConnection reader;
+        try {
+            reader = readers.poll(ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection");
+        }
+        if (reader == null) {
+            throw new SQLException("Timed out waiting for a database connection");
+        }
+        try {
+            return work.run(reader);
+        } finally {
+            readers.add(reader);
+        }
+    }
+
+    /**
+     * Run work with the writer connection in one transaction, which is rolled back if the work throws.
+     * Blocks while another thread is writing.
+     */
+    <T> T write(SqlWork<T> work) throws SQLException {
+        writeLock.lock();
+        try {
+            Connection connection = writer.getConnection();
+            connection.setAutoCommit(false);
+            try {
+                T result = work.run(writer);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Close all connections. Connections that are in use are closed as well.
+     */
+    void close() throws SQLException {
+        SQLException failure = null;
+        List<PooledConnection> connections = new ArrayList<>(allReaders);
+        if (writer != null) {
+            connections.add(writer);
+        }
+        for (PooledConnection connection : connections) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * A connection and the statements prepared on it.
+     */
+    static class PooledConnection {
+
+        private final Connection connection;
+
+        private final Map<String, PreparedStatement> statements =
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                        if (size() <= STATEMENT_CACHE_SIZE) {
+                            return false;
+                        }
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                };
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * Get the statement for the SQL, preparing it the first time. The statement is owned by the connection and
+         * must not be closed, but its result sets must be.
+         */
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            }
+            statement.clearParameters();
+            return statement;
+        }
+
+        /**
+         * Like {@link #prepare(String)}, for an insert whose generated keys are read.
+         */
+        PreparedStatement prepareReturningKeys(String sql) throws SQLException {
+            String key = "keys:" + sql;
+            PreparedStatement statement = statements.get(key);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                statements.put(key, statement);
+            }
+            statement.clearParameters();
+            return statement;
+        }
+
+        private void close() throws SQLException {
+            statements.values().forEach(PooledConnection::closeQuietly);
+            statements.clear();
+            connection.close();
+        }
+
+        private static void closeQuietly(PreparedStatement statement) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                System.err.println("Closing statement failed: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.group12.ciserver.database;
+
+import com.group12.ciserver.model.FlakyTest;
+import com.group12.ciserver.model.SlowTest;
+import com.group12.ciserver.model.TestResult;
+import com.group12.ciserver.model.TestStatus;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * The queries on the test results of builds, shared by the SQL build stores.
+ * <p>
+ * Queries across builds only look at the newest builds of one repository, which are found through the index on the
+ * builds table, and then read the results of those builds through the index on the build of each test result.
+ */
+final class TestResultQueries {
+
+    static final String INSERT = "insert into test_results(build_id, class_name, name, status, duration_ms, message) "
+            + "values(?,?,?,?,?,?)";
+
+    private static final String RESULT_COLUMNS = "class_name, name, status, duration_ms, message";
+
+    static final String BY_BUILD = "select " + RESULT_COLUMNS + " from test_results where build_id = ? "
+            + "order by class_name, name";
+
+    static final String BY_BUILD_AND_STATUS = "select " + RESULT_COLUMNS + " from test_results "
+            + "where build_id = ? and status = ? order by class_name, name";
+
+    private static final String RECENT_BUILDS = "select uid from builds where repository = ? order by uid desc limit ?";
+
+    /**
+     * 1 for a commit the test both passed and failed on.
+     */
+    private static final String FLIPPED = "case when passes > 0 and failures > 0 then 1 else 0 end";
+
+    /**
+     * Parameters: repository, number of builds, limit.
+     */
+    static final String SLOWEST = "select class_name, name, count(*), avg(duration_ms), max(duration_ms) "
+            + "from test_results where build_id in (" + RECENT_BUILDS + ") and status <> 'SKIPPED' "
+            + "group by class_name, name order by avg(duration_ms) desc limit ?";
+
+    /**
+     * Parameters: repository, number of builds. The time of a test class in a build is the sum of its tests.
+     */
+    static final String CLASS_DURATIONS = "select class_name, sum(duration_ms), count(distinct build_id) "
+            + "from test_results where build_id in (" + RECENT_BUILDS + ") group by class_name";
+
+    /**
+     * Parameters: repository, number of builds, limit. The results are first grouped per commit, to find the commits a
+     * test both passed and failed on.
+     */
+    static final String FLAKY = "select class_name, name, sum(passes), sum(failures), sum(reruns), "
+            + "sum(" + FLIPPED + "), max(last_failed) "
+            + "from (select t.class_name, t.name, "
+            + "sum(case when t.status = 'PASSED' then 1 else 0 end) as passes, "
+            + "sum(case when t.status in ('FAILED', 'ERROR') then 1 else 0 end) as failures, "
+            + "sum(case when t.status = 'FLAKY' then 1 else 0 end) as reruns, "
+            + "max(case when t.status in ('FAILED', 'ERROR', 'FLAKY') then t.build_id end) as last_failed "
+            + "from test_results t join builds b on b.uid = t.build_id "
+            + "where t.build_id in (" + RECENT_BUILDS + ") "
+            + "group by t.class_name, t.name, b.commit_hash) per_commit "
+            + "group by class_name, name having sum(reruns) > 0 or sum(" + FLIPPED + ") > 0 "
+            + "order by sum(" + FLIPPED + ") + sum(reruns) desc, max(last_failed) desc limit ?";
+
+    private TestResultQueries() {
+    }
+
+    static void bindInsert(PreparedStatement statement, long buildId, TestResult result) throws SQLException {
+        statement.setLong(1, buildId);
+        statement.setString(2, result.getClassName());
+        statement.setString(3, result.getName());
+        statement.setString(4, result.getStatus().name());
+        statement.setLong(5, result.getDurationMillis());
+        if (result.getMessage() == null) {
+            statement.setNull(6, Types.VARCHAR);
+        } else {
+            statement.setString(6, result.getMessage());
+        }
+    }
+
+    static void bindRecentBuilds(PreparedStatement statement, String repository, int builds, int limit)
+            throws SQLException {
+        statement.setString(1, repository);
+        statement.setInt(2, builds);
+        statement.setInt(3, limit);
+    }
+
+    static TestResult toTestResult(ResultSet rs) throws SQLException {
+        return TestResult.builder()
+                .className(rs.getString(1))
+                .name(rs.getString(2))
+                .status(TestStatus.valueOf(rs.getString(3)))
+                .durationMillis(rs.getLong(4))
+                .message(rs.getString(5))
+                .build();
+    }
+
+    static SlowTest toSlowTest(ResultSet rs) throws SQLException {
+        return SlowTest.builder()
+                .className(rs.getString(1))
+                .name(rs.getString(2))
+                .runs(rs.getLong(3))
+                .averageMillis(Math.round(rs.getDouble(4)))
+                .maxMillis(rs.getLong(5))
+                .build();
+    }
+
+    static FlakyTest toFlakyTest(ResultSet rs) throws SQLException {
+        return FlakyTest.builder()
+                .className(rs.getString(1))
+                .name(rs.getString(2))
+                .passes(rs.getLong(3))
+                .failures(rs.getLong(4))
+                .reruns(rs.getLong(5))
+                .flippedCommits(rs.getLong(6))
+                .lastFailedBuild(rs.getLong(7))
+                .build();
+    }
+}
@@ -0,0 +1,400 @@
+package com.group12.ciserver.database;
+
+import com.group12.ciserver.model.WebhookDelivery;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Durable inbox for webhook events. Events are appended to a local journal file before the webhook is answered, and
+ * stay in the journal until they are marked processed, so events that were received but not built yet are built
+ * after a restart.
+ * <p>
+ * Events are deduplicated by their <code>X-GitHub-Delivery</code> ID, so an event that GitHub redelivers is only
+ * built once. The IDs of the last <code>ciserver.inbox.dedup-window</code> events are remembered.
+ * <p>
+ * Each record of the journal is written with a single write, which the operating system keeps if the server process
+ * dies. The journal is synced to disk every <code>ciserver.inbox.fsync-interval-ms</code>, so a crash of the whole
+ * host can lose the events of the last interval. An interval of 0 syncs every event before the webhook is answered.
+ * <p>
+ * Journal records are <code>length, CRC32, type, sequence, data</code>. A record that was cut off by a crash is
+ * dropped when the journal is read on startup. The journal is rewritten with only the unprocessed events and the
+ * remembered delivery IDs on startup and whenever it grows past <code>ciserver.inbox.compact-after-kb</code>.
+ */
+@Component
+@Slf4j
+public class WebhookInbox {
+
+    /**
+     * Result of {@link #append(String, String)}.
+     */
+    public enum AppendResult {
+        /** The event is stored and will be processed. */
+        ACCEPTED,
+        /** An event with the same delivery ID was received before. */
+        DUPLICATE,
+        /** Too many events are waiting to be processed. */
+        FULL,
+        /** The event could not be written to the journal. */
+        FAILED
+    }
+
+    /**
+     * Longer delivery IDs are rejected by the controller. GitHub sends GUIDs.
+     */
+    public static final int MAX_DELIVERY_ID_LENGTH = 255;
+
+    private static final byte EVENT = 1;
+
+    private static final byte PROCESSED = 2;
+
+    /**
+     * The delivery ID of a processed event, written when the journal is rewritten.
+     */
+    private static final byte SEEN = 3;
+
+    private static final int HEADER_SIZE = 8;
+
+    private final Path journalPath;
+
+    private final int maxPending;
+
+    private final long compactAfterBytes;
+
+    private final long fsyncIntervalMillis;
+
+    /**
+     * Delivery IDs of the latest events, in the order they were received.
+     */
+    private final LinkedHashMap<String, Boolean> seenDeliveries;
+
+    /**
+     * Events that have not been processed yet, by sequence.
+     */
+    private final TreeMap<Long, WebhookDelivery> unprocessed = new TreeMap<>();
+
+    private final ScheduledExecutorService syncer;
+
+    private FileChannel journal;
+
+    private long journalSize;
+
+    private long nextSequence = 1;
+
+    /**
+     * Events up to this sequence have been handed out by {@link #take()}.
+     */
+    private long taken = 0;
+
+    private boolean unsynced = false;
+
+    @Autowired
+    public WebhookInbox(@Value("${ciserver.inbox.path:webhook-inbox.journal}") String journalPath,
+                        @Value("${ciserver.inbox.max-pending:1000}") int maxPending,
+                        @Value("${ciserver.inbox.dedup-window:10000}") int dedupWindow,
+                        @Value("${ciserver.inbox.fsync-interval-ms:100}") long fsyncIntervalMillis,
+                        @Value("${ciserver.inbox.compact-after-kb:16384}") long compactAfterKb) throws IOException {
+        this.journalPath = Paths.get(journalPath);
+        this.maxPending = maxPending;
+        this.compactAfterBytes = compactAfterKb * 1024;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        this.seenDeliveries = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > dedupWindow;
+            }
+        };
+
+        replay();
+        compact();
+        log.info("Webhook inbox opened, path={}, unprocessed={}", this.journalPath, unprocessed.size());
+
+        if (fsyncIntervalMillis > 0) {
+            syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "webhook-inbox-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(this::sync, fsyncIntervalMillis, fsyncIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    /**
+     * Stores an event in the inbox.
+     *
+     * @param deliveryId the <code>X-GitHub-Delivery</code> header of the event, or null if there is none, in which case
+     *                   the event cannot be deduplicated.
+     * @param payload the JSON body of the event.
+     * @return whether the event was stored.
+     */
+    public synchronized AppendResult append(String deliveryId, String payload) {
+        if (deliveryId == null || deliveryId.isEmpty()) {
+            deliveryId = UUID.randomUUID().toString();
+        } else if (seenDeliveries.containsKey(deliveryId)) {
+            return AppendResult.DUPLICATE;
+        }
+        if (unprocessed.size() >= maxPending) {
+            return AppendResult.FULL;
+        }
+        long sequence = nextSequence;
+        try {
+            write(eventRecord(sequence, deliveryId, payload));
+            if (fsyncIntervalMillis <= 0) {
+                journal.force(false);
+            }
+        } catch (IOException e) {
+            log.error("Could not write webhook event to inbox, deliveryId={}", deliveryId, e);
+            return AppendResult.FAILED;
+        }
+        nextSequence++;
+        seenDeliveries.put(deliveryId, Boolean.TRUE);
+        unprocessed.put(sequence, WebhookDelivery.builder()
+                .sequence(sequence)
+                .deliveryId(deliveryId)
+                .payload(payload)
+                .build());
+        notifyAll();
+        return AppendResult.ACCEPTED;
+    }
+
+    /**
+     * Waits for the next event that has not been handed out yet. Each event is handed out once, but stays in the
+     * inbox until {@link #markProcessed(long)} is called, so it is handed out again after a restart.
+     */
+    public synchronized WebhookDelivery take() throws InterruptedException {
+        Map.Entry<Long, WebhookDelivery> next;
+        while ((next = unprocessed.higherEntry(taken)) == null) {
+            wait();
+        }
+        taken = next.getKey();
+        return next.getValue();
+    }
+
+    /**
+     * Removes an event from the inbox, after it has been built or replaced by a newer event.
+     */
+    public synchronized void markProcessed(long sequence) {
+        if (unprocessed.remove(sequence) == null) {
+            return;
+        }
+        try {
+            write(record(PROCESSED, sequence, new byte[0]));
+            if (journalSize > compactAfterBytes) {
+                compact();
+            }
+        } catch (IOException e) {
+            // The event is built again after a restart
+            log.error("Could not mark webhook event as processed, sequence={}", sequence, e);
+        }
+    }
+
+    /**
+     * @return the number of events that have not been processed yet.
+     */
+    public synchronized int pendingCount() {
+        return unprocessed.size();
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        try {
+            journal.force(false);
+            journal.close();
+        } catch (IOException e) {
+            log.error("Could not close webhook inbox, path={}", journalPath, e);
+        }
+    }
+
+    private synchronized void sync() {
+        if (!unsynced || !journal.isOpen()) {
+            return;
+        }
+        try {
+            journal.force(false);
+            unsynced = false;
+        } catch (IOException e) {
+            log.error("Could not sync webhook inbox, path={}", journalPath, e);
+        }
+    }
+
+    private void write(ByteBuffer record) throws IOException {
+        int length = record.remaining();
+        while (record.hasRemaining()) {
+            journal.write(record);
+        }
+        journalSize += length;
+        unsynced = true;
+    }
+
+    /**
+     * Reads the journal into memory and cuts off a record that was only partly written.
+     */
+    private void replay() throws IOException {
+        if (!Files.exists(journalPath)) {
+            return;
+        }
+        long validSize = 0;
+        try (InputStream file = Files.newInputStream(journalPath);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                long checksum = in.readInt() & 0xFFFFFFFFL;
+                if (length < 9) {
+                    throw new IOException("Bad record length " + length);
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if (crc.getValue() != checksum) {
+                    throw new IOException("Bad record checksum");
+                }
+                apply(ByteBuffer.wrap(body));
+                validSize += HEADER_SIZE + length;
+            }
+        } catch (IOException e) {
+            log.warn("Dropping the end of the webhook inbox journal, offset={}, error={}", validSize,
+                    e.getMessage());
+        }
+        taken = 0;
+    }
+
+    private void apply(ByteBuffer body) {
+        byte type = body.get();
+        long sequence = body.getLong();
+        nextSequence = Math.max(nextSequence, sequence + 1);
+        switch (type) {
+            case EVENT: {
+                String deliveryId = readString(body);
+                byte[] payload = new byte[body.remaining()];
+                body.get(payload);
+                seenDeliveries.put(deliveryId, Boolean.TRUE);
+                unprocessed.put(sequence, WebhookDelivery.builder()
+                        .sequence(sequence)
+                        .deliveryId(deliveryId)
+                        .payload(new String(payload, StandardCharsets.UTF_8))
+                        .build());
+                break;
+            }
+            case PROCESSED:
+                unprocessed.remove(sequence);
+                break;
+            case SEEN:
+                seenDeliveries.put(readString(body), Boolean.TRUE);
+                break;
+            default:
+                log.warn("Unknown record in webhook inbox journal, type={}", type);
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the remembered delivery IDs and the unprocessed events, and replaces the old
+     * journal with it atomically.
+     */
+    private void compact() throws IOException {
+        Path compacted = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        long size = 0;
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Map<String, Long> pendingDeliveries = new LinkedHashMap<>();
+            for (WebhookDelivery delivery : unprocessed.values()) {
+                pendingDeliveries.put(delivery.getDeliveryId(), delivery.getSequence());
+            }
+            for (String deliveryId : seenDeliveries.keySet()) {
+                if (!pendingDeliveries.containsKey(deliveryId)) {
+                    size += writeFully(out, seenRecord(deliveryId));
+                }
+            }
+            // The next sequence is kept even if no event is left, so sequences are never reused. Written before the
+            // events, as it may be the sequence of an unprocessed event.
+            size += writeFully(out, record(PROCESSED, nextSequence - 1, new byte[0]));
+            for (WebhookDelivery delivery : unprocessed.values()) {
+                size += writeFully(out, eventRecord(delivery.getSequence(), delivery.getDeliveryId(),
+                        delivery.getPayload()));
+            }
+            out.force(true);
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        Files.move(compacted, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = FileChannel.open(journalPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        journalSize = size;
+        unsynced = false;
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer record) throws IOException {
+        int length = record.remaining();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        return length;
+    }
+
+    private static ByteBuffer eventRecord(long sequence, String deliveryId, String payload) {
+        byte[] id = deliveryId.getBytes(StandardCharsets.UTF_8);
+        byte[] json = payload.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer data = ByteBuffer.allocate(2 + id.length + json.length);
+        data.putShort((short) id.length).put(id).put(json);
+        return record(EVENT, sequence, data.array());
+    }
+
+    private static ByteBuffer seenRecord(String deliveryId) {
+        byte[] id = deliveryId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer data = ByteBuffer.allocate(2 + id.length);
+        data.putShort((short) id.length).put(id);
+        return record(SEEN, 0, data.array());
+    }
+
+    private static ByteBuffer record(byte type, long sequence, byte[] data) {
+        ByteBuffer body = ByteBuffer.allocate(9 + data.length);
+        body.put(type).putLong(sequence).put(data);
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + body.capacity());
+        record.putInt(body.capacity()).putInt((int) crc.getValue()).put(body.array());
+        record.flip();
+        return record;
+    }
+
+    private static String readString(ByteBuffer body) {
+        byte[] bytes = new byte[body.getShort() & 0xFFFF];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
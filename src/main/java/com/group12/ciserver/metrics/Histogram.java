@@ -0,0 +1,69 @@
+package com.group12.ciserver.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in fixed buckets, like a Prometheus histogram, so quantiles such as p50 and p99 can be computed
+ * from it over any time range with <code>histogram_quantile</code>.
+ * <p>
+ * Recording only finds the bucket and adds to striped counters, so threads that record at the same time do not wait
+ * for each other.
+ */
+public class Histogram {
+
+    private final double[] upperBounds;
+
+    /**
+     * Samples per bucket, not cumulative. The last bucket has no upper bound.
+     */
+    private final LongAdder[] buckets;
+
+    private final DoubleAdder sumSeconds = new DoubleAdder();
+
+    Histogram(double[] upperBounds) {
+        this.upperBounds = upperBounds.clone();
+        this.buckets = new LongAdder[upperBounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records the time since <code>startNanos</code>, a value of {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    public void recordNanos(long nanos) {
+        double seconds = (double) Math.max(0, nanos) / TimeUnit.SECONDS.toNanos(1);
+        int bucket = Arrays.binarySearch(upperBounds, seconds);
+        // The upper bounds are inclusive
+        buckets[bucket >= 0 ? bucket : -bucket - 1].increment();
+        sumSeconds.add(seconds);
+    }
+
+    double[] getUpperBounds() {
+        return upperBounds.clone();
+    }
+
+    /**
+     * @return the number of samples up to each upper bound, and the number of all samples last.
+     */
+    long[] cumulativeCounts() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i].sum();
+            counts[i] = total;
+        }
+        return counts;
+    }
+
+    double getSumSeconds() {
+        return sumSeconds.sum();
+    }
+}
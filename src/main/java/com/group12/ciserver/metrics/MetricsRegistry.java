@@ -0,0 +1,217 @@
+package com.group12.ciserver.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Holds the metrics of the server and writes them in the Prometheus text format, see <code>/metrics</code>.
+ * <p>
+ * A metric is created on first use with its label names, e.g. <code>repository</code> and <code>stage</code>, and
+ * every combination of label values is a series of its own. The hot paths look a series up in a concurrent map and
+ * record without locking. A metric holds at most {@link #MAX_SERIES} series, further label values are recorded as
+ * {@link #OTHER}, so pushes of many repositories cannot grow the metrics without bound.
+ */
+@Component
+@Slf4j
+public class MetricsRegistry {
+
+    static final int MAX_SERIES = 1000;
+
+    static final String OTHER = "other";
+
+    /**
+     * Upper bounds in seconds for calls that should take milliseconds, e.g. a database insert or a commit status.
+     */
+    public static final double[] LATENCY_BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5,
+            5, 10, 30, 60, 300};
+
+    /**
+     * Upper bounds in seconds for steps of a build that take seconds to hours, e.g. a clone or a maven stage.
+     */
+    public static final double[] DURATION_BUCKETS = {0.5, 1, 2.5, 5, 10, 20, 30, 60, 120, 300, 600, 1200, 1800, 3600,
+            7200};
+
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param labels names and values of the labels, alternating, e.g. <code>"repository", "owner/name"</code>.
+     * @return the histogram of the series, created with the given upper bounds in seconds if it is new.
+     */
+    public Histogram histogram(String name, String help, double[] upperBounds, String... labels) {
+        return (Histogram) metric(name, help, Type.HISTOGRAM, labels)
+                .series(labels, () -> new Histogram(upperBounds));
+    }
+
+    /**
+     * @param labels names and values of the labels, alternating.
+     * @return the counter of the series, a value that only goes up.
+     */
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) metric(name, help, Type.COUNTER, labels).series(labels, LongAdder::new);
+    }
+
+    /**
+     * Registers a value that is read on every scrape, e.g. the length of a queue. A gauge registered again replaces
+     * the earlier one.
+     */
+    public void gauge(String name, String help, DoubleSupplier value) {
+        Metric metric = metric(name, help, Type.GAUGE);
+        metric.series.put(List.of(), value);
+    }
+
+    private Metric metric(String name, String help, Type type, String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels of " + name + " must be pairs of name and value");
+        }
+        List<String> labelNames = new ArrayList<>();
+        for (int i = 0; i < labels.length; i += 2) {
+            labelNames.add(labels[i]);
+        }
+        Metric metric = metrics.computeIfAbsent(name, key -> new Metric(name, help, type, labelNames));
+        if (metric.type != type || !metric.labelNames.equals(labelNames)) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + metric.type + " with labels "
+                    + metric.labelNames);
+        }
+        return metric;
+    }
+
+    /**
+     * @return all metrics in the Prometheus text exposition format 0.0.4.
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Metric metric : metrics.values()) {
+            metric.write(out);
+        }
+        return out.toString();
+    }
+
+    private enum Type {
+        COUNTER, GAUGE, HISTOGRAM
+    }
+
+    private static class Metric {
+
+        private final String name;
+
+        private final String help;
+
+        private final Type type;
+
+        private final List<String> labelNames;
+
+        /**
+         * Series by their label values.
+         */
+        private final Map<List<String>, Object> series = new ConcurrentHashMap<>();
+
+        Metric(String name, String help, Type type, List<String> labelNames) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelNames = labelNames;
+        }
+
+        Object series(String[] labels, Supplier<Object> create) {
+            List<String> values = new ArrayList<>();
+            for (int i = 1; i < labels.length; i += 2) {
+                values.add(labels[i] == null ? "" : labels[i]);
+            }
+            Object existing = series.get(values);
+            if (existing != null) {
+                return existing;
+            }
+            if (series.size() >= MAX_SERIES) {
+                return series.computeIfAbsent(Collections.nCopies(labelNames.size(), OTHER), key -> {
+                    log.warn("Metric {} has {} series, recording new label values as {}", name, MAX_SERIES, OTHER);
+                    return create.get();
+                });
+            }
+            return series.computeIfAbsent(values, key -> create.get());
+        }
+
+        void write(StringBuilder out) {
+            out.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n"))
+                    .append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type.name().toLowerCase(Locale.ROOT)).append('\n');
+            List<List<String>> keys = new ArrayList<>(series.keySet());
+            keys.sort(Metric::compareLabelValues);
+            for (List<String> values : keys) {
+                Object value = series.get(values);
+                switch (type) {
+                    case COUNTER:
+                        writeSample(out, name + "_total", values, null, null, ((LongAdder) value).sum());
+                        break;
+                    case GAUGE:
+                        writeSample(out, name, values, null, null, ((DoubleSupplier) value).getAsDouble());
+                        break;
+                    case HISTOGRAM:
+                        Histogram histogram = (Histogram) value;
+                        double[] upperBounds = histogram.getUpperBounds();
+                        long[] counts = histogram.cumulativeCounts();
+                        for (int i = 0; i < upperBounds.length; i++) {
+                            writeSample(out, name + "_bucket", values, "le", format(upperBounds[i]), counts[i]);
+                        }
+                        long count = counts[counts.length - 1];
+                        writeSample(out, name + "_bucket", values, "le", "+Inf", count);
+                        writeSample(out, name + "_sum", values, null, null, histogram.getSumSeconds());
+                        writeSample(out, name + "_count", values, null, null, count);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        private void writeSample(StringBuilder out, String sampleName, List<String> values, String extraName,
+                                 String extraValue, double sample) {
+            out.append(sampleName);
+            if (!values.isEmpty() || extraName != null) {
+                out.append('{');
+                for (int i = 0; i < values.size(); i++) {
+                    if (i > 0) {
+                        out.append(',');
+                    }
+                    out.append(labelNames.get(i)).append("=\"").append(escape(values.get(i))).append('"');
+                }
+                if (extraName != null) {
+                    out.append(values.isEmpty() ? "" : ",").append(extraName).append("=\"").append(extraValue)
+                            .append('"');
+                }
+                out.append('}');
+            }
+            out.append(' ').append(format(sample)).append('\n');
+        }
+
+        private static int compareLabelValues(List<String> a, List<String> b) {
+            for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+                int compared = a.get(i).compareTo(b.get(i));
+                if (compared != 0) {
+                    return compared;
+                }
+            }
+            return Integer.compare(a.size(), b.size());
+        }
+
+        private static String escape(String labelValue) {
+            return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
+
+        private static String format(double value) {
+            return value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15
+                    ? Long.toString((long) value)
+                    : Double.toString(value);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.group12.ciserver.model;
 
 
+import com.group12.ciserver.model.github.CommitState;
+
 import java.time.OffsetDateTime;
 
 public class BuildInfo {
@@ -9,6 +11,12 @@ public class BuildInfo {
     private final String commitId;
     private final String content;
     private final OffsetDateTime timestamp;
+    private String repository;
+    private String branch;
+    private CommitState status;
+    private Long durationMillis;
+    private Long peakMemoryBytes;
+    private Long cpuTimeMillis;
 
     public BuildInfo(String commitId, String content) {
         this(-1, commitId, content);
@@ -34,6 +42,26 @@ public class BuildInfo {
         this.timestamp = timestamp;
     }
 
+    /**
+     * Create a build that has just started, its log is streamed separately.
+     */
+    public BuildInfo(String commitId, String repository, String branch, OffsetDateTime timestamp) {
+        this(commitId, null, timestamp);
+        this.repository = repository;
+        this.branch = branch;
+        this.status = CommitState.PENDING;
+    }
+
+    public BuildInfo(BuildSummary summary, String content) {
+        this(summary.getUid(), summary.getCommitId(), content, summary.getTimestamp());
+        this.repository = summary.getRepository();
+        this.branch = summary.getBranch();
+        this.status = summary.getStatus();
+        this.durationMillis = summary.getDurationMillis();
+        this.peakMemoryBytes = summary.getPeakMemoryBytes();
+        this.cpuTimeMillis = summary.getCpuTimeMillis();
+    }
+
     public OffsetDateTime getTimestamp() {
         return this.timestamp;
     }
@@ -49,4 +77,28 @@ public class BuildInfo {
     public String getContent() {
         return this.content;
     }
+
+    public String getRepository() {
+        return this.repository;
+    }
+
+    public String getBranch() {
+        return this.branch;
+    }
+
+    public CommitState getStatus() {
+        return this.status;
+    }
+
+    public Long getDurationMillis() {
+        return this.durationMillis;
+    }
+
+    public Long getPeakMemoryBytes() {
+        return this.peakMemoryBytes;
+    }
+
+    public Long getCpuTimeMillis() {
+        return this.cpuTimeMillis;
+    }
 }
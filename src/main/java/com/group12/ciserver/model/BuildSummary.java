@@ -0,0 +1,49 @@
+package com.group12.ciserver.model;
+
+import com.group12.ciserver.model.github.CommitState;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.OffsetDateTime;
+
+/**
+ * The columns of a build that are listed in the build history, i.e. everything except the log.
+ */
+@Builder
+@Getter
+public class BuildSummary {
+
+    private long uid;
+
+    private String commitId;
+
+    /**
+     * Full name of the repository, e.g. DD2480-G12/a2-ci-server.
+     */
+    private String repository;
+
+    private String branch;
+
+    /**
+     * Result of the build, PENDING while it is running. Null for builds stored before the status was recorded.
+     */
+    private CommitState status;
+
+    private OffsetDateTime timestamp;
+
+    /**
+     * Wall-clock time of the pipeline in milliseconds, null while the build is running.
+     */
+    private Long durationMillis;
+
+    /**
+     * Highest memory use of the processes of the build in bytes, null if unknown, e.g. while the build is running or
+     * if it ran without a cgroup.
+     */
+    private Long peakMemoryBytes;
+
+    /**
+     * CPU time of the processes of the build in milliseconds, null if unknown.
+     */
+    private Long cpuTimeMillis;
+}
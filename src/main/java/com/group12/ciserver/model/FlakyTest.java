@@ -0,0 +1,39 @@
+package com.group12.ciserver.model;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * A test that both passed and failed in the recent builds of a repository without a change to the commit, or that
+ * only passed when surefire ran it again.
+ */
+@Builder
+@Getter
+public class FlakyTest {
+
+    private String className;
+
+    private String name;
+
+    private long passes;
+
+    /**
+     * Number of runs that failed or ended with an error.
+     */
+    private long failures;
+
+    /**
+     * Number of runs that passed when surefire ran the test again.
+     */
+    private long reruns;
+
+    /**
+     * Number of commits the test both passed and failed on.
+     */
+    private long flippedCommits;
+
+    /**
+     * The newest build in which the test failed or needed a rerun.
+     */
+    private long lastFailedBuild;
+}
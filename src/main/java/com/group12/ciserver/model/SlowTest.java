@@ -0,0 +1,25 @@
+package com.group12.ciserver.model;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * How long a test took in the recent builds of a repository.
+ */
+@Builder
+@Getter
+public class SlowTest {
+
+    private String className;
+
+    private String name;
+
+    /**
+     * Number of recent builds that ran the test.
+     */
+    private long runs;
+
+    private long averageMillis;
+
+    private long maxMillis;
+}
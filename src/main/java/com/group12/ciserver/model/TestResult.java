@@ -0,0 +1,31 @@
+package com.group12.ciserver.model;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * The result of one test case in a build, read from the surefire reports of the build.
+ */
+@Builder
+@Getter
+public class TestResult {
+
+    /**
+     * Fully qualified name of the test class, e.g. com.group12.ciserver.service.CIServiceTest.
+     */
+    private String className;
+
+    /**
+     * Name of the test method, including the parameters of a parameterized test.
+     */
+    private String name;
+
+    private TestStatus status;
+
+    private long durationMillis;
+
+    /**
+     * The message of the failure or error, null if the test passed.
+     */
+    private String message;
+}
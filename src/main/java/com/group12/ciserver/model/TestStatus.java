@@ -0,0 +1,15 @@
+package com.group12.ciserver.model;
+
+/**
+ * Outcome of one test case in a surefire report.
+ */
+public enum TestStatus {
+    PASSED,
+    FAILED,
+    ERROR,
+    SKIPPED,
+    /**
+     * Failed, then passed when surefire ran it again, see <code>rerunFailingTestsCount</code>.
+     */
+    FLAKY
+}
@@ -0,0 +1,27 @@
+package com.group12.ciserver.model;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * A webhook event from GitHub, as stored in the webhook inbox until it has been processed.
+ */
+@Builder
+@Getter
+public class WebhookDelivery {
+
+    /**
+     * Position of the event in the inbox, events are processed in this order.
+     */
+    private long sequence;
+
+    /**
+     * The <code>X-GitHub-Delivery</code> header of the event, which GitHub keeps when it redelivers the event.
+     */
+    private String deliveryId;
+
+    /**
+     * The JSON body of the event, as received.
+     */
+    private String payload;
+}
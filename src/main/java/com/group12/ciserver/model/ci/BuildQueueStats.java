@@ -0,0 +1,49 @@
+package com.group12.ciserver.model.ci;
+
+import lombok.Builder;
+import lombok.Getter;
+
+@Builder
+@Getter
+public class BuildQueueStats {
+
+    /**
+     * Number of builds waiting for a free worker.
+     */
+    private int queueDepth;
+
+    /**
+     * Maximum number of builds that may wait in the queue.
+     */
+    private int queueCapacity;
+
+    /**
+     * Number of builds currently running.
+     */
+    private int activeBuilds;
+
+    /**
+     * Number of workers, i.e. the maximum number of builds running at the same time.
+     */
+    private int workers;
+
+    /**
+     * Number of push events rejected because the queue was full.
+     */
+    private long rejectedBuilds;
+
+    /**
+     * Number of builds that have left the queue and started running.
+     */
+    private long startedBuilds;
+
+    /**
+     * Average time in milliseconds a build waited in the queue before it started.
+     */
+    private double averageWaitMillis;
+
+    /**
+     * Longest time in milliseconds a build waited in the queue before it started.
+     */
+    private long maxWaitMillis;
+}
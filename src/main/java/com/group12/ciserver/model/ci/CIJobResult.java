@@ -8,6 +8,4 @@ import lombok.Getter;
 public class CIJobResult {
 
     private boolean successful;
-
-    private String logs;
 }
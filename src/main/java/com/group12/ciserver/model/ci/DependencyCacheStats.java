@@ -0,0 +1,49 @@
+package com.group12.ciserver.model.ci;
+
+import lombok.Builder;
+import lombok.Getter;
+
+@Builder
+@Getter
+public class DependencyCacheStats {
+
+    /**
+     * False if builds use the local repository of the server user instead of the cache.
+     */
+    private boolean enabled;
+
+    /**
+     * Number of jar and pom files in the shared store.
+     */
+    private long sharedArtifacts;
+
+    /**
+     * Size in bytes of the shared store.
+     */
+    private long sharedBytes;
+
+    /**
+     * Number of builds that used the cache since the server started.
+     */
+    private long builds;
+
+    /**
+     * Number of builds that found all their dependencies in the shared store.
+     */
+    private long buildsWithoutDownloads;
+
+    /**
+     * Share of the builds that found all their dependencies in the shared store.
+     */
+    private double hitRate;
+
+    /**
+     * Number of jar and pom files downloaded by builds.
+     */
+    private long downloadedArtifacts;
+
+    /**
+     * Bytes downloaded by builds.
+     */
+    private long downloadedBytes;
+}
@@ -0,0 +1,8 @@
+package com.group12.ciserver.model.ci;
+
+public class InvalidPipelineDefinitionException extends RuntimeException {
+
+    public InvalidPipelineDefinitionException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,68 @@
+package com.group12.ciserver.model.ci;
+
+import lombok.Getter;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The stages of a CI pipeline and the dependencies between them, which form a directed acyclic graph. Stages that do
+ * not depend on each other, directly or indirectly, may run in parallel.
+ */
+@Getter
+public class PipelineDefinition {
+
+    /**
+     * The stages, every stage after the stages it needs.
+     */
+    private final List<StageDefinition> stages;
+
+    /**
+     * True if some stages may run in parallel, false if the stages form a chain.
+     */
+    private final boolean parallel;
+
+    public PipelineDefinition(List<StageDefinition> stages) {
+        this.stages = List.copyOf(stages);
+        this.parallel = hasIndependentStages(this.stages);
+    }
+
+    /**
+     * The pipeline that is run when a repository has no pipeline definition: compile, then test.
+     */
+    public static PipelineDefinition defaultPipeline() {
+        return new PipelineDefinition(List.of(
+                StageDefinition.builder()
+                        .name("compile")
+                        .maven("compile")
+                        .failureMessage("Compilation of project failed")
+                        .build(),
+                StageDefinition.builder()
+                        .name("test")
+                        .maven("test")
+                        .need("compile")
+                        .failureMessage("Tests failed")
+                        .build()));
+    }
+
+    private static boolean hasIndependentStages(List<StageDefinition> stages) {
+        // The stages are a chain if every stage depends, directly or indirectly, on all stages before it
+        Map<String, Set<String>> ancestors = new HashMap<>();
+        for (int i = 0; i < stages.size(); i++) {
+            StageDefinition stage = stages.get(i);
+            Set<String> stageAncestors = new HashSet<>();
+            for (String need : stage.getNeeds()) {
+                stageAncestors.add(need);
+                stageAncestors.addAll(ancestors.getOrDefault(need, Set.of()));
+            }
+            if (stageAncestors.size() < i) {
+                return true;
+            }
+            ancestors.put(stage.getName(), stageAncestors);
+        }
+        return false;
+    }
+}
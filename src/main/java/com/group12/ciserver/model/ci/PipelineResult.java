@@ -0,0 +1,16 @@
+package com.group12.ciserver.model.ci;
+
+import lombok.Builder;
+import lombok.Getter;
+
+@Builder
+@Getter
+public class PipelineResult {
+
+    private boolean successful;
+
+    /**
+     * The first stage that failed, null if the pipeline was successful.
+     */
+    private StageDefinition failedStage;
+}
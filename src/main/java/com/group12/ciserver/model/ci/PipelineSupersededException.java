@@ -0,0 +1,8 @@
+package com.group12.ciserver.model.ci;
+
+public class PipelineSupersededException extends RuntimeException {
+
+    public PipelineSupersededException(String message) {
+        super(message);
+    }
+}
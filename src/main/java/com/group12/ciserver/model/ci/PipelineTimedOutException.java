@@ -0,0 +1,8 @@
+package com.group12.ciserver.model.ci;
+
+public class PipelineTimedOutException extends RuntimeException {
+
+    public PipelineTimedOutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,36 @@
+package com.group12.ciserver.model.ci;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.Locale;
+
+/**
+ * What the processes of a build used, read from the cgroup of the build.
+ */
+@Builder
+@Getter
+public class ResourceUsage {
+
+    /**
+     * Highest memory use of all processes of the build together in bytes, null if unknown.
+     */
+    private Long peakMemoryBytes;
+
+    /**
+     * CPU time of all processes of the build together in milliseconds, null if unknown.
+     */
+    private Long cpuTimeMillis;
+
+    /**
+     * @return a line for the build log, or null if nothing is known.
+     */
+    public String describe() {
+        if (peakMemoryBytes == null && cpuTimeMillis == null) {
+            return null;
+        }
+        return String.format("Resources: peak memory %s, CPU time %s",
+                peakMemoryBytes == null ? "unknown" : (peakMemoryBytes / (1024 * 1024)) + " MB",
+                cpuTimeMillis == null ? "unknown" : String.format(Locale.ROOT, "%.1f s", cpuTimeMillis / 1000.0));
+    }
+}
@@ -0,0 +1,33 @@
+package com.group12.ciserver.model.ci;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+
+import java.util.List;
+
+/**
+ * A stage of a CI pipeline, which runs one maven command.
+ */
+@Builder
+@Getter
+public class StageDefinition {
+
+    private String name;
+
+    /**
+     * The arguments of the maven command, e.g. <code>package -DskipTests</code>.
+     */
+    private String maven;
+
+    /**
+     * Names of the stages that must succeed before this stage is started.
+     */
+    @Singular("need")
+    private List<String> needs;
+
+    /**
+     * Description of the commit status when this stage fails.
+     */
+    private String failureMessage;
+}
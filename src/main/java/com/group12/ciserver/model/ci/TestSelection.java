@@ -0,0 +1,63 @@
+package com.group12.ciserver.model.ci;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The tests a build runs, chosen by the test impact analysis.
+ */
+@Builder
+@Getter
+public class TestSelection {
+
+    /**
+     * True if the build runs all tests.
+     */
+    private boolean fullRun;
+
+    /**
+     * Why all tests run, or which commit the changes were compared to if only some of them run.
+     */
+    private String reason;
+
+    /**
+     * The test classes to run if {@link #fullRun} is false, e.g. <code>com.example.CalculatorTest</code>.
+     */
+    private Set<String> testClasses;
+
+    /**
+     * Number of test classes of the last successful build, 0 if unknown.
+     */
+    private int totalTestClasses;
+
+    /**
+     * Number of builds since the last build that ran all tests, including this one.
+     */
+    private int selectiveRuns;
+
+    /**
+     * @return the options that make surefire run only the selected test classes, empty for a full run.
+     */
+    public List<String> getMavenOptions() {
+        if (fullRun) {
+            return List.of();
+        }
+        String tests = testClasses.isEmpty() ? "!**/*" : String.join(",", testClasses);
+        // Modules without any of the selected tests must not fail the build
+        return List.of("-Dtest=" + tests, "-Dsurefire.failIfNoSpecifiedTests=false", "-DfailIfNoTests=false");
+    }
+
+    /**
+     * @return a line for the build log.
+     */
+    public String describe() {
+        if (fullRun) {
+            return "Test impact analysis: running all tests (" + reason + ")";
+        }
+        return String.format("Test impact analysis: running %d of %d test classes affected by changes since %s",
+                testClasses.size(), totalTestClasses, reason);
+    }
+}
@@ -0,0 +1,38 @@
+package com.group12.ciserver.model.ci;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * A part of the test classes of a stage, run by its own maven process in its own copy of the workspace.
+ */
+@Builder
+@Getter
+public class TestShard {
+
+    /**
+     * Position of the shard, starting at 1.
+     */
+    private int number;
+
+    /**
+     * Fully qualified names of the test classes of the shard, e.g. <code>com.example.CalculatorTest</code>.
+     */
+    private List<String> testClasses;
+
+    /**
+     * Expected run time of the test classes from earlier builds, in milliseconds.
+     */
+    private long estimatedMillis;
+
+    /**
+     * @return the options that make surefire run only the test classes of this shard.
+     */
+    public List<String> getMavenOptions() {
+        // Modules without any of the tests of this shard must not fail the build
+        return List.of("-Dtest=" + String.join(",", testClasses), "-Dsurefire.failIfNoSpecifiedTests=false",
+                "-DfailIfNoTests=false");
+    }
+}
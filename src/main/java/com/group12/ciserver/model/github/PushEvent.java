@@ -10,6 +10,12 @@ public class PushEvent {
      */
     private String ref;
 
+    /**
+     * The SHA of the most recent commit on {@link PushEvent#ref} before the push, or 40 zeros if the push created
+     * the ref.
+     */
+    private String before;
+
     /**
      * The SHA of the most recent commit on {@link PushEvent#ref} after the push.
      */
@@ -32,4 +38,12 @@ public class PushEvent {
         }
         return ref.substring(5);
     }
+
+    /**
+     * @return true if this push updated the default branch of the repository.
+     */
+    public boolean isDefaultBranchPush() {
+        return ref != null && ref.startsWith("refs/heads/") && repository != null
+                && getBranchName().equals(repository.getDefaultBranch());
+    }
 }
@@ -11,5 +11,11 @@ public class Repository {
     @JsonProperty("clone_url")
     private String cloneUrl;
 
+    /**
+     * The name of the repository's default branch, e.g. main.
+     */
+    @JsonProperty("default_branch")
+    private String defaultBranch;
+
     private Owner owner;
 }
@@ -0,0 +1,189 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.ci.ResourceUsage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Predicate;
+
+/**
+ * The cgroup the processes of one build run in, created by {@link BuildIsolation}.
+ * <p>
+ * Every process is moved into the cgroup by a shell before it executes the actual command, so the processes it starts,
+ * e.g. forked test JVMs, are in the cgroup from the start and cannot escape it.
+ * <p>
+ * Daemons that outlive builds, e.g. those of the Maven Daemon, also start in the cgroup of the build that needed them
+ * first. Before the processes of a build are killed they are moved to the daemon cgroup next to the build cgroups,
+ * where they keep running for the next builds, and without the limits of a build.
+ */
+@Slf4j
+public class BuildCgroup {
+
+    /**
+     * Stands for a build that runs without a cgroup, e.g. because the server has no cgroup v2 hierarchy it may use.
+     */
+    static final BuildCgroup NONE = new BuildCgroup(null);
+
+    /**
+     * The directory of the cgroup, null if there is none.
+     */
+    private final Path directory;
+
+    /**
+     * The cgroup daemons are moved to, null if there is none.
+     */
+    private final Path daemonCgroup;
+
+    private final Predicate<ProcessHandle> isDaemon;
+
+    /**
+     * Stops the build when it runs for too long, null if there is no timeout.
+     */
+    volatile ScheduledFuture<?> timeout;
+
+    BuildCgroup(Path directory) {
+        this(directory, null, process -> false);
+    }
+
+    BuildCgroup(Path directory, Path daemonCgroup, Predicate<ProcessHandle> isDaemon) {
+        this.directory = directory;
+        this.daemonCgroup = daemonCgroup;
+        this.isDaemon = isDaemon;
+    }
+
+    /**
+     * @return true if the process is a daemon that must not be killed with the build.
+     */
+    public boolean isDaemon(ProcessHandle process) {
+        return isDaemon.test(process);
+    }
+
+    /**
+     * @return the command line that runs <code>commandLine</code> inside the cgroup.
+     */
+    public List<String> wrap(List<String> commandLine) {
+        if (directory == null) {
+            return commandLine;
+        }
+        List<String> wrapped = new ArrayList<>();
+        wrapped.add("sh");
+        wrapped.add("-c");
+        wrapped.add("echo $$ > \"$0\" && exec \"$@\"");
+        wrapped.add(directory.resolve("cgroup.procs").toString());
+        wrapped.addAll(commandLine);
+        return wrapped;
+    }
+
+    /**
+     * Kills all processes in the cgroup, including those that are no longer descendants of the process the build
+     * started, except daemons, which are moved to the daemon cgroup first.
+     */
+    public void kill() {
+        if (directory == null) {
+            return;
+        }
+        try {
+            moveDaemons();
+            Path killFile = directory.resolve("cgroup.kill");
+            if (Files.exists(killFile)) {
+                Files.writeString(killFile, "1");
+                return;
+            }
+            // Kernels before 5.14 have no cgroup.kill
+            for (ProcessHandle process : processes()) {
+                if (!isDaemon(process)) {
+                    process.destroyForcibly();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not kill the processes of a build, cgroup={}", directory, e);
+        }
+    }
+
+    private void moveDaemons() throws IOException {
+        for (ProcessHandle process : processes()) {
+            if (isDaemon(process) && daemonCgroup != null) {
+                log.info("Moving daemon out of the build cgroup, pid={}, cgroup={}", process.pid(), daemonCgroup);
+                Files.createDirectories(daemonCgroup);
+                Files.writeString(daemonCgroup.resolve("cgroup.procs"), Long.toString(process.pid()));
+            }
+        }
+    }
+
+    private List<ProcessHandle> processes() throws IOException {
+        List<ProcessHandle> processes = new ArrayList<>();
+        Path procs = directory.resolve("cgroup.procs");
+        if (!Files.exists(procs)) {
+            return processes;
+        }
+        for (String pid : Files.readAllLines(procs)) {
+            if (!pid.isBlank()) {
+                ProcessHandle.of(Long.parseLong(pid.trim())).ifPresent(processes::add);
+            }
+        }
+        return processes;
+    }
+
+    /**
+     * @return the peak memory and CPU time of the processes of the build so far.
+     */
+    public ResourceUsage usage() {
+        if (directory == null) {
+            return ResourceUsage.builder().build();
+        }
+        Long peakMemory = null;
+        Long cpuTime = null;
+        try {
+            // memory.peak needs Linux 5.19
+            Path peakFile = directory.resolve("memory.peak");
+            if (Files.exists(peakFile)) {
+                peakMemory = Long.parseLong(Files.readString(peakFile).trim());
+            }
+            Path cpuStatFile = directory.resolve("cpu.stat");
+            if (Files.exists(cpuStatFile)) {
+                for (String line : Files.readAllLines(cpuStatFile)) {
+                    if (line.startsWith("usage_usec ")) {
+                        cpuTime = Long.parseLong(line.substring("usage_usec ".length()).trim()) / 1000;
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not read the resource usage of a build, cgroup={}", directory, e);
+        }
+        return ResourceUsage.builder().peakMemoryBytes(peakMemory).cpuTimeMillis(cpuTime).build();
+    }
+
+    /**
+     * Kills the remaining processes and removes the cgroup.
+     */
+    void remove() {
+        if (directory == null) {
+            return;
+        }
+        kill();
+        // A cgroup can only be removed once its killed processes have exited
+        for (int attempt = 0; attempt < 50; attempt++) {
+            try {
+                Files.deleteIfExists(directory);
+                return;
+            } catch (IOException e) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        log.warn("Could not remove cgroup, cgroup={}", directory);
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+}
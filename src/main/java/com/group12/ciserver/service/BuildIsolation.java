@@ -0,0 +1,228 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.ci.ResourceUsage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Limits the resources of builds, so that one runaway build cannot starve the others.
+ * <p>
+ * Every build gets a cgroup of its own below the cgroup v2 hierarchy of the server, with the CPU quota and memory cap
+ * configured with <code>ciserver.isolation.cpu-quota</code> and <code>ciserver.isolation.memory-limit-mb</code>. When
+ * the build ends, its peak memory and CPU time are read from the cgroup and all of its remaining processes are
+ * killed. The server needs write access to its own cgroup for this, e.g. with <code>Delegate=yes</code> in its systemd
+ * unit, and its processes are moved to a <code>server</code> cgroup next to the builds, because cgroup v2 only allows
+ * processes in cgroups without children. Daemons of the {@link MavenLauncher} are moved to a <code>daemons</code>
+ * cgroup next to the builds before the processes of a build are killed, so they survive the build. Without a writable
+ * cgroup v2 hierarchy builds run without limits.
+ * <p>
+ * Builds that run longer than <code>ciserver.isolation.timeout-minutes</code> are stopped either way.
+ */
+@Service
+@Slf4j
+public class BuildIsolation {
+
+    private static final Path CGROUP_MOUNT = Path.of("/sys/fs/cgroup");
+
+    private static final long CPU_PERIOD_MICROS = 100_000;
+
+    private static final Set<String> CONTROLLERS = Set.of("cpu", "memory", "pids");
+
+    private static final String DAEMON_CGROUP = "daemons";
+
+    /**
+     * The cgroup the build cgroups are created in, null if builds run without cgroups.
+     */
+    private final Path parentCgroup;
+
+    private final double cpuQuota;
+
+    private final long memoryLimitBytes;
+
+    private final Duration timeout;
+
+    private final Predicate<ProcessHandle> isDaemon;
+
+    private final ScheduledExecutorService timeoutScheduler = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "build-timeout");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    @Autowired
+    public BuildIsolation(@Value("${ciserver.isolation.cgroups:true}") boolean cgroups,
+                          @Value("${ciserver.isolation.cgroup-path:}") String cgroupPath,
+                          @Value("${ciserver.isolation.cpu-quota:0}") double cpuQuota,
+                          @Value("${ciserver.isolation.memory-limit-mb:0}") long memoryLimitMb,
+                          @Value("${ciserver.isolation.timeout-minutes:60}") long timeoutMinutes,
+                          MavenLauncher mavenLauncher) {
+        this(cgroups ? prepare(cgroupPath.isEmpty() ? ownCgroup() : Path.of(cgroupPath)) : null,
+                cpuQuota, memoryLimitMb * 1024 * 1024, Duration.ofMinutes(timeoutMinutes), mavenLauncher::isDaemon);
+    }
+
+    BuildIsolation(Path parentCgroup, double cpuQuota, long memoryLimitBytes, Duration timeout) {
+        this(parentCgroup, cpuQuota, memoryLimitBytes, timeout, process -> false);
+    }
+
+    BuildIsolation(Path parentCgroup, double cpuQuota, long memoryLimitBytes, Duration timeout,
+                   Predicate<ProcessHandle> isDaemon) {
+        this.parentCgroup = parentCgroup;
+        this.cpuQuota = cpuQuota;
+        this.memoryLimitBytes = memoryLimitBytes;
+        this.timeout = timeout;
+        this.isDaemon = isDaemon;
+        if (parentCgroup != null) {
+            log.info("Builds run in cgroups, parent={}, cpuQuota={}, memoryLimitBytes={}, timeout={}",
+                    parentCgroup, cpuQuota, memoryLimitBytes, timeout);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        timeoutScheduler.shutdownNow();
+    }
+
+    /**
+     * Creates the cgroup of a build and starts its timeout. The processes the pipeline starts run in the cgroup.
+     *
+     * @param buildId unique identifier of the build.
+     * @param pipeline the pipeline of the build, which is stopped when the build times out.
+     * @return the cgroup, which must be handed back with {@link #release(BuildCgroup)}.
+     */
+    public BuildCgroup isolate(long buildId, RunningPipeline pipeline) {
+        BuildCgroup cgroup = createCgroup(buildId);
+        pipeline.setCgroup(cgroup);
+        if (!timeout.isZero()) {
+            cgroup.timeout = timeoutScheduler.schedule(() -> {
+                log.info("Build timed out, buildId={}, timeout={}", buildId, timeout);
+                pipeline.timeOut(timeout);
+            }, timeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        return cgroup;
+    }
+
+    /**
+     * Stops the timeout of a build, kills the processes it left behind and removes its cgroup.
+     *
+     * @return the peak memory and CPU time of the build, unknown if it ran without a cgroup.
+     */
+    public ResourceUsage release(BuildCgroup cgroup) {
+        if (cgroup.timeout != null) {
+            cgroup.timeout.cancel(false);
+        }
+        ResourceUsage usage = cgroup.usage();
+        cgroup.remove();
+        return usage;
+    }
+
+    private BuildCgroup createCgroup(long buildId) {
+        if (parentCgroup == null) {
+            // Without a cgroup, daemons still have to be spared when the process tree of the build is killed
+            return new BuildCgroup(null, null, isDaemon);
+        }
+        Path directory = parentCgroup.resolve("build-" + buildId);
+        try {
+            Files.createDirectories(directory);
+            if (cpuQuota > 0) {
+                long quota = Math.max(1000, Math.round(cpuQuota * CPU_PERIOD_MICROS));
+                Files.writeString(directory.resolve("cpu.max"), quota + " " + CPU_PERIOD_MICROS);
+            }
+            if (memoryLimitBytes > 0) {
+                Files.writeString(directory.resolve("memory.max"), Long.toString(memoryLimitBytes));
+                // Without this a build at its limit would be swapped out instead of being killed
+                Path swapMax = directory.resolve("memory.swap.max");
+                if (Files.exists(swapMax)) {
+                    Files.writeString(swapMax, "0");
+                }
+            }
+            return new BuildCgroup(directory, parentCgroup.resolve(DAEMON_CGROUP), isDaemon);
+        } catch (IOException e) {
+            log.error("Could not create cgroup, running build without limits, buildId={}", buildId, e);
+            return new BuildCgroup(null, null, isDaemon);
+        }
+    }
+
+    /**
+     * @return the cgroup of the server process in the cgroup v2 hierarchy, or null if there is none.
+     */
+    private static Path ownCgroup() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/cgroup"))) {
+                if (line.startsWith("0::")) {
+                    return CGROUP_MOUNT.resolve(line.substring(3).replaceFirst("^/", ""));
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not read the cgroup of the server", e);
+        }
+        return null;
+    }
+
+    /**
+     * Enables the controllers for the children of the cgroup. If the cgroup has processes, which cgroup v2 does not
+     * allow in a cgroup with controllers for its children, they are moved to a <code>server</code> child cgroup first.
+     *
+     * @return the cgroup, or null if it is not a writable cgroup v2.
+     */
+    static Path prepare(Path cgroup) {
+        if (cgroup == null || !Files.exists(cgroup.resolve("cgroup.controllers"))) {
+            log.warn("No cgroup v2 hierarchy found, builds run without resource limits, cgroup={}", cgroup);
+            return null;
+        }
+        try {
+            try {
+                enableControllers(cgroup);
+            } catch (IOException busy) {
+                Path server = cgroup.resolve("server");
+                Files.createDirectories(server);
+                for (String pid : readProcesses(cgroup)) {
+                    Files.writeString(server.resolve("cgroup.procs"), pid);
+                }
+                enableControllers(cgroup);
+            }
+            return cgroup;
+        } catch (IOException e) {
+            log.warn("Cannot use cgroup, builds run without resource limits, cgroup={}", cgroup, e);
+            return null;
+        }
+    }
+
+    private static void enableControllers(Path cgroup) throws IOException {
+        List<String> enable = new ArrayList<>();
+        for (String controller : Files.readString(cgroup.resolve("cgroup.controllers")).trim().split("\\s+")) {
+            if (CONTROLLERS.contains(controller)) {
+                enable.add("+" + controller);
+            }
+        }
+        Files.writeString(cgroup.resolve("cgroup.subtree_control"), String.join(" ", enable));
+    }
+
+    private static List<String> readProcesses(Path cgroup) throws IOException {
+        List<String> processes = new ArrayList<>();
+        Path procs = cgroup.resolve("cgroup.procs");
+        if (Files.exists(procs)) {
+            for (String pid : Files.readAllLines(procs)) {
+                if (!pid.isBlank()) {
+                    processes.add(pid.trim());
+                }
+            }
+        }
+        return processes;
+    }
+}
@@ -0,0 +1,97 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.database.BuildStore;
+
+/**
+ * Streams the log of a build to the database in fixed-size chunks, so the memory used per build stays bounded no
+ * matter how much output the build produces.
+ * <p>
+ * Everything appended is also passed on to the {@link LiveLogBroadcaster.LiveLog} of the build, so that viewers
+ * can follow the log before it has been written to the database.
+ * <p>
+ * Writes may come from several threads, e.g. stages running in parallel, so all methods are synchronized.
+ */
+public class BuildLogWriter implements AutoCloseable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final BuildStore buildStore;
+
+    private final long buildId;
+
+    private final int chunkSize;
+
+    private final LiveLogBroadcaster.LiveLog liveLog;
+
+    private final StringBuilder buffer;
+
+    private int nextSequenceNumber = 0;
+
+    private long flushedOffset = 0;
+
+    public BuildLogWriter(BuildStore buildStore, long buildId, LiveLogBroadcaster.LiveLog liveLog) {
+        this(buildStore, buildId, DEFAULT_CHUNK_SIZE, liveLog);
+    }
+
+    /**
+     * @param buildStore the database the chunks are written to
+     * @param buildId unique identifier of the build the log belongs to
+     * @param chunkSize maximum number of characters buffered before a chunk is written
+     * @param liveLog the live log of the build, or null if the log cannot be followed while it is written
+     */
+    public BuildLogWriter(BuildStore buildStore, long buildId, int chunkSize,
+                          LiveLogBroadcaster.LiveLog liveLog) {
+        this.buildStore = buildStore;
+        this.buildId = buildId;
+        this.chunkSize = chunkSize;
+        this.liveLog = liveLog;
+        this.buffer = new StringBuilder(chunkSize);
+    }
+
+    /**
+     * For writers that pass everything on to another writer instead of writing to the database themselves.
+     */
+    protected BuildLogWriter() {
+        this.buildStore = null;
+        this.buildId = -1;
+        this.chunkSize = 0;
+        this.liveLog = null;
+        this.buffer = null;
+    }
+
+    public synchronized void append(String text) {
+        append(text.toCharArray(), 0, text.length());
+    }
+
+    public synchronized void append(char[] characters, int offset, int length) {
+        if (liveLog != null) {
+            liveLog.append(characters, offset, length);
+        }
+        while (length > 0) {
+            int count = Math.min(length, chunkSize - buffer.length());
+            buffer.append(characters, offset, count);
+            offset += count;
+            length -= count;
+            if (buffer.length() == chunkSize) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered part of the log to the database.
+     */
+    public synchronized void flush() {
+        if (buffer.length() == 0) {
+            return;
+        }
+        buildStore.appendLogChunk(buildId, nextSequenceNumber++, flushedOffset, buffer.toString());
+        flushedOffset += buffer.length();
+        buffer.setLength(0);
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+    }
+}
@@ -0,0 +1,339 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.ci.PipelineDefinition;
+import com.group12.ciserver.model.ci.StageDefinition;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.FileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Lets builds reuse the work of earlier builds of the same sources.
+ * <p>
+ * A build is identified by its input key: the git tree of the pushed commit and the pipeline definition. Reverts,
+ * pushes of the same commit to another branch and merges that produce a tree that was already built all have the
+ * input key of an earlier build, and {@link CIService} reuses its result if it was successful, see
+ * {@link com.group12.ciserver.database.BuildStore#findSuccessfulBuild(String, String)}.
+ * <p>
+ * The compiled classes of every maven module are also kept after a successful build, keyed by the git tree of the
+ * module directory and all <code>pom.xml</code> files of the repository. A build in a new workspace gets the classes
+ * of the modules whose sources did not change, so maven's incremental compilation only compiles the changed modules,
+ * like it does in a warm workspace. Tests are run either way.
+ */
+@Service
+@Slf4j
+public class BuildOutputCache {
+
+    private static final String OUTPUT_DIRECTORY = "outputs";
+
+    private static final String TEMP_DIRECTORY = "tmp";
+
+    private static final String POM = "pom.xml";
+
+    /**
+     * The directories of <code>target</code> that incremental compilation needs. Packages and reports are left out.
+     */
+    private static final List<String> TARGET_DIRECTORIES = List.of("classes", "test-classes", "generated-sources",
+            "generated-test-sources", "maven-status");
+
+    /**
+     * Stands for the workspace in the file lists that the compiler plugin keeps in <code>maven-status</code>, which
+     * hold absolute paths.
+     */
+    private static final String WORKSPACE_PLACEHOLDER = "${ciserver.workspace}";
+
+    private final boolean enabled;
+
+    private final Path outputDirectory;
+
+    private final Path tempDirectory;
+
+    private final long maxSizeBytes;
+
+    /**
+     * Held for reading while an entry is copied into a workspace and for writing while entries are evicted, so an
+     * entry is never deleted halfway through a restore.
+     */
+    private final ReadWriteLock entryLock = new ReentrantReadWriteLock();
+
+    @Autowired
+    public BuildOutputCache(@Value("${ciserver.build-cache.enabled:true}") boolean enabled,
+                            @Value("${ciserver.build-cache.path:../build-cache}") String path,
+                            @Value("${ciserver.build-cache.max-size-mb:5120}") long maxSizeMb) throws IOException {
+        this.enabled = enabled;
+        this.outputDirectory = Path.of(path, OUTPUT_DIRECTORY).toAbsolutePath();
+        this.tempDirectory = Path.of(path, TEMP_DIRECTORY).toAbsolutePath();
+        this.maxSizeBytes = maxSizeMb * 1024 * 1024;
+        if (enabled) {
+            Files.createDirectories(outputDirectory);
+            // Outputs of builds that were being stored when the server stopped
+            FileUtils.delete(tempDirectory.toFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+            Files.createDirectories(tempDirectory);
+        }
+    }
+
+    /**
+     * @param workingDirectory the checkout of the commit.
+     * @param commit the commit that is built.
+     * @param definition the pipeline the commit is built with.
+     * @return the git tree of the commit and a hash of the pipeline definition, or null if the cache is disabled or
+     * the commit cannot be read.
+     */
+    public String inputKey(File workingDirectory, String commit, PipelineDefinition definition) {
+        if (!enabled) {
+            return null;
+        }
+        try (Git git = Git.open(workingDirectory); RevWalk walk = new RevWalk(git.getRepository())) {
+            ObjectId tree = walk.parseCommit(ObjectId.fromString(commit)).getTree();
+            StringBuilder stages = new StringBuilder();
+            for (StageDefinition stage : definition.getStages()) {
+                stages.append(stage.getName()).append('\n')
+                        .append(stage.getMaven()).append('\n')
+                        .append(stage.getNeeds()).append('\n')
+                        .append(stage.getFailureMessage()).append('\n');
+            }
+            return tree.name() + "-" + sha256(stages.toString()).substring(0, 16);
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not compute input key, commit={}", commit, e);
+            return null;
+        }
+    }
+
+    /**
+     * Copies the cached classes of unchanged modules into a workspace that has none, e.g. a new one. If a module
+     * cannot be restored completely its <code>target</code> directory is deleted, so maven compiles it from scratch.
+     *
+     * @param repository the repository, e.g. DD2480-G12/a2-ci-server.
+     * @param workingDirectory the checkout of the commit.
+     * @param commit the commit that is built.
+     * @return a line for the build log, or null if nothing was restored.
+     */
+    public String restoreOutputs(String repository, File workingDirectory, String commit) {
+        if (!enabled) {
+            return null;
+        }
+        int restored = 0;
+        int modules = 0;
+        Path restoring = null;
+        try {
+            for (Map.Entry<String, String> module : moduleKeys(workingDirectory, commit).entrySet()) {
+                modules++;
+                Path target = workingDirectory.toPath().resolve(module.getKey()).resolve("target");
+                Path entry = entryOf(repository, module.getValue());
+                entryLock.readLock().lock();
+                try {
+                    if (Files.exists(target.resolve("classes")) || !Files.isDirectory(entry)) {
+                        continue;
+                    }
+                    restoring = target;
+                    Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+                    copy(entry, target, WORKSPACE_PLACEHOLDER, workingDirectory.getAbsolutePath());
+                    restoring = null;
+                    restored++;
+                } finally {
+                    entryLock.readLock().unlock();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not restore build outputs, commit={}", commit, e);
+            if (restoring != null) {
+                // Maven would take the missing classes of a partly restored module as up to date
+                try {
+                    FileUtils.delete(restoring.toFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+                } catch (IOException deleteFailure) {
+                    log.error("Could not delete partly restored outputs, target={}", restoring, deleteFailure);
+                }
+            }
+        }
+        return restored == 0 ? null
+                : String.format("Build output cache: restored the classes of %d of %d modules", restored, modules);
+    }
+
+    /**
+     * Keeps the classes of the modules of a successful build that are not cached yet.
+     *
+     * @param repository the repository, e.g. DD2480-G12/a2-ci-server.
+     * @param workingDirectory the checkout, with the classes compiled by the build.
+     * @param commit the commit that was built.
+     */
+    public void storeOutputs(String repository, File workingDirectory, String commit) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            for (Map.Entry<String, String> module : moduleKeys(workingDirectory, commit).entrySet()) {
+                Path target = workingDirectory.toPath().resolve(module.getKey()).resolve("target");
+                Path entry = entryOf(repository, module.getValue());
+                if (!Files.exists(target.resolve("classes")) || Files.exists(entry)) {
+                    continue;
+                }
+                Path temp = tempDirectory.resolve(UUID.randomUUID().toString());
+                try {
+                    copy(target, temp, workingDirectory.getAbsolutePath(), WORKSPACE_PLACEHOLDER);
+                    Files.createDirectories(entry.getParent());
+                    Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+                    // Another build of the same module stored it in the meantime
+                } finally {
+                    FileUtils.delete(temp.toFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+                }
+            }
+            evict();
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not store build outputs, commit={}", commit, e);
+        }
+    }
+
+    /**
+     * @return the key of every maven module of the commit by its directory relative to the root, "" for the root.
+     */
+    Map<String, String> moduleKeys(File workingDirectory, String commit) throws IOException {
+        try (Git git = Git.open(workingDirectory); RevWalk walk = new RevWalk(git.getRepository())) {
+            Repository repository = git.getRepository();
+            RevCommit revCommit = walk.parseCommit(ObjectId.fromString(commit));
+            Map<String, ObjectId> poms = new TreeMap<>();
+            try (TreeWalk treeWalk = new TreeWalk(repository)) {
+                treeWalk.addTree(revCommit.getTree());
+                treeWalk.setRecursive(true);
+                while (treeWalk.next()) {
+                    if (treeWalk.getNameString().equals(POM) && treeWalk.getFileMode(0) != FileMode.GITLINK) {
+                        poms.put(treeWalk.getPathString(), treeWalk.getObjectId(0));
+                    }
+                }
+            }
+            StringBuilder allPoms = new StringBuilder();
+            poms.forEach((path, blob) -> allPoms.append(path).append(' ').append(blob.name()).append('\n'));
+
+            Map<String, String> modules = new TreeMap<>();
+            for (String pom : poms.keySet()) {
+                String module = pom.equals(POM) ? "" : pom.substring(0, pom.length() - POM.length() - 1);
+                ObjectId tree = revCommit.getTree();
+                if (!module.isEmpty()) {
+                    try (TreeWalk moduleWalk = TreeWalk.forPath(repository, module, revCommit.getTree())) {
+                        tree = moduleWalk.getObjectId(0);
+                    }
+                }
+                modules.put(module, sha256(module + "\n" + tree.name() + "\n" + allPoms));
+            }
+            return modules;
+        }
+    }
+
+    private Path entryOf(String repository, String moduleKey) {
+        return outputDirectory.resolve(DirectoryNames.of(repository)).resolve(moduleKey);
+    }
+
+    /**
+     * Copies the output directories of a <code>target</code> directory, replacing the workspace path in the file
+     * lists of the compiler plugin.
+     */
+    private static void copy(Path from, Path to, String replace, String replacement) throws IOException {
+        for (String directory : TARGET_DIRECTORIES) {
+            Path source = from.resolve(directory);
+            if (!Files.isDirectory(source)) {
+                continue;
+            }
+            try (Stream<Path> files = Files.walk(source)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Path copy = to.resolve(from.relativize(file).toString());
+                    if (Files.isDirectory(file)) {
+                        Files.createDirectories(copy);
+                    } else if (directory.equals("maven-status") && file.toString().endsWith(".lst")) {
+                        Files.writeString(copy, Files.readString(file, StandardCharsets.UTF_8)
+                                .replace(replace, replacement), StandardCharsets.UTF_8);
+                    } else {
+                        Files.copy(file, copy);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries while the cache is larger than its budget.
+     */
+    private void evict() throws IOException {
+        entryLock.writeLock().lock();
+        try {
+            evictLocked();
+        } finally {
+            entryLock.writeLock().unlock();
+        }
+    }
+
+    private void evictLocked() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> repositories = Files.list(outputDirectory)) {
+            for (Path repository : (Iterable<Path>) repositories::iterator) {
+                try (Stream<Path> modules = Files.list(repository)) {
+                    modules.forEach(entries::add);
+                }
+            }
+        }
+        long totalSize = 0;
+        Map<Path, Long> sizes = new TreeMap<>();
+        for (Path entry : entries) {
+            long size = sizeOf(entry);
+            sizes.put(entry, size);
+            totalSize += size;
+        }
+        entries.sort(Comparator.comparing(BuildOutputCache::lastModified));
+        for (Path entry : entries) {
+            if (totalSize <= maxSizeBytes) {
+                break;
+            }
+            log.info("Evicting build outputs, entry={}, sizeBytes={}", entry, sizes.get(entry));
+            FileUtils.delete(entry.toFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+            totalSize -= sizes.get(entry);
+        }
+    }
+
+    private static long sizeOf(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    private static long lastModified(Path path) {
+        return path.toFile().lastModified();
+    }
+
+    private static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.metrics.MetricsRegistry;
+import com.group12.ciserver.model.ci.BuildQueueStats;
+import com.group12.ciserver.model.github.PushEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules CI pipelines on a fixed pool of workers.
+ * <p>
+ * Push events wait in a bounded priority queue until a worker is free. Pushes to the default branch of a repository
+ * are started before pushes to other branches, otherwise builds are started in the order they were received.
+ * <p>
+ * A push to a ref replaces any build of an older commit on the same ref that is still waiting in the queue, and
+ * supersedes the build that is currently running on that ref.
+ * <p>
+ * Pushes can arrive late or twice, e.g. when GitHub redelivers a webhook or the inbox replays it after a restart. The
+ * scheduler remembers the newest commit pushed to each ref and the commits it replaced, which are the earlier heads and
+ * the <code>before</code> commits of the pushes. A push of a commit that is already being built, or of a commit that a
+ * later push replaced, is ignored instead of superseding the build of the newer commit. Force pushes back to an earlier
+ * commit start from the newest commit and are still built.
+ * <p>
+ * The queue depth, the number of running builds and how long builds waited are published as metrics.
+ */
+@Service
+@Slf4j
+public class BuildScheduler {
+
+    private static final int DEFAULT_BRANCH_PRIORITY = 0;
+
+    private static final int OTHER_BRANCH_PRIORITY = 1;
+
+    private static final int MAX_TRACKED_REFS = 1000;
+
+    private static final int MAX_REPLACED_COMMITS_PER_REF = 100;
+
+    private final CIService ciService;
+
+    private final PipelineRegistry pipelineRegistry;
+
+    private final MetricsRegistry metrics;
+
+    @Value("${ciserver.scheduler.workers:0}")
+    private int configuredWorkers;
+
+    @Value("${ciserver.scheduler.queue-capacity:50}")
+    private int queueCapacity;
+
+    @Value("${ciserver.scheduler.memory-per-build-mb:1024}")
+    private long memoryPerBuildMb;
+
+    private ThreadPoolExecutor executor;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicInteger activeBuilds = new AtomicInteger();
+
+    private final AtomicLong rejectedBuilds = new AtomicLong();
+
+    private final AtomicLong startedBuilds = new AtomicLong();
+
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+
+    /**
+     * The pushes accepted for each ref, least recently pushed refs are forgotten first.
+     */
+    private final Map<String, RefHistory> refHistories = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RefHistory> eldest) {
+            return size() > MAX_TRACKED_REFS;
+        }
+    };
+
+    @Autowired
+    public BuildScheduler(CIService ciService, PipelineRegistry pipelineRegistry, MetricsRegistry metrics) {
+        this.ciService = ciService;
+        this.pipelineRegistry = pipelineRegistry;
+        this.metrics = metrics;
+    }
+
+    BuildScheduler(CIService ciService, PipelineRegistry pipelineRegistry, int workers, int queueCapacity) {
+        this.ciService = ciService;
+        this.pipelineRegistry = pipelineRegistry;
+        this.metrics = new MetricsRegistry();
+        this.configuredWorkers = workers;
+        this.queueCapacity = queueCapacity;
+        init();
+    }
+
+    @PostConstruct
+    void init() {
+        int workers = configuredWorkers > 0 ? configuredWorkers : defaultWorkerCount(memoryPerBuildMb);
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(),
+                runnable -> new Thread(runnable, "build-worker-" + threadNumber.incrementAndGet()));
+        metrics.gauge("ciserver_queue_depth", "Builds waiting for a worker.", () -> executor.getQueue().size());
+        metrics.gauge("ciserver_active_builds", "Builds running on a worker.", activeBuilds::get);
+        log.info("Build scheduler started, workers={}, queueCapacity={}", workers, queueCapacity);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queues a CI pipeline for the push event.
+     *
+     * @param pushEvent is the <i>push</i> event received from GitHub's webhook.
+     * @return true if the build was queued, false if the queue is full and the build was rejected.
+     */
+    public boolean submit(PushEvent pushEvent) {
+        return submit(pushEvent, () -> { });
+    }
+
+    /**
+     * Queues a CI pipeline for the push event.
+     *
+     * @param pushEvent is the <i>push</i> event received from GitHub's webhook.
+     * @param onFinished is run when the build has finished, or when it is not needed because a build of the same
+     *                   commit is already queued or running, a newer commit was already pushed to the ref or a newer
+     *                   push replaced it in the queue. It is not run if the
+     *                   build is rejected or the server shuts down before the build has finished.
+     * @return true if the build was queued, false if the queue is full and the build was rejected.
+     */
+    public synchronized boolean submit(PushEvent pushEvent, Runnable onFinished) {
+        String key = PipelineRegistry.keyOf(pushEvent);
+        RefHistory history = refHistories.computeIfAbsent(key, k -> new RefHistory());
+        if (history.isReplaced(pushEvent)) {
+            log.info("Ignoring push of a commit that a later push replaced, pushEvent={}, head={}", pushEvent,
+                    history.head);
+            onFinished.run();
+            return true;
+        }
+        if (pushEvent.getAfter().equals(history.head) && pipelineRegistry.isRunning(pushEvent)) {
+            log.info("Build of the same commit is already running, pushEvent={}", pushEvent);
+            onFinished.run();
+            return true;
+        }
+        for (Runnable runnable : executor.getQueue()) {
+            QueuedBuild queued = (QueuedBuild) runnable;
+            if (!queued.key.equals(key)) {
+                continue;
+            }
+            if (queued.pushEvent.getAfter().equals(pushEvent.getAfter())) {
+                log.info("Build of the same commit is already queued, pushEvent={}", pushEvent);
+                onFinished.run();
+                return true;
+            }
+            if (executor.remove(queued)) {
+                log.info("Dropped superseded build from queue, pushEvent={}", queued.pushEvent);
+                queued.onFinished.run();
+            }
+        }
+        if (executor.getQueue().size() >= queueCapacity) {
+            rejectedBuilds.incrementAndGet();
+            metrics.counter("ciserver_builds_rejected", "Builds rejected because the queue was full.").increment();
+            log.warn("Build queue is full, rejecting pushEvent={}", pushEvent);
+            return false;
+        }
+        // Only once the push is certain to be built, otherwise nothing would build the ref
+        pipelineRegistry.supersede(pushEvent);
+        history.advance(pushEvent);
+        int priority = pushEvent.isDefaultBranchPush() ? DEFAULT_BRANCH_PRIORITY : OTHER_BRANCH_PRIORITY;
+        executor.execute(new QueuedBuild(pushEvent, key, priority, sequence.getAndIncrement(), System.nanoTime(),
+                onFinished));
+        return true;
+    }
+
+    /**
+     * @return a snapshot of the queue depth, number of running builds and queue wait times.
+     */
+    public BuildQueueStats getStats() {
+        long started = startedBuilds.get();
+        return BuildQueueStats.builder()
+                .queueDepth(executor.getQueue().size())
+                .queueCapacity(queueCapacity)
+                .activeBuilds(activeBuilds.get())
+                .workers(executor.getMaximumPoolSize())
+                .rejectedBuilds(rejectedBuilds.get())
+                .startedBuilds(started)
+                .averageWaitMillis(started == 0 ? 0 : (double) totalWaitMillis.get() / started)
+                .maxWaitMillis(maxWaitMillis.get())
+                .build();
+    }
+
+    /**
+     * Builds run as separate maven processes, so the number of workers is limited both by the number of cores and by
+     * the physical memory of the host.
+     */
+    private static int defaultWorkerCount(long memoryPerBuildMb) {
+        int byCpu = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        long totalMemoryMb = ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getTotalMemorySize() / (1024 * 1024);
+        int byMemory = (int) Math.max(1, totalMemoryMb / Math.max(1, memoryPerBuildMb));
+        return Math.min(byCpu, byMemory);
+    }
+
+    private void runBuild(QueuedBuild build) {
+        long waitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - build.enqueuedAt);
+        startedBuilds.incrementAndGet();
+        totalWaitMillis.addAndGet(waitMillis);
+        maxWaitMillis.accumulateAndGet(waitMillis, Math::max);
+        metrics.histogram("ciserver_queue_wait_seconds", "Time a build waited in the queue for a worker.",
+                MetricsRegistry.DURATION_BUCKETS, "repository", repositoryOf(build.pushEvent))
+                .recordSince(build.enqueuedAt);
+        activeBuilds.incrementAndGet();
+        try {
+            log.info("Starting build after waiting {} ms in queue", waitMillis);
+            ciService.startCIPipeline(build.pushEvent);
+        } catch (Exception e) {
+            log.error("Build failed unexpectedly, pushEvent={}", build.pushEvent, e);
+        } finally {
+            activeBuilds.decrementAndGet();
+        }
+        if (!executor.isShutdown()) {
+            build.onFinished.run();
+        }
+    }
+
+    private static String repositoryOf(PushEvent pushEvent) {
+        return pushEvent.getRepository().getOwner().getName() + "/" + pushEvent.getRepository().getName();
+    }
+
+    /**
+     * The newest commit pushed to a ref and the commits it replaced.
+     */
+    private static class RefHistory {
+
+        private String head;
+
+        private final Set<String> replaced = new LinkedHashSet<>();
+
+        /**
+         * A push of a replaced commit is late, unless it starts from the head, which is a force push back to it.
+         */
+        boolean isReplaced(PushEvent pushEvent) {
+            return replaced.contains(pushEvent.getAfter()) && (head == null || !head.equals(pushEvent.getBefore()));
+        }
+
+        void advance(PushEvent pushEvent) {
+            if (head != null) {
+                replaced.add(head);
+            }
+            if (pushEvent.getBefore() != null) {
+                replaced.add(pushEvent.getBefore());
+            }
+            head = pushEvent.getAfter();
+            replaced.remove(head);
+            while (replaced.size() > MAX_REPLACED_COMMITS_PER_REF) {
+                replaced.remove(replaced.iterator().next());
+            }
+        }
+    }
+
+    private class QueuedBuild implements Runnable, Comparable<QueuedBuild> {
+
+        private final PushEvent pushEvent;
+
+        private final String key;
+
+        private final int priority;
+
+        private final long sequenceNumber;
+
+        private final long enqueuedAt;
+
+        private final Runnable onFinished;
+
+        QueuedBuild(PushEvent pushEvent, String key, int priority, long sequenceNumber, long enqueuedAt,
+                    Runnable onFinished) {
+            this.pushEvent = pushEvent;
+            this.key = key;
+            this.priority = priority;
+            this.sequenceNumber = sequenceNumber;
+            this.enqueuedAt = enqueuedAt;
+            this.onFinished = onFinished;
+        }
+
+        @Override
+        public void run() {
+            runBuild(this);
+        }
+
+        @Override
+        public int compareTo(QueuedBuild other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            return Long.compare(sequenceNumber, other.sequenceNumber);
+        }
+    }
+}
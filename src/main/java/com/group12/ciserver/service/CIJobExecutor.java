@@ -1,48 +1,77 @@
 package com.group12.ciserver.service;
 
 import com.group12.ciserver.model.ci.CIJobResult;
+import com.group12.ciserver.model.ci.PipelineSupersededException;
+import com.group12.ciserver.model.ci.PipelineTimedOutException;
 import com.group12.ciserver.model.ci.UnexpectedCIJobErrorException;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 @Service
 @Slf4j
+@RequiredArgsConstructor
 public class CIJobExecutor {
 
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final MavenLauncher mavenLauncher;
+
     /**
-     * Runs a maven command on the specified working directory.
+     * Runs a maven command on the specified working directory, with the {@link MavenLauncher} selected by
+     * <code>ciserver.executor.backend</code>.
      *
-     * @param command maven command, e.g. compile, test, etc.
+     * @param command maven command, e.g. compile, test, etc. Several goals and options are separated by whitespace,
+     *                e.g. <code>package -DskipTests</code>.
      * @param workingDirectory the directory which the command will be executed on
-     * @return {@link CIJobResult} that tells if the maven command was successful or if it failed. It also returns the
-     * output log of the process running the command.
+     * @param pipeline the {@link RunningPipeline} the command belongs to. The process runs in the cgroup of the
+     *                 pipeline and is killed if the pipeline is superseded or times out.
+     * @param buildLogs the {@link BuildLogWriter} the output of the process is streamed to.
+     * @return {@link CIJobResult} that tells if the maven command was successful or if it failed.
      * @throws UnexpectedCIJobErrorException is thrown if the process running the command is interrupted or if there is
      * an IO exception when reading the output logs.
+     * @throws PipelineSupersededException is thrown if the pipeline was superseded while the command was running.
+     * @throws PipelineTimedOutException is thrown if the pipeline timed out while the command was running.
      */
-    public CIJobResult runMavenCommand(String command, File workingDirectory) throws UnexpectedCIJobErrorException {
+    public CIJobResult runMavenCommand(String command, File workingDirectory, RunningPipeline pipeline,
+                                       BuildLogWriter buildLogs)
+            throws UnexpectedCIJobErrorException, PipelineSupersededException, PipelineTimedOutException {
         ProcessBuilder processBuilder = new ProcessBuilder();
-        processBuilder.command("mvn", command);
+        List<String> arguments = new ArrayList<>(pipeline.getMavenOptions());
+        arguments.addAll(Arrays.asList(command.trim().split("\\s+")));
+        processBuilder.command(pipeline.getCgroup().wrap(mavenLauncher.commandLine(arguments, pipeline)));
         processBuilder.directory(workingDirectory);
+        processBuilder.redirectErrorStream(true);
+        Process process = null;
         try {
-            Process process = processBuilder.start();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            StringBuilder compileLogs = new StringBuilder();
-            String logLine;
-            while ((logLine = reader.readLine()) != null) {
-                compileLogs.append(logLine).append("\n");
+            process = processBuilder.start();
+            pipeline.attach(process);
+            Reader reader = new InputStreamReader(process.getInputStream());
+            char[] readBuffer = new char[READ_BUFFER_SIZE];
+            int read;
+            while ((read = reader.read(readBuffer)) != -1) {
+                buildLogs.append(readBuffer, 0, read);
             }
             int processExitValue = process.waitFor();
+            pipeline.throwIfStopped();
             return CIJobResult.builder()
                     .successful(processExitValue == 0)
-                    .logs(compileLogs.toString())
                     .build();
         } catch (IOException | InterruptedException e) {
+            pipeline.throwIfStopped();
             throw new UnexpectedCIJobErrorException(e.getMessage());
+        } finally {
+            if (process != null) {
+                pipeline.detach(process);
+            }
         }
     }
 }
@@ -1,93 +1,251 @@
 package com.group12.ciserver.service;
 
+import com.group12.ciserver.client.CommitStatusPublisher;
 import com.group12.ciserver.client.GithubClient;
-import com.group12.ciserver.database.DatabaseWrapper;
+import com.group12.ciserver.database.BuildStore;
+import com.group12.ciserver.metrics.MetricsRegistry;
 import com.group12.ciserver.model.BuildInfo;
-import com.group12.ciserver.model.ci.CIJobResult;
+import com.group12.ciserver.model.TestResult;
+import com.group12.ciserver.model.ci.InvalidPipelineDefinitionException;
+import com.group12.ciserver.model.ci.PipelineDefinition;
+import com.group12.ciserver.model.ci.PipelineResult;
+import com.group12.ciserver.model.ci.PipelineSupersededException;
+import com.group12.ciserver.model.ci.PipelineTimedOutException;
+import com.group12.ciserver.model.ci.ResourceUsage;
+import com.group12.ciserver.model.ci.TestSelection;
 import com.group12.ciserver.model.ci.UnexpectedCIJobErrorException;
 import com.group12.ciserver.model.github.CommitState;
 import com.group12.ciserver.model.github.PushEvent;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class CIService {
 
-    private final CIJobExecutor ciJobExecutor;
-
     private final GithubClient githubClient;
 
-    private final DatabaseWrapper databaseWrapper;
+    private final CommitStatusPublisher commitStatusPublisher;
+
+    private final BuildStore buildStore;
+
+    private final PipelineRegistry pipelineRegistry;
+
+    private final WorkspaceManager workspaceManager;
+
+    private final LiveLogBroadcaster liveLogBroadcaster;
+
+    private final PipelineDefinitionLoader pipelineDefinitionLoader;
+
+    private final PipelineExecutor pipelineExecutor;
+
+    private final DependencyCache dependencyCache;
+
+    private final TestImpactAnalyzer testImpactAnalyzer;
+
+    private final BuildOutputCache buildOutputCache;
+
+    private final BuildIsolation buildIsolation;
+
+    private final SurefireReportParser surefireReportParser;
+
+    private final MetricsRegistry metrics;
 
     /**
-     * Starts a CI pipeline containing two stages, compile and test.
+     * Starts a CI pipeline with the stages defined in the <code>.ci.yml</code> file of the repository, or the stages
+     * compile and test if it has none. See {@link PipelineDefinitionLoader}.
      * <p>
      * <b>Note:</b> This pipeline only supports maven projects.
      * <p>
      * The commit status of the commit that triggered the pipeline is updated accordingly.
      * <ul>
      *     <li>PENDING - while the pipeline is running</li>
-     *     <li>SUCCESS - if both compile and test stage passes</li>
-     *     <li>FAILURE - if one of the stages fails</li>
-     *     <li>ERROR - if an unexpected error occurs during one of the stages </li>
+     *     <li>SUCCESS - if all stages pass</li>
+     *     <li>FAILURE - if one of the stages fails, the pipeline definition is invalid or the pipeline runs for longer
+     *     than <code>ciserver.isolation.timeout-minutes</code></li>
+     *     <li>ERROR - if an unexpected error occurs during one of the stages or if the pipeline is superseded by a
+     *     newer push to the same ref</li>
      * </ul>
+     * The statuses are sent to GitHub in the background by {@link CommitStatusPublisher}.
+     * <p>
+     * Only the tests affected by the changes since the last successful build of the branch are run, see
+     * {@link TestImpactAnalyzer}. If the same source tree already passed the same pipeline, its result is reused
+     * without running the pipeline, see {@link BuildOutputCache}. The processes of the pipeline run with the resource
+     * limits of {@link BuildIsolation}. The results of the tests are read from the surefire reports of the build and
+     * stored with it, see {@link SurefireReportParser}. How long the clone and the whole build took is recorded per
+     * repository in the {@link MetricsRegistry}.
      *
      * @param pushEvent is the <i>push</i> event received from GitHub's webhook.
      */
     @SneakyThrows
-    @Async
     public void startCIPipeline(PushEvent pushEvent) {
         log.info("Running CI pipeline...");
         OffsetDateTime pipelineStartTimestamp = OffsetDateTime.now(ZoneOffset.UTC);
-        StringBuilder buildLogs = new StringBuilder();
+        String repository = pushEvent.getRepository().getOwner().getName() + "/" + pushEvent.getRepository().getName();
+        long buildId = buildStore.addBuild(new BuildInfo(pushEvent.getAfter(), repository,
+                pushEvent.getBranchName(), pipelineStartTimestamp));
+        BuildLogWriter buildLogs = new BuildLogWriter(buildStore, buildId, liveLogBroadcaster.open(buildId));
         buildLogs.append("Running CI pipeline...\n");
-        githubClient.createStatusMsg(pushEvent, CommitState.PENDING, "Running CI pipeline...", null);
-        log.info("Cloning repo...");
-        buildLogs.append("Cloning repo...\n");
-        File workingDirectory = githubClient.cloneRepoAndSwitchBranch(pushEvent);
+        // Acquired one by one in the try, so that only what was acquired is released if acquiring the next one fails
+        RunningPipeline pipeline = null;
+        DependencyCache.Overlay dependencies = null;
+        BuildCgroup cgroup = null;
+        Workspace workspace = null;
+        boolean workspaceReusable = false;
+        CommitState buildStatus = CommitState.ERROR;
         try {
-            log.info("Compiling maven project...");
-            buildLogs.append("mvn compile\n");
-            CIJobResult compileResults = ciJobExecutor.runMavenCommand("compile", workingDirectory);
-            buildLogs.append(compileResults.getLogs());
-            if (!compileResults.isSuccessful()) {
-                Long buildId = databaseWrapper.addBuild(new BuildInfo(pushEvent.getAfter(), buildLogs.toString(),
-                        pipelineStartTimestamp));
-                githubClient.createStatusMsg(pushEvent, CommitState.FAILURE, "Compilation of project failed", buildId);
-                log.info("Compilation of project failed...");
+            pipeline = pipelineRegistry.register(pushEvent);
+            dependencies = dependencyCache.lease(buildId);
+            pipeline.setMavenOptions(dependencies.getMavenOptions());
+            cgroup = buildIsolation.isolate(buildId, pipeline);
+            workspace = workspaceManager.lease(pushEvent);
+            commitStatusPublisher.publish(pushEvent, CommitState.PENDING, "Running CI pipeline...", null);
+            log.info("Cloning repo...");
+            buildLogs.append("Cloning repo...\n");
+            long cloneStarted = System.nanoTime();
+            File workingDirectory = githubClient.cloneRepoAndSwitchBranch(pushEvent, workspace.getDirectory());
+            metrics.histogram("ciserver_clone_seconds", "Time to clone or fetch the repository of a build.",
+                    MetricsRegistry.DURATION_BUCKETS, "repository", repository).recordSince(cloneStarted);
+            workspaceReusable = true;
+            pipeline.throwIfStopped();
+            PipelineDefinition definition = pipelineDefinitionLoader.load(workingDirectory);
+            String inputKey = buildOutputCache.inputKey(workingDirectory, pushEvent.getAfter(), definition);
+            Long cachedBuildId = inputKey == null ? null : buildStore.findSuccessfulBuild(repository, inputKey);
+            if (cachedBuildId != null) {
+                buildLogs.append("The same source tree and pipeline passed in build #" + cachedBuildId
+                        + ", skipping the pipeline.\n");
+                buildLogs.flush();
+                buildStatus = CommitState.SUCCESS;
+                commitStatusPublisher.publish(pushEvent, CommitState.SUCCESS,
+                        "Same tree passed in build #" + cachedBuildId, cachedBuildId);
+                log.info("Reused result of build {}, commit={}", cachedBuildId, pushEvent.getAfter());
                 return;
             }
-            log.info("Running maven project tests...");
-            buildLogs.append("mvn test\n");
-            CIJobResult testResults = ciJobExecutor.runMavenCommand("test", workingDirectory);
-            buildLogs.append(testResults.getLogs());
-            if (!testResults.isSuccessful()) {
-                Long buildId = databaseWrapper.addBuild(new BuildInfo(pushEvent.getAfter(), buildLogs.toString(),
-                        pipelineStartTimestamp));
-                githubClient.createStatusMsg(pushEvent, CommitState.FAILURE, "Tests failed", buildId);
-                log.info("Tests failed...");
+            if (inputKey != null) {
+                buildStore.setInputKey(buildId, inputKey);
+            }
+            String restoredOutputs = buildOutputCache.restoreOutputs(repository, workingDirectory,
+                    pushEvent.getAfter());
+            if (restoredOutputs != null) {
+                buildLogs.append(restoredOutputs + "\n");
+            }
+            TestSelection testSelection = testImpactAnalyzer.select(pushEvent, workingDirectory);
+            if (testImpactAnalyzer.isEnabled()) {
+                buildLogs.append(testSelection.describe() + "\n");
+            }
+            List<String> mavenOptions = new ArrayList<>(dependencies.getMavenOptions());
+            mavenOptions.addAll(testSelection.getMavenOptions());
+            pipeline.setMavenOptions(mavenOptions);
+            pipeline.setSelectedTests(testSelection.isFullRun() ? null : testSelection.getTestClasses());
+            // Whole seconds, because some file systems store modification times in whole seconds
+            Instant stagesStarted = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+            PipelineResult result = pipelineExecutor.run(definition, workingDirectory, pipeline, buildLogs);
+            recordTestResults(buildId, workingDirectory, stagesStarted, buildLogs);
+            if (!result.isSuccessful()) {
+                buildLogs.flush();
+                buildStatus = CommitState.FAILURE;
+                commitStatusPublisher.publish(pushEvent, CommitState.FAILURE,
+                        result.getFailedStage().getFailureMessage(), buildId);
+                log.info("Stage {} failed...", result.getFailedStage().getName());
                 return;
             }
+            buildLogs.append("Pipeline successful.");
+            buildLogs.flush();
+            buildStatus = CommitState.SUCCESS;
+            commitStatusPublisher.publish(pushEvent, CommitState.SUCCESS, "Pipeline successful", buildId);
+            testImpactAnalyzer.recordSuccess(pushEvent, workingDirectory, testSelection);
+            buildOutputCache.storeOutputs(repository, workingDirectory, pushEvent.getAfter());
+            log.info("Pipeline successful.");
+        } catch (InvalidPipelineDefinitionException e) {
+            log.info("Invalid pipeline definition, commit={}, reason={}", pushEvent.getAfter(), e.getMessage());
+            buildLogs.append(e.getMessage());
+            buildLogs.flush();
+            buildStatus = CommitState.FAILURE;
+            commitStatusPublisher.publish(pushEvent, CommitState.FAILURE,
+                    "Invalid " + PipelineDefinitionLoader.DEFINITION_FILE, buildId);
+            return;
         } catch (UnexpectedCIJobErrorException e) {
             log.error("Unexpected error occurred, errorMessage={}", e.getMessage());
-            Long buildId = databaseWrapper.addBuild(new BuildInfo(pushEvent.getAfter(), "Unexpected error occurred on server",
-                    pipelineStartTimestamp));
-            githubClient.createStatusMsg(pushEvent, CommitState.ERROR, "Unexpected error occurred on server", buildId);
+            workspaceReusable = false;
+            buildLogs.append("Unexpected error occurred on server");
+            buildLogs.flush();
+            commitStatusPublisher.publish(pushEvent, CommitState.ERROR, "Unexpected error occurred on server", buildId);
+            return;
+        } catch (PipelineTimedOutException e) {
+            log.info("Pipeline timed out, commit={}, reason={}", pushEvent.getAfter(), e.getMessage());
+            // A runaway build may have left the workspace in any state
+            workspaceReusable = false;
+            buildLogs.append("\n" + e.getMessage());
+            buildLogs.flush();
+            buildStatus = CommitState.FAILURE;
+            commitStatusPublisher.publish(pushEvent, CommitState.FAILURE, e.getMessage(), buildId);
+            return;
+        } catch (PipelineSupersededException e) {
+            log.info("Pipeline superseded, commit={}, reason={}", pushEvent.getAfter(), e.getMessage());
+            buildLogs.append("\n" + e.getMessage());
+            buildLogs.flush();
+            commitStatusPublisher.publish(pushEvent, CommitState.ERROR, "Superseded by a newer push", buildId);
+            return;
+        } finally {
+            if (cgroup != null) {
+                ResourceUsage usage = buildIsolation.release(cgroup);
+                if (usage.describe() != null) {
+                    buildLogs.append("\n" + usage.describe());
+                    buildStore.setResourceUsage(buildId, usage.getPeakMemoryBytes(), usage.getCpuTimeMillis());
+                }
+            }
+            if (dependencies != null) {
+                // Downloads of builds that were killed or failed unexpectedly are not shared
+                String downloads = dependencyCache.release(dependencies,
+                        buildStatus != CommitState.ERROR && !pipeline.isTimedOut());
+                if (downloads != null) {
+                    buildLogs.append("\n" + downloads);
+                }
+            }
+            buildLogs.close();
+            long durationMillis = Duration.between(pipelineStartTimestamp, OffsetDateTime.now(ZoneOffset.UTC))
+                    .toMillis();
+            buildStore.finishBuild(buildId, buildStatus, durationMillis);
+            metrics.histogram("ciserver_build_seconds", "Time from the start of a build until its status is known.",
+                    MetricsRegistry.DURATION_BUCKETS, "repository", repository, "status", buildStatus.name())
+                    .recordNanos(TimeUnit.MILLISECONDS.toNanos(durationMillis));
+            liveLogBroadcaster.finish(buildId);
+            if (pipeline != null) {
+                pipelineRegistry.unregister(pipeline);
+            }
+            if (workspace != null) {
+                if (workspaceReusable) {
+                    workspaceManager.release(workspace);
+                } else {
+                    workspaceManager.discard(workspace);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the results of the tests the stages ran, whether they passed or not.
+     */
+    private void recordTestResults(long buildId, File workingDirectory, Instant stagesStarted,
+                                   BuildLogWriter buildLogs) {
+        List<TestResult> results = surefireReportParser.parseReports(workingDirectory, stagesStarted);
+        if (results.isEmpty()) {
             return;
         }
-        buildLogs.append("Pipeline successful.");
-        Long buildId = databaseWrapper.addBuild(new BuildInfo(pushEvent.getAfter(), buildLogs.toString(),
-                pipelineStartTimestamp));
-        githubClient.createStatusMsg(pushEvent, CommitState.SUCCESS, "Pipeline successful", buildId);
-        log.info("Pipeline successful.");
+        buildStore.addTestResults(buildId, results);
+        buildLogs.append(SurefireReportParser.describe(results) + "\n");
     }
 }
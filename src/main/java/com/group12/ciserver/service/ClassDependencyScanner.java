@@ -0,0 +1,177 @@
+package com.group12.ciserver.service;
+
+import lombok.Getter;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads which classes a compiled class refers to from its constant pool, without loading it.
+ * <p>
+ * The references are the classes of the constant pool and the classes named in type descriptors and generic
+ * signatures, e.g. the parameter types of methods. References that only exist as strings, e.g. through reflection,
+ * are not found, which is why {@link TestImpactAnalyzer} runs all tests now and then.
+ */
+public final class ClassDependencyScanner {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final Pattern DESCRIPTOR_CLASS = Pattern.compile("L([\\w/$]+)[;<]");
+
+    private ClassDependencyScanner() {
+    }
+
+    /**
+     * @param classFile the content of a <code>.class</code> file.
+     * @return the name of the class, its source file and the classes it refers to.
+     * @throws IOException if the class file cannot be read or is not a class file.
+     */
+    public static ScannedClass scan(InputStream classFile) throws IOException {
+        DataInputStream in = new DataInputStream(classFile);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+
+        int constantCount = in.readUnsignedShort();
+        String[] utf8 = new String[constantCount];
+        int[] classNameIndex = new int[constantCount];
+        for (int i = 1; i < constantCount; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1:
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7:
+                    classNameIndex[i] = in.readUnsignedShort();
+                    break;
+                case 8:
+                case 16:
+                case 19:
+                case 20:
+                    in.readUnsignedShort();
+                    break;
+                case 15:
+                    in.readUnsignedByte();
+                    in.readUnsignedShort();
+                    break;
+                case 3:
+                case 4:
+                case 9:
+                case 10:
+                case 11:
+                case 12:
+                case 17:
+                case 18:
+                    in.readInt();
+                    break;
+                case 5:
+                case 6:
+                    in.readLong();
+                    // Longs and doubles take up two entries
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        in.readUnsignedShort();
+        String name = toClassName(utf8[classNameIndex[in.readUnsignedShort()]]);
+        in.readUnsignedShort();
+        int interfaceCount = in.readUnsignedShort();
+        for (int i = 0; i < interfaceCount; i++) {
+            in.readUnsignedShort();
+        }
+        for (int members = 0; members < 2; members++) {
+            int memberCount = in.readUnsignedShort();
+            for (int i = 0; i < memberCount; i++) {
+                in.readUnsignedShort();
+                in.readUnsignedShort();
+                in.readUnsignedShort();
+                skipAttributes(in);
+            }
+        }
+        String sourceFile = null;
+        int attributeCount = in.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            String attributeName = utf8[in.readUnsignedShort()];
+            int length = in.readInt();
+            if ("SourceFile".equals(attributeName)) {
+                sourceFile = utf8[in.readUnsignedShort()];
+            } else {
+                in.skipNBytes(length);
+            }
+        }
+
+        Set<String> dependencies = new HashSet<>();
+        for (int i = 1; i < constantCount; i++) {
+            if (classNameIndex[i] != 0) {
+                String reference = utf8[classNameIndex[i]];
+                if (reference.startsWith("[")) {
+                    addDescriptorClasses(reference, dependencies);
+                } else {
+                    dependencies.add(toClassName(reference));
+                }
+            } else if (utf8[i] != null && utf8[i].indexOf(';') > 0) {
+                addDescriptorClasses(utf8[i], dependencies);
+            }
+        }
+        dependencies.remove(name);
+        return new ScannedClass(name, sourceFile, dependencies);
+    }
+
+    private static void skipAttributes(DataInputStream in) throws IOException {
+        int attributeCount = in.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            in.readUnsignedShort();
+            in.skipNBytes(in.readInt() & 0xFFFFFFFFL);
+        }
+    }
+
+    private static void addDescriptorClasses(String descriptor, Set<String> dependencies) {
+        Matcher matcher = DESCRIPTOR_CLASS.matcher(descriptor);
+        while (matcher.find()) {
+            dependencies.add(toClassName(matcher.group(1)));
+        }
+    }
+
+    private static String toClassName(String internalName) {
+        return internalName.replace('/', '.');
+    }
+
+    /**
+     * A class read by {@link #scan(InputStream)}.
+     */
+    @Getter
+    public static class ScannedClass {
+
+        /**
+         * The binary name of the class, e.g. <code>com.example.Outer$Inner</code>.
+         */
+        private final String name;
+
+        /**
+         * The name of the source file without its directory, e.g. <code>Outer.java</code>, or null if the class was
+         * compiled without it.
+         */
+        private final String sourceFile;
+
+        /**
+         * The binary names of the classes the class refers to.
+         */
+        private final Set<String> dependencies;
+
+        ScannedClass(String name, String sourceFile, Set<String> dependencies) {
+            this.name = name;
+            this.sourceFile = sourceFile;
+            this.dependencies = dependencies;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.group12.ciserver.service;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs stages with the Maven Daemon (<code>mvnd</code>), whose client hands the build to a daemon JVM that stays
+ * running between builds, so plugins are already loaded and JIT compiled when the next build starts.
+ * <p>
+ * Daemons are not shared between repositories: every repository has its own daemon storage directory, and mvnd only
+ * uses the daemons registered there. A build can therefore only see state left behind by earlier builds of the same
+ * repository, e.g. static fields of its own plugins or build extensions. A daemon runs one build at a time, so
+ * concurrent builds of a repository get separate daemons. Builds run with <code>-T1</code> like <code>mvn</code> does,
+ * so the output stays in order. Killing the client when a pipeline is superseded makes the daemon cancel the build.
+ * <p>
+ * The client forks the daemon, so a new daemon starts in the cgroup of the build and as a descendant of the client.
+ * Daemons are recognized by their main class and are spared when the processes of a build are killed.
+ */
+public class DaemonMavenLauncher implements MavenLauncher {
+
+    /**
+     * The main class of the daemon JVM, since mvnd 0.8 and before.
+     */
+    private static final Set<String> DAEMON_MAIN_CLASSES = Set.of("org.mvndaemon.mvnd.common.MavenDaemon",
+            "org.mvndaemon.mvnd.daemon.Server");
+
+    private final String executable;
+
+    private final File daemonDirectory;
+
+    private final String idleTimeout;
+
+    private final String maxHeapSize;
+
+    /**
+     * @param executable the mvnd executable, e.g. <code>mvnd</code> or <code>/opt/mvnd/bin/mvnd</code>.
+     * @param daemonDirectory the directory the daemon storage directories of the repositories are created in.
+     * @param idleTimeout how long an idle daemon is kept, e.g. <code>1h</code>.
+     * @param maxHeapSize the maximum heap size of a daemon, e.g. <code>1g</code>.
+     */
+    public DaemonMavenLauncher(String executable, File daemonDirectory, String idleTimeout, String maxHeapSize) {
+        this.executable = executable;
+        this.daemonDirectory = daemonDirectory;
+        this.idleTimeout = idleTimeout;
+        this.maxHeapSize = maxHeapSize;
+    }
+
+    @Override
+    public List<String> commandLine(List<String> arguments, RunningPipeline pipeline) {
+        List<String> commandLine = new ArrayList<>();
+        commandLine.add(executable);
+        commandLine.add("-B");
+        commandLine.add("-T1");
+        commandLine.add("-Dmvnd.daemonStorage=" + daemonStorageOf(pipeline.getRepository()).getAbsolutePath());
+        commandLine.add("-Dmvnd.idleTimeout=" + idleTimeout);
+        commandLine.add("-Dmvnd.maxHeapSize=" + maxHeapSize);
+        commandLine.addAll(arguments);
+        return commandLine;
+    }
+
+    @Override
+    public List<String> versionCommandLine() {
+        return List.of(executable, "--version");
+    }
+
+    @Override
+    public boolean isDaemon(ProcessHandle process) {
+        return process.info().arguments()
+                .map(arguments -> Arrays.stream(arguments).anyMatch(DAEMON_MAIN_CLASSES::contains))
+                .orElse(false);
+    }
+
+    File daemonStorageOf(String repository) {
+        return new File(daemonDirectory, DirectoryNames.of(repository));
+    }
+}
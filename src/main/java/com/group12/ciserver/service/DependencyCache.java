@@ -0,0 +1,351 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.ci.DependencyCacheStats;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.util.FileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * The local maven repository of the builds, shared between builds without letting them write to the same files.
+ * <p>
+ * Every build gets an empty overlay directory as its local repository and the shared store as a read-only
+ * <code>maven.repo.local.tail</code>, which needs Maven 3.9 or newer. Maven finds the artifacts that are already in
+ * the shared store there and downloads the others into the overlay. When the build has finished the downloaded
+ * release artifacts are moved into the shared store, one file at a time with an atomic rename, so a concurrent build
+ * never sees a partly written file. Release artifacts never change once they are published, so the path of an
+ * artifact identifies its content and copies downloaded by different builds are interchangeable. Snapshots and
+ * metadata can change and are never shared.
+ * <p>
+ * The store can be seeded on startup from an existing local repository with
+ * <code>ciserver.dependency-cache.seed-path</code>, e.g. one that already holds the dependencies of the repositories
+ * that are built.
+ * <p>
+ * Older versions of maven ignore the tail and would download every dependency into the empty overlay, so the version
+ * of the {@link MavenLauncher} is checked before the first build. If it is older than 3.9 or cannot be found, builds
+ * use the local repository of the server user as if the cache was disabled.
+ */
+@Service
+@Slf4j
+public class DependencyCache {
+
+    private static final String SHARED_DIRECTORY = "shared";
+
+    private static final String OVERLAY_DIRECTORY = "overlays";
+
+    private static final String TEMP_DIRECTORY = "tmp";
+
+    private static final Pattern MAVEN_VERSION = Pattern.compile("Apache Maven (\\d+)\\.(\\d+)");
+
+    private final boolean enabled;
+
+    /**
+     * Prints the version of maven, e.g. <code>Apache Maven 3.9.6</code>, null if it cannot be found.
+     */
+    private final Supplier<String> mavenVersion;
+
+    /**
+     * Whether maven reads <code>maven.repo.local.tail</code>, null until it has been checked.
+     */
+    private Boolean tailSupported;
+
+    private final Path sharedDirectory;
+
+    private final Path overlayDirectory;
+
+    private final Path tempDirectory;
+
+    private final ExecutorService seedExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "dependency-cache-seeder"));
+
+    private final AtomicLong builds = new AtomicLong();
+
+    private final AtomicLong buildsWithoutDownloads = new AtomicLong();
+
+    private final AtomicLong downloadedArtifacts = new AtomicLong();
+
+    private final AtomicLong downloadedBytes = new AtomicLong();
+
+    private final AtomicLong sharedArtifacts = new AtomicLong();
+
+    private final AtomicLong sharedBytes = new AtomicLong();
+
+    @Autowired
+    public DependencyCache(@Value("${ciserver.dependency-cache.enabled:true}") boolean enabled,
+                           @Value("${ciserver.dependency-cache.path:../m2-cache}") String path,
+                           @Value("${ciserver.dependency-cache.seed-path:}") String seedPath,
+                           MavenLauncher mavenLauncher) throws IOException {
+        this(enabled, path, seedPath, () -> mavenVersionOf(mavenLauncher));
+    }
+
+    DependencyCache(boolean enabled, String path, String seedPath) throws IOException {
+        this(enabled, path, seedPath, () -> "Apache Maven 3.9.6");
+    }
+
+    DependencyCache(boolean enabled, String path, String seedPath, Supplier<String> mavenVersion)
+            throws IOException {
+        this.enabled = enabled;
+        this.mavenVersion = mavenVersion;
+        this.sharedDirectory = Path.of(path, SHARED_DIRECTORY).toAbsolutePath();
+        this.overlayDirectory = Path.of(path, OVERLAY_DIRECTORY).toAbsolutePath();
+        this.tempDirectory = Path.of(path, TEMP_DIRECTORY).toAbsolutePath();
+        if (!enabled) {
+            log.info("Dependency cache is disabled, builds use the local repository of the server user");
+            return;
+        }
+        Files.createDirectories(sharedDirectory);
+        Files.createDirectories(tempDirectory);
+        // Overlays and temporary files of builds that were running when the server stopped
+        FileUtils.delete(overlayDirectory.toFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+        Files.createDirectories(overlayDirectory);
+        seedExecutor.execute(() -> {
+            try {
+                countSharedArtifacts();
+                if (!seedPath.isEmpty()) {
+                    seed(Path.of(seedPath));
+                }
+            } catch (IOException e) {
+                log.error("Could not seed the dependency cache, seedPath={}", seedPath, e);
+            }
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        seedExecutor.shutdownNow();
+    }
+
+    /**
+     * Creates the overlay of a build.
+     *
+     * @param buildId unique identifier of the build.
+     * @return the overlay, which must be handed back with {@link #release(Overlay, boolean)}.
+     */
+    public Overlay lease(long buildId) {
+        if (!enabled || !isTailSupported()) {
+            return new Overlay(null, List.of());
+        }
+        Path directory = overlayDirectory.resolve(buildId + "-" + UUID.randomUUID());
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            log.error("Could not create dependency cache overlay, buildId={}", buildId, e);
+            return new Overlay(null, List.of());
+        }
+        return new Overlay(directory, List.of("-Dmaven.repo.local=" + directory,
+                "-Dmaven.repo.local.tail=" + sharedDirectory));
+    }
+
+    /**
+     * Counts what the build downloaded, moves the downloaded release artifacts into the shared store if
+     * <code>share</code> is set, and deletes the overlay.
+     *
+     * @param overlay the overlay of the build.
+     * @param share false if the downloads of the build should not be trusted, e.g. because it was killed.
+     * @return a line describing what the build downloaded, for the build log, or null if the cache is disabled.
+     */
+    public String release(Overlay overlay, boolean share) {
+        if (overlay.directory == null) {
+            return null;
+        }
+        long artifacts = 0;
+        long bytes = 0;
+        try (Stream<Path> files = Files.walk(overlay.directory)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                artifacts += isArtifact(file) ? 1 : 0;
+                long size = Files.size(file);
+                bytes += size;
+                if (share && isShareable(overlay.directory.relativize(file))) {
+                    share(file, sharedDirectory.resolve(overlay.directory.relativize(file)), size, false);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Could not share the downloads of a build, overlay={}", overlay.directory, e);
+        } finally {
+            try {
+                FileUtils.delete(overlay.directory.toFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+            } catch (IOException e) {
+                log.error("Could not delete dependency cache overlay, overlay={}", overlay.directory, e);
+            }
+        }
+
+        builds.incrementAndGet();
+        if (artifacts == 0) {
+            buildsWithoutDownloads.incrementAndGet();
+        }
+        downloadedArtifacts.addAndGet(artifacts);
+        downloadedBytes.addAndGet(bytes);
+        return String.format("Dependency cache: %d artifacts (%d KB) downloaded", artifacts, bytes / 1024);
+    }
+
+    private synchronized boolean isTailSupported() {
+        if (tailSupported == null) {
+            String version = mavenVersion.get();
+            tailSupported = supportsTail(version);
+            if (!tailSupported) {
+                log.warn("Maven 3.9 or newer is needed for the dependency cache, builds use the local repository of "
+                        + "the server user, version={}", version);
+            }
+        }
+        return tailSupported;
+    }
+
+    /**
+     * @param version the output of <code>mvn --version</code>, or null.
+     * @return true if the version is 3.9 or newer, which reads <code>maven.repo.local.tail</code>.
+     */
+    static boolean supportsTail(String version) {
+        Matcher matcher = MAVEN_VERSION.matcher(version == null ? "" : version);
+        if (!matcher.find()) {
+            return false;
+        }
+        int major = Integer.parseInt(matcher.group(1));
+        int minor = Integer.parseInt(matcher.group(2));
+        return major > 3 || major == 3 && minor >= 9;
+    }
+
+    private static String mavenVersionOf(MavenLauncher mavenLauncher) {
+        try {
+            Process process = new ProcessBuilder(mavenLauncher.versionCommandLine()).redirectErrorStream(true).start();
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            if (!process.waitFor(1, TimeUnit.MINUTES)) {
+                process.destroyForcibly();
+                return null;
+            }
+            return output;
+        } catch (IOException e) {
+            log.error("Could not find the version of maven, command={}", mavenLauncher.versionCommandLine(), e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * @return the size of the shared store and what builds downloaded since the server started.
+     */
+    public DependencyCacheStats getStats() {
+        long builds = this.builds.get();
+        return DependencyCacheStats.builder()
+                .enabled(enabled && !Boolean.FALSE.equals(tailSupported))
+                .sharedArtifacts(sharedArtifacts.get())
+                .sharedBytes(sharedBytes.get())
+                .builds(builds)
+                .buildsWithoutDownloads(buildsWithoutDownloads.get())
+                .hitRate(builds == 0 ? 0 : (double) buildsWithoutDownloads.get() / builds)
+                .downloadedArtifacts(downloadedArtifacts.get())
+                .downloadedBytes(downloadedBytes.get())
+                .build();
+    }
+
+    /**
+     * Release artifacts and the files that record where they were downloaded from. Snapshots, metadata and the
+     * files maven writes while resolving are left out.
+     */
+    static boolean isShareable(Path relativePath) {
+        String path = relativePath.toString().replace(File.separatorChar, '/');
+        String name = relativePath.getFileName().toString();
+        return !path.contains("-SNAPSHOT")
+                && !name.startsWith("maven-metadata")
+                && !name.startsWith("resolver-status")
+                && !name.endsWith(".lastUpdated")
+                && !name.endsWith(".part")
+                && !name.endsWith(".lock");
+    }
+
+    /**
+     * Puts a file into the shared store unless it is already there. The file is first moved or copied to the
+     * temporary directory, which is on the same file system, and then renamed to its place.
+     */
+    private void share(Path source, Path target, long size, boolean copy) throws IOException {
+        if (Files.exists(target)) {
+            return;
+        }
+        Files.createDirectories(target.getParent());
+        Path temp = tempDirectory.resolve(UUID.randomUUID().toString());
+        if (copy) {
+            Files.copy(source, temp);
+        } else {
+            Files.move(source, temp);
+        }
+        try {
+            // If another build shared the same artifact in the meantime it is replaced by an identical copy
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            sharedArtifacts.addAndGet(isArtifact(target) ? 1 : 0);
+            sharedBytes.addAndGet(size);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void seed(Path seedDirectory) throws IOException {
+        log.info("Seeding dependency cache, seedPath={}", seedDirectory);
+        try (Stream<Path> files = Files.walk(seedDirectory)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                Path relative = seedDirectory.relativize(file);
+                if (isShareable(relative)) {
+                    share(file, sharedDirectory.resolve(relative.toString()), Files.size(file), true);
+                }
+            }
+        }
+    }
+
+    private void countSharedArtifacts() throws IOException {
+        long artifacts = 0;
+        long bytes = 0;
+        try (Stream<Path> files = Files.walk(sharedDirectory)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                artifacts += isArtifact(file) ? 1 : 0;
+                bytes += Files.size(file);
+            }
+        }
+        sharedArtifacts.set(artifacts);
+        sharedBytes.set(bytes);
+        log.info("Dependency cache ready, sharedArtifacts={}, sharedBytes={}", artifacts, bytes);
+    }
+
+    private static boolean isArtifact(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(".jar") || name.endsWith(".pom");
+    }
+
+    /**
+     * The local repository of one build.
+     */
+    public static class Overlay {
+
+        private final Path directory;
+
+        /**
+         * The options that make maven use the overlay and the shared store, empty if the cache is disabled.
+         */
+        @Getter
+        private final List<String> mavenOptions;
+
+        Overlay(Path directory, List<String> mavenOptions) {
+            this.directory = directory;
+            this.mavenOptions = mavenOptions;
+        }
+    }
+}
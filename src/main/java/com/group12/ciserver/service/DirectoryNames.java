@@ -0,0 +1,33 @@
+package com.group12.ciserver.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Turns names from pushes, e.g. <code>owner/name</code> or a branch, into names of directories and files.
+ * <p>
+ * Characters that are not safe in a file name are replaced, which keeps the names readable but maps different names
+ * to the same one, e.g. <code>a-b/c</code> and <code>a/b-c</code>. A hash of the original name is therefore appended.
+ */
+final class DirectoryNames {
+
+    private static final int HASH_LENGTH = 12;
+
+    private DirectoryNames() {
+    }
+
+    /**
+     * @return a file name that only contains <code>A-Z a-z 0-9 _ . -</code> and is different for every name.
+     */
+    static String of(String name) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            String hash = HexFormat.of().formatHex(digest.digest(name.getBytes(StandardCharsets.UTF_8)));
+            return name.replaceAll("[^A-Za-z0-9_.-]", "-") + "-" + hash.substring(0, HASH_LENGTH);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
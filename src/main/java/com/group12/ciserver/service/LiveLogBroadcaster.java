@@ -0,0 +1,348 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.database.BuildStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fans out the logs of running builds to any number of viewers using Server-Sent Events.
+ * <p>
+ * Each running build has one {@link LiveLog}, a ring buffer holding the most recent part of the log. Viewers only
+ * remember how far into the log they have read. A small shared pool of dispatcher threads periodically sends every
+ * viewer the part of the log it has not seen yet, so a viewer costs neither a thread nor a copy of the log: viewers
+ * that are at the same offset share the same slice. Viewers that are further behind than the ring buffer reaches, or
+ * that follow a build that has already finished, are served from the chunks stored in the database.
+ * <p>
+ * Sending blocks until the viewer has taken the event, so a task of the dispatcher sends one slice of at most
+ * {@link #MAX_EVENT_SIZE} characters to one viewer and then queues the viewer again for its next slice. A viewer
+ * catching up on a long log therefore takes turns with all other viewers instead of holding a dispatcher thread
+ * until it has read everything.
+ * <p>
+ * Every event carries the offset after its last character as its id, so a viewer can resume where it stopped by
+ * reconnecting with that offset.
+ */
+@Component
+@Slf4j
+public class LiveLogBroadcaster {
+
+    private static final int RING_BUFFER_SIZE = 4 * BuildLogWriter.DEFAULT_CHUNK_SIZE;
+
+    private static final int MAX_EVENT_SIZE = BuildLogWriter.DEFAULT_CHUNK_SIZE;
+
+    private static final long DISPATCH_DELAY_MILLIS = 100;
+
+    private static final long EMITTER_TIMEOUT_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final BuildStore buildStore;
+
+    private final Map<Long, LiveLog> liveLogs = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService dispatcher;
+
+    public LiveLogBroadcaster(BuildStore buildStore) {
+        this.buildStore = buildStore;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.dispatcher = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "log-stream-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        dispatcher.shutdownNow();
+    }
+
+    /**
+     * Starts a live log for a build that is about to run.
+     *
+     * @param buildId unique identifier of the build
+     * @return the {@link LiveLog} that the output of the build must be appended to.
+     */
+    public LiveLog open(long buildId) {
+        LiveLog liveLog = new LiveLog(buildId);
+        liveLogs.put(buildId, liveLog);
+        return liveLog;
+    }
+
+    /**
+     * Ends the live log of a build. Viewers are sent the rest of the log and an <code>end</code> event.
+     *
+     * @param buildId unique identifier of the build
+     */
+    public void finish(long buildId) {
+        LiveLog liveLog = liveLogs.remove(buildId);
+        if (liveLog == null) {
+            return;
+        }
+        synchronized (liveLog) {
+            liveLog.finished = true;
+        }
+        dispatcher.execute(() -> dispatch(liveLog));
+    }
+
+    /**
+     * Subscribes to the log of a build, starting at an offset. If the build is running the viewer keeps receiving
+     * output until the build finishes, otherwise the stored log is sent.
+     *
+     * @param buildId unique identifier of the build
+     * @param offset number of characters of the log the viewer has already received
+     * @return the {@link SseEmitter} the log is sent to.
+     */
+    public SseEmitter subscribe(long buildId, long offset) {
+        SseEmitter emitter = new SseEmitter(EMITTER_TIMEOUT_MILLIS);
+        LiveLog liveLog = liveLogs.get(buildId);
+        if (liveLog != null) {
+            synchronized (liveLog) {
+                if (!liveLog.finished) {
+                    Viewer viewer = new Viewer(emitter, offset);
+                    liveLog.viewers.add(viewer);
+                    Runnable remove = () -> liveLog.viewers.remove(viewer);
+                    emitter.onCompletion(remove);
+                    emitter.onTimeout(remove);
+                    emitter.onError(error -> remove.run());
+                    scheduleSend(liveLog, viewer);
+                    return emitter;
+                }
+            }
+        }
+        dispatcher.execute(() -> sendStoredLog(buildId, new Viewer(emitter, offset)));
+        return emitter;
+    }
+
+    private void scheduleDispatch(LiveLog liveLog, long delayMillis) {
+        synchronized (liveLog) {
+            if (liveLog.dispatchScheduled) {
+                return;
+            }
+            liveLog.dispatchScheduled = true;
+        }
+        dispatcher.schedule(() -> dispatch(liveLog), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues every viewer of a live log that is not queued yet.
+     */
+    private void dispatch(LiveLog liveLog) {
+        synchronized (liveLog) {
+            liveLog.dispatchScheduled = false;
+        }
+        for (Viewer viewer : liveLog.viewers) {
+            scheduleSend(liveLog, viewer);
+        }
+    }
+
+    private void scheduleSend(LiveLog liveLog, Viewer viewer) {
+        synchronized (liveLog) {
+            if (viewer.sendScheduled) {
+                return;
+            }
+            viewer.sendScheduled = true;
+        }
+        dispatcher.execute(() -> sendLive(liveLog, viewer));
+    }
+
+    /**
+     * Sends a viewer the next slice of a live log, or the end once it has read the whole log of a finished build. A
+     * viewer has at most one of these tasks queued or running, so its slices are sent in order.
+     */
+    private void sendLive(LiveLog liveLog, Viewer viewer) {
+        long end;
+        boolean finished;
+        synchronized (liveLog) {
+            end = liveLog.written;
+            finished = liveLog.finished;
+        }
+        if (viewer.offset < end) {
+            long from = viewer.offset;
+            if (!send(viewer, slice(liveLog, from, Math.min(end, from + MAX_EVENT_SIZE)))) {
+                liveLog.viewers.remove(viewer);
+                return;
+            }
+        } else if (finished) {
+            sendEnd(viewer);
+            liveLog.viewers.remove(viewer);
+            return;
+        }
+        boolean pending;
+        synchronized (liveLog) {
+            viewer.sendScheduled = false;
+            // Output appended while sending found the viewer still queued, so it is picked up here
+            pending = viewer.offset < liveLog.written || liveLog.finished;
+        }
+        if (pending) {
+            scheduleSend(liveLog, viewer);
+        }
+    }
+
+    /**
+     * Sends a viewer of a finished build the next slice of the stored log, then queues it for the slice after.
+     */
+    private void sendStoredLog(long buildId, Viewer viewer) {
+        String slice = buildStore.getLogRange(buildId, viewer.offset, viewer.offset + MAX_EVENT_SIZE);
+        if (slice == null || slice.isEmpty()) {
+            sendEnd(viewer);
+            return;
+        }
+        if (send(viewer, slice)) {
+            dispatcher.execute(() -> sendStoredLog(buildId, viewer));
+        }
+    }
+
+    /**
+     * Reads a part of a live log, reusing the part read last if it is the same, so viewers at the same offset share
+     * one slice.
+     */
+    private String slice(LiveLog liveLog, long from, long to) {
+        synchronized (liveLog) {
+            if (liveLog.lastSliceFrom == from && liveLog.lastSliceTo == to) {
+                return liveLog.lastSlice;
+            }
+        }
+        String slice = read(liveLog, from, to);
+        synchronized (liveLog) {
+            liveLog.lastSliceFrom = from;
+            liveLog.lastSliceTo = to;
+            liveLog.lastSlice = slice;
+        }
+        return slice;
+    }
+
+    /**
+     * Reads a part of a live log, taking the part that has already left the ring buffer from the database.
+     */
+    private String read(LiveLog liveLog, long from, long to) {
+        long ringStart;
+        String fromRing;
+        synchronized (liveLog) {
+            ringStart = liveLog.ringStart();
+            fromRing = liveLog.read(Math.max(from, ringStart), to);
+        }
+        if (from >= ringStart) {
+            return fromRing;
+        }
+        String stored = buildStore.getLogRange(liveLog.buildId, from, Math.min(ringStart, to));
+        return (stored == null ? "" : stored) + fromRing;
+    }
+
+    private boolean send(Viewer viewer, String slice) {
+        long to = viewer.offset + slice.length();
+        try {
+            viewer.emitter.send(SseEmitter.event()
+                    .id(String.valueOf(to))
+                    .name("log")
+                    .data(Map.of("offset", viewer.offset, "text", slice), MediaType.APPLICATION_JSON));
+            viewer.offset = to;
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Log viewer disconnected, error={}", e.getMessage());
+            viewer.emitter.completeWithError(e);
+            return false;
+        }
+    }
+
+    private void sendEnd(Viewer viewer) {
+        try {
+            viewer.emitter.send(SseEmitter.event().id(String.valueOf(viewer.offset)).name("end").data(""));
+            viewer.emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            viewer.emitter.completeWithError(e);
+        }
+    }
+
+    private static class Viewer {
+
+        private final SseEmitter emitter;
+
+        private volatile long offset;
+
+        /**
+         * Whether a task sending to this viewer is queued or running, guarded by the {@link LiveLog}.
+         */
+        private boolean sendScheduled = false;
+
+        Viewer(SseEmitter emitter, long offset) {
+            this.emitter = emitter;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * The most recent part of the log of a running build.
+     */
+    public final class LiveLog {
+
+        private final long buildId;
+
+        private final char[] ring = new char[RING_BUFFER_SIZE];
+
+        private final List<Viewer> viewers = new CopyOnWriteArrayList<>();
+
+        private long written = 0;
+
+        private boolean finished = false;
+
+        private boolean dispatchScheduled = false;
+
+        private long lastSliceFrom = -1;
+
+        private long lastSliceTo = -1;
+
+        private String lastSlice;
+
+        private LiveLog(long buildId) {
+            this.buildId = buildId;
+        }
+
+        /**
+         * Appends output of the build and schedules sending it to the viewers.
+         */
+        public void append(char[] characters, int offset, int length) {
+            synchronized (this) {
+                int skip = Math.max(0, length - ring.length);
+                long position = written + skip;
+                for (int i = skip; i < length; ) {
+                    int ringIndex = (int) (position % ring.length);
+                    int count = Math.min(length - i, ring.length - ringIndex);
+                    System.arraycopy(characters, offset + i, ring, ringIndex, count);
+                    i += count;
+                    position += count;
+                }
+                written += length;
+                if (viewers.isEmpty()) {
+                    return;
+                }
+            }
+            scheduleDispatch(this, DISPATCH_DELAY_MILLIS);
+        }
+
+        private long ringStart() {
+            return Math.max(0, written - ring.length);
+        }
+
+        private String read(long from, long to) {
+            StringBuilder text = new StringBuilder((int) Math.max(0, to - from));
+            for (long position = from; position < to; ) {
+                int ringIndex = (int) (position % ring.length);
+                int count = (int) Math.min(to - position, ring.length - ringIndex);
+                text.append(ring, ringIndex, count);
+                position += count;
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.group12.ciserver.service;
+
+import java.util.List;
+
+/**
+ * Builds the command line that runs maven for a stage of a pipeline. Selected by
+ * <code>ciserver.executor.backend</code>, see {@link MavenLauncherConfiguration}.
+ */
+public interface MavenLauncher {
+
+    /**
+     * @param arguments the goals and options of the maven command, e.g. <code>package -DskipTests</code>.
+     * @param pipeline the pipeline the command belongs to.
+     * @return the command line of the process to start.
+     */
+    List<String> commandLine(List<String> arguments, RunningPipeline pipeline);
+
+    /**
+     * @return the command line that prints the version of the maven the stages run with.
+     */
+    List<String> versionCommandLine();
+
+    /**
+     * @return true if the process is a daemon that the launcher keeps running between builds, which must survive the
+     * end of the build that started it, see {@link BuildCgroup#kill()}.
+     */
+    default boolean isDaemon(ProcessHandle process) {
+        return false;
+    }
+}
@@ -0,0 +1,51 @@
+package com.group12.ciserver.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.File;
+
+/**
+ * Creates the {@link MavenLauncher} selected by <code>ciserver.executor.backend</code>.
+ * <ul>
+ *     <li>mvn - a new maven process for every stage</li>
+ *     <li>mvnd - warm Maven Daemon JVMs per repository, reused across builds</li>
+ * </ul>
+ */
+@Configuration
+@Slf4j
+public class MavenLauncherConfiguration {
+
+    @Value("${ciserver.executor.backend:mvn}")
+    private String backend;
+
+    @Value("${ciserver.executor.mvnd.path:mvnd}")
+    private String mvndPath;
+
+    @Value("${ciserver.executor.mvnd.daemon-directory:../mvnd-daemons}")
+    private String mvndDaemonDirectory;
+
+    @Value("${ciserver.executor.mvnd.idle-timeout:1h}")
+    private String mvndIdleTimeout;
+
+    @Value("${ciserver.executor.mvnd.max-heap-size:1g}")
+    private String mvndMaxHeapSize;
+
+    @Bean
+    public MavenLauncher mavenLauncher() {
+        switch (backend) {
+            case "mvn":
+                log.info("Running stages with a maven process per stage");
+                return new ProcessMavenLauncher();
+            case "mvnd":
+                log.info("Running stages with the Maven Daemon, path={}, daemonDirectory={}", mvndPath,
+                        mvndDaemonDirectory);
+                return new DaemonMavenLauncher(mvndPath, new File(mvndDaemonDirectory), mvndIdleTimeout,
+                        mvndMaxHeapSize);
+            default:
+                throw new IllegalStateException("Unknown ciserver.executor.backend: " + backend);
+        }
+    }
+}
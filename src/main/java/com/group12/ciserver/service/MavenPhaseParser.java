@@ -0,0 +1,138 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.ci.StageDefinition;
+
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Follows the output of a single maven invocation that runs the stages of a pipeline together, e.g.
+ * <code>mvn test</code> for the stages compile and test, and tells which stage the build is in.
+ * <p>
+ * Maven does not print the lifecycle phase it is in, only the plugin goals it executes, e.g.
+ * <code>[INFO] --- maven-compiler-plugin:3.8.1:compile (default-compile) @ project ---</code>, or
+ * <code>--- compiler:3.11.0:compile</code> since Maven 3.9. The goals that are bound to the default lifecycle by
+ * default are mapped to their phase, and the phase to the first stage that runs it. Other goals belong to the stage
+ * of the goal before them. A failed goal is reported as
+ * <code>[ERROR] Failed to execute goal org.apache.maven.plugins:maven-surefire-plugin:2.22.2:test ...</code>.
+ */
+public class MavenPhaseParser {
+
+    /**
+     * The phases of the default lifecycle, in the order maven runs them.
+     */
+    public static final List<String> LIFECYCLE_PHASES = List.of(
+            "validate", "initialize", "generate-sources", "process-sources", "generate-resources",
+            "process-resources", "compile", "process-classes", "generate-test-sources", "process-test-sources",
+            "generate-test-resources", "process-test-resources", "test-compile", "process-test-classes", "test",
+            "prepare-package", "package", "pre-integration-test", "integration-test", "post-integration-test",
+            "verify", "install", "deploy");
+
+    private static final Map<String, String> DEFAULT_BINDINGS = Map.ofEntries(
+            Map.entry("resources:resources", "process-resources"),
+            Map.entry("compiler:compile", "compile"),
+            Map.entry("resources:testResources", "process-test-resources"),
+            Map.entry("compiler:testCompile", "test-compile"),
+            Map.entry("surefire:test", "test"),
+            Map.entry("jar:jar", "package"),
+            Map.entry("war:war", "package"),
+            Map.entry("ear:ear", "package"),
+            Map.entry("failsafe:integration-test", "integration-test"),
+            Map.entry("failsafe:verify", "verify"),
+            Map.entry("install:install", "install"),
+            Map.entry("deploy:deploy", "deploy"));
+
+    private static final Pattern ANSI_ESCAPE = Pattern.compile("\u001B\\[[0-9;]*m");
+
+    private static final Pattern GOAL_STARTED = Pattern.compile("^\\[INFO\\] --- ([\\w.-]+):[^:\\s]+:([\\w-]+) ");
+
+    private static final Pattern GOAL_FAILED = Pattern.compile(
+            "^\\[ERROR\\] Failed to execute goal [\\w.-]+:([\\w.-]+):[^:\\s]+:([\\w-]+) ");
+
+    private final List<StageDefinition> stages;
+
+    private final int[] stagePhases;
+
+    private int currentStage = 0;
+
+    private Integer failedStage;
+
+    /**
+     * @param stages the stages run by the invocation, each a single lifecycle phase, in lifecycle order.
+     */
+    public MavenPhaseParser(List<StageDefinition> stages) {
+        this.stages = stages;
+        this.stagePhases = stages.stream().mapToInt(stage -> LIFECYCLE_PHASES.indexOf(stage.getMaven())).toArray();
+    }
+
+    /**
+     * @param stages the stages of a pipeline.
+     * @return true if the stages can be run by a single maven invocation of the last stage, because every stage is
+     * a single lifecycle phase that comes after the phase of the stage before it.
+     */
+    public static boolean canRunTogether(List<StageDefinition> stages) {
+        int previousPhase = -1;
+        for (StageDefinition stage : stages) {
+            int phase = LIFECYCLE_PHASES.indexOf(stage.getMaven());
+            if (phase <= previousPhase) {
+                return false;
+            }
+            previousPhase = phase;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a line of the output.
+     */
+    public void accept(String line) {
+        String plain = ANSI_ESCAPE.matcher(line).replaceAll("");
+        Matcher started = GOAL_STARTED.matcher(plain);
+        if (started.find()) {
+            currentStage = Math.max(currentStage, stageOf(started.group(1), started.group(2), currentStage));
+            return;
+        }
+        Matcher failed = GOAL_FAILED.matcher(plain);
+        if (failed.find() && failedStage == null) {
+            failedStage = stageOf(failed.group(1), failed.group(2), currentStage);
+        }
+    }
+
+    /**
+     * @return the stage the build is in.
+     */
+    public StageDefinition getCurrentStage() {
+        return stages.get(currentStage);
+    }
+
+    /**
+     * @return the stage of the goal that failed the build, or the stage the build was in if maven did not report a
+     * failed goal, e.g. because the POM is invalid.
+     */
+    public StageDefinition getFailedStage() {
+        return stages.get(failedStage != null ? failedStage : currentStage);
+    }
+
+    private int stageOf(String plugin, String goal, int defaultStage) {
+        String phase = DEFAULT_BINDINGS.get(shortPluginName(plugin) + ":" + goal);
+        if (phase == null) {
+            return defaultStage;
+        }
+        int phaseIndex = LIFECYCLE_PHASES.indexOf(phase);
+        for (int i = 0; i < stagePhases.length; i++) {
+            if (stagePhases[i] >= phaseIndex) {
+                return i;
+            }
+        }
+        return stagePhases.length - 1;
+    }
+
+    private static String shortPluginName(String plugin) {
+        if (plugin.startsWith("maven-") && plugin.endsWith("-plugin")) {
+            return plugin.substring("maven-".length(), plugin.length() - "-plugin".length());
+        }
+        return plugin;
+    }
+}
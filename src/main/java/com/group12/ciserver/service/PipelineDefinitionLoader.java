@@ -0,0 +1,153 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.ci.InvalidPipelineDefinitionException;
+import com.group12.ciserver.model.ci.PipelineDefinition;
+import com.group12.ciserver.model.ci.StageDefinition;
+import org.springframework.stereotype.Component;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.error.YAMLException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the pipeline definition of a repository from the file <code>.ci.yml</code> in its root directory. Example:
+ * <pre>
+ * stages:
+ *   compile:
+ *     maven: compile
+ *   test:
+ *     maven: test
+ *     needs: compile
+ *     failure-message: Tests failed
+ *   package:
+ *     maven: package -DskipTests
+ *     needs: [compile]
+ * </pre>
+ * Repositories without the file get {@link PipelineDefinition#defaultPipeline()}.
+ */
+@Component
+public class PipelineDefinitionLoader {
+
+    public static final String DEFINITION_FILE = ".ci.yml";
+
+    private static final Pattern STAGE_NAME = Pattern.compile("[A-Za-z0-9_.-]+");
+
+    /**
+     * @param workingDirectory the checkout of the repository.
+     * @return the pipeline definition of the repository, with the stages in an order where every stage comes after
+     * the stages it needs.
+     * @throws InvalidPipelineDefinitionException if the file exists but is not a valid pipeline definition.
+     */
+    public PipelineDefinition load(File workingDirectory) {
+        File file = new File(workingDirectory, DEFINITION_FILE);
+        if (!file.isFile()) {
+            return PipelineDefinition.defaultPipeline();
+        }
+        Object document;
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            document = new Yaml(new SafeConstructor()).load(reader);
+        } catch (IOException | YAMLException e) {
+            throw new InvalidPipelineDefinitionException("Cannot read " + DEFINITION_FILE + ": " + e.getMessage());
+        }
+        return parse(document);
+    }
+
+    PipelineDefinition parse(Object document) {
+        if (!(document instanceof Map) || !(((Map<?, ?>) document).get("stages") instanceof Map)) {
+            throw new InvalidPipelineDefinitionException(DEFINITION_FILE + " has no stages");
+        }
+        Map<?, ?> stageMap = (Map<?, ?>) ((Map<?, ?>) document).get("stages");
+        if (stageMap.isEmpty()) {
+            throw new InvalidPipelineDefinitionException(DEFINITION_FILE + " has no stages");
+        }
+
+        Map<String, StageDefinition> stages = new LinkedHashMap<>();
+        for (Map.Entry<?, ?> entry : stageMap.entrySet()) {
+            String name = String.valueOf(entry.getKey());
+            if (!STAGE_NAME.matcher(name).matches()) {
+                throw new InvalidPipelineDefinitionException("Bad stage name: " + name);
+            }
+            if (!(entry.getValue() instanceof Map)) {
+                throw new InvalidPipelineDefinitionException("Stage " + name + " has no maven command");
+            }
+            stages.put(name, parseStage(name, (Map<?, ?>) entry.getValue()));
+        }
+        return new PipelineDefinition(sortByDependencies(stages));
+    }
+
+    private static StageDefinition parseStage(String name, Map<?, ?> stage) {
+        Object maven = stage.get("maven");
+        if (!(maven instanceof String) || ((String) maven).isBlank()) {
+            throw new InvalidPipelineDefinitionException("Stage " + name + " has no maven command");
+        }
+        StageDefinition.StageDefinitionBuilder builder = StageDefinition.builder()
+                .name(name)
+                .maven(((String) maven).trim());
+
+        Object needs = stage.get("needs");
+        if (needs instanceof String) {
+            builder.need((String) needs);
+        } else if (needs instanceof List) {
+            for (Object need : (List<?>) needs) {
+                builder.need(String.valueOf(need));
+            }
+        } else if (needs != null) {
+            throw new InvalidPipelineDefinitionException("Bad needs of stage " + name + ": " + needs);
+        }
+
+        Object failureMessage = stage.get("failure-message");
+        builder.failureMessage(failureMessage != null ? String.valueOf(failureMessage) : "Stage " + name + " failed");
+        return builder.build();
+    }
+
+    /**
+     * Orders the stages so that every stage comes after the stages it needs, otherwise in the order they were
+     * defined.
+     */
+    private static List<StageDefinition> sortByDependencies(Map<String, StageDefinition> stages) {
+        Map<String, Integer> missingNeeds = new HashMap<>();
+        Map<String, List<String>> dependents = new HashMap<>();
+        for (StageDefinition stage : stages.values()) {
+            for (String need : stage.getNeeds()) {
+                if (!stages.containsKey(need)) {
+                    throw new InvalidPipelineDefinitionException("Stage " + stage.getName() + " needs unknown stage "
+                            + need);
+                }
+                dependents.computeIfAbsent(need, key -> new ArrayList<>()).add(stage.getName());
+            }
+            missingNeeds.put(stage.getName(), (int) stage.getNeeds().stream().distinct().count());
+        }
+
+        List<StageDefinition> sorted = new ArrayList<>();
+        Deque<String> ready = new ArrayDeque<>();
+        stages.values().stream()
+                .filter(stage -> stage.getNeeds().isEmpty())
+                .forEach(stage -> ready.add(stage.getName()));
+        while (!ready.isEmpty()) {
+            String name = ready.poll();
+            sorted.add(stages.get(name));
+            for (String dependent : dependents.getOrDefault(name, List.of())) {
+                if (missingNeeds.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (sorted.size() < stages.size()) {
+            throw new InvalidPipelineDefinitionException("The needs of the stages form a cycle");
+        }
+        return sorted;
+    }
+}
@@ -0,0 +1,429 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.metrics.MetricsRegistry;
+import com.group12.ciserver.model.ci.CIJobResult;
+import com.group12.ciserver.model.ci.PipelineDefinition;
+import com.group12.ciserver.model.ci.PipelineResult;
+import com.group12.ciserver.model.ci.PipelineSupersededException;
+import com.group12.ciserver.model.ci.PipelineTimedOutException;
+import com.group12.ciserver.model.ci.StageDefinition;
+import com.group12.ciserver.model.ci.TestShard;
+import com.group12.ciserver.model.ci.UnexpectedCIJobErrorException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the stages of a {@link PipelineDefinition}. A stage is started as soon as all stages it needs have succeeded,
+ * so stages that do not depend on each other run at the same time, up to
+ * <code>ciserver.pipeline.max-parallel-stages</code> per pipeline.
+ * <p>
+ * When a stage fails no more stages are started, and the stages that are already running are allowed to finish so
+ * their logs are complete.
+ * <p>
+ * When <code>ciserver.pipeline.single-invocation</code> is set and the stages form a chain of lifecycle phases, e.g.
+ * the default pipeline compile and test, they are run by a single maven invocation of the last phase instead, so
+ * maven starts and reads the project once, and the sources are compiled once. The stage that failed is then found
+ * with {@link MavenPhaseParser}.
+ * <p>
+ * When <code>ciserver.test-sharding.shards</code> is above 1, a stage that only runs the tests is split by the
+ * {@link TestSharder} into shards that run at the same time, each by its own maven process in its own copy of the
+ * workspace. The stage succeeds if all shards succeed, and the output of every shard is prefixed with its number.
+ */
+@Service
+@Slf4j
+public class PipelineExecutor {
+
+    /**
+     * Longest line the log writers of the stages hold back, so output without line breaks cannot fill the memory.
+     */
+    static final int MAX_LINE_LENGTH = BuildLogWriter.DEFAULT_CHUNK_SIZE;
+
+    private final CIJobExecutor ciJobExecutor;
+
+    private final TestSharder testSharder;
+
+    private final MetricsRegistry metrics;
+
+    private final int maxParallelStages;
+
+    private final boolean singleInvocation;
+
+    private final ExecutorService stageExecutor;
+
+    PipelineExecutor(CIJobExecutor ciJobExecutor, int maxParallelStages, boolean singleInvocation) {
+        this(ciJobExecutor, null, new MetricsRegistry(), maxParallelStages, singleInvocation);
+    }
+
+    @Autowired
+    public PipelineExecutor(CIJobExecutor ciJobExecutor, TestSharder testSharder, MetricsRegistry metrics,
+                            @Value("${ciserver.pipeline.max-parallel-stages:4}") int maxParallelStages,
+                            @Value("${ciserver.pipeline.single-invocation:true}") boolean singleInvocation) {
+        this.ciJobExecutor = ciJobExecutor;
+        this.testSharder = testSharder;
+        this.metrics = metrics;
+        this.maxParallelStages = Math.max(1, maxParallelStages);
+        this.singleInvocation = singleInvocation;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.stageExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "pipeline-stage-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        stageExecutor.shutdownNow();
+    }
+
+    /**
+     * Runs the stages of the pipeline in the working directory. If some stages may run in parallel every line of
+     * their output is prefixed with the name of the stage, e.g. <code>[test] ...</code>.
+     *
+     * @param definition the stages to run.
+     * @param workingDirectory the checkout the stages run in.
+     * @param pipeline the {@link RunningPipeline} the stages belong to.
+     * @param buildLogs the {@link BuildLogWriter} the output of the stages is written to.
+     * @return {@link PipelineResult} that tells if all stages were successful or which stage failed.
+     * @throws UnexpectedCIJobErrorException if a stage could not be run.
+     * @throws PipelineSupersededException if the pipeline was superseded while the stages were running.
+     * @throws PipelineTimedOutException if the pipeline timed out while the stages were running.
+     */
+    public PipelineResult run(PipelineDefinition definition, File workingDirectory, RunningPipeline pipeline,
+                              BuildLogWriter buildLogs)
+            throws UnexpectedCIJobErrorException, PipelineSupersededException, PipelineTimedOutException {
+        if (singleInvocation && definition.getStages().size() > 1 && !definition.isParallel()
+                && MavenPhaseParser.canRunTogether(definition.getStages())
+                && definition.getStages().stream().noneMatch(this::isSharded)) {
+            return runTogether(definition.getStages(), workingDirectory, pipeline, buildLogs);
+        }
+        CompletionService<StageOutcome> completionService = new ExecutorCompletionService<>(stageExecutor);
+        List<StageDefinition> waiting = new ArrayList<>(definition.getStages());
+        Set<String> succeeded = new HashSet<>();
+        List<Future<StageOutcome>> running = new ArrayList<>();
+        StageDefinition failedStage = null;
+        RuntimeException error = null;
+
+        while (true) {
+            if (failedStage == null && error == null) {
+                for (var iterator = waiting.iterator(); iterator.hasNext() && running.size() < maxParallelStages; ) {
+                    StageDefinition stage = iterator.next();
+                    if (succeeded.containsAll(stage.getNeeds())) {
+                        iterator.remove();
+                        running.add(completionService.submit(() -> runStage(stage, definition.isParallel(),
+                                workingDirectory, pipeline, buildLogs)));
+                    }
+                }
+            }
+            if (running.isEmpty()) {
+                break;
+            }
+
+            Future<StageOutcome> finished;
+            try {
+                finished = completionService.take();
+            } catch (InterruptedException e) {
+                running.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new UnexpectedCIJobErrorException(e.getMessage());
+            }
+            running.remove(finished);
+            try {
+                StageOutcome outcome = finished.get();
+                if (outcome.successful) {
+                    succeeded.add(outcome.stage.getName());
+                } else if (failedStage == null) {
+                    failedStage = outcome.stage;
+                }
+            } catch (ExecutionException e) {
+                // Rethrown once the other running stages have finished
+                if (error == null) {
+                    error = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause()
+                            : new UnexpectedCIJobErrorException(e.getCause().getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UnexpectedCIJobErrorException(e.getMessage());
+            }
+        }
+
+        if (error != null) {
+            throw error;
+        }
+        return PipelineResult.builder()
+                .successful(failedStage == null)
+                .failedStage(failedStage)
+                .build();
+    }
+
+    private PipelineResult runTogether(List<StageDefinition> stages, File workingDirectory, RunningPipeline pipeline,
+                                       BuildLogWriter buildLogs) {
+        String command = stages.get(stages.size() - 1).getMaven();
+        log.info("Running stages {} in one invocation, mvn {}",
+                stages.stream().map(StageDefinition::getName).collect(Collectors.toList()), command);
+        MavenPhaseParser parser = new MavenPhaseParser(stages);
+        CIJobResult result;
+        long started = System.nanoTime();
+        try (PhaseTrackingLogWriter trackingLogs = new PhaseTrackingLogWriter(parser, buildLogs)) {
+            trackingLogs.append("mvn " + command + "\n");
+            result = ciJobExecutor.runMavenCommand(command, workingDirectory, pipeline, trackingLogs);
+        }
+        recordStage(stages.stream().map(StageDefinition::getName).collect(Collectors.joining("+")), pipeline,
+                result.isSuccessful(), started);
+        if (result.isSuccessful()) {
+            return PipelineResult.builder()
+                    .successful(true)
+                    .build();
+        }
+        log.info("Stage {} failed", parser.getFailedStage().getName());
+        return PipelineResult.builder()
+                .successful(false)
+                .failedStage(parser.getFailedStage())
+                .build();
+    }
+
+    private StageOutcome runStage(StageDefinition stage, boolean prefixed, File workingDirectory,
+                                  RunningPipeline pipeline, BuildLogWriter buildLogs) {
+        log.info("Running stage {}, mvn {}", stage.getName(), stage.getMaven());
+        BuildLogWriter stageLogs = prefixed ? new StageLogWriter(stage.getName(), buildLogs) : buildLogs;
+        long started = System.nanoTime();
+        try {
+            boolean successful = isSharded(stage)
+                    ? runSharded(stage, workingDirectory, pipeline, stageLogs)
+                    : runCommand(stage.getMaven(), workingDirectory, pipeline, stageLogs);
+            log.info("Stage {} {}", stage.getName(), successful ? "succeeded" : "failed");
+            recordStage(stage.getName(), pipeline, successful, started);
+            return new StageOutcome(stage, successful);
+        } finally {
+            if (prefixed) {
+                stageLogs.close();
+            }
+        }
+    }
+
+    /**
+     * Stages that run together are recorded as one stage, e.g. <code>compile+test</code>.
+     */
+    private void recordStage(String stageName, RunningPipeline pipeline, boolean successful, long startNanos) {
+        metrics.histogram("ciserver_stage_seconds", "Time a maven stage of a pipeline took.",
+                MetricsRegistry.DURATION_BUCKETS, "repository", pipeline.getRepository(), "stage", stageName,
+                "outcome", successful ? "success" : "failure").recordSince(startNanos);
+    }
+
+    private boolean runCommand(String command, File workingDirectory, RunningPipeline pipeline,
+                               BuildLogWriter logs) {
+        logs.append("mvn " + command + "\n");
+        return ciJobExecutor.runMavenCommand(command, workingDirectory, pipeline, logs).isSuccessful();
+    }
+
+    private boolean isSharded(StageDefinition stage) {
+        return testSharder != null && testSharder.canShard(stage);
+    }
+
+    /**
+     * Compiles the tests in the workspace, then runs the test classes in shards and copies their reports back into
+     * the workspace.
+     */
+    private boolean runSharded(StageDefinition stage, File workingDirectory, RunningPipeline pipeline,
+                               BuildLogWriter stageLogs) {
+        if (!runCommand(TestSharder.compileCommand(stage), workingDirectory, pipeline, stageLogs)) {
+            return false;
+        }
+        List<TestShard> shards = testSharder.plan(pipeline.getRepository(), workingDirectory,
+                pipeline.getSelectedTests());
+        if (shards.size() < 2) {
+            return runCommand(stage.getMaven(), workingDirectory, pipeline, stageLogs);
+        }
+        stageLogs.append(TestSharder.describe(shards) + "\n");
+        List<File> copies = new ArrayList<>();
+        try {
+            for (TestShard shard : shards) {
+                copies.add(testSharder.prepareShard(workingDirectory, shard));
+            }
+            List<Future<Boolean>> running = new ArrayList<>();
+            for (int i = 0; i < shards.size(); i++) {
+                TestShard shard = shards.get(i);
+                File copy = copies.get(i);
+                running.add(stageExecutor.submit(() -> runShard(stage, shard, shards.size(), copy, pipeline,
+                        stageLogs)));
+            }
+            return awaitShards(running);
+        } catch (IOException e) {
+            throw new UnexpectedCIJobErrorException("Could not copy the workspace for a shard: " + e.getMessage());
+        } finally {
+            for (File copy : copies) {
+                testSharder.collectReports(copy, workingDirectory);
+                testSharder.discardShard(copy);
+            }
+        }
+    }
+
+    private boolean runShard(StageDefinition stage, TestShard shard, int shardCount, File copy,
+                             RunningPipeline pipeline, BuildLogWriter stageLogs) {
+        log.info("Running shard {}/{} of stage {}, {} test classes", shard.getNumber(), shardCount, stage.getName(),
+                shard.getTestClasses().size());
+        try (BuildLogWriter shardLogs = new StageLogWriter("shard " + shard.getNumber() + "/" + shardCount,
+                stageLogs)) {
+            return runCommand(TestSharder.shardCommand(stage, shard), copy, pipeline, shardLogs);
+        }
+    }
+
+    /**
+     * Waits for all shards, so none of them is still writing to its copy of the workspace when it is removed.
+     */
+    private static boolean awaitShards(List<Future<Boolean>> running) {
+        boolean successful = true;
+        RuntimeException error = null;
+        for (Future<Boolean> shard : running) {
+            try {
+                successful &= shard.get();
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause()
+                            : new UnexpectedCIJobErrorException(e.getCause().getMessage());
+                }
+            } catch (InterruptedException e) {
+                running.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new UnexpectedCIJobErrorException(e.getMessage());
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        return successful;
+    }
+
+    private static class StageOutcome {
+
+        private final StageDefinition stage;
+
+        private final boolean successful;
+
+        StageOutcome(StageDefinition stage, boolean successful) {
+            this.stage = stage;
+            this.successful = successful;
+        }
+    }
+
+    /**
+     * Passes the output of a maven invocation on to the log of the build unchanged, and every complete line to a
+     * {@link MavenPhaseParser}. The parser only matches the start of a line, so only the first
+     * {@link #MAX_LINE_LENGTH} characters of a line are kept.
+     */
+    private static class PhaseTrackingLogWriter extends BuildLogWriter {
+
+        private final MavenPhaseParser parser;
+
+        private final BuildLogWriter buildLogs;
+
+        private final StringBuilder line = new StringBuilder();
+
+        PhaseTrackingLogWriter(MavenPhaseParser parser, BuildLogWriter buildLogs) {
+            this.parser = parser;
+            this.buildLogs = buildLogs;
+        }
+
+        @Override
+        public synchronized void append(String text) {
+            append(text.toCharArray(), 0, text.length());
+        }
+
+        @Override
+        public synchronized void append(char[] characters, int offset, int length) {
+            buildLogs.append(characters, offset, length);
+            for (int i = offset; i < offset + length; i++) {
+                if (characters[i] == '\n') {
+                    parser.accept(line.toString());
+                    line.setLength(0);
+                } else if (characters[i] != '\r' && line.length() < MAX_LINE_LENGTH) {
+                    line.append(characters[i]);
+                }
+            }
+        }
+
+        @Override
+        public synchronized void flush() {
+            buildLogs.flush();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (line.length() > 0) {
+                parser.accept(line.toString());
+                line.setLength(0);
+            }
+        }
+    }
+
+    /**
+     * Prefixes every line of a stage with the name of the stage and passes complete lines on to the log of the
+     * build, so that lines of stages running at the same time are not mixed up. A line longer than
+     * {@link #MAX_LINE_LENGTH} is passed on in parts, each on a line of its own.
+     */
+    private static class StageLogWriter extends BuildLogWriter {
+
+        private final String prefix;
+
+        private final BuildLogWriter buildLogs;
+
+        private final StringBuilder line = new StringBuilder();
+
+        StageLogWriter(String stageName, BuildLogWriter buildLogs) {
+            this.prefix = "[" + stageName + "] ";
+            this.buildLogs = buildLogs;
+        }
+
+        @Override
+        public synchronized void append(String text) {
+            append(text.toCharArray(), 0, text.length());
+        }
+
+        @Override
+        public synchronized void append(char[] characters, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                line.append(characters[i]);
+                if (characters[i] == '\n') {
+                    buildLogs.append(prefix + line);
+                    line.setLength(0);
+                } else if (line.length() >= MAX_LINE_LENGTH) {
+                    buildLogs.append(prefix + line + "\n");
+                    line.setLength(0);
+                }
+            }
+        }
+
+        @Override
+        public synchronized void flush() {
+            buildLogs.flush();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (line.length() > 0) {
+                buildLogs.append(prefix + line + "\n");
+                line.setLength(0);
+            }
+        }
+    }
+}
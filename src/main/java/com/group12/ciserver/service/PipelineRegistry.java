@@ -0,0 +1,71 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.github.PushEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the running pipeline of each (repository, ref) pair.
+ */
+@Component
+@Slf4j
+public class PipelineRegistry {
+
+    private final Map<String, RunningPipeline> runningPipelines = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a new running pipeline for the push event. An older pipeline running on the same ref for a different
+     * commit is superseded.
+     *
+     * @param pushEvent is the <i>push</i> event the pipeline was started for.
+     * @return the {@link RunningPipeline} that must be passed to {@link #unregister(RunningPipeline)} when done.
+     */
+    public RunningPipeline register(PushEvent pushEvent) {
+        RunningPipeline pipeline = new RunningPipeline(keyOf(pushEvent),
+                pushEvent.getRepository().getOwner().getName() + "/" + pushEvent.getRepository().getName(),
+                pushEvent.getAfter());
+        RunningPipeline previous = runningPipelines.put(pipeline.getKey(), pipeline);
+        if (previous != null && !previous.getCommit().equals(pipeline.getCommit())) {
+            log.info("Superseding pipeline, key={}, commit={}", previous.getKey(), previous.getCommit());
+            previous.supersede(pipeline.getCommit());
+        }
+        return pipeline;
+    }
+
+    /**
+     * Supersedes the pipeline running on the ref of the push event, unless it is building the same commit.
+     *
+     * @param pushEvent is the newer <i>push</i> event.
+     */
+    public void supersede(PushEvent pushEvent) {
+        RunningPipeline running = runningPipelines.get(keyOf(pushEvent));
+        if (running != null && !running.getCommit().equals(pushEvent.getAfter())) {
+            log.info("Superseding pipeline, key={}, commit={}", running.getKey(), running.getCommit());
+            running.supersede(pushEvent.getAfter());
+        }
+    }
+
+    /**
+     * @param pushEvent is a <i>push</i> event.
+     * @return true if a pipeline is running for the commit of the push event on its ref.
+     */
+    public boolean isRunning(PushEvent pushEvent) {
+        RunningPipeline running = runningPipelines.get(keyOf(pushEvent));
+        return running != null && running.getCommit().equals(pushEvent.getAfter());
+    }
+
+    public void unregister(RunningPipeline pipeline) {
+        runningPipelines.remove(pipeline.getKey(), pipeline);
+    }
+
+    /**
+     * @return the key identifying the (repository, ref) pair of the push event.
+     */
+    public static String keyOf(PushEvent pushEvent) {
+        return pushEvent.getRepository().getOwner().getName() + "/" + pushEvent.getRepository().getName()
+                + ":" + pushEvent.getRef();
+    }
+}
@@ -0,0 +1,23 @@
+package com.group12.ciserver.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Starts a new <code>mvn</code> process, and so a new JVM, for every stage.
+ */
+public class ProcessMavenLauncher implements MavenLauncher {
+
+    @Override
+    public List<String> commandLine(List<String> arguments, RunningPipeline pipeline) {
+        List<String> commandLine = new ArrayList<>();
+        commandLine.add("mvn");
+        commandLine.addAll(arguments);
+        return commandLine;
+    }
+
+    @Override
+    public List<String> versionCommandLine() {
+        return List.of("mvn", "--version");
+    }
+}
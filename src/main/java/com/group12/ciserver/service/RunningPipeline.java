@@ -0,0 +1,134 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.ci.PipelineSupersededException;
+import com.group12.ciserver.model.ci.PipelineTimedOutException;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A CI pipeline that is currently running for a commit on a ref. Keeps track of the processes started by the
+ * pipeline so that they can be killed when the pipeline is superseded by a newer push to the same ref or times out.
+ */
+public class RunningPipeline {
+
+    @Getter
+    private final String key;
+
+    /**
+     * The repository as <code>owner/name</code>.
+     */
+    @Getter
+    private final String repository;
+
+    @Getter
+    private final String commit;
+
+    /**
+     * Options passed to every maven command of the pipeline, e.g. the local repository of the build.
+     */
+    @Getter
+    @Setter
+    private volatile List<String> mavenOptions = List.of();
+
+    /**
+     * The cgroup the processes of the pipeline run in, see {@link BuildIsolation}.
+     */
+    @Getter
+    @Setter
+    private volatile BuildCgroup cgroup = BuildCgroup.NONE;
+
+    /**
+     * The test classes selected by the {@link TestImpactAnalyzer}, null if all tests run.
+     */
+    @Getter
+    @Setter
+    private volatile Set<String> selectedTests;
+
+    private final Set<Process> processes = ConcurrentHashMap.newKeySet();
+
+    private volatile String supersededBy;
+
+    private volatile Duration timedOutAfter;
+
+    public RunningPipeline(String key, String repository, String commit) {
+        this.key = key;
+        this.repository = repository;
+        this.commit = commit;
+    }
+
+    /**
+     * Registers a process started by this pipeline. If the pipeline has already been superseded or has timed out the
+     * process is killed right away.
+     */
+    public void attach(Process process) {
+        processes.add(process);
+        if (isStopped()) {
+            destroy(process);
+        }
+    }
+
+    public void detach(Process process) {
+        processes.remove(process);
+    }
+
+    /**
+     * Marks the pipeline as superseded and kills all of its processes.
+     *
+     * @param newerCommit the SHA of the commit that replaces this pipeline's commit.
+     */
+    public void supersede(String newerCommit) {
+        supersededBy = newerCommit;
+        processes.forEach(this::destroy);
+    }
+
+    /**
+     * Marks the pipeline as timed out and kills all of its processes.
+     *
+     * @param timeout how long the pipeline was allowed to run.
+     */
+    public void timeOut(Duration timeout) {
+        timedOutAfter = timeout;
+        processes.forEach(this::destroy);
+    }
+
+    public boolean isSuperseded() {
+        return supersededBy != null;
+    }
+
+    public boolean isTimedOut() {
+        return timedOutAfter != null;
+    }
+
+    public boolean isStopped() {
+        return isSuperseded() || isTimedOut();
+    }
+
+    /**
+     * @throws PipelineTimedOutException if the pipeline has run for longer than it was allowed to.
+     * @throws PipelineSupersededException if a newer push has superseded this pipeline.
+     */
+    public void throwIfStopped() {
+        if (isTimedOut()) {
+            throw new PipelineTimedOutException("Timed out after " + timedOutAfter.toMinutes() + " minutes");
+        }
+        if (isSuperseded()) {
+            throw new PipelineSupersededException("Superseded by newer commit " + supersededBy);
+        }
+    }
+
+    /**
+     * Kills a process and everything it started, except daemons that are shared between builds. The cgroup also
+     * catches processes that were detached from the process tree.
+     */
+    private void destroy(Process process) {
+        process.descendants().filter(descendant -> !cgroup.isDaemon(descendant))
+                .forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+        cgroup.kill();
+    }
+}
@@ -0,0 +1,240 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.TestResult;
+import com.group12.ciserver.model.TestStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Reads the results of the tests a build ran from the XML reports that surefire and failsafe write to
+ * <code>target/surefire-reports</code> and <code>target/failsafe-reports</code> of every module.
+ * <p>
+ * Reports are read with a streaming parser, so the stack traces and test output in them are never held in memory.
+ */
+@Service
+@Slf4j
+public class SurefireReportParser {
+
+    static final int MAX_MESSAGE_LENGTH = 1000;
+
+    private static final Set<String> REPORT_DIRECTORIES = Set.of("surefire-reports", "failsafe-reports");
+
+    private final XMLInputFactory xmlInputFactory;
+
+    public SurefireReportParser() {
+        xmlInputFactory = XMLInputFactory.newFactory();
+        // The reports are written by the build of the repository, so they are not trusted
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Reads the reports of all modules in a workspace. Reports older than <code>since</code> were left by an earlier
+     * build in the same workspace and are ignored.
+     *
+     * @param workingDirectory the checkout of the repository.
+     * @param since when the pipeline started running the stages of the build.
+     * @return the results of all test cases, empty if there are no reports.
+     */
+    public List<TestResult> parseReports(File workingDirectory, Instant since) {
+        List<TestResult> results = new ArrayList<>();
+        if (!workingDirectory.isDirectory()) {
+            return results;
+        }
+        try {
+            for (Path report : findReports(workingDirectory.toPath(), since)) {
+                try (InputStream in = Files.newInputStream(report)) {
+                    results.addAll(parse(in));
+                } catch (XMLStreamException e) {
+                    log.warn("Skipping malformed test report, report={}, reason={}", report, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.error("Could not read the test reports, workingDirectory={}", workingDirectory, e);
+        }
+        return results;
+    }
+
+    private static List<Path> findReports(Path root, Instant since) throws IOException {
+        List<Path> reports = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                String name = dir.getFileName().toString();
+                if (name.equals(".git")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                // Only the reports are of interest in the output of a module, not its classes
+                Path parent = dir.getParent();
+                if (parent != null && parent.getFileName().toString().equals("target")
+                        && !REPORT_DIRECTORIES.contains(name)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String name = file.getFileName().toString();
+                if (name.startsWith("TEST-") && name.endsWith(".xml")
+                        && REPORT_DIRECTORIES.contains(file.getParent().getFileName().toString())
+                        && !attrs.lastModifiedTime().toInstant().isBefore(since)) {
+                    reports.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return reports;
+    }
+
+    /**
+     * Reads the test cases of one report.
+     */
+    List<TestResult> parse(InputStream report) throws XMLStreamException {
+        List<TestResult> results = new ArrayList<>();
+        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(report);
+        try {
+            String suiteName = null;
+            TestCase testCase = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamReader.START_ELEMENT) {
+                    String element = reader.getLocalName();
+                    if (element.equals("testsuite")) {
+                        suiteName = reader.getAttributeValue(null, "name");
+                    } else if (element.equals("testcase")) {
+                        testCase = new TestCase(reader, suiteName);
+                    } else if (testCase != null) {
+                        testCase.addOutcome(element, reader);
+                    }
+                } else if (event == XMLStreamReader.END_ELEMENT && testCase != null
+                        && reader.getLocalName().equals("testcase")) {
+                    results.add(testCase.toResult());
+                    testCase = null;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return results;
+    }
+
+    /**
+     * @return a line for the build log, e.g. "Tests: 120 passed, 2 failed, 1 skipped".
+     */
+    public static String describe(List<TestResult> results) {
+        Map<TestStatus, Long> counts = results.stream().collect(Collectors.groupingBy(TestResult::getStatus,
+                () -> new EnumMap<>(TestStatus.class), Collectors.counting()));
+        List<String> parts = new ArrayList<>();
+        parts.add(counts.getOrDefault(TestStatus.PASSED, 0L) + " passed");
+        for (Map.Entry<TestStatus, Long> count : counts.entrySet()) {
+            if (count.getKey() != TestStatus.PASSED) {
+                parts.add(count.getValue() + " " + (count.getKey() == TestStatus.ERROR
+                        ? "errors" : count.getKey().name().toLowerCase(Locale.ROOT)));
+            }
+        }
+        return "Tests: " + String.join(", ", parts);
+    }
+
+    /**
+     * A test case while its element is read.
+     */
+    private static class TestCase {
+
+        private final String className;
+
+        private final String name;
+
+        private final long durationMillis;
+
+        private TestStatus status = TestStatus.PASSED;
+
+        private String message;
+
+        TestCase(XMLStreamReader reader, String suiteName) {
+            String className = reader.getAttributeValue(null, "classname");
+            this.className = className == null || className.isEmpty() ? suiteName : className;
+            this.name = reader.getAttributeValue(null, "name");
+            this.durationMillis = parseSeconds(reader.getAttributeValue(null, "time"));
+        }
+
+        void addOutcome(String element, XMLStreamReader reader) {
+            switch (element) {
+                case "failure":
+                    setStatus(TestStatus.FAILED, reader);
+                    break;
+                case "error":
+                    setStatus(TestStatus.ERROR, reader);
+                    break;
+                case "skipped":
+                    setStatus(TestStatus.SKIPPED, reader);
+                    break;
+                case "flakyFailure":
+                case "flakyError":
+                    // Only written for a test that passed in the end
+                    if (status == TestStatus.PASSED) {
+                        setStatus(TestStatus.FLAKY, reader);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void setStatus(TestStatus status, XMLStreamReader reader) {
+            this.status = status;
+            String message = reader.getAttributeValue(null, "message");
+            if (message == null) {
+                message = reader.getAttributeValue(null, "type");
+            }
+            if (message != null && message.length() > MAX_MESSAGE_LENGTH) {
+                message = message.substring(0, MAX_MESSAGE_LENGTH);
+            }
+            this.message = message;
+        }
+
+        TestResult toResult() {
+            return TestResult.builder()
+                    .className(className)
+                    .name(name)
+                    .status(status)
+                    .durationMillis(durationMillis)
+                    .message(message)
+                    .build();
+        }
+
+        /**
+         * Older surefire versions format the time with the locale of the build, e.g. "1,234.5".
+         */
+        private static long parseSeconds(String time) {
+            if (time == null) {
+                return 0;
+            }
+            try {
+                return Math.round(Double.parseDouble(time.replace(",", "")) * 1000);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+}
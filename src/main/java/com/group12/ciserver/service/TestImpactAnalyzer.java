@@ -0,0 +1,213 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.ci.TestSelection;
+import com.group12.ciserver.model.github.PushEvent;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Chooses the tests a build runs from the changes since the last successful build of the branch.
+ * <p>
+ * After every successful build the classes of the build and the classes they refer to are stored in a
+ * {@link TestImpactIndex}. The next build of the branch diffs its commit against the commit of the index and only runs
+ * the test classes that refer to a changed class, directly or through other classes. The diff starts at the last
+ * successful build rather than at <code>before</code> of the push, so tests that failed since then are run again.
+ * <p>
+ * All tests are run if there is no index for the branch yet, if the branch was force-pushed, if a file other than
+ * Java sources or documentation changed, e.g. a <code>pom.xml</code> or a resource, and every
+ * <code>ciserver.test-impact.full-run-every</code> builds, because references made through reflection or
+ * configuration files are not in the index.
+ */
+@Service
+@Slf4j
+public class TestImpactAnalyzer {
+
+    private static final String ZERO_COMMIT = "0000000000000000000000000000000000000000";
+
+    private static final List<String> SOURCE_ROOTS = List.of("src/main/java/", "src/test/java/");
+
+    private static final List<String> IGNORED_EXTENSIONS = List.of(".md", ".txt", ".adoc");
+
+    @Getter
+    private final boolean enabled;
+
+    private final Path indexDirectory;
+
+    private final int fullRunEvery;
+
+    @Autowired
+    public TestImpactAnalyzer(@Value("${ciserver.test-impact.enabled:true}") boolean enabled,
+                              @Value("${ciserver.test-impact.index-directory:../test-impact}") String indexDirectory,
+                              @Value("${ciserver.test-impact.full-run-every:10}") int fullRunEvery) {
+        this.enabled = enabled;
+        this.indexDirectory = Path.of(indexDirectory).toAbsolutePath();
+        this.fullRunEvery = fullRunEvery;
+    }
+
+    /**
+     * @param pushEvent the push that is built.
+     * @param workingDirectory the checkout of the pushed commit.
+     * @return the tests the build should run.
+     */
+    public TestSelection select(PushEvent pushEvent, File workingDirectory) {
+        if (!enabled) {
+            return fullRun("test impact analysis is disabled");
+        }
+        if (pushEvent.getBefore() == null || pushEvent.getBefore().equals(ZERO_COMMIT)) {
+            return fullRun("new branch");
+        }
+        Path indexFile = indexFileOf(pushEvent);
+        if (!Files.exists(indexFile)) {
+            return fullRun("no successful build of the branch yet");
+        }
+        try {
+            TestImpactIndex index = TestImpactIndex.read(indexFile);
+            int selectiveRuns = index.getSelectiveRuns() + 1;
+            if (index.getTestClasses().isEmpty()) {
+                return fullRun("the last successful build had no test classes");
+            }
+            if (selectiveRuns >= fullRunEvery) {
+                return fullRun("periodic full run");
+            }
+            Set<String> changedSourceFiles = new HashSet<>();
+            Set<String> newTestClasses = new TreeSet<>();
+            try (Git git = Git.open(workingDirectory)) {
+                List<String> changedPaths = changedPaths(git.getRepository(), index.getCommit(), pushEvent.getAfter());
+                if (changedPaths == null) {
+                    return fullRun("the branch was rewritten since the last successful build");
+                }
+                for (String path : changedPaths) {
+                    if (IGNORED_EXTENSIONS.stream().anyMatch(path::endsWith)) {
+                        continue;
+                    }
+                    String sourceFile = sourceFileOf(path);
+                    if (sourceFile == null) {
+                        return fullRun(path + " changed");
+                    }
+                    changedSourceFiles.add(sourceFile);
+                    String className = sourceFile.substring(0, sourceFile.length() - ".java".length()).replace('/', '.');
+                    if (path.contains("src/test/java/") && TestImpactIndex.isTestClass(className)) {
+                        // New test classes are not in the index yet
+                        newTestClasses.add(className);
+                    }
+                }
+            }
+            Set<String> testClasses = new TreeSet<>(index.affectedTests(changedSourceFiles));
+            testClasses.addAll(newTestClasses);
+            return TestSelection.builder()
+                    .fullRun(false)
+                    .reason(index.getCommit().substring(0, 7))
+                    .testClasses(testClasses)
+                    .totalTestClasses(index.getTestClasses().size())
+                    .selectiveRuns(selectiveRuns)
+                    .build();
+        } catch (IOException | RuntimeException e) {
+            log.error("Test impact analysis failed, running all tests, commit={}", pushEvent.getAfter(), e);
+            return fullRun("test impact analysis failed");
+        }
+    }
+
+    /**
+     * Stores the index of a successful build as the base of the next build of the branch.
+     *
+     * @param pushEvent the push that was built.
+     * @param workingDirectory the checkout, with the classes compiled by the build.
+     * @param selection the tests the build ran.
+     */
+    public void recordSuccess(PushEvent pushEvent, File workingDirectory, TestSelection selection) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            TestImpactIndex.build(workingDirectory.toPath(), pushEvent.getAfter(),
+                    selection.isFullRun() ? 0 : selection.getSelectiveRuns()).write(indexFileOf(pushEvent));
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not store test impact index, commit={}", pushEvent.getAfter(), e);
+        }
+    }
+
+    /**
+     * @return the path of a source file relative to its source root, e.g. <code>com/example/Calculator.java</code>
+     * for <code>core/src/main/java/com/example/Calculator.java</code>, or null if it is not a Java source file.
+     */
+    static String sourceFileOf(String path) {
+        if (!path.endsWith(".java")) {
+            return null;
+        }
+        for (String sourceRoot : SOURCE_ROOTS) {
+            if (path.startsWith(sourceRoot)) {
+                return path.substring(sourceRoot.length());
+            }
+            int start = path.indexOf("/" + sourceRoot);
+            if (start >= 0) {
+                return path.substring(start + 1 + sourceRoot.length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the paths that differ between the two commits, or null if <code>base</code> is not an ancestor of
+     * <code>commit</code>.
+     */
+    private static List<String> changedPaths(Repository repository, String base, String commit) throws IOException {
+        try (RevWalk walk = new RevWalk(repository);
+             DiffFormatter formatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+            RevCommit baseCommit = walk.parseCommit(ObjectId.fromString(base));
+            RevCommit headCommit = walk.parseCommit(ObjectId.fromString(commit));
+            if (!walk.isMergedInto(baseCommit, headCommit)) {
+                return null;
+            }
+            formatter.setRepository(repository);
+            List<String> paths = new ArrayList<>();
+            for (DiffEntry entry : formatter.scan(baseCommit.getTree(), headCommit.getTree())) {
+                if (!entry.getOldPath().equals(DiffEntry.DEV_NULL)) {
+                    paths.add(entry.getOldPath());
+                }
+                if (!entry.getNewPath().equals(DiffEntry.DEV_NULL) && !entry.getNewPath().equals(entry.getOldPath())) {
+                    paths.add(entry.getNewPath());
+                }
+            }
+            return paths;
+        } catch (MissingObjectException e) {
+            // The commit of the index was removed from the repository by a force-push and garbage collection
+            return null;
+        }
+    }
+
+    private Path indexFileOf(PushEvent pushEvent) {
+        String repository = pushEvent.getRepository().getOwner().getName() + "/" + pushEvent.getRepository().getName();
+        return indexDirectory.resolve(DirectoryNames.of(repository))
+                .resolve(DirectoryNames.of(pushEvent.getBranchName()) + ".index");
+    }
+
+    private static TestSelection fullRun(String reason) {
+        return TestSelection.builder()
+                .fullRun(true)
+                .reason(reason)
+                .testClasses(Set.of())
+                .build();
+    }
+}
@@ -0,0 +1,210 @@
+package com.group12.ciserver.service;
+
+import lombok.Getter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.FileVisitResult;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * The classes of a build of a branch and the classes each of them refers to, read from the compiled classes in the
+ * <code>target/classes</code> and <code>target/test-classes</code> directories of all modules.
+ * <p>
+ * Classes are identified by their source file relative to the source root, e.g. <code>com/example/Outer.java</code>,
+ * which is how changed files in a diff are matched to classes.
+ */
+public class TestImpactIndex {
+
+    /**
+     * The class names surefire runs by default.
+     */
+    private static final Pattern TEST_CLASS = Pattern.compile("(.*\\.)?(Test[^.]*|[^.]*Test|[^.]*Tests|[^.]*TestCase)");
+
+    /**
+     * The commit the index was built from, whose tests all passed.
+     */
+    @Getter
+    private final String commit;
+
+    /**
+     * Number of builds since the last build that ran all tests.
+     */
+    @Getter
+    private final int selectiveRuns;
+
+    private final Map<String, String> sourceFiles;
+
+    private final Map<String, Set<String>> dependencies;
+
+    @Getter
+    private final Set<String> testClasses;
+
+    TestImpactIndex(String commit, int selectiveRuns, Map<String, String> sourceFiles,
+                    Map<String, Set<String>> dependencies, Set<String> testClasses) {
+        this.commit = commit;
+        this.selectiveRuns = selectiveRuns;
+        this.sourceFiles = sourceFiles;
+        this.dependencies = dependencies;
+        this.testClasses = testClasses;
+    }
+
+    /**
+     * Builds the index from the compiled classes in a checkout.
+     *
+     * @param workingDirectory the checkout, after maven compiled it.
+     * @param commit the commit that is checked out.
+     * @param selectiveRuns number of builds since the last build that ran all tests.
+     */
+    public static TestImpactIndex build(Path workingDirectory, String commit, int selectiveRuns) throws IOException {
+        Map<String, String> sourceFiles = new HashMap<>();
+        Map<String, Set<String>> dependencies = new HashMap<>();
+        Set<String> testClasses = new HashSet<>();
+        for (Path classDirectory : findClassDirectories(workingDirectory)) {
+            boolean testClassDirectory = classDirectory.endsWith("target/test-classes");
+            try (Stream<Path> paths = Files.walk(classDirectory)) {
+                for (Path classFile : (Iterable<Path>) paths.filter(path -> path.toString().endsWith(".class"))::iterator) {
+                    ClassDependencyScanner.ScannedClass scanned;
+                    try (InputStream in = Files.newInputStream(classFile)) {
+                        scanned = ClassDependencyScanner.scan(in);
+                    }
+                    sourceFiles.put(scanned.getName(), sourceFileOf(scanned));
+                    dependencies.put(scanned.getName(), scanned.getDependencies());
+                    if (testClassDirectory && isTestClass(scanned.getName())) {
+                        testClasses.add(scanned.getName());
+                    }
+                }
+            }
+        }
+        // Only references between the classes of the build matter, e.g. not those to java.lang.String
+        dependencies.values().forEach(references -> references.retainAll(sourceFiles.keySet()));
+        return new TestImpactIndex(commit, selectiveRuns, sourceFiles, dependencies, testClasses);
+    }
+
+    /**
+     * @return true if surefire runs the class by default, e.g. <code>com.example.CalculatorTest</code>.
+     */
+    static boolean isTestClass(String className) {
+        return className.indexOf('$') < 0 && TEST_CLASS.matcher(className).matches();
+    }
+
+    /**
+     * @param changedSourceFiles source files relative to their source root, e.g. <code>com/example/Outer.java</code>.
+     * @return the test classes that refer to a class of a changed source file, directly or through other classes.
+     */
+    public Set<String> affectedTests(Collection<String> changedSourceFiles) {
+        Map<String, Set<String>> dependents = new HashMap<>();
+        dependencies.forEach((className, references) -> references.forEach(
+                reference -> dependents.computeIfAbsent(reference, key -> new HashSet<>()).add(className)));
+
+        Set<String> changed = new HashSet<>(changedSourceFiles);
+        Set<String> affected = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        sourceFiles.forEach((className, sourceFile) -> {
+            if (changed.contains(sourceFile)) {
+                affected.add(className);
+                queue.add(className);
+            }
+        });
+        while (!queue.isEmpty()) {
+            for (String dependent : dependents.getOrDefault(queue.poll(), Set.of())) {
+                if (affected.add(dependent)) {
+                    queue.add(dependent);
+                }
+            }
+        }
+        affected.retainAll(testClasses);
+        return new TreeSet<>(affected);
+    }
+
+    public static TestImpactIndex read(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        if (lines.size() < 2 || !lines.get(0).startsWith("commit ") || !lines.get(1).startsWith("selective-runs ")) {
+            throw new IOException("Bad test impact index " + file);
+        }
+        Map<String, String> sourceFiles = new HashMap<>();
+        Map<String, Set<String>> dependencies = new HashMap<>();
+        Set<String> testClasses = new HashSet<>();
+        for (String line : lines.subList(2, lines.size())) {
+            String[] fields = line.split(" ");
+            if (fields.length < 3) {
+                throw new IOException("Bad test impact index " + file);
+            }
+            sourceFiles.put(fields[1], fields[2]);
+            dependencies.put(fields[1], new HashSet<>(List.of(fields).subList(3, fields.length)));
+            if (fields[0].equals("T")) {
+                testClasses.add(fields[1]);
+            }
+        }
+        return new TestImpactIndex(lines.get(0).substring("commit ".length()),
+                Integer.parseInt(lines.get(1).substring("selective-runs ".length())), sourceFiles, dependencies,
+                testClasses);
+    }
+
+    /**
+     * Writes the index to a temporary file first and then renames it, so a build that reads the index at the same
+     * time sees either the old or the new index.
+     */
+    public void write(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write("commit " + commit + "\n");
+            writer.write("selective-runs " + selectiveRuns + "\n");
+            for (Map.Entry<String, String> entry : sourceFiles.entrySet()) {
+                writer.write(testClasses.contains(entry.getKey()) ? "T " : "C ");
+                writer.write(entry.getKey() + " " + entry.getValue());
+                for (String reference : dependencies.get(entry.getKey())) {
+                    writer.write(" " + reference);
+                }
+                writer.write("\n");
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static List<Path> findClassDirectories(Path workingDirectory) throws IOException {
+        List<Path> classDirectories = new ArrayList<>();
+        Files.walkFileTree(workingDirectory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+                if (directory.endsWith("target/classes") || directory.endsWith("target/test-classes")) {
+                    classDirectories.add(directory);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return directory.endsWith(".git") ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+        });
+        return classDirectories;
+    }
+
+    private static String sourceFileOf(ClassDependencyScanner.ScannedClass scanned) {
+        String name = scanned.getName();
+        int packageEnd = name.lastIndexOf('.');
+        String packagePath = packageEnd < 0 ? "" : name.substring(0, packageEnd + 1).replace('.', '/');
+        if (scanned.getSourceFile() != null) {
+            return packagePath + scanned.getSourceFile();
+        }
+        String simpleName = name.substring(packageEnd + 1);
+        int nested = simpleName.indexOf('$');
+        return packagePath + (nested < 0 ? simpleName : simpleName.substring(0, nested)) + ".java";
+    }
+}
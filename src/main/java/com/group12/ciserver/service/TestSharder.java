@@ -0,0 +1,301 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.database.BuildStore;
+import com.group12.ciserver.model.ci.StageDefinition;
+import com.group12.ciserver.model.ci.TestShard;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.util.FileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Splits the test classes of a stage into shards that take about the same time, so they can run at the same time.
+ * <p>
+ * A stage is sharded if its only goal is <code>test</code>. The stage first compiles the tests in the workspace, then
+ * every shard runs in a copy of the workspace with <code>-Dtest</code> set to its test classes, and the surefire
+ * reports of the shards are copied back into the workspace. The test classes are assigned longest first, each to the
+ * shard with the least expected time so far, using the average time of the class in the newest builds of the
+ * repository. Classes without a recorded time are expected to take the average time of the others.
+ */
+@Service
+@Slf4j
+public class TestSharder {
+
+    static final long DEFAULT_CLASS_MILLIS = 1000;
+
+    private static final Set<String> REPORT_DIRECTORIES = Set.of("surefire-reports", "failsafe-reports");
+
+    private final BuildStore buildStore;
+
+    /**
+     * Number of shards a stage is split into, 1 if stages are not sharded.
+     */
+    @Getter
+    private final int shards;
+
+    private final int historyBuilds;
+
+    private final ExecutorService deleteExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "shard-cleaner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public TestSharder(BuildStore buildStore,
+                       @Value("${ciserver.test-sharding.shards:1}") int shards,
+                       @Value("${ciserver.test-sharding.history-builds:20}") int historyBuilds) {
+        this.buildStore = buildStore;
+        this.shards = Math.max(1, shards);
+        this.historyBuilds = historyBuilds;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        deleteExecutor.shutdown();
+    }
+
+    /**
+     * @return true if the stage only runs the <code>test</code> phase, with any options.
+     */
+    public boolean canShard(StageDefinition stage) {
+        return shards > 1 && goalsOf(stage).equals(List.of("test"));
+    }
+
+    /**
+     * @return the command of the stage with the <code>test</code> phase replaced by <code>test-compile</code>.
+     */
+    public static String compileCommand(StageDefinition stage) {
+        return Arrays.stream(stage.getMaven().trim().split("\\s+"))
+                .map(argument -> argument.equals("test") ? "test-compile" : argument)
+                .collect(Collectors.joining(" "));
+    }
+
+    /**
+     * @return the command of the stage, running only the test classes of the shard.
+     */
+    public static String shardCommand(StageDefinition stage, TestShard shard) {
+        return stage.getMaven().trim() + " " + String.join(" ", shard.getMavenOptions());
+    }
+
+    private static List<String> goalsOf(StageDefinition stage) {
+        return Arrays.stream(stage.getMaven().trim().split("\\s+"))
+                .filter(argument -> !argument.startsWith("-"))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Splits the compiled test classes of a workspace into shards.
+     *
+     * @param repository the repository, e.g. DD2480-G12/a2-ci-server, whose earlier builds give the times.
+     * @param workingDirectory the checkout, after the tests were compiled.
+     * @param selectedTests the test classes chosen by the {@link TestImpactAnalyzer}, null for all.
+     * @return the shards, fewer than configured if there are fewer test classes, empty if there are none.
+     */
+    public List<TestShard> plan(String repository, File workingDirectory, Set<String> selectedTests) {
+        Set<String> testClasses = findTestClasses(workingDirectory.toPath());
+        if (selectedTests != null) {
+            testClasses.retainAll(selectedTests);
+        }
+        Map<String, Long> durations = buildStore.getTestClassDurations(repository, historyBuilds);
+        if (durations == null) {
+            durations = Map.of();
+        }
+        long known = 0;
+        long knownMillis = 0;
+        for (String testClass : testClasses) {
+            Long millis = durations.get(testClass);
+            if (millis != null) {
+                known++;
+                knownMillis += millis;
+            }
+        }
+        long defaultMillis = known == 0 ? DEFAULT_CLASS_MILLIS : Math.max(1, knownMillis / known);
+        Map<String, Long> estimates = durations;
+        return assign(testClasses.stream().collect(Collectors.toMap(testClass -> testClass,
+                testClass -> estimates.getOrDefault(testClass, defaultMillis))), shards);
+    }
+
+    /**
+     * Assigns the test classes, longest first, each to the shard with the least expected time so far.
+     *
+     * @param estimatedMillis the expected time of every test class.
+     * @return at most <code>shards</code> shards, none of them empty.
+     */
+    static List<TestShard> assign(Map<String, Long> estimatedMillis, int shards) {
+        List<Map.Entry<String, Long>> longestFirst = new ArrayList<>(estimatedMillis.entrySet());
+        longestFirst.sort(Map.Entry.<String, Long>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey()));
+        int shardCount = Math.min(shards, longestFirst.size());
+        List<List<String>> classes = new ArrayList<>();
+        long[] totals = new long[shardCount];
+        PriorityQueue<Integer> leastLoaded = new PriorityQueue<>(
+                Comparator.<Integer>comparingLong(shard -> totals[shard]).thenComparingInt(shard -> shard));
+        for (int shard = 0; shard < shardCount; shard++) {
+            classes.add(new ArrayList<>());
+            leastLoaded.add(shard);
+        }
+        for (Map.Entry<String, Long> testClass : longestFirst) {
+            int shard = leastLoaded.poll();
+            classes.get(shard).add(testClass.getKey());
+            totals[shard] += testClass.getValue();
+            leastLoaded.add(shard);
+        }
+        List<TestShard> result = new ArrayList<>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            result.add(TestShard.builder()
+                    .number(shard + 1)
+                    .testClasses(classes.get(shard))
+                    .estimatedMillis(totals[shard])
+                    .build());
+        }
+        return result;
+    }
+
+    /**
+     * @return a line for the build log.
+     */
+    public static String describe(List<TestShard> shards) {
+        return "Test sharding: running " + shards.stream().mapToInt(shard -> shard.getTestClasses().size()).sum()
+                + " test classes in " + shards.size() + " shards, expected "
+                + shards.stream().map(shard -> (shard.getEstimatedMillis() + 500) / 1000 + " s")
+                .collect(Collectors.joining(", "));
+    }
+
+    /**
+     * @return the test classes surefire runs by default in all modules, read from their
+     * <code>target/test-classes</code> directories.
+     */
+    static Set<String> findTestClasses(Path workingDirectory) {
+        Set<String> testClasses = new TreeSet<>();
+        try {
+            Files.walkFileTree(workingDirectory, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (dir.getFileName().toString().equals(".git")) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (dir.endsWith(Path.of("target", "test-classes"))) {
+                        collectTestClasses(dir, testClasses);
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.error("Could not find the test classes, workingDirectory={}", workingDirectory, e);
+        }
+        return testClasses;
+    }
+
+    private static void collectTestClasses(Path classDirectory, Set<String> testClasses) {
+        try (var files = Files.walk(classDirectory)) {
+            files.map(file -> classDirectory.relativize(file).toString())
+                    .filter(file -> file.endsWith(".class"))
+                    .map(file -> file.substring(0, file.length() - ".class".length())
+                            .replace(File.separatorChar, '.'))
+                    .filter(TestImpactIndex::isTestClass)
+                    .forEach(testClasses::add);
+        } catch (IOException e) {
+            log.error("Could not read test classes, directory={}", classDirectory, e);
+        }
+    }
+
+    /**
+     * Copies the workspace for a shard, next to the workspace so that {@link WorkspaceManager} removes copies left
+     * behind by a crash. Reports of earlier builds are not copied.
+     *
+     * @return the copy, which must be removed with {@link #discardShard(File)}.
+     */
+    public File prepareShard(File workingDirectory, TestShard shard) throws IOException {
+        Path source = workingDirectory.toPath();
+        Path target = Path.of(workingDirectory.getPath() + "-shard-" + shard.getNumber());
+        FileUtils.delete(target.toFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+        Files.walkFileTree(source, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (isReportDirectory(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                Files.createDirectories(target.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                // Modification times are kept, so maven does not compile the copied sources again
+                Files.copy(file, target.resolve(source.relativize(file)), StandardCopyOption.COPY_ATTRIBUTES,
+                        LinkOption.NOFOLLOW_LINKS);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return target.toFile();
+    }
+
+    /**
+     * Copies the surefire and failsafe reports of a shard into the same modules of the workspace, so the results of
+     * all shards are read from the workspace.
+     */
+    public void collectReports(File shardDirectory, File workingDirectory) {
+        Path source = shardDirectory.toPath();
+        Path target = workingDirectory.toPath();
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (isReportDirectory(file.getParent())) {
+                        Path copy = target.resolve(source.relativize(file));
+                        Files.createDirectories(copy.getParent());
+                        Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.error("Could not collect the reports of a shard, shardDirectory={}", shardDirectory, e);
+        }
+    }
+
+    private static boolean isReportDirectory(Path directory) {
+        Path parent = directory.getParent();
+        return REPORT_DIRECTORIES.contains(directory.getFileName().toString())
+                && parent != null && parent.getFileName().toString().equals("target");
+    }
+
+    /**
+     * Removes the copy of a shard in the background.
+     */
+    public void discardShard(File shardDirectory) {
+        deleteExecutor.execute(() -> {
+            try {
+                FileUtils.delete(shardDirectory, FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+            } catch (IOException e) {
+                log.error("Failed to delete shard, directory={}", shardDirectory, e);
+            }
+        });
+    }
+}
@@ -0,0 +1,284 @@
+package com.group12.ciserver.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides from the raw body of a webhook request whether the event can lead to a build, before anything is stored or
+ * built.
+ * <p>
+ * The <code>X-Hub-Signature-256</code> header is checked against the HMAC of the body when
+ * <code>ciserver.webhook.secret</code> is set. Only <code>ref</code>, <code>after</code>, <code>deleted</code> and the
+ * name of the repository are read from the body, with a streaming parser that skips everything else.
+ * <p>
+ * The refs that are built are set per repository by <code>ciserver.webhook.ref-rules</code>, a list of
+ * <code>repository=ref,ref</code> entries separated by <code>;</code>. Repositories and refs are Ant-style patterns,
+ * e.g. <code>DD2480-G12/a2-ci-server=refs/heads/main,refs/heads/release/**;**=refs/heads/**</code>. The first entry
+ * whose repository pattern matches is used, and events of repositories that match no entry are dropped.
+ */
+@Component
+@Slf4j
+public class WebhookAdmissionFilter {
+
+    /**
+     * The outcome of {@link #admit(String, String, byte[])}.
+     */
+    public enum Admission {
+        /** The event is a push that should be built. */
+        ACCEPTED,
+        /** The signature is missing or does not match the body. */
+        BAD_SIGNATURE,
+        /** The body is not a push event. */
+        MALFORMED,
+        /** The event is not a push, e.g. the ping GitHub sends when a webhook is created. */
+        OTHER_EVENT,
+        /** The push deleted the ref. */
+        DELETED_REF,
+        /** The ref is not built for this repository, e.g. a tag. */
+        IGNORED_REF
+    }
+
+    private static final String SIGNATURE_PREFIX = "sha256=";
+
+    private static final int SIGNATURE_LENGTH = 32;
+
+    private static final String DELETED_COMMIT = "0000000000000000000000000000000000000000";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final AntPathMatcher matcher = new AntPathMatcher();
+
+    private final List<RefRule> refRules;
+
+    private final SecretKeySpec secretKey;
+
+    /**
+     * Mac instances are not thread-safe, so each request thread keeps its own.
+     */
+    private final ThreadLocal<Mac> macs;
+
+    private final Map<Admission, LongAdder> counts = new EnumMap<>(Admission.class);
+
+    @Autowired
+    public WebhookAdmissionFilter(@Value("${ciserver.webhook.secret:}") String secret,
+                                  @Value("${ciserver.webhook.ref-rules:**=refs/heads/**}") String refRules) {
+        this.refRules = parseRefRules(refRules);
+        if (secret.isEmpty()) {
+            log.warn("ciserver.webhook.secret is not set, webhook signatures are not checked");
+            this.secretKey = null;
+            this.macs = null;
+        } else {
+            this.secretKey = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+            this.macs = ThreadLocal.withInitial(this::newMac);
+        }
+        for (Admission admission : Admission.values()) {
+            counts.put(admission, new LongAdder());
+        }
+    }
+
+    /**
+     * @param event the <code>X-GitHub-Event</code> header, or null if there is none.
+     * @param signature the <code>X-Hub-Signature-256</code> header, or null if there is none.
+     * @param body the body of the request.
+     * @return whether the event should be built, or why not.
+     */
+    public Admission admit(String event, String signature, byte[] body) {
+        Admission admission = decide(event, signature, body);
+        counts.get(admission).increment();
+        return admission;
+    }
+
+    /**
+     * @return the number of events per outcome since the server started.
+     */
+    public Map<Admission, Long> getCounts() {
+        Map<Admission, Long> snapshot = new EnumMap<>(Admission.class);
+        counts.forEach((admission, count) -> snapshot.put(admission, count.sum()));
+        return snapshot;
+    }
+
+    private Admission decide(String event, String signature, byte[] body) {
+        if (secretKey != null && !signatureMatches(signature, body)) {
+            return Admission.BAD_SIGNATURE;
+        }
+        if (event != null && !event.equals("push")) {
+            return Admission.OTHER_EVENT;
+        }
+
+        String ref = null;
+        String after = null;
+        String repository = null;
+        Boolean deleted = null;
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return Admission.MALFORMED;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "ref":
+                        ref = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                        break;
+                    case "after":
+                        after = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                        if (DELETED_COMMIT.equals(after)) {
+                            return Admission.DELETED_REF;
+                        }
+                        break;
+                    case "deleted":
+                        deleted = value == JsonToken.VALUE_TRUE;
+                        break;
+                    case "repository":
+                        repository = value == JsonToken.START_OBJECT ? readRepositoryName(parser) : null;
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+                if (Boolean.TRUE.equals(deleted)) {
+                    return Admission.DELETED_REF;
+                }
+                if (ref != null && after != null && repository != null && deleted != null) {
+                    // The rest, e.g. the list of commits, is not needed
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            return Admission.MALFORMED;
+        }
+
+        if (ref == null || after == null || repository == null) {
+            return Admission.MALFORMED;
+        }
+        return isBuilt(repository, ref) ? Admission.ACCEPTED : Admission.IGNORED_REF;
+    }
+
+    /**
+     * Reads <code>full_name</code> of the repository object the parser is at, or <code>owner.name/name</code> if it has
+     * no full name, and leaves the parser at the end of the object.
+     */
+    private static String readRepositoryName(JsonParser parser) throws IOException {
+        String fullName = null;
+        String name = null;
+        String owner = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("full_name") && value == JsonToken.VALUE_STRING) {
+                fullName = parser.getText();
+            } else if (field.equals("name") && value == JsonToken.VALUE_STRING) {
+                name = parser.getText();
+            } else if (field.equals("owner") && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String ownerField = parser.getCurrentName();
+                    JsonToken ownerValue = parser.nextToken();
+                    if ((ownerField.equals("name") || (ownerField.equals("login") && owner == null))
+                            && ownerValue == JsonToken.VALUE_STRING) {
+                        owner = parser.getText();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (fullName != null) {
+            return fullName;
+        }
+        return name != null && owner != null ? owner + "/" + name : null;
+    }
+
+    private boolean isBuilt(String repository, String ref) {
+        for (RefRule rule : refRules) {
+            if (matcher.match(rule.repositoryPattern, repository)) {
+                for (String refPattern : rule.refPatterns) {
+                    if (matcher.match(refPattern, ref)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private boolean signatureMatches(String signature, byte[] body) {
+        if (signature == null || !signature.startsWith(SIGNATURE_PREFIX)
+                || signature.length() != SIGNATURE_PREFIX.length() + 2 * SIGNATURE_LENGTH) {
+            return false;
+        }
+        byte[] expected = new byte[SIGNATURE_LENGTH];
+        for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+            int high = Character.digit(signature.charAt(SIGNATURE_PREFIX.length() + 2 * i), 16);
+            int low = Character.digit(signature.charAt(SIGNATURE_PREFIX.length() + 2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return false;
+            }
+            expected[i] = (byte) (high << 4 | low);
+        }
+        // doFinal resets the Mac for the next request
+        byte[] actual = macs.get().doFinal(body);
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(secretKey);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private static List<RefRule> parseRefRules(String rules) {
+        List<RefRule> parsed = new ArrayList<>();
+        for (String rule : rules.split(";")) {
+            if (rule.isBlank()) {
+                continue;
+            }
+            int separator = rule.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Bad ciserver.webhook.ref-rules entry: " + rule);
+            }
+            parsed.add(new RefRule(rule.substring(0, separator).trim(),
+                    Arrays.stream(rule.substring(separator + 1).split(","))
+                            .map(String::trim)
+                            .filter(pattern -> !pattern.isEmpty())
+                            .toArray(String[]::new)));
+        }
+        return parsed;
+    }
+
+    private static class RefRule {
+
+        private final String repositoryPattern;
+
+        private final String[] refPatterns;
+
+        RefRule(String repositoryPattern, String[] refPatterns) {
+            this.repositoryPattern = repositoryPattern;
+            this.refPatterns = refPatterns;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.group12.ciserver.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.group12.ciserver.database.WebhookInbox;
+import com.group12.ciserver.model.WebhookDelivery;
+import com.group12.ciserver.model.github.PushEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+/**
+ * Hands the push events in the {@link WebhookInbox} to the {@link BuildScheduler}, in the order they were received.
+ * <p>
+ * An event is removed from the inbox when its build has finished, so events that are still queued or building when
+ * the server stops are dispatched again after a restart. When the build queue is full, the dispatcher waits
+ * <code>ciserver.inbox.retry-interval-ms</code> and tries again, and later events wait in the inbox.
+ */
+@Service
+@Slf4j
+public class WebhookDispatcher {
+
+    private final WebhookInbox webhookInbox;
+
+    private final BuildScheduler buildScheduler;
+
+    private final ObjectMapper objectMapper;
+
+    private final long retryIntervalMillis;
+
+    private Thread worker;
+
+    @Autowired
+    public WebhookDispatcher(WebhookInbox webhookInbox, BuildScheduler buildScheduler, ObjectMapper objectMapper,
+                             @Value("${ciserver.inbox.retry-interval-ms:1000}") long retryIntervalMillis) {
+        this.webhookInbox = webhookInbox;
+        this.buildScheduler = buildScheduler;
+        this.objectMapper = objectMapper;
+        this.retryIntervalMillis = retryIntervalMillis;
+    }
+
+    @PostConstruct
+    void start() {
+        int pending = webhookInbox.pendingCount();
+        if (pending > 0) {
+            log.info("Dispatching push events received before restart, events={}", pending);
+        }
+        worker = new Thread(this::dispatchAll, "webhook-dispatcher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        worker.interrupt();
+    }
+
+    private void dispatchAll() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                dispatch(webhookInbox.take());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatch(WebhookDelivery delivery) throws InterruptedException {
+        long sequence = delivery.getSequence();
+        PushEvent pushEvent;
+        try {
+            pushEvent = objectMapper.readValue(delivery.getPayload(), PushEvent.class);
+        } catch (JsonProcessingException e) {
+            // Events are validated before they are stored, so this is an event from an incompatible version
+            log.error("Dropping unreadable push event, deliveryId={}, error={}", delivery.getDeliveryId(),
+                    e.getOriginalMessage());
+            webhookInbox.markProcessed(sequence);
+            return;
+        }
+        log.info("Dispatching push event, deliveryId={}, pushEvent={}", delivery.getDeliveryId(), pushEvent);
+        while (!buildScheduler.submit(pushEvent, () -> webhookInbox.markProcessed(sequence))) {
+            Thread.sleep(retryIntervalMillis);
+        }
+    }
+}
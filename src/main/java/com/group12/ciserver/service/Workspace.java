@@ -0,0 +1,48 @@
+package com.group12.ciserver.service;
+
+import lombok.Getter;
+
+import java.io.File;
+
+/**
+ * A directory leased by {@link WorkspaceManager} to one pipeline at a time.
+ */
+@Getter
+public class Workspace {
+
+    /**
+     * The directory the repository is checked out to.
+     */
+    private final File directory;
+
+    /**
+     * Identifies the repository the workspace belongs to, as <code>owner/name</code>.
+     */
+    private final String repositoryKey;
+
+    /**
+     * Identifies the repository and branch the workspace was last checked out for.
+     */
+    private volatile String branchKey;
+
+    private volatile long lastUsed;
+
+    private volatile long sizeBytes;
+
+    Workspace(File directory, String repositoryKey, String branchKey) {
+        this.directory = directory;
+        this.repositoryKey = repositoryKey;
+        this.branchKey = branchKey;
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    void reuseFor(String branchKey) {
+        this.branchKey = branchKey;
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    void released(long sizeBytes) {
+        this.sizeBytes = sizeBytes;
+        this.lastUsed = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,235 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.client.RepositoryMirrorCache;
+import com.group12.ciserver.model.github.PushEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.util.FileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Leases build directories to pipelines.
+ * <p>
+ * When a pipeline is done its workspace is kept as a warm workspace for the same repository and branch, so that the
+ * next build only has to check out the changed files and can reuse the <code>target</code> directory for incremental
+ * compilation. At most one warm workspace is kept per branch. Warm workspaces are deleted, least recently used first,
+ * when all workspaces together take up more than the disk budget.
+ * <p>
+ * Deleting is done asynchronously: the directory is first moved out of the way and then removed on a background
+ * thread, so releasing a workspace never blocks the build worker. Once it is deleted the {@link RepositoryMirrorCache}
+ * may evict the mirror the workspace was checked out from.
+ */
+@Service
+@Slf4j
+public class WorkspaceManager {
+
+    private static final String WORKSPACE_DIRECTORY = "workspaces";
+
+    private static final String TRASH_DIRECTORY = "trash";
+
+    @Value("${githubclient.repo-clone-base-directory}")
+    private String repoCloneBaseDirectory;
+
+    @Value("${ciserver.workspace.max-size-mb:20480}")
+    private long maxSizeMb;
+
+    @Autowired
+    private RepositoryMirrorCache repositoryMirrorCache;
+
+    /**
+     * Warm workspaces, least recently used first.
+     */
+    private final List<Workspace> idleWorkspaces = new ArrayList<>();
+
+    private final Set<Workspace> leasedWorkspaces = new HashSet<>();
+
+    private final ExecutorService deleteExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "workspace-cleaner"));
+
+    public WorkspaceManager() {
+    }
+
+    WorkspaceManager(String repoCloneBaseDirectory, long maxSizeMb) {
+        this(repoCloneBaseDirectory, maxSizeMb, null);
+    }
+
+    WorkspaceManager(String repoCloneBaseDirectory, long maxSizeMb, RepositoryMirrorCache repositoryMirrorCache) {
+        this.repoCloneBaseDirectory = repoCloneBaseDirectory;
+        this.maxSizeMb = maxSizeMb;
+        this.repositoryMirrorCache = repositoryMirrorCache;
+        init();
+    }
+
+    /**
+     * Workspaces left behind by a previous run of the server are not known to be in a consistent state, so they are
+     * deleted.
+     */
+    @PostConstruct
+    void init() {
+        File[] leftovers = getWorkspaceBaseDirectory().listFiles(File::isDirectory);
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                deleteAsync(leftover);
+            }
+        }
+        File[] trash = getTrashDirectory().listFiles();
+        if (trash != null) {
+            for (File file : trash) {
+                deleteExecutor.execute(() -> delete(file));
+            }
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        deleteExecutor.shutdown();
+    }
+
+    /**
+     * Leases a workspace for the push event. A warm workspace of the same branch is preferred, then one of the same
+     * repository. Otherwise a new, uniquely named directory is returned.
+     *
+     * @param pushEvent is the <i>push</i> event the workspace is needed for.
+     * @return the leased {@link Workspace}, which must be handed back using {@link #release(Workspace)} or
+     * {@link #discard(Workspace)}.
+     */
+    public synchronized Workspace lease(PushEvent pushEvent) {
+        String repositoryKey = pushEvent.getRepository().getOwner().getName() + "/" + pushEvent.getRepository().getName();
+        String branchKey = repositoryKey + ":" + pushEvent.getRef();
+
+        Workspace workspace = findIdle(candidate -> candidate.getBranchKey().equals(branchKey));
+        if (workspace == null) {
+            workspace = findIdle(candidate -> candidate.getRepositoryKey().equals(repositoryKey));
+        }
+        if (workspace != null) {
+            idleWorkspaces.remove(workspace);
+            workspace.reuseFor(branchKey);
+            log.info("Reusing workspace, directory={}", workspace.getDirectory());
+        } else {
+            File directory = new File(getWorkspaceBaseDirectory(),
+                    DirectoryNames.of(repositoryKey) + "-" + UUID.randomUUID());
+            workspace = new Workspace(directory, repositoryKey, branchKey);
+            log.info("Created workspace, directory={}", directory);
+        }
+        leasedWorkspaces.add(workspace);
+        return workspace;
+    }
+
+    /**
+     * Hands a workspace back after a build, keeping it as the warm workspace of its branch.
+     */
+    public void release(Workspace workspace) {
+        workspace.released(sizeOf(workspace.getDirectory().toPath()));
+        List<Workspace> evicted = new ArrayList<>();
+        synchronized (this) {
+            leasedWorkspaces.remove(workspace);
+            Iterator<Workspace> iterator = idleWorkspaces.iterator();
+            while (iterator.hasNext()) {
+                Workspace idle = iterator.next();
+                if (idle.getBranchKey().equals(workspace.getBranchKey())) {
+                    iterator.remove();
+                    evicted.add(idle);
+                }
+            }
+            idleWorkspaces.add(workspace);
+            long totalSize = leasedWorkspaces.stream().mapToLong(Workspace::getSizeBytes).sum()
+                    + idleWorkspaces.stream().mapToLong(Workspace::getSizeBytes).sum();
+            while (totalSize > maxSizeMb * 1024 * 1024 && !idleWorkspaces.isEmpty()) {
+                Workspace leastRecentlyUsed = idleWorkspaces.remove(0);
+                totalSize -= leastRecentlyUsed.getSizeBytes();
+                evicted.add(leastRecentlyUsed);
+            }
+        }
+        evicted.forEach(idle -> deleteAsync(idle.getDirectory()));
+    }
+
+    /**
+     * Hands a workspace back without keeping it, e.g. when the build left it in an unknown state.
+     */
+    public void discard(Workspace workspace) {
+        synchronized (this) {
+            leasedWorkspaces.remove(workspace);
+        }
+        deleteAsync(workspace.getDirectory());
+    }
+
+    private Workspace findIdle(Predicate<Workspace> predicate) {
+        for (int i = idleWorkspaces.size() - 1; i >= 0; i--) {
+            if (predicate.test(idleWorkspaces.get(i))) {
+                return idleWorkspaces.get(i);
+            }
+        }
+        return null;
+    }
+
+    private void deleteAsync(File directory) {
+        if (!directory.exists()) {
+            releaseMirror(directory);
+            return;
+        }
+        File trashDirectory = getTrashDirectory();
+        File target = new File(trashDirectory, directory.getName());
+        try {
+            Files.createDirectories(trashDirectory.toPath());
+            Files.move(directory.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not move workspace to trash, deleting in place, directory={}", directory);
+            target = directory;
+        }
+        File toDelete = target;
+        deleteExecutor.execute(() -> {
+            delete(toDelete);
+            releaseMirror(directory);
+        });
+    }
+
+    private void releaseMirror(File directory) {
+        if (repositoryMirrorCache != null) {
+            repositoryMirrorCache.release(directory);
+        }
+    }
+
+    private static void delete(File file) {
+        try {
+            FileUtils.delete(file, FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+        } catch (IOException e) {
+            log.error("Failed to delete workspace, directory={}", file, e);
+        }
+    }
+
+    private File getWorkspaceBaseDirectory() {
+        return new File(repoCloneBaseDirectory, WORKSPACE_DIRECTORY);
+    }
+
+    private File getTrashDirectory() {
+        return new File(repoCloneBaseDirectory, TRASH_DIRECTORY);
+    }
+
+    private static long sizeOf(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        } catch (IOException | UncheckedIOException e) {
+            return 0;
+        }
+    }
+}
@@ -2,6 +2,13 @@ package com.group12.ciserver;
 
 import com.group12.ciserver.database.DatabaseWrapper;
 import com.group12.ciserver.model.BuildInfo;
+import com.group12.ciserver.model.BuildSummary;
+import com.group12.ciserver.model.FlakyTest;
+import com.group12.ciserver.model.SlowTest;
+import com.group12.ciserver.model.TestResult;
+import com.group12.ciserver.model.TestStatus;
+import com.group12.ciserver.model.github.CommitState;
+import com.group12.ciserver.service.BuildLogWriter;
 
 
 import org.junit.jupiter.api.BeforeAll;
@@ -11,9 +18,23 @@ import org.springframework.boot.test.context.SpringBootTest;
 
 
 import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
@@ -35,6 +56,8 @@ class DatabaseWrapperTests {
         // Close connection & remove test database
         db.closeConnection();
         boolean result = new File(test_database).delete();
+        new File(test_database + "-wal").delete();
+        new File(test_database + "-shm").delete();
     }
 
     @Test
@@ -45,6 +68,84 @@ class DatabaseWrapperTests {
         assertTrue(db.getBuildInfo(uid) != null);
     }
 
+    @Test
+    void testFindSuccessfulBuildByInputKey() {
+        String repository = "Owner/InputKeys";
+        long failed = db.addBuild(new BuildInfo("commithash", repository, "main", OffsetDateTime.now()));
+        long passed = db.addBuild(new BuildInfo("commithash", repository, "main", OffsetDateTime.now()));
+        long other = db.addBuild(new BuildInfo("commithash", repository, "main", OffsetDateTime.now()));
+        assertTrue(db.setInputKey(failed, "tree-a"));
+        assertTrue(db.setInputKey(passed, "tree-a"));
+        assertTrue(db.setInputKey(other, "tree-b"));
+        db.finishBuild(failed, CommitState.FAILURE, 10);
+        db.finishBuild(passed, CommitState.SUCCESS, 10);
+        db.finishBuild(other, CommitState.SUCCESS, 10);
+
+        assertEquals(passed, db.findSuccessfulBuild(repository, "tree-a"));
+        assertNull(db.findSuccessfulBuild(repository, "tree-c"));
+        assertNull(db.findSuccessfulBuild("Owner/Other", "tree-a"));
+    }
+
+    @Test
+    void testSetResourceUsage() {
+        long uid = db.addBuild(new BuildInfo("commithash", "Owner/Resources", "main", OffsetDateTime.now()));
+
+        assertNull(db.getBuildInfo(uid).getPeakMemoryBytes());
+        assertTrue(db.setResourceUsage(uid, 104857600L, null));
+
+        BuildInfo info = db.getBuildInfo(uid);
+        assertEquals(104857600L, info.getPeakMemoryBytes());
+        assertNull(info.getCpuTimeMillis());
+        assertEquals("commithash", info.getCommitId());
+    }
+
+    @Test
+    void testTestResults() {
+        String repository = "Owner/TestResults";
+        long first = db.addBuild(new BuildInfo("commit1", repository, "main", OffsetDateTime.now()));
+        long rerun = db.addBuild(new BuildInfo("commit1", repository, "main", OffsetDateTime.now()));
+        long second = db.addBuild(new BuildInfo("commit2", repository, "main", OffsetDateTime.now()));
+        assertTrue(db.addTestResults(first, List.of(testResult("slow", TestStatus.PASSED, 900),
+                testResult("random", TestStatus.FAILED, 10), testResult("fast", TestStatus.PASSED, 1))));
+        assertTrue(db.addTestResults(rerun, List.of(testResult("slow", TestStatus.PASSED, 1100),
+                testResult("random", TestStatus.PASSED, 30), testResult("fast", TestStatus.FAILED, 1))));
+        assertTrue(db.addTestResults(second, List.of(testResult("slow", TestStatus.SKIPPED, 0),
+                testResult("network", TestStatus.FLAKY, 50), testResult("fast", TestStatus.PASSED, 1))));
+
+        List<TestResult> failed = db.getTestResults(first, TestStatus.FAILED);
+        assertEquals(1, failed.size());
+        assertEquals("random", failed.get(0).getName());
+        assertEquals("message of random", failed.get(0).getMessage());
+        assertEquals(3, db.getTestResults(second, null).size());
+
+        List<SlowTest> slowest = db.getSlowestTests(repository, 50, 2);
+        assertEquals(List.of("slow", "network"), slowest.stream().map(SlowTest::getName).toList());
+        assertEquals(2, slowest.get(0).getRuns());
+        assertEquals(1000, slowest.get(0).getAverageMillis());
+        assertEquals(1100, slowest.get(0).getMaxMillis());
+        assertEquals(List.of("network", "fast"),
+                db.getSlowestTests(repository, 1, 5).stream().map(SlowTest::getName).toList());
+
+        List<FlakyTest> flaky = db.getFlakyTests(repository, 50, 10);
+        assertEquals(List.of("network", "fast", "random"), flaky.stream().map(FlakyTest::getName).toList());
+        assertEquals(1, flaky.get(0).getReruns());
+        assertEquals(1, flaky.get(1).getFlippedCommits());
+        assertEquals(rerun, flaky.get(1).getLastFailedBuild());
+
+        // (911 + 1131 + 51) / 3 builds
+        assertEquals(Map.of("com.example.ExampleTest", 697L), db.getTestClassDurations(repository, 50));
+        assertEquals(Map.of("com.example.ExampleTest", 51L), db.getTestClassDurations(repository, 1));
+
+        assertTrue(db.removeBuild(second));
+        assertTrue(db.getTestResults(second, null).isEmpty());
+    }
+
+    private static TestResult testResult(String name, TestStatus status, long durationMillis) {
+        return TestResult.builder().className("com.example.ExampleTest").name(name).status(status)
+                .durationMillis(durationMillis).message(status == TestStatus.PASSED ? null : "message of " + name)
+                .build();
+    }
+
     @Test
     void testRemoveBuild() {
         BuildInfo b = new BuildInfo(0, "commithash", "content", OffsetDateTime.now());
@@ -65,4 +166,132 @@ class DatabaseWrapperTests {
         assertEquals(db.getBuildInfo(uid).getContent(), newcontent);
     }
 
+    @Test
+    void testStreamedBuildLog() {
+        BuildInfo b = new BuildInfo("commithash", null, OffsetDateTime.now());
+        long uid = db.addBuild(b);
+
+        try (BuildLogWriter writer = new BuildLogWriter(db, uid, 4, null)) {
+            writer.append("first line\n");
+            writer.append("second line\n");
+        }
+
+        assertEquals("first line\nsecond line\n", db.getBuildInfo(uid).getContent());
+        assertEquals("line\nsec", db.getLogRange(uid, 6, 14));
+    }
+
+    @Test
+    void testBuildSummaries() {
+        long first = db.addBuild(new BuildInfo("commit1", "owner/paged", "main", OffsetDateTime.now()));
+        long second = db.addBuild(new BuildInfo("commit2", "owner/paged", "feature", OffsetDateTime.now()));
+        long third = db.addBuild(new BuildInfo("commit3", "owner/paged", "main", OffsetDateTime.now()));
+        assertTrue(db.finishBuild(third, CommitState.SUCCESS, 1234));
+
+        List<BuildSummary> page = db.getBuildSummaries("owner/paged", null, null, null, 2);
+        assertEquals(List.of(third, second), page.stream().map(BuildSummary::getUid).collect(Collectors.toList()));
+        assertEquals(CommitState.SUCCESS, page.get(0).getStatus());
+        assertEquals(1234L, page.get(0).getDurationMillis());
+        assertEquals(CommitState.PENDING, page.get(1).getStatus());
+        assertNull(page.get(1).getDurationMillis());
+
+        List<BuildSummary> next = db.getBuildSummaries("owner/paged", null, null, second, 2);
+        assertEquals(List.of(first), next.stream().map(BuildSummary::getUid).collect(Collectors.toList()));
+
+        List<BuildSummary> main = db.getBuildSummaries("owner/paged", "main", CommitState.PENDING, null, 10);
+        assertEquals(List.of(first), main.stream().map(BuildSummary::getUid).collect(Collectors.toList()));
+        assertEquals("commit1", main.get(0).getCommitId());
+    }
+
+    @Test
+    void testLegacyLogsAreCompressed() throws Exception {
+        String legacyDatabase = "LegacyTestdatabase.db";
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + legacyDatabase);
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE builds (uid INTEGER PRIMARY KEY, commit_hash TEXT, content TEXT, "
+                    + "timestamp TEXT)");
+            statement.execute("CREATE TABLE build_logs (build_id INTEGER, seq INTEGER, start_offset INTEGER, "
+                    + "length INTEGER, content TEXT, PRIMARY KEY (build_id, seq))");
+            String timestamp = OffsetDateTime.now().toString();
+            statement.execute("INSERT INTO builds VALUES (1, 'commit1', 'whole log', '" + timestamp + "')");
+            statement.execute("INSERT INTO builds VALUES (2, 'commit2', NULL, '" + timestamp + "')");
+            statement.execute("INSERT INTO build_logs VALUES (2, 0, 0, 6, 'first\n')");
+            statement.execute("INSERT INTO build_logs VALUES (2, 1, 6, 7, 'second\n')");
+        }
+
+        DatabaseWrapper legacy = new DatabaseWrapper(legacyDatabase);
+        try {
+            assertEquals("whole log", legacy.getBuildInfo(1).getContent());
+            assertEquals("first\nsecond\n", legacy.getBuildInfo(2).getContent());
+
+            assertEquals(2, legacy.compressLegacyLogs(10));
+            assertEquals(0, legacy.compressLegacyLogs(10));
+
+            assertEquals("whole log", legacy.getBuildInfo(1).getContent());
+            assertEquals("log", legacy.getLogRange(1, 6, 100));
+            assertEquals("first\nsecond\n", legacy.getBuildInfo(2).getContent());
+            assertEquals("t\nsec", legacy.getLogRange(2, 4, 9));
+        } finally {
+            legacy.closeConnection();
+        }
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + legacyDatabase);
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT "
+                     + "(SELECT count(*) FROM builds WHERE content IS NOT NULL), "
+                     + "(SELECT count(*) FROM build_logs WHERE content IS NOT NULL OR codec IS NULL)")) {
+            assertTrue(rs.next());
+            assertEquals(0, rs.getInt(1));
+            assertEquals(0, rs.getInt(2));
+        } finally {
+            new File(legacyDatabase).delete();
+            new File(legacyDatabase + "-wal").delete();
+            new File(legacyDatabase + "-shm").delete();
+        }
+    }
+
+    /**
+     * Pipelines write logs while the history is read by request threads. Every write and read must succeed, the
+     * throughput is printed to compare changes to the data access layer.
+     */
+    @Test
+    void testConcurrentWritesAndReads() throws Exception {
+        int threads = 8;
+        int buildsPerThread = 50;
+        int chunksPerBuild = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicInteger failures = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < buildsPerThread; i++) {
+                    long uid = db.addBuild(new BuildInfo("commit", "owner/concurrent", "main", OffsetDateTime.now()));
+                    for (int seq = 0; seq < chunksPerBuild; seq++) {
+                        if (!db.appendLogChunk(uid, seq, seq * 6L, "chunk\n")) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                    BuildInfo build = db.getBuildInfo(uid);
+                    if (build == null || !"chunk\n".repeat(chunksPerBuild).equals(build.getContent())) {
+                        failures.incrementAndGet();
+                    }
+                    if (db.getBuildSummaries("owner/concurrent", "main", null, null, 20) == null) {
+                        failures.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        executor.shutdown();
+
+        int operations = threads * buildsPerThread * (chunksPerBuild + 3);
+        System.out.printf("%d database operations on %d threads in %d ms (%.0f ops/s)%n", operations, threads,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos), operations / (elapsedNanos / 1e9));
+        assertEquals(0, failures.get());
+        assertEquals(20, db.getBuildSummaries("owner/concurrent", "main", null, null, 20).size());
+    }
 }
@@ -2,6 +2,8 @@ package com.group12.ciserver;
 
 import com.group12.ciserver.controller.EventController;
 import com.group12.ciserver.model.BuildInfo;
+import com.group12.ciserver.model.BuildSummary;
+import com.group12.ciserver.model.github.CommitState;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,7 +15,11 @@ import org.springframework.test.web.servlet.MockMvc;
 
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
+import java.util.List;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 
 import static org.hamcrest.Matchers.containsString;
@@ -39,9 +45,9 @@ class HistoryEndpointTests {
     // History endpoint tests
     @Test
     public void testEmptyHistoryEndpoint() throws Exception {
-        ArrayList<BuildInfo> history = new ArrayList<>();
+        List<BuildSummary> history = new ArrayList<>();
 
-        when(controller.buildHistory()).thenReturn(history);
+        when(controller.buildHistory(any(), any(), any(), any(), anyInt())).thenReturn(ResponseEntity.ok(history));
         // Expect empty json array as history is an empty list
         this.mockMvc.perform(get("/history")).andExpect(status().isOk())
                 .andExpect(content().string(containsString("[]")));
@@ -49,21 +55,26 @@ class HistoryEndpointTests {
 
     @Test
     public void testNonEmptyHistoryEndpoint() throws Exception {
-        ArrayList<BuildInfo> history = new ArrayList<>();
-        BuildInfo b1 = new BuildInfo(1, "commit1", "content1");
-        BuildInfo b2 = new BuildInfo(2, "commit2", "content2");
+        List<BuildSummary> history = new ArrayList<>();
+        BuildSummary b1 = BuildSummary.builder().uid(2).commitId("commit2").repository("owner/repo").branch("main")
+                .status(CommitState.SUCCESS).timestamp(OffsetDateTime.now()).durationMillis(1000L).build();
+        BuildSummary b2 = BuildSummary.builder().uid(1).commitId("commit1").repository("owner/repo").branch("main")
+                .status(CommitState.FAILURE).timestamp(OffsetDateTime.now()).durationMillis(2000L).build();
 
         history.add(b1);
         history.add(b2);
 
-        when(controller.buildHistory()).thenReturn(history);
-        this.mockMvc.perform(get("/history")).andExpect(status().isOk())
-                .andExpect(jsonPath("$[0].uid").value("1"))
-                .andExpect(jsonPath("$[1].uid").value("2"))
-                .andExpect(jsonPath("$[0].commitId").value("commit1"))
-                .andExpect(jsonPath("$[1].commitId").value("commit2"))
-                .andExpect(jsonPath("$[0].content").value("content1"))
-                .andExpect(jsonPath("$[1].content").value("content2"))
+        when(controller.buildHistory(eq("owner/repo"), any(), any(), any(), anyInt()))
+                .thenReturn(ResponseEntity.ok(history));
+        this.mockMvc.perform(get("/history").param("repository", "owner/repo")).andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].uid").value("2"))
+                .andExpect(jsonPath("$[1].uid").value("1"))
+                .andExpect(jsonPath("$[0].commitId").value("commit2"))
+                .andExpect(jsonPath("$[1].commitId").value("commit1"))
+                .andExpect(jsonPath("$[0].status").value("SUCCESS"))
+                .andExpect(jsonPath("$[1].durationMillis").value("2000"))
+                .andExpect(jsonPath("$[0].content").doesNotExist())
+                .andExpect(jsonPath("$[1].content").doesNotExist())
                 .andExpect(jsonPath("$[0].timestamp").exists())
                 .andExpect(jsonPath("$[1].timestamp").exists());
     }
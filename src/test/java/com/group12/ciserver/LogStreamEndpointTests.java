@@ -0,0 +1,97 @@
+package com.group12.ciserver;
+
+import com.group12.ciserver.database.BuildStore;
+import com.group12.ciserver.model.BuildInfo;
+import com.group12.ciserver.service.BuildLogWriter;
+import com.group12.ciserver.service.LiveLogBroadcaster;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.OffsetDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class LogStreamEndpointTests {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private BuildStore buildStore;
+
+    @Autowired
+    private LiveLogBroadcaster liveLogBroadcaster;
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void testFollowRunningBuild() throws Exception {
+        long uid = buildStore.addBuild(new BuildInfo("commithash", null, OffsetDateTime.now()));
+        BuildLogWriter writer = new BuildLogWriter(buildStore, uid, 8, liveLogBroadcaster.open(uid));
+        writer.append("before viewer connected\n");
+
+        HttpResponse<InputStream> response = stream(uid, "");
+        writer.append("while viewer connected\n");
+        writer.close();
+        liveLogBroadcaster.finish(uid);
+
+        assertEquals(200, response.statusCode());
+        assertEquals("before viewer connected\nwhile viewer connected\n", readUntilEnd(response));
+    }
+
+    @Test
+    void testResumeFinishedBuildFromOffset() throws Exception {
+        long uid = buildStore.addBuild(new BuildInfo("commithash", null, OffsetDateTime.now()));
+        try (BuildLogWriter writer = new BuildLogWriter(buildStore, uid, 8, null)) {
+            writer.append("first line\nsecond line\n");
+        }
+
+        HttpResponse<InputStream> response = stream(uid, "?offset=11");
+
+        assertEquals("second line\n", readUntilEnd(response));
+    }
+
+    @Test
+    void testUnknownBuild() throws Exception {
+        assertEquals(404, stream(Long.MAX_VALUE, "").statusCode());
+    }
+
+    private HttpResponse<InputStream> stream(long uid, String query) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(
+                URI.create("http://localhost:" + port + "/history/" + uid + "/log/stream" + query)).build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    private String readUntilEnd(HttpResponse<InputStream> response) throws Exception {
+        StringBuilder text = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.body()))) {
+            String event = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("event:")) {
+                    event = line.substring(6);
+                } else if (line.startsWith("data:") && "log".equals(event)) {
+                    JsonNode data = objectMapper.readTree(line.substring(5));
+                    text.append(data.get("text").asText());
+                } else if (line.isEmpty() && "end".equals(event)) {
+                    break;
+                }
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,161 @@
+package com.group12.ciserver.client;
+
+import com.group12.ciserver.model.github.CommitState;
+import com.group12.ciserver.model.github.Owner;
+import com.group12.ciserver.model.github.PushEvent;
+import com.group12.ciserver.model.github.Repository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CommitStatusPublisherTest {
+
+    @Mock
+    private GithubClient githubClient;
+
+    private CommitStatusPublisher publisher;
+
+    @BeforeEach
+    void init() {
+        publisher = new CommitStatusPublisher(githubClient, 3, 10, 100);
+    }
+
+    @AfterEach
+    void shutdown() throws InterruptedException {
+        publisher.shutdown();
+    }
+
+    private static PushEvent pushEvent(String sha) {
+        Owner owner = new Owner();
+        owner.setName("Owner");
+        Repository repository = new Repository();
+        repository.setName("Repository");
+        repository.setOwner(owner);
+        PushEvent pushEvent = new PushEvent();
+        pushEvent.setRef("refs/heads/main");
+        pushEvent.setAfter(sha);
+        pushEvent.setRepository(repository);
+        return pushEvent;
+    }
+
+    private void awaitAllSent() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (publisher.pendingCommits() > 0) {
+            assertThat(System.currentTimeMillis()).as("statuses sent before timeout").isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void unsentStatusIsReplacedByNewerStatusOfSameCommit() throws Exception {
+        PushEvent blocking = pushEvent("1111111111");
+        PushEvent coalesced = pushEvent("2222222222");
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(githubClient.createStatusMsg(eq(blocking), any(), any(), any())).thenAnswer(invocation -> {
+            sending.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return ResponseEntity.ok().build();
+        });
+        when(githubClient.createStatusMsg(eq(coalesced), any(), any(), any()))
+                .thenReturn(ResponseEntity.ok().build());
+
+        publisher.publish(blocking, CommitState.PENDING, "Running CI pipeline...", null);
+        assertThat(sending.await(10, TimeUnit.SECONDS)).isTrue();
+        publisher.publish(coalesced, CommitState.PENDING, "Running CI pipeline...", null);
+        publisher.publish(coalesced, CommitState.SUCCESS, "Pipeline successful", 2L);
+        release.countDown();
+        awaitAllSent();
+
+        verify(githubClient).createStatusMsg(blocking, CommitState.PENDING, "Running CI pipeline...", null);
+        verify(githubClient).createStatusMsg(coalesced, CommitState.SUCCESS, "Pipeline successful", 2L);
+        verifyNoMoreInteractions(githubClient);
+    }
+
+    @Test
+    void statusIsRetriedAfterServerError() throws Exception {
+        PushEvent pushEvent = pushEvent("aabbccddee");
+        when(githubClient.createStatusMsg(pushEvent, CommitState.SUCCESS, "Pipeline successful", 1L))
+                .thenThrow(HttpServerErrorException.create(HttpStatus.BAD_GATEWAY, "Bad Gateway", null, null, null))
+                .thenThrow(new ResourceAccessException("Read timed out"))
+                .thenReturn(ResponseEntity.ok().build());
+
+        publisher.publish(pushEvent, CommitState.SUCCESS, "Pipeline successful", 1L);
+        awaitAllSent();
+
+        verify(githubClient, times(3)).createStatusMsg(pushEvent, CommitState.SUCCESS, "Pipeline successful", 1L);
+    }
+
+    @Test
+    void statusIsDroppedAfterMaxAttempts() throws Exception {
+        PushEvent pushEvent = pushEvent("aabbccddee");
+        when(githubClient.createStatusMsg(any(), any(), any(), any()))
+                .thenThrow(HttpServerErrorException.create(HttpStatus.SERVICE_UNAVAILABLE, "Unavailable", null,
+                        null, null));
+
+        publisher.publish(pushEvent, CommitState.SUCCESS, "Pipeline successful", 1L);
+        awaitAllSent();
+
+        verify(githubClient, times(3)).createStatusMsg(pushEvent, CommitState.SUCCESS, "Pipeline successful", 1L);
+    }
+
+    @Test
+    void rejectedStatusIsNotRetried() throws Exception {
+        PushEvent pushEvent = pushEvent("aabbccddee");
+        when(githubClient.createStatusMsg(any(), any(), any(), any()))
+                .thenThrow(HttpClientErrorException.create(HttpStatus.NOT_FOUND, "Not Found", null, null, null));
+
+        publisher.publish(pushEvent, CommitState.SUCCESS, "Pipeline successful", 1L);
+        awaitAllSent();
+
+        verify(githubClient, times(1)).createStatusMsg(pushEvent, CommitState.SUCCESS, "Pipeline successful", 1L);
+    }
+
+    @Test
+    void sendingIsPausedUntilRateLimitResets() throws Exception {
+        PushEvent first = pushEvent("1111111111");
+        PushEvent second = pushEvent("2222222222");
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("X-RateLimit-Remaining", "0");
+        headers.set("X-RateLimit-Reset", String.valueOf(System.currentTimeMillis() / 1000 + 2));
+        List<Long> sendTimes = new CopyOnWriteArrayList<>();
+        when(githubClient.createStatusMsg(any(), any(), any(), any())).thenAnswer(invocation -> {
+            sendTimes.add(System.currentTimeMillis());
+            if (sendTimes.size() == 1) {
+                throw HttpClientErrorException.create(HttpStatus.FORBIDDEN, "Forbidden", headers, null, null);
+            }
+            return ResponseEntity.ok().build();
+        });
+
+        long start = System.currentTimeMillis();
+        publisher.publish(first, CommitState.PENDING, "Running CI pipeline...", null);
+        publisher.publish(second, CommitState.PENDING, "Running CI pipeline...", null);
+        awaitAllSent();
+
+        // The rate limit resets at the start of the next second at the earliest
+        assertThat(sendTimes).hasSize(3);
+        assertThat(sendTimes.get(1) - start).isGreaterThanOrEqualTo(1000 - start % 1000);
+        verify(githubClient, times(2)).createStatusMsg(first, CommitState.PENDING, "Running CI pipeline...", null);
+        verify(githubClient).createStatusMsg(second, CommitState.PENDING, "Running CI pipeline...", null);
+    }
+}
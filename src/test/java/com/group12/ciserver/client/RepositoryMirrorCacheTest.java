@@ -0,0 +1,117 @@
+package com.group12.ciserver.client;
+
+import com.group12.ciserver.model.github.Owner;
+import com.group12.ciserver.model.github.PushEvent;
+import com.group12.ciserver.model.github.Repository;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RepositoryMirrorCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void givenNewRepository_whenCheckout_thenMirrorCreatedAndCommitCheckedOut() throws Exception {
+        Git upstream = createUpstream("upstream");
+        RevCommit commit = commitFile(upstream, "Main.java", "class Main {}");
+        RepositoryMirrorCache cache = new RepositoryMirrorCache(tempDir.resolve("repos").toString(), 1024, 10);
+
+        File workspace = tempDir.resolve("workspace").toFile();
+        cache.checkout(pushEvent(upstream, "upstream", commit), workspace);
+
+        assertThat(Files.readString(workspace.toPath().resolve("Main.java"))).isEqualTo("class Main {}");
+        assertThat(tempDir.resolve("repos/mirrors/Owner/upstream.git")).isDirectory();
+        try (Git checkedOut = Git.open(workspace)) {
+            assertThat(checkedOut.getRepository().getFullBranch()).isEqualTo("refs/heads/master");
+            assertThat(checkedOut.getRepository().resolve("HEAD")).isEqualTo(commit.getId());
+        }
+    }
+
+    @Test
+    public void givenExistingWorkspace_whenCheckoutNewerCommit_thenOnlyNewCommitFetchedAndWorkspaceUpdated() throws Exception {
+        Git upstream = createUpstream("upstream");
+        RevCommit first = commitFile(upstream, "Main.java", "class Main {}");
+        RepositoryMirrorCache cache = new RepositoryMirrorCache(tempDir.resolve("repos").toString(), 1024, 10);
+        File workspace = tempDir.resolve("workspace").toFile();
+        cache.checkout(pushEvent(upstream, "upstream", first), workspace);
+
+        RevCommit second = commitFile(upstream, "Main.java", "class Main { int x; }");
+        cache.checkout(pushEvent(upstream, "upstream", second), workspace);
+        assertThat(Files.readString(workspace.toPath().resolve("Main.java"))).isEqualTo("class Main { int x; }");
+
+        File otherWorkspace = tempDir.resolve("other").toFile();
+        cache.checkout(pushEvent(upstream, "upstream", first), otherWorkspace);
+        assertThat(Files.readString(otherWorkspace.toPath().resolve("Main.java"))).isEqualTo("class Main {}");
+        assertThat(otherWorkspace.toPath().resolve(".git/objects/pack")).isEmptyDirectory();
+    }
+
+    @Test
+    public void givenMoreMirrorsThanAllowed_whenCheckout_thenLeastRecentlyUsedMirrorEvicted() throws Exception {
+        Git first = createUpstream("first");
+        RevCommit firstCommit = commitFile(first, "A.java", "class A {}");
+        Git second = createUpstream("second");
+        RevCommit secondCommit = commitFile(second, "B.java", "class B {}");
+        RepositoryMirrorCache cache = new RepositoryMirrorCache(tempDir.resolve("repos").toString(), 1024, 1);
+
+        cache.checkout(pushEvent(first, "first", firstCommit), tempDir.resolve("a").toFile());
+        cache.release(tempDir.resolve("a").toFile());
+        cache.checkout(pushEvent(second, "second", secondCommit), tempDir.resolve("b").toFile());
+
+        assertThat(tempDir.resolve("repos/mirrors/Owner/first.git")).doesNotExist();
+        assertThat(tempDir.resolve("repos/mirrors/Owner/second.git")).isDirectory();
+    }
+
+    @Test
+    public void givenWorkspaceUsingMirror_whenCacheFull_thenMirrorNotEvicted() throws Exception {
+        Git first = createUpstream("first");
+        RevCommit firstCommit = commitFile(first, "A.java", "class A {}");
+        Git second = createUpstream("second");
+        RevCommit secondCommit = commitFile(second, "B.java", "class B {}");
+        RepositoryMirrorCache cache = new RepositoryMirrorCache(tempDir.resolve("repos").toString(), 1024, 1);
+        File leased = tempDir.resolve("a").toFile();
+        cache.checkout(pushEvent(first, "first", firstCommit), leased);
+
+        cache.checkout(pushEvent(second, "second", secondCommit), tempDir.resolve("b").toFile());
+
+        assertThat(tempDir.resolve("repos/mirrors/Owner/first.git")).isDirectory();
+        try (Git checkedOut = Git.open(leased)) {
+            assertThat(checkedOut.getRepository().parseCommit(firstCommit.getId()).getTree()).isNotNull();
+        }
+    }
+
+    private Git createUpstream(String name) throws Exception {
+        return Git.init().setDirectory(tempDir.resolve(name).toFile()).setInitialBranch("master").call();
+    }
+
+    private static RevCommit commitFile(Git git, String fileName, String content) throws Exception {
+        Files.writeString(git.getRepository().getWorkTree().toPath().resolve(fileName), content);
+        git.add().addFilepattern(fileName).call();
+        return git.commit().setMessage("Update " + fileName).setAuthor("Test", "test@example.com")
+                .setCommitter("Test", "test@example.com").call();
+    }
+
+    private static PushEvent pushEvent(Git upstream, String name, RevCommit commit) {
+        Owner owner = new Owner();
+        owner.setName("Owner");
+
+        Repository repository = new Repository();
+        repository.setName(name);
+        repository.setCloneUrl(upstream.getRepository().getDirectory().toURI().toString());
+        repository.setOwner(owner);
+
+        PushEvent pushEvent = new PushEvent();
+        pushEvent.setRef("refs/heads/master");
+        pushEvent.setAfter(commit.getName());
+        pushEvent.setRepository(repository);
+        return pushEvent;
+    }
+}
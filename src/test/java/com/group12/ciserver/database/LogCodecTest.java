@@ -0,0 +1,50 @@
+package com.group12.ciserver.database;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LogCodecTest {
+
+    @Test
+    void compressedChunkIsDecodedToTheSameText() {
+        String text = "[INFO] Building ci-server 0.0.1-SNAPSHOT\nÅäö ✓ 𝄞\n";
+
+        byte[] data = LogCodec.compress(text);
+
+        assertThat(LogCodec.decode(LogCodec.DEFLATE_MAVEN_V1, null, data)).isEqualTo(text);
+    }
+
+    @Test
+    void emptyChunkIsDecodedToEmptyText() {
+        assertThat(LogCodec.decode(LogCodec.DEFLATE_MAVEN_V1, null, LogCodec.compress(""))).isEmpty();
+    }
+
+    @Test
+    void plainChunkIsReturnedAsIs() {
+        assertThat(LogCodec.decode(LogCodec.PLAIN, "text", null)).isEqualTo("text");
+    }
+
+    @Test
+    void mavenOutputIsCompressed() {
+        StringBuilder log = new StringBuilder("[INFO] Scanning for projects...\n");
+        for (int i = 0; i < 200; i++) {
+            log.append("Downloaded from central: https://repo.maven.apache.org/maven2/org/apache/maven/maven-core/3.")
+                    .append(i).append("/maven-core-3.").append(i).append(".pom (").append(i % 17)
+                    .append(" kB at ").append(i % 31).append(" kB/s)\n");
+        }
+        log.append("[INFO] BUILD SUCCESS\n");
+
+        byte[] data = LogCodec.compress(log.toString());
+
+        assertThat(data.length).isLessThan(log.length() / 5);
+        // The dictionary makes even a short chunk smaller than its text
+        assertThat(LogCodec.compress("[INFO] BUILD SUCCESS\n[INFO] Total time:  12.345 s\n").length).isLessThan(30);
+    }
+
+    @Test
+    void unknownCodecIsRejected() {
+        assertThatThrownBy(() -> LogCodec.decode(42, null, new byte[0])).isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,162 @@
+package com.group12.ciserver.database;
+
+import com.group12.ciserver.model.BuildInfo;
+import com.group12.ciserver.model.BuildSummary;
+import com.group12.ciserver.model.FlakyTest;
+import com.group12.ciserver.model.SlowTest;
+import com.group12.ciserver.model.TestResult;
+import com.group12.ciserver.model.TestStatus;
+import com.group12.ciserver.model.github.CommitState;
+import com.group12.ciserver.service.BuildLogWriter;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+/**
+ * Runs against a PostgreSQL database given by <code>CISERVER_TEST_POSTGRES_URL</code>, e.g.
+ * <code>jdbc:postgresql://localhost:5432/ciserver</code>, with the user in <code>CISERVER_TEST_POSTGRES_USER</code>
+ * and <code>CISERVER_TEST_POSTGRES_PASSWORD</code>. Skipped when the URL is not set.
+ */
+@EnabledIfEnvironmentVariable(named = "CISERVER_TEST_POSTGRES_URL", matches = ".+")
+class PostgresBuildStoreTest {
+
+    private static PostgresBuildStore firstNode;
+
+    private static PostgresBuildStore secondNode;
+
+    // Every run uses its own repository, so results of earlier runs in the same database do not interfere
+    private final String repository = "owner/" + UUID.randomUUID();
+
+    @BeforeAll
+    static void setUp() {
+        firstNode = createStore();
+        secondNode = createStore();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        firstNode.closeConnection();
+        secondNode.closeConnection();
+    }
+
+    private static PostgresBuildStore createStore() {
+        return new PostgresBuildStore(System.getenv("CISERVER_TEST_POSTGRES_URL"),
+                System.getenv("CISERVER_TEST_POSTGRES_USER"), System.getenv("CISERVER_TEST_POSTGRES_PASSWORD"), 4);
+    }
+
+    @Test
+    void buildWrittenByOneNodeIsReadByTheOther() {
+        long uid = firstNode.addBuild(new BuildInfo("commithash", repository, "main", OffsetDateTime.now()));
+
+        assertThat(secondNode.buildExists(uid)).isTrue();
+        BuildInfo build = secondNode.getBuildInfo(uid);
+        assertThat(build.getCommitId()).isEqualTo("commithash");
+        assertThat(build.getRepository()).isEqualTo(repository);
+        assertThat(build.getStatus()).isEqualTo(CommitState.PENDING);
+        assertThat(build.getTimestamp()).isNotNull();
+    }
+
+    @Test
+    void streamedLogIsReadInRanges() {
+        long uid = firstNode.addBuild(new BuildInfo("commithash", repository, "main", OffsetDateTime.now()));
+
+        try (BuildLogWriter writer = new BuildLogWriter(firstNode, uid, 4, null)) {
+            writer.append("first line\n");
+            writer.append("second line\n");
+        }
+
+        assertThat(secondNode.getBuildInfo(uid).getContent()).isEqualTo("first line\nsecond line\n");
+        assertThat(secondNode.getLogRange(uid, 6, 14)).isEqualTo("line\nsec");
+    }
+
+    @Test
+    void editAndRemoveBuild() {
+        long uid = firstNode.addBuild(new BuildInfo("commithash", repository, "main", OffsetDateTime.now()));
+        firstNode.appendLogChunk(uid, 0, 0, "streamed");
+
+        assertThat(firstNode.editBuildContent(uid, "new content")).isTrue();
+        assertThat(firstNode.getBuildInfo(uid).getContent()).isEqualTo("new content");
+        assertThat(firstNode.removeBuild(uid)).isTrue();
+        assertThat(firstNode.getBuildInfo(uid)).isNull();
+    }
+
+    @Test
+    void buildSummariesArePagedAndFiltered() {
+        long first = firstNode.addBuild(new BuildInfo("commit1", repository, "main", OffsetDateTime.now()));
+        long second = secondNode.addBuild(new BuildInfo("commit2", repository, "feature", OffsetDateTime.now()));
+        long third = firstNode.addBuild(new BuildInfo("commit3", repository, "main", OffsetDateTime.now()));
+        assertThat(secondNode.finishBuild(third, CommitState.SUCCESS, 1234)).isTrue();
+
+        List<BuildSummary> page = firstNode.getBuildSummaries(repository, null, null, null, 2);
+        assertThat(page).extracting(BuildSummary::getUid).containsExactly(third, second);
+        assertThat(page.get(0).getStatus()).isEqualTo(CommitState.SUCCESS);
+        assertThat(page.get(0).getDurationMillis()).isEqualTo(1234L);
+        assertThat(page.get(1).getDurationMillis()).isNull();
+
+        assertThat(firstNode.getBuildSummaries(repository, null, null, second, 2))
+                .extracting(BuildSummary::getUid).containsExactly(first);
+        assertThat(firstNode.getBuildSummaries(repository, "main", CommitState.PENDING, null, 10))
+                .extracting(BuildSummary::getUid).containsExactly(first);
+    }
+
+    @Test
+    void testResultsAreQueriedAcrossBuilds() {
+        long first = firstNode.addBuild(new BuildInfo("commit1", repository, "main", OffsetDateTime.now()));
+        long rerun = secondNode.addBuild(new BuildInfo("commit1", repository, "main", OffsetDateTime.now()));
+        assertThat(firstNode.addTestResults(first, List.of(testResult("slow", TestStatus.PASSED, 900),
+                testResult("random", TestStatus.FAILED, 10)))).isTrue();
+        assertThat(secondNode.addTestResults(rerun, List.of(testResult("slow", TestStatus.PASSED, 1100),
+                testResult("random", TestStatus.PASSED, 30)))).isTrue();
+
+        assertThat(secondNode.getTestResults(first, TestStatus.FAILED))
+                .extracting(TestResult::getName).containsExactly("random");
+        List<SlowTest> slowest = firstNode.getSlowestTests(repository, 50, 1);
+        assertThat(slowest).extracting(SlowTest::getName).containsExactly("slow");
+        assertThat(slowest.get(0).getAverageMillis()).isEqualTo(1000);
+        assertThat(firstNode.getFlakyTests(repository, 50, 10))
+                .extracting(FlakyTest::getName, FlakyTest::getFlippedCommits, FlakyTest::getLastFailedBuild)
+                .containsExactly(tuple("random", 1L, first));
+        assertThat(secondNode.getTestClassDurations(repository, 50))
+                .isEqualTo(Map.of("com.example.ExampleTest", 1020L));
+
+        assertThat(firstNode.removeBuild(first)).isTrue();
+        assertThat(firstNode.getTestResults(first, null)).isEmpty();
+    }
+
+    private static TestResult testResult(String name, TestStatus status, long durationMillis) {
+        return TestResult.builder().className("com.example.ExampleTest").name(name).status(status)
+                .durationMillis(durationMillis).build();
+    }
+
+    @Test
+    void concurrentNodesGetUniqueBuildIds() throws Exception {
+        Set<Long> uids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 100; i++) {
+            BuildStore node = i % 2 == 0 ? firstNode : secondNode;
+            executor.submit(() -> uids.add(node.addBuild(
+                    new BuildInfo("commit", repository, "concurrent", OffsetDateTime.now()))));
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(60, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(uids).hasSize(100).doesNotContain(-1L);
+        assertThat(firstNode.getBuildSummaries(repository, "concurrent", null, null, 200).stream()
+                .map(BuildSummary::getUid).collect(Collectors.toSet())).isEqualTo(uids);
+    }
+}
@@ -0,0 +1,152 @@
+package com.group12.ciserver.database;
+
+import com.group12.ciserver.model.WebhookDelivery;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WebhookInboxTest {
+
+    private static final String PAYLOAD = "{\"ref\":\"refs/heads/main\",\"after\":\"aabbccddee\","
+            + "\"repository\":{\"name\":\"Repository\",\"owner\":{\"name\":\"Owner\"}}}";
+
+    @TempDir
+    Path tempDir;
+
+    private WebhookInbox inbox;
+
+    @AfterEach
+    void close() {
+        if (inbox != null) {
+            inbox.close();
+        }
+    }
+
+    private WebhookInbox open() throws IOException {
+        return open(1000, 10000);
+    }
+
+    private WebhookInbox open(int maxPending, long compactAfterKb) throws IOException {
+        if (inbox != null) {
+            inbox.close();
+        }
+        inbox = new WebhookInbox(tempDir.resolve("inbox.journal").toString(), maxPending, 100, 100,
+                compactAfterKb);
+        return inbox;
+    }
+
+    @Test
+    void redeliveredEventIsDuplicate() throws Exception {
+        open();
+
+        assertThat(inbox.append("delivery-1", PAYLOAD)).isEqualTo(WebhookInbox.AppendResult.ACCEPTED);
+        assertThat(inbox.append("delivery-1", PAYLOAD)).isEqualTo(WebhookInbox.AppendResult.DUPLICATE);
+        assertThat(inbox.append(null, PAYLOAD)).isEqualTo(WebhookInbox.AppendResult.ACCEPTED);
+
+        assertThat(inbox.pendingCount()).isEqualTo(2);
+        WebhookDelivery first = inbox.take();
+        assertThat(first.getDeliveryId()).isEqualTo("delivery-1");
+        assertThat(first.getPayload()).isEqualTo(PAYLOAD);
+        assertThat(inbox.take().getSequence()).isGreaterThan(first.getSequence());
+    }
+
+    @Test
+    void unprocessedEventsAreReplayedAfterRestart() throws Exception {
+        open();
+        inbox.append("delivery-1", PAYLOAD);
+        inbox.append("delivery-2", PAYLOAD.replace("main", "feature"));
+        inbox.append("delivery-3", PAYLOAD);
+        inbox.markProcessed(inbox.take().getSequence());
+        long second = inbox.take().getSequence();
+
+        open();
+
+        assertThat(inbox.pendingCount()).isEqualTo(2);
+        WebhookDelivery replayed = inbox.take();
+        assertThat(replayed.getDeliveryId()).isEqualTo("delivery-2");
+        assertThat(replayed.getSequence()).isEqualTo(second);
+        assertThat(replayed.getPayload()).contains("refs/heads/feature");
+        assertThat(inbox.take().getDeliveryId()).isEqualTo("delivery-3");
+        // Processed events are still deduplicated, and sequences are not reused
+        assertThat(inbox.append("delivery-1", PAYLOAD)).isEqualTo(WebhookInbox.AppendResult.DUPLICATE);
+        assertThat(inbox.append("delivery-4", PAYLOAD)).isEqualTo(WebhookInbox.AppendResult.ACCEPTED);
+        assertThat(inbox.take().getSequence()).isGreaterThan(replayed.getSequence() + 1);
+    }
+
+    @Test
+    void recordCutOffByCrashIsDropped() throws Exception {
+        open();
+        inbox.append("delivery-1", PAYLOAD);
+        inbox.append("delivery-2", PAYLOAD);
+        inbox.close();
+        inbox = null;
+        Path journal = tempDir.resolve("inbox.journal");
+        long size = Files.size(journal);
+        try (var channel = Files.newByteChannel(journal, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 10);
+        }
+
+        open();
+
+        assertThat(inbox.pendingCount()).isEqualTo(1);
+        assertThat(inbox.take().getDeliveryId()).isEqualTo("delivery-1");
+        assertThat(inbox.append("delivery-2", PAYLOAD)).isEqualTo(WebhookInbox.AppendResult.ACCEPTED);
+    }
+
+    @Test
+    void journalIsCompactedWhenItGrows() throws Exception {
+        open(1000, 16);
+        for (int i = 0; i < 200; i++) {
+            inbox.append("delivery-" + i, PAYLOAD);
+            inbox.markProcessed(inbox.take().getSequence());
+        }
+        inbox.append("pending", PAYLOAD);
+
+        assertThat(Files.size(tempDir.resolve("inbox.journal"))).isLessThan(16 * 1024 + 1024);
+        open();
+        assertThat(inbox.pendingCount()).isEqualTo(1);
+        assertThat(inbox.take().getDeliveryId()).isEqualTo("pending");
+        assertThat(inbox.append("delivery-199", PAYLOAD)).isEqualTo(WebhookInbox.AppendResult.DUPLICATE);
+    }
+
+    @Test
+    void eventIsRejectedWhenInboxIsFull() throws Exception {
+        open(2, 10000);
+
+        inbox.append("delivery-1", PAYLOAD);
+        inbox.append("delivery-2", PAYLOAD);
+
+        assertThat(inbox.append("delivery-3", PAYLOAD)).isEqualTo(WebhookInbox.AppendResult.FULL);
+        inbox.markProcessed(inbox.take().getSequence());
+        assertThat(inbox.append("delivery-3", PAYLOAD)).isEqualTo(WebhookInbox.AppendResult.ACCEPTED);
+    }
+
+    /**
+     * Measures how long storing an event takes, which is what the webhook waits for.
+     */
+    @Test
+    void appendLatencyBenchmark() throws Exception {
+        open(100000, 1024 * 1024);
+        String payload = PAYLOAD + " ".repeat(7000);
+        for (int i = 0; i < 1000; i++) {
+            inbox.append("warmup-" + i, payload);
+        }
+
+        int events = 10000;
+        long start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            inbox.append("delivery-" + i, payload);
+        }
+        double micros = (System.nanoTime() - start) / 1e3 / events;
+
+        System.out.printf("Webhook inbox append: %.1f us per 7 KB event%n", micros);
+        assertThat(micros).isLessThan(1000);
+    }
+}
@@ -0,0 +1,71 @@
+package com.group12.ciserver.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MetricsRegistryTest {
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    @Test
+    public void histogramIsWrittenWithCumulativeBuckets() {
+        double[] buckets = {0.1, 1};
+        Histogram histogram = metrics.histogram("ciserver_stage_seconds", "Time a stage took.", buckets,
+                "repository", "owner/name", "stage", "test");
+        histogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(50));
+        histogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(100));
+        metrics.histogram("ciserver_stage_seconds", "Time a stage took.", buckets,
+                "repository", "owner/name", "stage", "test").recordNanos(TimeUnit.SECONDS.toNanos(3));
+
+        assertThat(metrics.scrape()).isEqualTo("""
+                # HELP ciserver_stage_seconds Time a stage took.
+                # TYPE ciserver_stage_seconds histogram
+                ciserver_stage_seconds_bucket{repository="owner/name",stage="test",le="0.1"} 2
+                ciserver_stage_seconds_bucket{repository="owner/name",stage="test",le="1"} 2
+                ciserver_stage_seconds_bucket{repository="owner/name",stage="test",le="+Inf"} 3
+                ciserver_stage_seconds_sum{repository="owner/name",stage="test"} 3.15
+                ciserver_stage_seconds_count{repository="owner/name",stage="test"} 3
+                """);
+    }
+
+    @Test
+    public void countersAndGaugesAreWrittenInOrderOfName() {
+        metrics.gauge("ciserver_queue_depth", "Builds waiting.", () -> 4);
+        metrics.counter("ciserver_builds_rejected", "Builds rejected.", "repository", "a\"b\\c").add(2);
+
+        assertThat(metrics.scrape()).isEqualTo("""
+                # HELP ciserver_builds_rejected Builds rejected.
+                # TYPE ciserver_builds_rejected counter
+                ciserver_builds_rejected_total{repository="a\\"b\\\\c"} 2
+                # HELP ciserver_queue_depth Builds waiting.
+                # TYPE ciserver_queue_depth gauge
+                ciserver_queue_depth 4
+                """);
+    }
+
+    @Test
+    public void labelValuesBeyondTheLimitAreRecordedAsOther() {
+        for (int i = 0; i < MetricsRegistry.MAX_SERIES + 5; i++) {
+            metrics.counter("ciserver_builds", "Builds.", "repository", "owner/repository-" + i).increment();
+        }
+
+        assertThat(metrics.scrape())
+                .contains("ciserver_builds_total{repository=\"owner/repository-0\"} 1\n")
+                .contains("ciserver_builds_total{repository=\"other\"} 5\n")
+                .doesNotContain("repository-1000\"");
+    }
+
+    @Test
+    public void metricIsUsedWithTheSameLabels() {
+        metrics.counter("ciserver_builds", "Builds.", "repository", "owner/name");
+
+        assertThatThrownBy(() -> metrics.counter("ciserver_builds", "Builds.", "status", "SUCCESS"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> metrics.counter("ciserver_builds", "Builds.", "repository"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,162 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.ci.PipelineTimedOutException;
+import com.group12.ciserver.model.ci.ResourceUsage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * The cgroup v2 hierarchy is faked with a plain directory, so these tests cover what the server writes and reads but
+ * not what the kernel does with it.
+ */
+public class BuildIsolationTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void buildCgroupIsCreatedWithLimits() throws IOException {
+        BuildIsolation isolation = new BuildIsolation(tempDir, 1.5, 2L * 1024 * 1024 * 1024, Duration.ZERO);
+        RunningPipeline pipeline = new RunningPipeline("Owner/Repository:refs/heads/main", "Owner/Repository", "aa");
+
+        BuildCgroup cgroup = isolation.isolate(42, pipeline);
+
+        assertThat(pipeline.getCgroup()).isSameAs(cgroup);
+        assertThat(cgroup.getDirectory()).isEqualTo(tempDir.resolve("build-42"));
+        assertThat(tempDir.resolve("build-42/cpu.max")).hasContent("150000 100000");
+        assertThat(tempDir.resolve("build-42/memory.max")).hasContent("2147483648");
+        isolation.shutdown();
+    }
+
+    @Test
+    public void wrappedCommandJoinsTheCgroupBeforeItRuns() throws Exception {
+        BuildCgroup cgroup = new BuildCgroup(tempDir);
+
+        Process process = new ProcessBuilder(cgroup.wrap(List.of("sh", "-c", "exit 3"))).start();
+
+        assertThat(process.waitFor(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(process.exitValue()).isEqualTo(3);
+        assertThat(Files.readString(tempDir.resolve("cgroup.procs")).trim()).isEqualTo(Long.toString(process.pid()));
+    }
+
+    @Test
+    public void usageIsReadFromTheCgroup() throws IOException {
+        Files.writeString(tempDir.resolve("memory.peak"), "104857600\n");
+        Files.writeString(tempDir.resolve("cpu.stat"), "usage_usec 2500000\nuser_usec 2000000\nsystem_usec 500000\n");
+
+        ResourceUsage usage = new BuildCgroup(tempDir).usage();
+
+        assertThat(usage.getPeakMemoryBytes()).isEqualTo(104857600L);
+        assertThat(usage.getCpuTimeMillis()).isEqualTo(2500L);
+        assertThat(usage.describe()).isEqualTo("Resources: peak memory 100 MB, CPU time 2.5 s");
+    }
+
+    @Test
+    public void timedOutBuildIsKilled() throws Exception {
+        BuildIsolation isolation = new BuildIsolation(null, 0, 0, Duration.ofMillis(100));
+        RunningPipeline pipeline = new RunningPipeline("Owner/Repository:refs/heads/main", "Owner/Repository", "aa");
+        BuildCgroup cgroup = isolation.isolate(1, pipeline);
+        Process process = new ProcessBuilder(cgroup.wrap(List.of("sleep", "30"))).start();
+        pipeline.attach(process);
+
+        assertThat(process.waitFor(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(pipeline.isTimedOut()).isTrue();
+        assertThatThrownBy(pipeline::throwIfStopped).isInstanceOf(PipelineTimedOutException.class);
+        assertThat(isolation.release(cgroup).describe()).isNull();
+        isolation.shutdown();
+    }
+
+    @Test
+    public void releasedBuildDoesNotTimeOut() throws Exception {
+        BuildIsolation isolation = new BuildIsolation(null, 0, 0, Duration.ofMillis(100));
+        RunningPipeline pipeline = new RunningPipeline("Owner/Repository:refs/heads/main", "Owner/Repository", "aa");
+
+        isolation.release(isolation.isolate(1, pipeline));
+        Thread.sleep(300);
+
+        assertThat(pipeline.isTimedOut()).isFalse();
+        isolation.shutdown();
+    }
+
+    @Test
+    public void daemonSurvivesTheRemovalOfTheBuildCgroup() throws Exception {
+        Process daemon = new ProcessBuilder("sleep", "30").start();
+        Process build = new ProcessBuilder("sleep", "30").start();
+        try {
+            BuildIsolation isolation = new BuildIsolation(tempDir, 0, 0, Duration.ZERO,
+                    process -> process.pid() == daemon.pid());
+            BuildCgroup cgroup = isolation.isolate(7, new RunningPipeline("key", "Owner/Repository", "aa"));
+            Files.writeString(tempDir.resolve("build-7/cgroup.procs"), daemon.pid() + "\n" + build.pid() + "\n");
+
+            isolation.release(cgroup);
+
+            assertThat(build.waitFor(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(daemon.isAlive()).isTrue();
+            assertThat(tempDir.resolve("daemons/cgroup.procs")).hasContent(Long.toString(daemon.pid()));
+            isolation.shutdown();
+        } finally {
+            daemon.destroyForcibly();
+            build.destroyForcibly();
+        }
+    }
+
+    @Test
+    public void supersededBuildSparesDaemonsItStarted() throws Exception {
+        BuildIsolation isolation = new BuildIsolation(null, 0, 0, Duration.ZERO,
+                process -> process.info().arguments().map(arguments -> List.of(arguments).contains("31"))
+                        .orElse(false));
+        RunningPipeline pipeline = new RunningPipeline("key", "Owner/Repository", "aa");
+        isolation.isolate(1, pipeline);
+        Process client = new ProcessBuilder("sh", "-c", "sleep 31 & sleep 30; true").start();
+        pipeline.attach(client);
+        ProcessHandle daemon = null;
+        for (int attempt = 0; attempt < 100 && daemon == null; attempt++) {
+            daemon = client.descendants().filter(pipeline.getCgroup()::isDaemon).findFirst().orElse(null);
+            Thread.sleep(20);
+        }
+        try {
+            assertThat(daemon).isNotNull();
+
+            pipeline.supersede("bb");
+
+            assertThat(client.waitFor(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(daemon.isAlive()).isTrue();
+        } finally {
+            if (daemon != null) {
+                daemon.destroyForcibly();
+            }
+            isolation.shutdown();
+        }
+    }
+
+    @Test
+    public void controllersAreEnabledForTheBuildCgroups() throws IOException {
+        Files.writeString(tempDir.resolve("cgroup.controllers"), "cpuset cpu io memory hugetlb pids\n");
+
+        assertThat(BuildIsolation.prepare(tempDir)).isEqualTo(tempDir);
+        assertThat(tempDir.resolve("cgroup.subtree_control")).hasContent("+cpu +memory +pids");
+    }
+
+    @Test
+    public void withoutCgroupV2BuildsRunWithoutCgroup() {
+        assertThat(BuildIsolation.prepare(tempDir)).isNull();
+        assertThat(BuildIsolation.prepare(null)).isNull();
+
+        BuildIsolation isolation = new BuildIsolation(null, 1, 1024, Duration.ZERO);
+        BuildCgroup cgroup = isolation.isolate(1, new RunningPipeline("key", "Owner/Repository", "aa"));
+
+        assertThat(cgroup.getDirectory()).isNull();
+        assertThat(cgroup.wrap(List.of("mvn", "test"))).containsExactly("mvn", "test");
+        isolation.shutdown();
+    }
+}
@@ -0,0 +1,199 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.ci.PipelineDefinition;
+import com.group12.ciserver.model.ci.StageDefinition;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BuildOutputCacheTest {
+
+    private static final String REPOSITORY = "Owner/Repository";
+
+    private static final String INPUT_FILES = "target/maven-status/maven-compiler-plugin/compile/default-compile/"
+            + "inputFiles.lst";
+
+    @TempDir
+    Path tempDir;
+
+    private Path checkout;
+
+    private Git git;
+
+    private BuildOutputCache cache;
+
+    @BeforeEach
+    public void init() throws Exception {
+        checkout = tempDir.resolve("checkout");
+        git = Git.init().setDirectory(checkout.toFile()).call();
+        cache = new BuildOutputCache(true, tempDir.resolve("cache").toString(), 5120);
+
+        write(checkout, "pom.xml", "<project><modules><module>core</module><module>app</module></modules></project>");
+        write(checkout, "core/pom.xml", "<project/>");
+        write(checkout, "core/src/main/java/Core.java", "public class Core {}");
+        write(checkout, "app/pom.xml", "<project/>");
+        write(checkout, "app/src/main/java/App.java", "public class App {}");
+        write(checkout, ".gitignore", "target/");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        git.close();
+    }
+
+    private static void write(Path directory, String path, String content) throws IOException {
+        Path file = directory.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    private String commit() throws Exception {
+        git.add().addFilepattern(".").call();
+        return git.commit().setMessage("change").setAllowEmpty(true).call().getName();
+    }
+
+    /**
+     * Writes what maven leaves in the target directory of a module after compiling it.
+     */
+    private static void compile(Path workspace, String module) throws IOException {
+        write(workspace, module + "/target/classes/" + module + ".class", module + " bytecode");
+        write(workspace, module + "/target/surefire-reports/TEST-" + module + ".xml", "<testsuite/>");
+        write(workspace, module + "/" + INPUT_FILES,
+                workspace.toAbsolutePath() + "/" + module + "/src/main/java/" + module + ".java\n");
+    }
+
+    private static void clean(Path workspace) throws IOException {
+        for (String module : List.of("core", "app")) {
+            FileUtils.delete(workspace.resolve(module + "/target").toFile(), FileUtils.RECURSIVE);
+        }
+    }
+
+    @Test
+    public void sameTreeAndPipelineHaveTheSameInputKey() throws Exception {
+        String first = commit();
+        write(checkout, "core/src/main/java/Core.java", "public class Core { int changed; }");
+        String changed = commit();
+        write(checkout, "core/src/main/java/Core.java", "public class Core {}");
+        String reverted = commit();
+        PipelineDefinition otherPipeline = new PipelineDefinition(List.of(
+                StageDefinition.builder().name("verify").maven("verify").failureMessage("Failed").build()));
+
+        String key = cache.inputKey(checkout.toFile(), first, PipelineDefinition.defaultPipeline());
+
+        assertThat(key).startsWith(git.getRepository().parseCommit(
+                ObjectId.fromString(first)).getTree().name());
+        assertThat(cache.inputKey(checkout.toFile(), reverted, PipelineDefinition.defaultPipeline())).isEqualTo(key);
+        assertThat(cache.inputKey(checkout.toFile(), changed, PipelineDefinition.defaultPipeline())).isNotEqualTo(key);
+        assertThat(cache.inputKey(checkout.toFile(), first, otherPipeline)).isNotEqualTo(key);
+    }
+
+    @Test
+    public void classesOfUnchangedModulesAreRestored() throws Exception {
+        String first = commit();
+        compile(checkout, "core");
+        compile(checkout, "app");
+        cache.storeOutputs(REPOSITORY, checkout.toFile(), first);
+        clean(checkout);
+        write(checkout, "app/src/main/java/App.java", "public class App { int changed; }");
+        String second = commit();
+
+        String restored = cache.restoreOutputs(REPOSITORY, checkout.toFile(), second);
+
+        assertThat(restored).isEqualTo("Build output cache: restored the classes of 1 of 3 modules");
+        assertThat(checkout.resolve("core/target/classes/core.class")).hasContent("core bytecode");
+        assertThat(checkout.resolve("core/target/surefire-reports")).doesNotExist();
+        assertThat(checkout.resolve("app/target")).doesNotExist();
+    }
+
+    @Test
+    public void workspacePathsAreReplacedInCompilerFileLists() throws Exception {
+        String commit = commit();
+        compile(checkout, "core");
+        cache.storeOutputs(REPOSITORY, checkout.toFile(), commit);
+        Path otherWorkspace = tempDir.resolve("other");
+        Git.cloneRepository().setURI(checkout.toUri().toString()).setDirectory(otherWorkspace.toFile()).call().close();
+
+        cache.restoreOutputs(REPOSITORY, otherWorkspace.toFile(), commit);
+
+        assertThat(otherWorkspace.resolve("core/" + INPUT_FILES))
+                .hasContent(otherWorkspace.toAbsolutePath() + "/core/src/main/java/core.java\n");
+    }
+
+    @Test
+    public void workspacesWithClassesAreLeftAlone() throws Exception {
+        String commit = commit();
+        compile(checkout, "core");
+        cache.storeOutputs(REPOSITORY, checkout.toFile(), commit);
+        write(checkout, "core/target/classes/core.class", "incrementally compiled");
+
+        assertThat(cache.restoreOutputs(REPOSITORY, checkout.toFile(), commit)).isNull();
+        assertThat(checkout.resolve("core/target/classes/core.class")).hasContent("incrementally compiled");
+    }
+
+    @Test
+    public void partlyRestoredOutputsAreDeleted() throws Exception {
+        String commit = commit();
+        compile(checkout, "core");
+        compile(checkout, "app");
+        write(checkout, "core/target/test-classes/CoreTest.class", "test bytecode");
+        cache.storeOutputs(REPOSITORY, checkout.toFile(), commit);
+        clean(checkout);
+        // Copying the test classes fails after the classes were copied
+        write(checkout, "core/target/test-classes/CoreTest.class", "left behind");
+
+        String restored = cache.restoreOutputs(REPOSITORY, checkout.toFile(), commit);
+
+        assertThat(restored).isEqualTo("Build output cache: restored the classes of 1 of 3 modules");
+        assertThat(checkout.resolve("app/target/classes/app.class")).hasContent("app bytecode");
+        assertThat(checkout.resolve("core/target")).doesNotExist();
+    }
+
+    @Test
+    public void repositoriesWithSimilarNamesDoNotShareOutputs() throws Exception {
+        String commit = commit();
+        compile(checkout, "core");
+        compile(checkout, "app");
+        cache.storeOutputs("a-b/c", checkout.toFile(), commit);
+        clean(checkout);
+
+        assertThat(cache.restoreOutputs("a/b-c", checkout.toFile(), commit)).isNull();
+        assertThat(checkout.resolve("core/target")).doesNotExist();
+    }
+
+    @Test
+    public void leastRecentlyUsedOutputsAreEvicted() throws Exception {
+        cache = new BuildOutputCache(true, tempDir.resolve("cache").toString(), 0);
+        String commit = commit();
+        compile(checkout, "core");
+
+        cache.storeOutputs(REPOSITORY, checkout.toFile(), commit);
+
+        try (var entries = Files.list(tempDir.resolve("cache/outputs/" + DirectoryNames.of(REPOSITORY)))) {
+            assertThat(entries).isEmpty();
+        }
+    }
+
+    @Test
+    public void disabledCacheDoesNothing() throws Exception {
+        cache = new BuildOutputCache(false, tempDir.resolve("disabled").toString(), 5120);
+        String commit = commit();
+        compile(checkout, "core");
+
+        cache.storeOutputs(REPOSITORY, checkout.toFile(), commit);
+
+        assertThat(cache.inputKey(checkout.toFile(), commit, PipelineDefinition.defaultPipeline())).isNull();
+        assertThat(cache.restoreOutputs(REPOSITORY, checkout.toFile(), commit)).isNull();
+        assertThat(tempDir.resolve("disabled")).doesNotExist();
+    }
+}
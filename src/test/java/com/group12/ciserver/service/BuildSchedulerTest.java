@@ -0,0 +1,275 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.github.Owner;
+import com.group12.ciserver.model.github.PushEvent;
+import com.group12.ciserver.model.github.Repository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class BuildSchedulerTest {
+
+    @Mock
+    private CIService ciService;
+
+    private BuildScheduler buildScheduler;
+
+    private final PipelineRegistry pipelineRegistry = new PipelineRegistry();
+
+    private final CountDownLatch firstBuildStarted = new CountDownLatch(1);
+
+    private final CountDownLatch releaseFirstBuild = new CountDownLatch(1);
+
+    private PushEvent blockingPush;
+
+    @BeforeEach
+    public void init() throws Exception {
+        buildScheduler = new BuildScheduler(ciService, pipelineRegistry, 1, 2);
+        blockingPush = pushEvent("refs/heads/blocking");
+        doAnswer(invocation -> {
+            firstBuildStarted.countDown();
+            releaseFirstBuild.await();
+            return null;
+        }).when(ciService).startCIPipeline(blockingPush);
+
+        assertThat(buildScheduler.submit(blockingPush)).isTrue();
+        assertThat(firstBuildStarted.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        releaseFirstBuild.countDown();
+        buildScheduler.shutdown();
+    }
+
+    /**
+     * Given:
+     * <p>
+     * One worker that is busy and a queue with capacity two.
+     * <p>
+     * Then:
+     * <p>
+     * - Two push events are queued, the third one is rejected.
+     */
+    @Test
+    public void givenFullQueue_whenSubmit_thenRejected() {
+        assertThat(buildScheduler.submit(pushEvent("refs/heads/a"))).isTrue();
+        assertThat(buildScheduler.submit(pushEvent("refs/heads/b"))).isTrue();
+        assertThat(buildScheduler.submit(pushEvent("refs/heads/c"))).isFalse();
+
+        assertThat(buildScheduler.getStats().getQueueDepth()).isEqualTo(2);
+        assertThat(buildScheduler.getStats().getActiveBuilds()).isEqualTo(1);
+        assertThat(buildScheduler.getStats().getRejectedBuilds()).isEqualTo(1);
+    }
+
+    /**
+     * Given:
+     * <p>
+     * A push to a feature branch is queued before a push to the default branch.
+     * <p>
+     * Then:
+     * <p>
+     * - The default branch build is started first.
+     */
+    @Test
+    public void givenDefaultBranchPushQueuedLast_whenWorkerFree_thenDefaultBranchBuiltFirst() {
+        PushEvent featurePush = pushEvent("refs/heads/feature");
+        PushEvent mainPush = pushEvent("refs/heads/main");
+        buildScheduler.submit(featurePush);
+        buildScheduler.submit(mainPush);
+
+        releaseFirstBuild.countDown();
+
+        verify(ciService, timeout(5000)).startCIPipeline(featurePush);
+        InOrder inOrder = inOrder(ciService);
+        inOrder.verify(ciService).startCIPipeline(blockingPush);
+        inOrder.verify(ciService).startCIPipeline(mainPush);
+        inOrder.verify(ciService).startCIPipeline(featurePush);
+    }
+
+    /**
+     * Given:
+     * <p>
+     * A push to a ref that already has a build of an older commit waiting in the queue.
+     * <p>
+     * Then:
+     * <p>
+     * - The queued build of the older commit is dropped and only the newer commit is built.
+     */
+    @Test
+    public void givenQueuedBuildOnSameRef_whenSubmitNewerCommit_thenOlderBuildDropped() {
+        PushEvent olderPush = pushEvent("refs/heads/feature");
+        PushEvent newerPush = pushEvent("refs/heads/feature");
+        newerPush.setAfter("ffeeddccbb");
+        buildScheduler.submit(olderPush);
+        buildScheduler.submit(newerPush);
+
+        assertThat(buildScheduler.getStats().getQueueDepth()).isEqualTo(1);
+
+        releaseFirstBuild.countDown();
+
+        verify(ciService, timeout(5000)).startCIPipeline(newerPush);
+        verify(ciService, never()).startCIPipeline(olderPush);
+    }
+
+    /**
+     * Given:
+     * <p>
+     * A queued build that is replaced by a newer push to the same ref.
+     * <p>
+     * Then:
+     * <p>
+     * - The dropped build is finished right away, the newer one when it has been built.
+     */
+    @Test
+    public void givenDroppedBuild_whenSubmitNewerCommit_thenBothBuildsFinished() throws Exception {
+        PushEvent olderPush = pushEvent("refs/heads/feature");
+        PushEvent newerPush = pushEvent("refs/heads/feature");
+        newerPush.setAfter("ffeeddccbb");
+        CountDownLatch olderFinished = new CountDownLatch(1);
+        CountDownLatch newerFinished = new CountDownLatch(1);
+        buildScheduler.submit(olderPush, olderFinished::countDown);
+        buildScheduler.submit(newerPush, newerFinished::countDown);
+
+        assertThat(olderFinished.getCount()).isZero();
+        assertThat(newerFinished.getCount()).isOne();
+
+        releaseFirstBuild.countDown();
+
+        verify(ciService, timeout(5000)).startCIPipeline(newerPush);
+        assertThat(newerFinished.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    /**
+     * Given:
+     * <p>
+     * A full queue and a pipeline running on a ref.
+     * <p>
+     * Then:
+     * <p>
+     * - A newer push to that ref is rejected and does not stop the running pipeline, since nothing would build the
+     * ref then.
+     */
+    @Test
+    public void givenFullQueue_whenNewerPushToRunningRefRejected_thenRunningPipelineNotSuperseded() {
+        RunningPipeline running = pipelineRegistry.register(blockingPush);
+        assertThat(buildScheduler.submit(pushEvent("refs/heads/a"))).isTrue();
+        assertThat(buildScheduler.submit(pushEvent("refs/heads/b"))).isTrue();
+        PushEvent newerPush = pushEvent("refs/heads/blocking");
+        newerPush.setAfter("ffeeddccbb");
+
+        assertThat(buildScheduler.submit(newerPush)).isFalse();
+        assertThat(buildScheduler.submit(newerPush)).isFalse();
+
+        assertThat(running.isSuperseded()).isFalse();
+        assertThat(running.isStopped()).isFalse();
+    }
+
+    /**
+     * Given:
+     * <p>
+     * A pipeline running on a ref for a push that replaced an older commit.
+     * <p>
+     * Then:
+     * <p>
+     * - A late redelivery of the push of the older commit is ignored and does not stop the running pipeline.
+     */
+    @Test
+    public void givenRunningPipeline_whenOlderPushRedelivered_thenIgnored() {
+        PushEvent olderPush = pushEvent("refs/heads/feature");
+        olderPush.setBefore("0011223344");
+        olderPush.setAfter("5566778899");
+        PushEvent newerPush = pushEvent("refs/heads/feature");
+        newerPush.setBefore("5566778899");
+        newerPush.setAfter("ffeeddccbb");
+        buildScheduler.submit(newerPush);
+        RunningPipeline running = pipelineRegistry.register(newerPush);
+        CountDownLatch olderFinished = new CountDownLatch(1);
+
+        assertThat(buildScheduler.submit(olderPush, olderFinished::countDown)).isTrue();
+
+        assertThat(olderFinished.getCount()).isZero();
+        assertThat(buildScheduler.getStats().getQueueDepth()).isOne();
+        assertThat(running.isSuperseded()).isFalse();
+        releaseFirstBuild.countDown();
+        verify(ciService, timeout(5000)).startCIPipeline(newerPush);
+        verify(ciService, never()).startCIPipeline(olderPush);
+    }
+
+    /**
+     * Given:
+     * <p>
+     * A pipeline running on a ref.
+     * <p>
+     * Then:
+     * <p>
+     * - A redelivery of the push it is building is ignored.
+     */
+    @Test
+    public void givenRunningPipeline_whenSamePushRedelivered_thenIgnored() {
+        RunningPipeline running = pipelineRegistry.register(blockingPush);
+
+        assertThat(buildScheduler.submit(blockingPush)).isTrue();
+
+        assertThat(buildScheduler.getStats().getQueueDepth()).isZero();
+        assertThat(running.isSuperseded()).isFalse();
+    }
+
+    /**
+     * Given:
+     * <p>
+     * A ref that was pushed from commit A to commit B.
+     * <p>
+     * Then:
+     * <p>
+     * - A force push from B back to A is built and supersedes the pipeline of B.
+     */
+    @Test
+    public void givenReplacedCommit_whenForcePushedBackFromHead_thenBuilt() {
+        PushEvent olderPush = pushEvent("refs/heads/feature");
+        olderPush.setAfter("5566778899");
+        PushEvent newerPush = pushEvent("refs/heads/feature");
+        newerPush.setBefore("5566778899");
+        newerPush.setAfter("ffeeddccbb");
+        PushEvent forcePush = pushEvent("refs/heads/feature");
+        forcePush.setBefore("ffeeddccbb");
+        forcePush.setAfter("5566778899");
+        buildScheduler.submit(olderPush);
+        buildScheduler.submit(newerPush);
+        RunningPipeline running = pipelineRegistry.register(newerPush);
+
+        buildScheduler.submit(forcePush);
+
+        assertThat(running.isSuperseded()).isTrue();
+        releaseFirstBuild.countDown();
+        verify(ciService, timeout(5000)).startCIPipeline(forcePush);
+    }
+
+    private static PushEvent pushEvent(String ref) {
+        Owner owner = new Owner();
+        owner.setName("Owner");
+
+        Repository repository = new Repository();
+        repository.setName("Repository");
+        repository.setCloneUrl("http://clone.url.repo/branch");
+        repository.setDefaultBranch("main");
+        repository.setOwner(owner);
+
+        PushEvent pushEvent = new PushEvent();
+        pushEvent.setRef(ref);
+        pushEvent.setAfter("aabbccddee");
+        pushEvent.setRepository(repository);
+        return pushEvent;
+    }
+}
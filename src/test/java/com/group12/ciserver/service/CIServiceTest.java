@@ -1,9 +1,15 @@
 package com.group12.ciserver.service;
 
+import com.group12.ciserver.client.CommitStatusPublisher;
 import com.group12.ciserver.client.GithubClient;
-import com.group12.ciserver.database.DatabaseWrapper;
+import com.group12.ciserver.database.BuildStore;
+import com.group12.ciserver.metrics.MetricsRegistry;
 import com.group12.ciserver.model.BuildInfo;
+import com.group12.ciserver.model.TestResult;
+import com.group12.ciserver.model.TestStatus;
 import com.group12.ciserver.model.ci.CIJobResult;
+import com.group12.ciserver.model.ci.PipelineSupersededException;
+import com.group12.ciserver.model.ci.PipelineTimedOutException;
 import com.group12.ciserver.model.ci.UnexpectedCIJobErrorException;
 import com.group12.ciserver.model.github.CommitState;
 import com.group12.ciserver.model.github.Owner;
@@ -15,11 +21,14 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.http.ResponseEntity;
 
 import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -32,7 +41,26 @@ public class CIServiceTest {
     private GithubClient githubClient;
 
     @Mock
-    private DatabaseWrapper databaseWrapper;
+    private CommitStatusPublisher commitStatusPublisher;
+
+    @Mock
+    private BuildStore buildStore;
+
+    @Mock
+    private WorkspaceManager workspaceManager;
+
+    private DependencyCache dependencyCache;
+
+    private TestImpactAnalyzer testImpactAnalyzer;
+
+    private BuildOutputCache buildOutputCache;
+
+    private BuildIsolation buildIsolation;
+
+    private MetricsRegistry metrics;
+
+    @Mock
+    private SurefireReportParser surefireReportParser;
 
     private CIService ciService;
 
@@ -40,9 +68,19 @@ public class CIServiceTest {
 
     private File workingDir;
 
+    private Workspace workspace;
+
     @BeforeEach
-    public void init() {
-        this.ciService = new CIService(ciJobExecutor, githubClient, databaseWrapper);
+    public void init() throws Exception {
+        this.dependencyCache = new DependencyCache(false, "m2-cache", "");
+        this.testImpactAnalyzer = new TestImpactAnalyzer(false, "test-impact", 10);
+        this.buildOutputCache = new BuildOutputCache(false, "build-cache", 5120);
+        this.buildIsolation = new BuildIsolation(null, 0, 0, Duration.ZERO);
+        this.metrics = new MetricsRegistry();
+        this.ciService = new CIService(githubClient, commitStatusPublisher, buildStore, new PipelineRegistry(),
+                workspaceManager, new LiveLogBroadcaster(buildStore), new PipelineDefinitionLoader(),
+                new PipelineExecutor(ciJobExecutor, 4, false), dependencyCache,
+                testImpactAnalyzer, buildOutputCache, buildIsolation, surefireReportParser, metrics);
 
         Owner owner = new Owner();
         owner.setName("Owner");
@@ -58,6 +96,8 @@ public class CIServiceTest {
         pushEvent.setRepository(repository);
 
         workingDir = new File("/path/to/workingDir");
+        workspace = new Workspace(workingDir, "Owner-Repository", "Owner-Repository:refs/heads/branch");
+        when(workspaceManager.lease(pushEvent)).thenReturn(workspace);
     }
 
     /**
@@ -69,30 +109,19 @@ public class CIServiceTest {
      * <p>
      * - Commit status goes from PENDING to SUCCESS and no other status is set
      * - Correct build logs and commit sha, and a timestamp is saved in the database.
+     * - The durations of the clone and the build are recorded in the metrics.
      */
     @Test
     public void givenNoFailsNorErrorsDuringCompileAndTest_whenStartCIPipeline_thenCommitStatusSuccessAndBuildLogsSaved() throws Exception {
         String compileJobLogs = "compile job logs";
-        CIJobResult compileJobResult = CIJobResult.builder()
-                .successful(true)
-                .logs(compileJobLogs)
-                .build();
-        when(ciJobExecutor.runMavenCommand("compile", workingDir)).thenReturn(compileJobResult);
+        givenStage("compile", true, compileJobLogs);
 
         String testJobLogs = "test job logs";
-        CIJobResult testJobResults = CIJobResult.builder()
-                .successful(true)
-                .logs(testJobLogs)
-                .build();
-        when(ciJobExecutor.runMavenCommand("test", workingDir)).thenReturn(testJobResults);
+        givenStage("test", true, testJobLogs);
 
-        when(githubClient.cloneRepoAndSwitchBranch(pushEvent)).thenReturn(workingDir);
-        when(githubClient.createStatusMsg(pushEvent, CommitState.PENDING, "Running CI pipeline...", null))
-                .thenReturn(ResponseEntity.ok().build());
-        when(githubClient.createStatusMsg(pushEvent, CommitState.SUCCESS, "Pipeline successful", 1L))
-                .thenReturn(ResponseEntity.ok().build());
+        when(githubClient.cloneRepoAndSwitchBranch(pushEvent, workingDir)).thenReturn(workingDir);
 
-        when(databaseWrapper.addBuild(any(BuildInfo.class))).thenReturn(1L);
+        when(buildStore.addBuild(any(BuildInfo.class))).thenReturn(1L);
 
         String expectedBuildLogs = "Running CI pipeline...\n"
                 + "Cloning repo...\n"
@@ -104,18 +133,24 @@ public class CIServiceTest {
 
         ciService.startCIPipeline(pushEvent);
 
-        verify(githubClient, times(1))
-                .createStatusMsg(pushEvent, CommitState.PENDING, "Running CI pipeline...", null);
-        verify(githubClient, times(1))
-                .createStatusMsg(pushEvent, CommitState.SUCCESS, "Pipeline successful", 1L);
-        verifyNoMoreInteractions(githubClient);
+        verify(commitStatusPublisher, times(1))
+                .publish(pushEvent, CommitState.PENDING, "Running CI pipeline...", null);
+        verify(commitStatusPublisher, times(1))
+                .publish(pushEvent, CommitState.SUCCESS, "Pipeline successful", 1L);
+        verifyNoMoreInteractions(githubClient, commitStatusPublisher);
+        verify(workspaceManager).release(workspace);
 
         ArgumentCaptor<BuildInfo> buildInfoCaptor = ArgumentCaptor.forClass(BuildInfo.class);
-        verify(databaseWrapper).addBuild(buildInfoCaptor.capture());
+        verify(buildStore).addBuild(buildInfoCaptor.capture());
 
-        assertThat(buildInfoCaptor.getValue().getContent()).isEqualTo(expectedBuildLogs);
+        assertThat(savedBuildLogs()).isEqualTo(expectedBuildLogs);
         assertThat(buildInfoCaptor.getValue().getCommitId()).isEqualTo(pushEvent.getAfter());
         assertThat(buildInfoCaptor.getValue().getTimestamp()).isNotNull();
+        assertThat(buildInfoCaptor.getValue().getBranch()).isEqualTo(pushEvent.getBranchName());
+        verify(buildStore).finishBuild(eq(1L), eq(CommitState.SUCCESS), anyLong());
+        assertThat(metrics.scrape())
+                .contains("ciserver_clone_seconds_count{repository=\"Owner/Repository\"} 1\n")
+                .contains("ciserver_build_seconds_count{repository=\"Owner/Repository\",status=\"SUCCESS\"} 1\n");
     }
 
     /**
@@ -132,19 +167,11 @@ public class CIServiceTest {
     @Test
     public void givenCompileStageFails_whenStartCIPipeline_thenCommitStatusIsFailureAndBuildLogsSaved() throws Exception {
         String compileJobLogs = "compile job logs";
-        CIJobResult compileJobResult = CIJobResult.builder()
-                .successful(false)
-                .logs(compileJobLogs)
-                .build();
-        when(ciJobExecutor.runMavenCommand("compile", workingDir)).thenReturn(compileJobResult);
+        givenStage("compile", false, compileJobLogs);
 
-        when(githubClient.cloneRepoAndSwitchBranch(pushEvent)).thenReturn(workingDir);
-        when(githubClient.createStatusMsg(pushEvent, CommitState.PENDING, "Running CI pipeline...", null))
-                .thenReturn(ResponseEntity.ok().build());
-        when(githubClient.createStatusMsg(pushEvent, CommitState.FAILURE, "Compilation of project failed", 1L))
-                .thenReturn(ResponseEntity.ok().build());
+        when(githubClient.cloneRepoAndSwitchBranch(pushEvent, workingDir)).thenReturn(workingDir);
 
-        when(databaseWrapper.addBuild(any(BuildInfo.class))).thenReturn(1L);
+        when(buildStore.addBuild(any(BuildInfo.class))).thenReturn(1L);
 
         String expectedBuildLogs = "Running CI pipeline...\n"
                 + "Cloning repo...\n"
@@ -153,18 +180,19 @@ public class CIServiceTest {
 
         ciService.startCIPipeline(pushEvent);
 
-        verify(ciJobExecutor, times(0)).runMavenCommand("test", workingDir);
+        verify(ciJobExecutor, times(0)).runMavenCommand(eq("test"), eq(workingDir), any(RunningPipeline.class),
+                any(BuildLogWriter.class));
 
-        verify(githubClient, times(1))
-                .createStatusMsg(pushEvent, CommitState.PENDING, "Running CI pipeline...", null);
-        verify(githubClient, times(1))
-                .createStatusMsg(pushEvent, CommitState.FAILURE, "Compilation of project failed", 1L);
-        verifyNoMoreInteractions(githubClient);
+        verify(commitStatusPublisher, times(1))
+                .publish(pushEvent, CommitState.PENDING, "Running CI pipeline...", null);
+        verify(commitStatusPublisher, times(1))
+                .publish(pushEvent, CommitState.FAILURE, "Compilation of project failed", 1L);
+        verifyNoMoreInteractions(githubClient, commitStatusPublisher);
 
         ArgumentCaptor<BuildInfo> buildInfoCaptor = ArgumentCaptor.forClass(BuildInfo.class);
-        verify(databaseWrapper).addBuild(buildInfoCaptor.capture());
+        verify(buildStore).addBuild(buildInfoCaptor.capture());
 
-        assertThat(buildInfoCaptor.getValue().getContent()).isEqualTo(expectedBuildLogs);
+        assertThat(savedBuildLogs()).isEqualTo(expectedBuildLogs);
         assertThat(buildInfoCaptor.getValue().getCommitId()).isEqualTo(pushEvent.getAfter());
         assertThat(buildInfoCaptor.getValue().getTimestamp()).isNotNull();
     }
@@ -182,26 +210,14 @@ public class CIServiceTest {
     @Test
     public void givenTestSageFails_whenStartCIPipeline_thenCommitStatusIsFailureAndBuildLogsSaved() throws Exception {
         String compileJobLogs = "compile job logs";
-        CIJobResult compileJobResult = CIJobResult.builder()
-                .successful(true)
-                .logs(compileJobLogs)
-                .build();
-        when(ciJobExecutor.runMavenCommand("compile", workingDir)).thenReturn(compileJobResult);
+        givenStage("compile", true, compileJobLogs);
 
         String testJobLogs = "test job logs";
-        CIJobResult testJobResults = CIJobResult.builder()
-                .successful(false)
-                .logs(testJobLogs)
-                .build();
-        when(ciJobExecutor.runMavenCommand("test", workingDir)).thenReturn(testJobResults);
+        givenStage("test", false, testJobLogs);
 
-        when(githubClient.cloneRepoAndSwitchBranch(pushEvent)).thenReturn(workingDir);
-        when(githubClient.createStatusMsg(pushEvent, CommitState.PENDING, "Running CI pipeline...", null))
-                .thenReturn(ResponseEntity.ok().build());
-        when(githubClient.createStatusMsg(pushEvent, CommitState.FAILURE, "Tests failed", 1L))
-                .thenReturn(ResponseEntity.ok().build());
+        when(githubClient.cloneRepoAndSwitchBranch(pushEvent, workingDir)).thenReturn(workingDir);
 
-        when(databaseWrapper.addBuild(any(BuildInfo.class))).thenReturn(1L);
+        when(buildStore.addBuild(any(BuildInfo.class))).thenReturn(1L);
 
         String expectedBuildLogs = "Running CI pipeline...\n"
                 + "Cloning repo...\n"
@@ -212,16 +228,16 @@ public class CIServiceTest {
 
         ciService.startCIPipeline(pushEvent);
 
-        verify(githubClient, times(1))
-                .createStatusMsg(pushEvent, CommitState.PENDING, "Running CI pipeline...", null);
-        verify(githubClient, times(1))
-                .createStatusMsg(pushEvent, CommitState.FAILURE, "Tests failed", 1L);
-        verifyNoMoreInteractions(githubClient);
+        verify(commitStatusPublisher, times(1))
+                .publish(pushEvent, CommitState.PENDING, "Running CI pipeline...", null);
+        verify(commitStatusPublisher, times(1))
+                .publish(pushEvent, CommitState.FAILURE, "Tests failed", 1L);
+        verifyNoMoreInteractions(githubClient, commitStatusPublisher);
 
         ArgumentCaptor<BuildInfo> buildInfoCaptor = ArgumentCaptor.forClass(BuildInfo.class);
-        verify(databaseWrapper).addBuild(buildInfoCaptor.capture());
+        verify(buildStore).addBuild(buildInfoCaptor.capture());
 
-        assertThat(buildInfoCaptor.getValue().getContent()).isEqualTo(expectedBuildLogs);
+        assertThat(savedBuildLogs()).isEqualTo(expectedBuildLogs);
         assertThat(buildInfoCaptor.getValue().getCommitId()).isEqualTo(pushEvent.getAfter());
         assertThat(buildInfoCaptor.getValue().getTimestamp()).isNotNull();
     }
@@ -235,37 +251,39 @@ public class CIServiceTest {
      * <p>
      * - "test" stage is not executed.
      * - Commit status goes from PENDING to ERROR and no other status is set
-     * - Unexpected error message is saved in the database.
+     * - Build logs and the unexpected error message are saved in the database.
      */
     @Test
     public void givenErrorInCompileStage_whenStartCIPipeline_thenCommitStatusIsErrorAndBuildLogsSaved() throws Exception {
-        when(ciJobExecutor.runMavenCommand("compile", workingDir))
+        when(ciJobExecutor.runMavenCommand(eq("compile"), eq(workingDir), any(RunningPipeline.class),
+                any(BuildLogWriter.class)))
                 .thenThrow(UnexpectedCIJobErrorException.class);
 
-        when(githubClient.cloneRepoAndSwitchBranch(pushEvent)).thenReturn(workingDir);
-        when(githubClient.createStatusMsg(pushEvent, CommitState.PENDING, "Running CI pipeline...", null))
-                .thenReturn(ResponseEntity.ok().build());
-        when(githubClient.createStatusMsg(pushEvent, CommitState.ERROR, "Unexpected error occurred on server", 1L))
-                .thenReturn(ResponseEntity.ok().build());
+        when(githubClient.cloneRepoAndSwitchBranch(pushEvent, workingDir)).thenReturn(workingDir);
 
-        when(databaseWrapper.addBuild(any(BuildInfo.class))).thenReturn(1L);
+        when(buildStore.addBuild(any(BuildInfo.class))).thenReturn(1L);
 
-        String expectedBuildLogs = "Unexpected error occurred on server";
+        String expectedBuildLogs = "Running CI pipeline...\n"
+                + "Cloning repo...\n"
+                + "mvn compile\n"
+                + "Unexpected error occurred on server";
 
         ciService.startCIPipeline(pushEvent);
 
-        verify(ciJobExecutor, times(0)).runMavenCommand("test", workingDir);
+        verify(ciJobExecutor, times(0)).runMavenCommand(eq("test"), eq(workingDir), any(RunningPipeline.class),
+                any(BuildLogWriter.class));
 
-        verify(githubClient, times(1))
-                .createStatusMsg(pushEvent, CommitState.PENDING, "Running CI pipeline...", null);
-        verify(githubClient, times(1))
-                .createStatusMsg(pushEvent, CommitState.ERROR, "Unexpected error occurred on server", 1L);
-        verifyNoMoreInteractions(githubClient);
+        verify(commitStatusPublisher, times(1))
+                .publish(pushEvent, CommitState.PENDING, "Running CI pipeline...", null);
+        verify(commitStatusPublisher, times(1))
+                .publish(pushEvent, CommitState.ERROR, "Unexpected error occurred on server", 1L);
+        verifyNoMoreInteractions(githubClient, commitStatusPublisher);
+        verify(workspaceManager).discard(workspace);
 
         ArgumentCaptor<BuildInfo> buildInfoCaptor = ArgumentCaptor.forClass(BuildInfo.class);
-        verify(databaseWrapper).addBuild(buildInfoCaptor.capture());
+        verify(buildStore).addBuild(buildInfoCaptor.capture());
 
-        assertThat(buildInfoCaptor.getValue().getContent()).isEqualTo(expectedBuildLogs);
+        assertThat(savedBuildLogs()).isEqualTo(expectedBuildLogs);
         assertThat(buildInfoCaptor.getValue().getCommitId()).isEqualTo(pushEvent.getAfter());
         assertThat(buildInfoCaptor.getValue().getTimestamp()).isNotNull();
     }
@@ -278,43 +296,307 @@ public class CIServiceTest {
      * Then:
      * <p>
      * - Commit status goes from PENDING to ERROR and no other status is set
-     * - Unexpected error message is saved in the database.
+     * - Build logs and the unexpected error message are saved in the database.
      */
     @Test
     public void givenErrorInTestStage_whenStartCIPipeline_thenCommitStatusIsErrorAndBuildLogsSaved() throws Exception {
         String compileJobLogs = "compile job logs";
-        CIJobResult compileJobResult = CIJobResult.builder()
-                .successful(true)
-                .logs(compileJobLogs)
-                .build();
-        when(ciJobExecutor.runMavenCommand("compile", workingDir)).thenReturn(compileJobResult);
+        givenStage("compile", true, compileJobLogs);
 
-        when(ciJobExecutor.runMavenCommand("test", workingDir))
+        when(ciJobExecutor.runMavenCommand(eq("test"), eq(workingDir), any(RunningPipeline.class),
+                any(BuildLogWriter.class)))
                 .thenThrow(UnexpectedCIJobErrorException.class);
 
-        when(githubClient.cloneRepoAndSwitchBranch(pushEvent)).thenReturn(workingDir);
-        when(githubClient.createStatusMsg(pushEvent, CommitState.PENDING, "Running CI pipeline...", null))
-                .thenReturn(ResponseEntity.ok().build());
-        when(githubClient.createStatusMsg(pushEvent, CommitState.ERROR, "Unexpected error occurred on server", 1L))
-                .thenReturn(ResponseEntity.ok().build());
+        when(githubClient.cloneRepoAndSwitchBranch(pushEvent, workingDir)).thenReturn(workingDir);
 
-        when(databaseWrapper.addBuild(any(BuildInfo.class))).thenReturn(1L);
+        when(buildStore.addBuild(any(BuildInfo.class))).thenReturn(1L);
 
-        String expectedBuildLogs = "Unexpected error occurred on server";
+        String expectedBuildLogs = "Running CI pipeline...\n"
+                + "Cloning repo...\n"
+                + "mvn compile\n"
+                + compileJobLogs
+                + "mvn test\n"
+                + "Unexpected error occurred on server";
 
         ciService.startCIPipeline(pushEvent);
 
-        verify(githubClient, times(1))
-                .createStatusMsg(pushEvent, CommitState.PENDING, "Running CI pipeline...", null);
-        verify(githubClient, times(1))
-                .createStatusMsg(pushEvent, CommitState.ERROR, "Unexpected error occurred on server", 1L);
-        verifyNoMoreInteractions(githubClient);
+        verify(commitStatusPublisher, times(1))
+                .publish(pushEvent, CommitState.PENDING, "Running CI pipeline...", null);
+        verify(commitStatusPublisher, times(1))
+                .publish(pushEvent, CommitState.ERROR, "Unexpected error occurred on server", 1L);
+        verifyNoMoreInteractions(githubClient, commitStatusPublisher);
 
         ArgumentCaptor<BuildInfo> buildInfoCaptor = ArgumentCaptor.forClass(BuildInfo.class);
-        verify(databaseWrapper).addBuild(buildInfoCaptor.capture());
+        verify(buildStore).addBuild(buildInfoCaptor.capture());
 
-        assertThat(buildInfoCaptor.getValue().getContent()).isEqualTo(expectedBuildLogs);
+        assertThat(savedBuildLogs()).isEqualTo(expectedBuildLogs);
         assertThat(buildInfoCaptor.getValue().getCommitId()).isEqualTo(pushEvent.getAfter());
         assertThat(buildInfoCaptor.getValue().getTimestamp()).isNotNull();
     }
+
+    /**
+     * Given:
+     * <p>
+     * The build times out while the "compile" stage is running.
+     * <p>
+     * Then:
+     * <p>
+     * - "test" stage is not executed.
+     * - Commit status goes from PENDING to FAILURE with the reason.
+     * - Build logs and the reason are saved in the database.
+     */
+    @Test
+    public void givenTimeoutInCompileStage_whenStartCIPipeline_thenCommitStatusIsFailureAndBuildLogsSaved() throws Exception {
+        when(ciJobExecutor.runMavenCommand(eq("compile"), eq(workingDir), any(RunningPipeline.class),
+                any(BuildLogWriter.class)))
+                .thenThrow(new PipelineTimedOutException("Timed out after 60 minutes"));
+
+        when(githubClient.cloneRepoAndSwitchBranch(pushEvent, workingDir)).thenReturn(workingDir);
+
+        when(buildStore.addBuild(any(BuildInfo.class))).thenReturn(1L);
+
+        String expectedBuildLogs = "Running CI pipeline...\n"
+                + "Cloning repo...\n"
+                + "mvn compile\n"
+                + "\nTimed out after 60 minutes";
+
+        ciService.startCIPipeline(pushEvent);
+
+        verify(ciJobExecutor, times(0)).runMavenCommand(eq("test"), eq(workingDir), any(RunningPipeline.class),
+                any(BuildLogWriter.class));
+
+        verify(commitStatusPublisher, times(1))
+                .publish(pushEvent, CommitState.PENDING, "Running CI pipeline...", null);
+        verify(commitStatusPublisher, times(1))
+                .publish(pushEvent, CommitState.FAILURE, "Timed out after 60 minutes", 1L);
+        verifyNoMoreInteractions(githubClient, commitStatusPublisher);
+
+        assertThat(savedBuildLogs()).isEqualTo(expectedBuildLogs);
+    }
+
+    /**
+     * Given:
+     * <p>
+     * The pipeline is superseded by a newer push while the "compile" stage is running.
+     * <p>
+     * Then:
+     * <p>
+     * - "test" stage is not executed.
+     * - Commit status goes from PENDING to ERROR and no other status is set
+     * - Build logs and the reason are saved in the database.
+     */
+    @Test
+    public void givenPipelineSupersededInCompileStage_whenStartCIPipeline_thenCommitStatusIsErrorAndBuildLogsSaved() throws Exception {
+        when(ciJobExecutor.runMavenCommand(eq("compile"), eq(workingDir), any(RunningPipeline.class),
+                any(BuildLogWriter.class)))
+                .thenThrow(new PipelineSupersededException("Superseded by newer commit ffeeddccbb"));
+
+        when(githubClient.cloneRepoAndSwitchBranch(pushEvent, workingDir)).thenReturn(workingDir);
+
+        when(buildStore.addBuild(any(BuildInfo.class))).thenReturn(1L);
+
+        String expectedBuildLogs = "Running CI pipeline...\n"
+                + "Cloning repo...\n"
+                + "mvn compile\n"
+                + "\nSuperseded by newer commit ffeeddccbb";
+
+        ciService.startCIPipeline(pushEvent);
+
+        verify(ciJobExecutor, times(0)).runMavenCommand(eq("test"), eq(workingDir), any(RunningPipeline.class),
+                any(BuildLogWriter.class));
+
+        verify(commitStatusPublisher, times(1))
+                .publish(pushEvent, CommitState.PENDING, "Running CI pipeline...", null);
+        verify(commitStatusPublisher, times(1))
+                .publish(pushEvent, CommitState.ERROR, "Superseded by a newer push", 1L);
+        verifyNoMoreInteractions(githubClient, commitStatusPublisher);
+
+        ArgumentCaptor<BuildInfo> buildInfoCaptor = ArgumentCaptor.forClass(BuildInfo.class);
+        verify(buildStore).addBuild(buildInfoCaptor.capture());
+
+        assertThat(savedBuildLogs()).isEqualTo(expectedBuildLogs);
+        assertThat(buildInfoCaptor.getValue().getCommitId()).isEqualTo(pushEvent.getAfter());
+    }
+
+    /**
+     * Given:
+     * <p>
+     * Compile and test run in a single maven invocation, and the compiler fails.
+     * <p>
+     * Then:
+     * <p>
+     * - Maven is started once, and the commit status is the one of a failed "compile" stage.
+     */
+    @Test
+    public void givenSingleInvocationAndCompileFails_whenStartCIPipeline_thenCommitStatusIsCompilationFailure() throws Exception {
+        givenSingleInvocation();
+        String mavenLogs = "[INFO] --- maven-compiler-plugin:3.8.1:compile (default-compile) @ project ---\n"
+                + "[ERROR] Failed to execute goal org.apache.maven.plugins:maven-compiler-plugin:3.8.1:compile "
+                + "(default-compile) on project project: Compilation failure\n";
+        givenStage("test", false, mavenLogs);
+
+        when(githubClient.cloneRepoAndSwitchBranch(pushEvent, workingDir)).thenReturn(workingDir);
+
+        when(buildStore.addBuild(any(BuildInfo.class))).thenReturn(1L);
+
+        ciService.startCIPipeline(pushEvent);
+
+        verify(ciJobExecutor, times(1)).runMavenCommand(anyString(), eq(workingDir), any(RunningPipeline.class),
+                any(BuildLogWriter.class));
+        verify(commitStatusPublisher, times(1))
+                .publish(pushEvent, CommitState.FAILURE, "Compilation of project failed", 1L);
+        assertThat(savedBuildLogs()).isEqualTo("Running CI pipeline...\n"
+                + "Cloning repo...\n"
+                + "mvn test\n"
+                + mavenLogs);
+    }
+
+    /**
+     * Given:
+     * <p>
+     * Compile and test run in a single maven invocation, and a test fails.
+     * <p>
+     * Then:
+     * <p>
+     * - The commit status is the one of a failed "test" stage.
+     */
+    @Test
+    public void givenSingleInvocationAndTestFails_whenStartCIPipeline_thenCommitStatusIsTestFailure() throws Exception {
+        givenSingleInvocation();
+        givenStage("test", false,
+                "[INFO] --- maven-compiler-plugin:3.8.1:compile (default-compile) @ project ---\n"
+                        + "[INFO] --- maven-surefire-plugin:2.22.2:test (default-test) @ project ---\n"
+                        + "[ERROR] Tests run: 3, Failures: 1, Errors: 0, Skipped: 0\n");
+
+        when(githubClient.cloneRepoAndSwitchBranch(pushEvent, workingDir)).thenReturn(workingDir);
+
+        when(buildStore.addBuild(any(BuildInfo.class))).thenReturn(1L);
+
+        ciService.startCIPipeline(pushEvent);
+
+        verify(commitStatusPublisher, times(1))
+                .publish(pushEvent, CommitState.FAILURE, "Tests failed", 1L);
+    }
+
+    /**
+     * Given:
+     * <p>
+     * An earlier build of the same source tree and pipeline was successful.
+     * <p>
+     * Then:
+     * <p>
+     * - No stage is executed.
+     * - Commit status goes from PENDING to SUCCESS, linking to the earlier build.
+     */
+    @Test
+    public void givenSameTreePassedBefore_whenStartCIPipeline_thenResultIsReused() throws Exception {
+        BuildOutputCache cachedOutputs = mock(BuildOutputCache.class);
+        this.ciService = new CIService(githubClient, commitStatusPublisher, buildStore, new PipelineRegistry(),
+                workspaceManager, new LiveLogBroadcaster(buildStore), new PipelineDefinitionLoader(),
+                new PipelineExecutor(ciJobExecutor, 4, false), dependencyCache,
+                testImpactAnalyzer, cachedOutputs, buildIsolation, surefireReportParser, metrics);
+        when(cachedOutputs.inputKey(eq(workingDir), eq("aabbccddee"), any())).thenReturn("tree-pipeline");
+        when(buildStore.findSuccessfulBuild("Owner/Repository", "tree-pipeline")).thenReturn(7L);
+        when(githubClient.cloneRepoAndSwitchBranch(pushEvent, workingDir)).thenReturn(workingDir);
+        when(buildStore.addBuild(any(BuildInfo.class))).thenReturn(1L);
+
+        ciService.startCIPipeline(pushEvent);
+
+        verify(commitStatusPublisher, times(1))
+                .publish(pushEvent, CommitState.SUCCESS, "Same tree passed in build #7", 7L);
+        verifyNoInteractions(ciJobExecutor);
+        verify(buildStore, never()).setInputKey(anyLong(), anyString());
+        verify(buildStore).finishBuild(eq(1L), eq(CommitState.SUCCESS), anyLong());
+        assertThat(savedBuildLogs()).endsWith("The same source tree and pipeline passed in build #7, skipping the "
+                + "pipeline.\n");
+    }
+
+    /**
+     * Given:
+     * <p>
+     * The "test" stage fails and leaves surefire reports behind.
+     * <p>
+     * Then:
+     * <p>
+     * - The test results are stored with the build.
+     * - The build log counts the results.
+     */
+    @Test
+    public void givenTestReports_whenStartCIPipeline_thenTestResultsAreStored() throws Exception {
+        givenStage("compile", true, "");
+        givenStage("test", false, "");
+        List<TestResult> results = List.of(
+                TestResult.builder().className("com.example.AdderTest").name("add").status(TestStatus.PASSED).build(),
+                TestResult.builder().className("com.example.AdderTest").name("overflow").status(TestStatus.FAILED)
+                        .message("expected: <0> but was: <-2>").build());
+        when(surefireReportParser.parseReports(eq(workingDir), any(Instant.class))).thenReturn(results);
+        when(githubClient.cloneRepoAndSwitchBranch(pushEvent, workingDir)).thenReturn(workingDir);
+        when(buildStore.addBuild(any(BuildInfo.class))).thenReturn(1L);
+
+        ciService.startCIPipeline(pushEvent);
+
+        verify(buildStore).addTestResults(1L, results);
+        verify(commitStatusPublisher, times(1))
+                .publish(pushEvent, CommitState.FAILURE, "Tests failed", 1L);
+        assertThat(savedBuildLogs()).isEqualTo("Running CI pipeline...\n"
+                + "Cloning repo...\n"
+                + "mvn compile\n"
+                + "mvn test\n"
+                + "Tests: 1 passed, 1 failed\n");
+    }
+
+    /**
+     * Given:
+     * <p>
+     * No workspace can be leased after the pipeline was registered and the dependency cache and cgroup were
+     * acquired.
+     * <p>
+     * Then:
+     * <p>
+     * - The pipeline is unregistered, so newer pushes to the ref are not held up by it.
+     * - No workspace is released or discarded.
+     * - The build is finished with ERROR.
+     */
+    @Test
+    public void givenWorkspaceLeaseFails_whenStartCIPipeline_thenAcquiredResourcesAreReleased() throws Exception {
+        PipelineRegistry pipelineRegistry = spy(new PipelineRegistry());
+        this.ciService = new CIService(githubClient, commitStatusPublisher, buildStore, pipelineRegistry,
+                workspaceManager, new LiveLogBroadcaster(buildStore), new PipelineDefinitionLoader(),
+                new PipelineExecutor(ciJobExecutor, 4, false), dependencyCache,
+                testImpactAnalyzer, buildOutputCache, buildIsolation, surefireReportParser, metrics);
+        when(workspaceManager.lease(pushEvent)).thenThrow(new IllegalStateException("No space left on device"));
+        when(buildStore.addBuild(any(BuildInfo.class))).thenReturn(1L);
+
+        assertThatThrownBy(() -> ciService.startCIPipeline(pushEvent)).isInstanceOf(IllegalStateException.class);
+
+        ArgumentCaptor<RunningPipeline> pipeline = ArgumentCaptor.forClass(RunningPipeline.class);
+        verify(pipelineRegistry).unregister(pipeline.capture());
+        assertThat(pipeline.getValue().getCommit()).isEqualTo("aabbccddee");
+        verify(workspaceManager, never()).release(any());
+        verify(workspaceManager, never()).discard(any());
+        verify(buildStore).finishBuild(eq(1L), eq(CommitState.ERROR), anyLong());
+        verifyNoInteractions(githubClient);
+    }
+
+    private void givenSingleInvocation() {
+        this.ciService = new CIService(githubClient, commitStatusPublisher, buildStore, new PipelineRegistry(),
+                workspaceManager, new LiveLogBroadcaster(buildStore), new PipelineDefinitionLoader(),
+                new PipelineExecutor(ciJobExecutor, 4, true), dependencyCache,
+                testImpactAnalyzer, buildOutputCache, buildIsolation, surefireReportParser, metrics);
+    }
+
+    private void givenStage(String command, boolean successful, String logs) {
+        when(ciJobExecutor.runMavenCommand(eq(command), eq(workingDir), any(RunningPipeline.class),
+                any(BuildLogWriter.class)))
+                .thenAnswer(invocation -> {
+                    invocation.getArgument(3, BuildLogWriter.class).append(logs);
+                    return CIJobResult.builder().successful(successful).build();
+                });
+    }
+
+    private String savedBuildLogs() {
+        ArgumentCaptor<String> chunkCaptor = ArgumentCaptor.forClass(String.class);
+        verify(buildStore, atLeastOnce()).appendLogChunk(eq(1L), anyInt(), anyLong(), chunkCaptor.capture());
+        return String.join("", chunkCaptor.getAllValues());
+    }
 }
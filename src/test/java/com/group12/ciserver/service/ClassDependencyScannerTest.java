@@ -0,0 +1,57 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.ci.PipelineDefinition;
+import com.group12.ciserver.model.ci.StageDefinition;
+import com.group12.ciserver.model.ci.TestSelection;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ClassDependencyScannerTest {
+
+    private static ClassDependencyScanner.ScannedClass scan(Class<?> type) throws IOException {
+        String classFile = type.getName().substring(type.getPackageName().length() + 1) + ".class";
+        try (InputStream in = type.getResourceAsStream(classFile)) {
+            return ClassDependencyScanner.scan(in);
+        }
+    }
+
+    @Test
+    public void classesUsedInCodeAndSignaturesAreFound() throws Exception {
+        ClassDependencyScanner.ScannedClass scanned = scan(CIService.class);
+
+        assertThat(scanned.getName()).isEqualTo(CIService.class.getName());
+        assertThat(scanned.getSourceFile()).isEqualTo("CIService.java");
+        assertThat(scanned.getDependencies())
+                .contains(PipelineExecutor.class.getName(), TestImpactAnalyzer.class.getName(),
+                        TestSelection.class.getName(), String.class.getName())
+                .doesNotContain(CIService.class.getName());
+    }
+
+    @Test
+    public void typeArgumentsOfGenericSignaturesAreFound() throws Exception {
+        // The field is a List<StageDefinition>, only the signature names StageDefinition
+        ClassDependencyScanner.ScannedClass scanned = scan(PipelineDefinition.class);
+
+        assertThat(scanned.getDependencies()).contains(StageDefinition.class.getName());
+    }
+
+    @Test
+    public void nestedClassesHaveTheSourceFileOfTheirOuterClass() throws Exception {
+        ClassDependencyScanner.ScannedClass scanned = scan(DependencyCache.Overlay.class);
+
+        assertThat(scanned.getName()).isEqualTo("com.group12.ciserver.service.DependencyCache$Overlay");
+        assertThat(scanned.getSourceFile()).isEqualTo("DependencyCache.java");
+    }
+
+    @Test
+    public void otherFilesAreRejected() {
+        assertThatThrownBy(() -> ClassDependencyScanner.scan(new ByteArrayInputStream("not a class".getBytes())))
+                .isInstanceOf(IOException.class);
+    }
+}
@@ -0,0 +1,54 @@
+package com.group12.ciserver.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DaemonMavenLauncherTest {
+
+    private final DaemonMavenLauncher launcher = new DaemonMavenLauncher("/opt/mvnd/bin/mvnd",
+            new File("/var/ci/daemons"), "1h", "1g");
+
+    private List<String> commandLine(String repository, String... arguments) {
+        return launcher.commandLine(List.of(arguments),
+                new RunningPipeline(repository + ":refs/heads/main", repository, "aabbccddee"));
+    }
+
+    @Test
+    public void argumentsArePassedToTheDaemonClient() {
+        assertThat(commandLine("Owner/Repository", "package", "-DskipTests"))
+                .startsWith("/opt/mvnd/bin/mvnd")
+                .contains("-Dmvnd.idleTimeout=1h", "-Dmvnd.maxHeapSize=1g", "-T1")
+                .endsWith("package", "-DskipTests");
+    }
+
+    @Test
+    public void daemonsAreRecognizedByTheirMainClass() throws Exception {
+        Process daemon = new ProcessBuilder("sh", "-c", "sleep 30; true", "org.mvndaemon.mvnd.common.MavenDaemon")
+                .start();
+        Process other = new ProcessBuilder("sh", "-c", "sleep 30; true", "org.example.Main").start();
+        try {
+            assertThat(launcher.isDaemon(daemon.toHandle())).isTrue();
+            assertThat(launcher.isDaemon(other.toHandle())).isFalse();
+            assertThat(new ProcessMavenLauncher().isDaemon(daemon.toHandle())).isFalse();
+        } finally {
+            daemon.destroyForcibly();
+            other.destroyForcibly();
+        }
+    }
+
+    @Test
+    public void everyRepositoryHasItsOwnDaemons() {
+        assertThat(commandLine("Owner/Repository", "test"))
+                .contains("-Dmvnd.daemonStorage=" + launcher.daemonStorageOf("Owner/Repository").getAbsolutePath());
+        assertThat(launcher.daemonStorageOf("Owner/Repository").getName()).startsWith("Owner-Repository-");
+        assertThat(launcher.daemonStorageOf("Owner/Other")).isNotEqualTo(launcher.daemonStorageOf("Owner/Repository"));
+        // Names that only differ in replaced characters do not share daemons
+        assertThat(launcher.daemonStorageOf("a-b/c")).isNotEqualTo(launcher.daemonStorageOf("a/b-c"));
+        // Repository names cannot escape the daemon directory
+        assertThat(launcher.daemonStorageOf("Owner/../../etc").getParentFile()).isEqualTo(new File("/var/ci/daemons"));
+    }
+}
@@ -0,0 +1,193 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.ci.DependencyCacheStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DependencyCacheTest {
+
+    private static final String JAR = "org/example/library/1.0/library-1.0.jar";
+
+    private static final String POM = "org/example/library/1.0/library-1.0.pom";
+
+    private static final String SNAPSHOT = "org/example/other/2.0-SNAPSHOT/other-2.0-SNAPSHOT.jar";
+
+    private static final String METADATA = "org/example/library/maven-metadata-central.xml";
+
+    @TempDir
+    Path tempDir;
+
+    private DependencyCache cache;
+
+    @AfterEach
+    void tearDown() {
+        if (cache != null) {
+            cache.shutdown();
+        }
+    }
+
+    private DependencyCache open(String seedPath) throws IOException {
+        cache = new DependencyCache(true, tempDir.resolve("cache").toString(), seedPath);
+        return cache;
+    }
+
+    private static Path overlayOf(DependencyCache.Overlay overlay) {
+        return Path.of(overlay.getMavenOptions().get(0).substring("-Dmaven.repo.local=".length()));
+    }
+
+    /**
+     * Writes a file like maven does when it downloads it into the local repository of the build.
+     */
+    private static void download(DependencyCache.Overlay overlay, String path, String content) throws IOException {
+        Path file = overlayOf(overlay).resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    private Path shared(String path) {
+        return tempDir.resolve("cache/shared").resolve(path);
+    }
+
+    @Test
+    void buildsReadTheSharedStoreAndWriteToTheirOverlay() throws Exception {
+        open("");
+
+        DependencyCache.Overlay first = cache.lease(1);
+        DependencyCache.Overlay second = cache.lease(2);
+
+        assertThat(first.getMavenOptions()).containsExactly(
+                "-Dmaven.repo.local=" + overlayOf(first),
+                "-Dmaven.repo.local.tail=" + tempDir.resolve("cache/shared").toAbsolutePath());
+        assertThat(overlayOf(first)).isDirectory().isNotEqualTo(overlayOf(second));
+    }
+
+    @Test
+    void downloadedReleaseArtifactsAreShared() throws Exception {
+        open("");
+        DependencyCache.Overlay overlay = cache.lease(1);
+        download(overlay, JAR, "jar");
+        download(overlay, POM, "pom");
+        download(overlay, SNAPSHOT, "snapshot");
+        download(overlay, METADATA, "metadata");
+
+        String downloads = cache.release(overlay, true);
+
+        assertThat(downloads).isEqualTo("Dependency cache: 3 artifacts (0 KB) downloaded");
+        assertThat(shared(JAR)).hasContent("jar");
+        assertThat(shared(POM)).hasContent("pom");
+        assertThat(shared(SNAPSHOT)).doesNotExist();
+        assertThat(shared(METADATA)).doesNotExist();
+        assertThat(overlayOf(overlay)).doesNotExist();
+
+        cache.release(cache.lease(2), true);
+        DependencyCacheStats stats = cache.getStats();
+        assertThat(stats.getBuilds()).isEqualTo(2);
+        assertThat(stats.getBuildsWithoutDownloads()).isEqualTo(1);
+        assertThat(stats.getHitRate()).isEqualTo(0.5);
+        assertThat(stats.getDownloadedArtifacts()).isEqualTo(3);
+        assertThat(stats.getSharedArtifacts()).isEqualTo(2);
+    }
+
+    @Test
+    void downloadsOfUntrustedBuildsAreNotShared() throws Exception {
+        open("");
+        DependencyCache.Overlay overlay = cache.lease(1);
+        download(overlay, JAR, "partial");
+
+        cache.release(overlay, false);
+
+        assertThat(shared(JAR)).doesNotExist();
+        assertThat(overlayOf(overlay)).doesNotExist();
+        assertThat(cache.getStats().getDownloadedArtifacts()).isEqualTo(1);
+    }
+
+    @Test
+    void concurrentBuildsShareTheSameArtifact() throws Exception {
+        open("");
+        String content = "x".repeat(1024 * 1024);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> builds = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                DependencyCache.Overlay overlay = cache.lease(i);
+                download(overlay, JAR, content);
+                builds.add(executor.submit(() -> cache.release(overlay, true)));
+            }
+            for (Future<String> build : builds) {
+                assertThat(build.get()).startsWith("Dependency cache: 1 artifacts");
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(shared(JAR)).hasContent(content);
+        try (var files = Files.list(tempDir.resolve("cache/tmp"))) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void sharedStoreIsSeededOnStartup() throws Exception {
+        Path seed = tempDir.resolve("m2");
+        Files.createDirectories(seed.resolve(JAR).getParent());
+        Files.writeString(seed.resolve(JAR), "jar");
+        Files.createDirectories(seed.resolve(SNAPSHOT).getParent());
+        Files.writeString(seed.resolve(SNAPSHOT), "snapshot");
+
+        open(seed.toString());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.getStats().getSharedArtifacts() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(shared(JAR)).hasContent("jar");
+        assertThat(shared(SNAPSHOT)).doesNotExist();
+        assertThat(seed.resolve(JAR)).exists();
+    }
+
+    @Test
+    void mavenWithoutTailUsesTheLocalRepositoryOfTheServerUser() throws Exception {
+        cache = new DependencyCache(true, tempDir.resolve("cache").toString(), "",
+                () -> "Apache Maven 3.8.8 (4c87b05d9aedce574290d1acc98575ed5eb6cd39)");
+
+        DependencyCache.Overlay overlay = cache.lease(1);
+
+        assertThat(overlay.getMavenOptions()).isEmpty();
+        assertThat(cache.release(overlay, true)).isNull();
+        assertThat(cache.getStats().isEnabled()).isFalse();
+    }
+
+    @Test
+    void mavenVersionsFromThreeNineOnSupportTheTail() {
+        assertThat(DependencyCache.supportsTail("Apache Maven 3.9.0 (9b58d2bad23a66be161c4664ef21ce219c2c8584)"))
+                .isTrue();
+        assertThat(DependencyCache.supportsTail("\u001B[1mApache Maven 3.9.6\u001B[m")).isTrue();
+        assertThat(DependencyCache.supportsTail("Apache Maven 4.0.0-beta-3")).isTrue();
+        assertThat(DependencyCache.supportsTail("Apache Maven 3.8.8")).isFalse();
+        assertThat(DependencyCache.supportsTail("mvn: command not found")).isFalse();
+        assertThat(DependencyCache.supportsTail(null)).isFalse();
+    }
+
+    @Test
+    void disabledCacheLeavesMavenAlone() throws Exception {
+        cache = new DependencyCache(false, tempDir.resolve("cache").toString(), "");
+
+        DependencyCache.Overlay overlay = cache.lease(1);
+
+        assertThat(overlay.getMavenOptions()).isEmpty();
+        assertThat(cache.release(overlay, true)).isNull();
+        assertThat(tempDir.resolve("cache")).doesNotExist();
+    }
+}
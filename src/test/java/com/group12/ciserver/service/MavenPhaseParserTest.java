@@ -0,0 +1,99 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.ci.PipelineDefinition;
+import com.group12.ciserver.model.ci.StageDefinition;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MavenPhaseParserTest {
+
+    private final List<StageDefinition> stages = PipelineDefinition.defaultPipeline().getStages();
+
+    private MavenPhaseParser parse(String... lines) {
+        MavenPhaseParser parser = new MavenPhaseParser(stages);
+        for (String line : lines) {
+            parser.accept(line);
+        }
+        return parser;
+    }
+
+    @Test
+    public void compilationErrorIsInCompileStage() {
+        MavenPhaseParser parser = parse(
+                "[INFO] --- maven-resources-plugin:3.2.0:resources (default-resources) @ project ---",
+                "[INFO] --- maven-compiler-plugin:3.8.1:compile (default-compile) @ project ---",
+                "[ERROR] /src/main/java/Example.java:[3,1] class, interface, or enum expected",
+                "[INFO] BUILD FAILURE",
+                "[ERROR] Failed to execute goal org.apache.maven.plugins:maven-compiler-plugin:3.8.1:compile "
+                        + "(default-compile) on project project: Compilation failure");
+
+        assertThat(parser.getFailedStage().getName()).isEqualTo("compile");
+    }
+
+    @Test
+    public void testCompilationAndTestFailuresAreInTestStage() {
+        MavenPhaseParser testCompile = parse(
+                "[INFO] --- maven-compiler-plugin:3.8.1:compile (default-compile) @ project ---",
+                "[INFO] --- maven-compiler-plugin:3.8.1:testCompile (default-testCompile) @ project ---",
+                "[ERROR] Failed to execute goal org.apache.maven.plugins:maven-compiler-plugin:3.8.1:testCompile "
+                        + "(default-testCompile) on project project: Compilation failure");
+        // Maven 3.9 prints the short plugin prefix, and may colour its output
+        MavenPhaseParser test = parse(
+                "[INFO] --- compiler:3.11.0:compile (default-compile) @ project ---",
+                "[\u001B[1;34mINFO\u001B[m] --- surefire:3.1.2:test (default-test) @ project ---",
+                "[ERROR] Tests run: 3, Failures: 1, Errors: 0, Skipped: 0");
+
+        assertThat(testCompile.getFailedStage().getName()).isEqualTo("test");
+        assertThat(test.getCurrentStage().getName()).isEqualTo("test");
+        assertThat(test.getFailedStage().getName()).isEqualTo("test");
+    }
+
+    @Test
+    public void goalsOfOtherPluginsBelongToTheStageBeforeThem() {
+        MavenPhaseParser parser = parse(
+                "[INFO] --- jacoco-maven-plugin:0.8.7:prepare-agent (default) @ project ---",
+                "[INFO] --- maven-compiler-plugin:3.8.1:compile (default-compile) @ project ---",
+                "[INFO] --- maven-checkstyle-plugin:3.1.2:check (validate) @ project ---",
+                "[ERROR] Failed to execute goal org.apache.maven.plugins:maven-checkstyle-plugin:3.1.2:check "
+                        + "(validate) on project project: You have 1 Checkstyle violation.");
+
+        assertThat(parser.getFailedStage().getName()).isEqualTo("compile");
+    }
+
+    @Test
+    public void failureBeforeAnyGoalIsInFirstStage() {
+        MavenPhaseParser parser = parse(
+                "[ERROR] [ERROR] Some problems were encountered while processing the POMs:",
+                "[ERROR] Non-parseable POM /project/pom.xml");
+
+        assertThat(parser.getFailedStage().getName()).isEqualTo("compile");
+    }
+
+    @Test
+    public void laterModulesDoNotMoveBackToEarlierStage() {
+        MavenPhaseParser parser = parse(
+                "[INFO] --- maven-surefire-plugin:2.22.2:test (default-test) @ module-a ---",
+                "[INFO] --- maven-compiler-plugin:3.8.1:compile (default-compile) @ module-b ---",
+                "[ERROR] Failed to execute goal org.apache.maven.plugins:maven-compiler-plugin:3.8.1:compile "
+                        + "(default-compile) on project module-b: Compilation failure");
+
+        assertThat(parser.getCurrentStage().getName()).isEqualTo("test");
+        assertThat(parser.getFailedStage().getName()).isEqualTo("compile");
+    }
+
+    @Test
+    public void onlyChainsOfLifecyclePhasesRunTogether() {
+        StageDefinition compile = StageDefinition.builder().name("compile").maven("compile").build();
+        StageDefinition test = StageDefinition.builder().name("test").maven("test").build();
+        StageDefinition packageWithoutTests = StageDefinition.builder().name("package").maven("package -DskipTests")
+                .build();
+        StageDefinition verify = StageDefinition.builder().name("verify").maven("verify").build();
+
+        assertThat(MavenPhaseParser.canRunTogether(List.of(compile, test, verify))).isTrue();
+        assertThat(MavenPhaseParser.canRunTogether(List.of(test, compile))).isFalse();
+        assertThat(MavenPhaseParser.canRunTogether(List.of(compile, packageWithoutTests))).isFalse();
+    }
+}
@@ -0,0 +1,84 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.ci.InvalidPipelineDefinitionException;
+import com.group12.ciserver.model.ci.PipelineDefinition;
+import com.group12.ciserver.model.ci.StageDefinition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PipelineDefinitionLoaderTest {
+
+    @TempDir
+    Path workingDir;
+
+    private final PipelineDefinitionLoader loader = new PipelineDefinitionLoader();
+
+    private PipelineDefinition load(String yaml) throws IOException {
+        Files.writeString(workingDir.resolve(".ci.yml"), yaml);
+        return loader.load(workingDir.toFile());
+    }
+
+    @Test
+    public void withoutDefinitionFileCompileAndTestAreRun() {
+        PipelineDefinition definition = loader.load(workingDir.toFile());
+
+        assertThat(definition.getStages()).extracting(StageDefinition::getMaven).containsExactly("compile", "test");
+        assertThat(definition.isParallel()).isFalse();
+    }
+
+    @Test
+    public void stagesAreOrderedByTheirNeeds() throws Exception {
+        PipelineDefinition definition = load("stages:\n"
+                + "  test:\n"
+                + "    maven: test\n"
+                + "    needs: compile\n"
+                + "    failure-message: Tests failed\n"
+                + "  package:\n"
+                + "    maven: package -DskipTests\n"
+                + "    needs: [compile]\n"
+                + "  compile:\n"
+                + "    maven: compile\n");
+
+        assertThat(definition.getStages()).extracting(StageDefinition::getName)
+                .containsExactly("compile", "test", "package");
+        assertThat(definition.getStages().get(1).getFailureMessage()).isEqualTo("Tests failed");
+        assertThat(definition.getStages().get(2).getFailureMessage()).isEqualTo("Stage package failed");
+        assertThat(definition.getStages().get(2).getMaven()).isEqualTo("package -DskipTests");
+        assertThat(definition.isParallel()).isTrue();
+    }
+
+    @Test
+    public void chainOfStagesIsNotParallel() throws Exception {
+        PipelineDefinition definition = load("stages:\n"
+                + "  compile: {maven: compile}\n"
+                + "  test: {maven: test, needs: compile}\n"
+                + "  verify: {maven: verify, needs: [test]}\n");
+
+        assertThat(definition.isParallel()).isFalse();
+    }
+
+    @Test
+    public void invalidDefinitionsAreRejected() {
+        assertThatThrownBy(() -> load("stages:\n  a: {maven: compile, needs: b}\n  b: {maven: test, needs: a}\n"))
+                .isInstanceOf(InvalidPipelineDefinitionException.class)
+                .hasMessageContaining("cycle");
+        assertThatThrownBy(() -> load("stages:\n  test: {maven: test, needs: compile}\n"))
+                .isInstanceOf(InvalidPipelineDefinitionException.class)
+                .hasMessageContaining("unknown stage compile");
+        assertThatThrownBy(() -> load("stages:\n  test: {needs: compile}\n"))
+                .isInstanceOf(InvalidPipelineDefinitionException.class)
+                .hasMessageContaining("no maven command");
+        assertThatThrownBy(() -> load("stages: [compile, test]\n"))
+                .isInstanceOf(InvalidPipelineDefinitionException.class);
+        assertThatThrownBy(() -> load("stages:\n  test: {maven: test\n"))
+                .isInstanceOf(InvalidPipelineDefinitionException.class)
+                .hasMessageContaining("Cannot read");
+    }
+}
@@ -0,0 +1,152 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.database.BuildStore;
+import com.group12.ciserver.model.ci.PipelineDefinition;
+import com.group12.ciserver.model.ci.PipelineResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Runs the default pipeline on a small maven project with real maven processes and prints how long it takes: as two
+ * invocations and as a single invocation, and with a new maven process per stage and with the Maven Daemon given by
+ * <code>CISERVER_MVND_PATH</code>. Maven runs offline, so the plugins and JUnit have to be in the local repository
+ * already, which they are after building this project. Skipped unless <code>CISERVER_MAVEN_BENCHMARK</code> is set.
+ */
+@EnabledIfEnvironmentVariable(named = "CISERVER_MAVEN_BENCHMARK", matches = ".+")
+class PipelineExecutorBenchmarkTest {
+
+    private static final String POM = "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n"
+            + "  <modelVersion>4.0.0</modelVersion>\n"
+            + "  <groupId>benchmark</groupId>\n"
+            + "  <artifactId>benchmark</artifactId>\n"
+            + "  <version>1.0</version>\n"
+            + "  <properties>\n"
+            + "    <maven.compiler.release>17</maven.compiler.release>\n"
+            + "    <project.build.sourceEncoding>UTF-8</project.build.sourceEncoding>\n"
+            + "  </properties>\n"
+            + "  <dependencies>\n"
+            + "    <dependency>\n"
+            + "      <groupId>org.junit.jupiter</groupId>\n"
+            + "      <artifactId>junit-jupiter-engine</artifactId>\n"
+            + "      <version>5.8.2</version>\n"
+            + "      <scope>test</scope>\n"
+            + "    </dependency>\n"
+            + "  </dependencies>\n"
+            + "  <build>\n"
+            + "    <plugins>\n"
+            + "      <plugin><artifactId>maven-resources-plugin</artifactId><version>3.2.0</version></plugin>\n"
+            + "      <plugin><artifactId>maven-compiler-plugin</artifactId><version>3.8.1</version></plugin>\n"
+            + "      <plugin><artifactId>maven-surefire-plugin</artifactId><version>2.22.2</version></plugin>\n"
+            + "    </plugins>\n"
+            + "  </build>\n"
+            + "</project>\n";
+
+    private static final int RUNS = 3;
+
+    @TempDir
+    Path project;
+
+    private final PipelineExecutor twoInvocations =
+            new PipelineExecutor(new CIJobExecutor(new ProcessMavenLauncher()), 4, false);
+
+    private final PipelineExecutor singleInvocation =
+            new PipelineExecutor(new CIJobExecutor(new ProcessMavenLauncher()), 4, true);
+
+    private PipelineExecutor daemon;
+
+    @AfterEach
+    void tearDown() {
+        twoInvocations.shutdown();
+        singleInvocation.shutdown();
+        if (daemon != null) {
+            daemon.shutdown();
+        }
+    }
+
+    private void createProject() throws IOException {
+        Files.writeString(project.resolve("pom.xml"), POM);
+        Files.createDirectories(project.resolve(".mvn"));
+        Files.writeString(project.resolve(".mvn/maven.config"), "-o\n-B\n");
+        Path main = Files.createDirectories(project.resolve("src/main/java/benchmark"));
+        Path test = Files.createDirectories(project.resolve("src/test/java/benchmark"));
+        for (int i = 0; i < 20; i++) {
+            Files.writeString(main.resolve("Calculator" + i + ".java"), "package benchmark;\n"
+                    + "public class Calculator" + i + " {\n"
+                    + "    public int add(int a, int b) { return a + b + " + i + "; }\n"
+                    + "}\n");
+            Files.writeString(test.resolve("Calculator" + i + "Test.java"), "package benchmark;\n"
+                    + "import org.junit.jupiter.api.Test;\n"
+                    + "import static org.junit.jupiter.api.Assertions.assertEquals;\n"
+                    + "class Calculator" + i + "Test {\n"
+                    + "    @Test void add() { assertEquals(3 + " + i + ", new Calculator" + i + "().add(1, 2)); }\n"
+                    + "}\n");
+        }
+    }
+
+    private long runPipeline(PipelineExecutor executor) throws IOException {
+        // Every run starts from a clean checkout, like the first build of a branch
+        Path target = project.resolve("target");
+        if (Files.exists(target)) {
+            try (var paths = Files.walk(target)) {
+                paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+            }
+        }
+        BuildLogWriter buildLogs = new BuildLogWriter(mock(BuildStore.class), 1L, null);
+        long start = System.nanoTime();
+        PipelineResult result = executor.run(PipelineDefinition.defaultPipeline(), project.toFile(),
+                new RunningPipeline("key", "owner/repository", "aabbccddee"), buildLogs);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        assertThat(result.isSuccessful()).isTrue();
+        return millis;
+    }
+
+    @Test
+    void singleInvocationBenchmark() throws Exception {
+        createProject();
+        runPipeline(singleInvocation);
+
+        long twoInvocationsMillis = 0;
+        long singleInvocationMillis = 0;
+        for (int i = 0; i < RUNS; i++) {
+            twoInvocationsMillis += runPipeline(twoInvocations);
+            singleInvocationMillis += runPipeline(singleInvocation);
+        }
+
+        System.out.printf("Default pipeline: %d ms as mvn compile + mvn test, %d ms as mvn test%n",
+                twoInvocationsMillis / RUNS, singleInvocationMillis / RUNS);
+        assertThat(singleInvocationMillis).isLessThan(twoInvocationsMillis);
+    }
+
+    @Test
+    void daemonBackendBenchmark() throws Exception {
+        String mvndPath = System.getenv("CISERVER_MVND_PATH");
+        assumeTrue(mvndPath != null && !mvndPath.isEmpty(), "CISERVER_MVND_PATH is not set");
+        daemon = new PipelineExecutor(new CIJobExecutor(new DaemonMavenLauncher(mvndPath,
+                project.resolve("daemons").toFile(), "5m", "512m")), 4, true);
+        createProject();
+        // The first build starts the daemon, later builds reuse it
+        long coldMillis = runPipeline(daemon);
+        runPipeline(singleInvocation);
+
+        long processMillis = 0;
+        long daemonMillis = 0;
+        for (int i = 0; i < RUNS; i++) {
+            processMillis += runPipeline(singleInvocation);
+            daemonMillis += runPipeline(daemon);
+        }
+
+        System.out.printf("Default pipeline: %d ms with mvn, %d ms with a warm mvnd daemon (%d ms cold)%n",
+                processMillis / RUNS, daemonMillis / RUNS, coldMillis);
+        assertThat(daemonMillis).isLessThan(processMillis);
+    }
+}
@@ -0,0 +1,300 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.database.BuildStore;
+import com.group12.ciserver.metrics.MetricsRegistry;
+import com.group12.ciserver.model.ci.CIJobResult;
+import com.group12.ciserver.model.ci.PipelineDefinition;
+import com.group12.ciserver.model.ci.PipelineResult;
+import com.group12.ciserver.model.ci.StageDefinition;
+import com.group12.ciserver.model.ci.UnexpectedCIJobErrorException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PipelineExecutorTest {
+
+    private static final File WORKING_DIR = new File("/path/to/workingDir");
+
+    @Mock
+    private CIJobExecutor ciJobExecutor;
+
+    @Mock
+    private BuildStore buildStore;
+
+    private PipelineExecutor executor;
+
+    @AfterEach
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private PipelineDefinition compileThenTestAndPackage() {
+        return new PipelineDefinition(List.of(
+                StageDefinition.builder().name("compile").maven("compile").failureMessage("compile failed").build(),
+                StageDefinition.builder().name("test").maven("test").need("compile").failureMessage("tests failed")
+                        .build(),
+                StageDefinition.builder().name("package").maven("package -DskipTests").need("compile")
+                        .failureMessage("package failed").build()));
+    }
+
+    private void givenStage(String command, boolean successful, String logs) {
+        when(ciJobExecutor.runMavenCommand(eq(command), eq(WORKING_DIR), any(RunningPipeline.class),
+                any(BuildLogWriter.class)))
+                .thenAnswer(invocation -> {
+                    invocation.getArgument(3, BuildLogWriter.class).append(logs);
+                    return CIJobResult.builder().successful(successful).build();
+                });
+    }
+
+    private PipelineResult run(PipelineDefinition definition, BuildLogWriter buildLogs) {
+        return executor.run(definition, WORKING_DIR, new RunningPipeline("key", "owner/repository", "aabbccddee"), buildLogs);
+    }
+
+    private String savedBuildLogs() {
+        ArgumentCaptor<String> chunkCaptor = ArgumentCaptor.forClass(String.class);
+        verify(buildStore, atLeastOnce()).appendLogChunk(eq(1L), anyInt(), anyLong(), chunkCaptor.capture());
+        return String.join("", chunkCaptor.getAllValues());
+    }
+
+    /**
+     * Given:
+     * <p>
+     * Two stages that both need the compile stage.
+     * <p>
+     * Then:
+     * <p>
+     * - Both stages run at the same time after compile succeeded.
+     * - Every line of the log is prefixed with the stage it belongs to.
+     */
+    @Test
+    public void givenIndependentStages_whenRun_thenStagesRunInParallel() throws Exception {
+        executor = new PipelineExecutor(ciJobExecutor, 4, true);
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        givenStage("compile", true, "compiled\n");
+        when(ciJobExecutor.runMavenCommand(matches("test|package -DskipTests"), eq(WORKING_DIR),
+                any(RunningPipeline.class), any(BuildLogWriter.class)))
+                .thenAnswer(invocation -> {
+                    bothRunning.countDown();
+                    // Fails if the other stage is not started while this one is running
+                    boolean parallel = bothRunning.await(5, TimeUnit.SECONDS);
+                    invocation.getArgument(3, BuildLogWriter.class).append("done\nwithout newline");
+                    return CIJobResult.builder().successful(parallel).build();
+                });
+        BuildLogWriter buildLogs = new BuildLogWriter(buildStore, 1L, null);
+
+        PipelineResult result = run(compileThenTestAndPackage(), buildLogs);
+        buildLogs.flush();
+
+        assertThat(result.isSuccessful()).isTrue();
+        assertThat(result.getFailedStage()).isNull();
+        assertThat(savedBuildLogs())
+                .startsWith("[compile] mvn compile\n[compile] compiled\n")
+                .contains("[test] mvn test\n", "[test] done\n", "[test] without newline\n")
+                .contains("[package] mvn package -DskipTests\n", "[package] done\n", "[package] without newline\n");
+    }
+
+    /**
+     * Given:
+     * <p>
+     * Stages that are prefixed, and a stage that prints a line longer than the longest line that is held back.
+     * <p>
+     * Then:
+     * <p>
+     * - The line is passed on in parts, each prefixed with the stage.
+     */
+    @Test
+    public void givenLineLongerThanLimit_whenRun_thenLineIsPassedOnInParts() {
+        executor = new PipelineExecutor(ciJobExecutor, 4, true);
+        String longLine = "x".repeat(PipelineExecutor.MAX_LINE_LENGTH);
+        givenStage("compile", true, longLine + "rest\n");
+        givenStage("test", true, "");
+        givenStage("package -DskipTests", true, "");
+        BuildLogWriter buildLogs = new BuildLogWriter(buildStore, 1L, null);
+
+        run(compileThenTestAndPackage(), buildLogs);
+        buildLogs.flush();
+
+        assertThat(savedBuildLogs()).contains("[compile] " + longLine + "\n[compile] rest\n");
+    }
+
+    /**
+     * Given:
+     * <p>
+     * The compile stage fails.
+     * <p>
+     * Then:
+     * <p>
+     * - The stages that need it are not run, and compile is the failed stage.
+     */
+    @Test
+    public void givenFailingStage_whenRun_thenDependentStagesNotRun() {
+        executor = new PipelineExecutor(ciJobExecutor, 4, true);
+        givenStage("compile", false, "error\n");
+
+        PipelineResult result = run(compileThenTestAndPackage(), new BuildLogWriter(buildStore, 1L, null));
+
+        assertThat(result.isSuccessful()).isFalse();
+        assertThat(result.getFailedStage().getName()).isEqualTo("compile");
+        verify(ciJobExecutor, times(1)).runMavenCommand(anyString(), any(File.class), any(RunningPipeline.class),
+                any(BuildLogWriter.class));
+    }
+
+    /**
+     * Given:
+     * <p>
+     * One of two parallel stages throws an unexpected error.
+     * <p>
+     * Then:
+     * <p>
+     * - The error is thrown after the other stage has finished.
+     */
+    @Test
+    public void givenErrorInParallelStage_whenRun_thenErrorThrownAfterOtherStageFinished() {
+        executor = new PipelineExecutor(ciJobExecutor, 4, true);
+        givenStage("compile", true, "");
+        givenStage("package -DskipTests", true, "packaged\n");
+        when(ciJobExecutor.runMavenCommand(eq("test"), eq(WORKING_DIR), any(RunningPipeline.class),
+                any(BuildLogWriter.class)))
+                .thenThrow(new UnexpectedCIJobErrorException("broken"));
+
+        assertThatThrownBy(() -> run(compileThenTestAndPackage(), new BuildLogWriter(buildStore, 1L, null)))
+                .isInstanceOf(UnexpectedCIJobErrorException.class)
+                .hasMessage("broken");
+        verify(ciJobExecutor).runMavenCommand(eq("package -DskipTests"), eq(WORKING_DIR),
+                any(RunningPipeline.class), any(BuildLogWriter.class));
+    }
+
+    /**
+     * Given:
+     * <p>
+     * At most one stage may run at a time.
+     * <p>
+     * Then:
+     * <p>
+     * - All stages are still run, one after the other.
+     */
+    @Test
+    public void givenLimitOfOneStage_whenRun_thenStagesRunOneAfterTheOther() {
+        executor = new PipelineExecutor(ciJobExecutor, 1, true);
+        givenStage("compile", true, "");
+        givenStage("test", true, "");
+        givenStage("package -DskipTests", true, "");
+
+        PipelineResult result = run(compileThenTestAndPackage(), new BuildLogWriter(buildStore, 1L, null));
+
+        assertThat(result.isSuccessful()).isTrue();
+        verify(ciJobExecutor, times(3)).runMavenCommand(anyString(), any(File.class), any(RunningPipeline.class),
+                any(BuildLogWriter.class));
+    }
+
+    /**
+     * Given:
+     * <p>
+     * The default pipeline, compile then test.
+     * <p>
+     * Then:
+     * <p>
+     * - Maven is started once for both stages.
+     */
+    @Test
+    public void givenChainOfPhases_whenRun_thenSingleMavenInvocation() {
+        executor = new PipelineExecutor(ciJobExecutor, 4, true);
+        givenStage("test", true, "[INFO] --- maven-surefire-plugin:2.22.2:test (default-test) @ project ---\n");
+        BuildLogWriter buildLogs = new BuildLogWriter(buildStore, 1L, null);
+
+        PipelineResult result = run(PipelineDefinition.defaultPipeline(), buildLogs);
+        buildLogs.flush();
+
+        assertThat(result.isSuccessful()).isTrue();
+        verify(ciJobExecutor, times(1)).runMavenCommand(anyString(), any(File.class), any(RunningPipeline.class),
+                any(BuildLogWriter.class));
+        assertThat(savedBuildLogs()).startsWith("mvn test\n[INFO] --- maven-surefire-plugin");
+    }
+
+    /**
+     * Given:
+     * <p>
+     * Tests are split into two shards, three test classes with known times, and the tests of the second shard fail.
+     * <p>
+     * Then:
+     * <p>
+     * - The tests are compiled once in the workspace, and the longest test class runs alone in the first shard.
+     * - Both shards run in their own copy of the workspace, with their output prefixed by the shard.
+     * - The test stage fails, and the reports of both shards are in the workspace.
+     * - The copies are removed.
+     */
+    @Test
+    public void givenShardedTests_whenRun_thenShardsRunInCopiesAndReportsAreMerged(@TempDir Path tempDir)
+            throws Exception {
+        File workspace = tempDir.resolve("workspace").toFile();
+        for (String testClass : List.of("SlowTest", "FastTest", "OtherTest")) {
+            Path classFile = workspace.toPath().resolve("target/test-classes/com/example/" + testClass + ".class");
+            Files.createDirectories(classFile.getParent());
+            Files.createFile(classFile);
+        }
+        when(buildStore.getTestClassDurations("owner/repository", 20)).thenReturn(Map.of(
+                "com.example.SlowTest", 3000L, "com.example.FastTest", 1000L, "com.example.OtherTest", 1000L));
+        executor = new PipelineExecutor(ciJobExecutor, new TestSharder(buildStore, 2, 20), new MetricsRegistry(), 4,
+                true);
+        when(ciJobExecutor.runMavenCommand(anyString(), any(File.class), any(RunningPipeline.class),
+                any(BuildLogWriter.class)))
+                .thenAnswer(invocation -> {
+                    String command = invocation.getArgument(0);
+                    File directory = invocation.getArgument(1);
+                    if (!command.startsWith("test ")) {
+                        assertThat(directory).isEqualTo(workspace);
+                        return CIJobResult.builder().successful(true).build();
+                    }
+                    assertThat(directory.getName()).startsWith("workspace-shard-");
+                    Path report = directory.toPath().resolve("target/surefire-reports/TEST-"
+                            + directory.getName() + ".xml");
+                    Files.createDirectories(report.getParent());
+                    Files.writeString(report, "<testsuite/>");
+                    invocation.getArgument(3, BuildLogWriter.class).append("tests run\n");
+                    return CIJobResult.builder().successful(directory.getName().endsWith("1")).build();
+                });
+        BuildLogWriter buildLogs = new BuildLogWriter(buildStore, 1L, null);
+
+        PipelineResult result = executor.run(PipelineDefinition.defaultPipeline(), workspace,
+                new RunningPipeline("key", "owner/repository", "aabbccddee"), buildLogs);
+        buildLogs.flush();
+
+        assertThat(result.isSuccessful()).isFalse();
+        assertThat(result.getFailedStage().getName()).isEqualTo("test");
+        verify(ciJobExecutor).runMavenCommand(eq("test-compile"), eq(workspace), any(RunningPipeline.class),
+                any(BuildLogWriter.class));
+        assertThat(savedBuildLogs())
+                .contains("Test sharding: running 3 test classes in 2 shards, expected 3 s, 2 s\n")
+                .contains("[shard 1/2] mvn test -Dtest=com.example.SlowTest -Dsurefire.failIfNoSpecifiedTests=false")
+                .contains("[shard 2/2] mvn test -Dtest=com.example.FastTest,com.example.OtherTest ")
+                .contains("[shard 1/2] tests run\n", "[shard 2/2] tests run\n");
+        assertThat(workspace.toPath().resolve("target/surefire-reports"))
+                .isDirectoryContaining("glob:**/TEST-workspace-shard-1.xml")
+                .isDirectoryContaining("glob:**/TEST-workspace-shard-2.xml");
+        // The copies are removed in the background
+        for (int i = 0; i < 100 && Files.exists(tempDir.resolve("workspace-shard-2")); i++) {
+            Thread.sleep(50);
+        }
+        assertThat(tempDir.resolve("workspace-shard-1")).doesNotExist();
+        assertThat(tempDir.resolve("workspace-shard-2")).doesNotExist();
+    }
+}
@@ -0,0 +1,63 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.ci.PipelineSupersededException;
+import com.group12.ciserver.model.github.Owner;
+import com.group12.ciserver.model.github.PushEvent;
+import com.group12.ciserver.model.github.Repository;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PipelineRegistryTest {
+
+    private final PipelineRegistry pipelineRegistry = new PipelineRegistry();
+
+    @Test
+    public void givenRunningPipeline_whenNewerCommitPushedToSameRef_thenProcessKilledAndPipelineSuperseded() throws Exception {
+        RunningPipeline older = pipelineRegistry.register(pushEvent("refs/heads/branch", "aabbccddee"));
+        Process process = new ProcessBuilder("sleep", "30").start();
+        older.attach(process);
+
+        pipelineRegistry.supersede(pushEvent("refs/heads/branch", "ffeeddccbb"));
+
+        assertThat(process.waitFor(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(older.isSuperseded()).isTrue();
+        assertThatThrownBy(older::throwIfStopped).isInstanceOf(PipelineSupersededException.class);
+    }
+
+    @Test
+    public void givenRunningPipeline_whenSameCommitPushedToSameRef_thenNotSuperseded() {
+        RunningPipeline running = pipelineRegistry.register(pushEvent("refs/heads/branch", "aabbccddee"));
+
+        pipelineRegistry.supersede(pushEvent("refs/heads/branch", "aabbccddee"));
+
+        assertThat(running.isSuperseded()).isFalse();
+    }
+
+    @Test
+    public void givenRunningPipeline_whenNewerCommitPushedToOtherRef_thenNotSuperseded() {
+        RunningPipeline running = pipelineRegistry.register(pushEvent("refs/heads/branch", "aabbccddee"));
+
+        pipelineRegistry.register(pushEvent("refs/heads/other", "ffeeddccbb"));
+
+        assertThat(running.isSuperseded()).isFalse();
+    }
+
+    private static PushEvent pushEvent(String ref, String after) {
+        Owner owner = new Owner();
+        owner.setName("Owner");
+
+        Repository repository = new Repository();
+        repository.setName("Repository");
+        repository.setOwner(owner);
+
+        PushEvent pushEvent = new PushEvent();
+        pushEvent.setRef(ref);
+        pushEvent.setAfter(after);
+        pushEvent.setRepository(repository);
+        return pushEvent;
+    }
+}
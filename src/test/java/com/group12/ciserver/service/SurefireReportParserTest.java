@@ -0,0 +1,108 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.TestResult;
+import com.group12.ciserver.model.TestStatus;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class SurefireReportParserTest {
+
+    private static final String REPORT = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <testsuite name="com.example.AdderTest" time="1.5" tests="5" errors="1" skipped="1" failures="1">
+              <properties>
+                <property name="java.version" value="17"/>
+              </properties>
+              <testcase name="add" classname="com.example.AdderTest" time="0.012"/>
+              <testcase name="overflow" classname="com.example.AdderTest" time="1,234.5">
+                <failure message="expected: &lt;0&gt; but was: &lt;-2&gt;" type="org.opentest4j.AssertionFailedError">
+                  at com.example.AdderTest.overflow(AdderTest.java:20)
+                </failure>
+                <system-out>adding</system-out>
+              </testcase>
+              <testcase name="divide" classname="com.example.AdderTest" time="0.001">
+                <error type="java.lang.ArithmeticException">java.lang.ArithmeticException</error>
+              </testcase>
+              <testcase name="later" classname="com.example.AdderTest" time="0">
+                <skipped message="not implemented"/>
+              </testcase>
+              <testcase name="network" classname="com.example.AdderTest" time="0.2">
+                <flakyFailure message="timeout" type="java.net.SocketTimeoutException">
+                  <stackTrace>java.net.SocketTimeoutException</stackTrace>
+                </flakyFailure>
+              </testcase>
+            </testsuite>
+            """;
+
+    @TempDir
+    Path tempDir;
+
+    private final SurefireReportParser parser = new SurefireReportParser();
+
+    @Test
+    public void testCasesAreRead() throws Exception {
+        List<TestResult> results = parser.parse(new ByteArrayInputStream(REPORT.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(results)
+                .extracting(TestResult::getClassName, TestResult::getName, TestResult::getStatus,
+                        TestResult::getDurationMillis, TestResult::getMessage)
+                .containsExactly(
+                        tuple("com.example.AdderTest", "add", TestStatus.PASSED, 12L, null),
+                        tuple("com.example.AdderTest", "overflow", TestStatus.FAILED, 1234500L,
+                                "expected: <0> but was: <-2>"),
+                        tuple("com.example.AdderTest", "divide", TestStatus.ERROR, 1L,
+                                "java.lang.ArithmeticException"),
+                        tuple("com.example.AdderTest", "later", TestStatus.SKIPPED, 0L, "not implemented"),
+                        tuple("com.example.AdderTest", "network", TestStatus.FLAKY, 200L, "timeout"));
+        assertThat(SurefireReportParser.describe(results))
+                .isEqualTo("Tests: 1 passed, 1 failed, 1 errors, 1 skipped, 1 flaky");
+    }
+
+    @Test
+    public void reportsOfAllModulesOfThisBuildAreRead() throws Exception {
+        Instant since = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        write("core/target/surefire-reports/TEST-com.example.AdderTest.xml", REPORT);
+        write("app/target/failsafe-reports/TEST-com.example.AppIT.xml",
+                "<testsuite name=\"com.example.AppIT\"><testcase name=\"starts\" time=\"3\"/></testsuite>");
+        write("app/target/surefire-reports/com.example.AdderTest.txt", "Tests run: 5");
+        Path stale = write("old/target/surefire-reports/TEST-com.example.OldTest.xml", REPORT);
+        Files.setLastModifiedTime(stale, FileTime.from(since.minus(1, ChronoUnit.HOURS)));
+
+        List<TestResult> results = parser.parseReports(tempDir.toFile(), since);
+
+        assertThat(results).hasSize(6);
+        assertThat(results).filteredOn(result -> result.getName().equals("starts"))
+                .extracting(TestResult::getClassName).containsExactly("com.example.AppIT");
+    }
+
+    @Test
+    public void malformedReportsAreSkipped() throws Exception {
+        write("target/surefire-reports/TEST-Broken.xml", "<testsuite><testcase name=\"cut off\"");
+        write("target/surefire-reports/TEST-Good.xml",
+                "<testsuite name=\"Good\"><testcase name=\"passes\" classname=\"Good\"/></testsuite>");
+
+        List<TestResult> results = parser.parseReports(tempDir.toFile(), Instant.EPOCH);
+
+        assertThat(results).extracting(TestResult::getName).containsExactly("passes");
+    }
+
+    private Path write(String path, String content) throws IOException {
+        Path file = tempDir.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+        return file;
+    }
+}
@@ -0,0 +1,323 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.model.ci.TestSelection;
+import com.group12.ciserver.model.github.Owner;
+import com.group12.ciserver.model.github.PushEvent;
+import com.group12.ciserver.model.github.Repository;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestImpactAnalyzerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path checkout;
+
+    private Git git;
+
+    private TestImpactAnalyzer analyzer;
+
+    private String lastCommit;
+
+    @BeforeEach
+    public void init() throws Exception {
+        checkout = tempDir.resolve("checkout");
+        git = Git.init().setDirectory(checkout.toFile()).call();
+        analyzer = new TestImpactAnalyzer(true, tempDir.resolve("index").toString(), 10);
+
+        write("src/main/java/com/example/Adder.java",
+                "package com.example; public class Adder { public int add(int a, int b) { return a + b; } }");
+        write("src/main/java/com/example/Calculator.java",
+                "package com.example; public class Calculator { "
+                        + "public int sum(int a, int b) { return new Adder().add(a, b); } }");
+        write("src/main/java/com/example/Greeter.java",
+                "package com.example; public class Greeter { public String greet() { return \"hi\"; } }");
+        write("src/test/java/com/example/CalculatorTest.java",
+                "package com.example; public class CalculatorTest { "
+                        + "public void sum() { new Calculator().sum(1, 2); } }");
+        write("src/test/java/com/example/GreeterTest.java",
+                "package com.example; public class GreeterTest { public void greet() { new Greeter().greet(); } }");
+        write("pom.xml", "<project/>");
+        write(".gitignore", "target/");
+        lastCommit = commit();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        git.close();
+    }
+
+    private void write(String path, String content) throws IOException {
+        Path file = checkout.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    private String commit() throws Exception {
+        git.add().addFilepattern(".").call();
+        RevCommit commit = git.commit().setMessage("change").setAllowEmpty(true).call();
+        return commit.getName();
+    }
+
+    /**
+     * Compiles the checkout like maven would, into target/classes and target/test-classes.
+     */
+    private void compile() throws IOException {
+        compile("src/main/java", "target/classes", List.of());
+        compile("src/test/java", "target/test-classes", List.of("-cp", checkout.resolve("target/classes").toString()));
+    }
+
+    private void compile(String sourceRoot, String outputDirectory, List<String> options) throws IOException {
+        List<String> arguments = new ArrayList<>(options);
+        arguments.add("-d");
+        arguments.add(checkout.resolve(outputDirectory).toString());
+        try (Stream<Path> sources = Files.walk(checkout.resolve(sourceRoot))) {
+            arguments.addAll(sources.filter(path -> path.toString().endsWith(".java"))
+                    .map(Path::toString).collect(Collectors.toList()));
+        }
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertThat(compiler.run(null, null, null, arguments.toArray(new String[0]))).isZero();
+    }
+
+    private PushEvent push(String before, String after) {
+        Owner owner = new Owner();
+        owner.setName("Owner");
+        Repository repository = new Repository();
+        repository.setName("Repository");
+        repository.setOwner(owner);
+        PushEvent pushEvent = new PushEvent();
+        pushEvent.setRef("refs/heads/feature/impact");
+        pushEvent.setBefore(before);
+        pushEvent.setAfter(after);
+        pushEvent.setRepository(repository);
+        return pushEvent;
+    }
+
+    /**
+     * Builds the pushed commit and records it as successful, like {@link CIService} does.
+     */
+    private TestSelection build(String after) throws IOException {
+        PushEvent pushEvent = push(lastCommit, after);
+        TestSelection selection = analyzer.select(pushEvent, checkout.toFile());
+        compile();
+        analyzer.recordSuccess(pushEvent, checkout.toFile(), selection);
+        lastCommit = after;
+        return selection;
+    }
+
+    /**
+     * Given:
+     * <p>
+     * A successful build of the branch, then a push that changes a class CalculatorTest uses through Calculator.
+     * <p>
+     * Then:
+     * <p>
+     * - Only CalculatorTest runs.
+     */
+    @Test
+    public void givenChangedClass_whenSelect_thenOnlyTestsDependingOnItRun() throws Exception {
+        build(lastCommit);
+        write("src/main/java/com/example/Adder.java",
+                "package com.example; public class Adder { public int add(int a, int b) { return b + a; } }");
+        String after = commit();
+
+        TestSelection selection = analyzer.select(push(lastCommit, after), checkout.toFile());
+
+        assertThat(selection.isFullRun()).isFalse();
+        assertThat(selection.getTestClasses()).containsExactly("com.example.CalculatorTest");
+        assertThat(selection.getTotalTestClasses()).isEqualTo(2);
+        assertThat(selection.getMavenOptions()).containsExactly("-Dtest=com.example.CalculatorTest",
+                "-Dsurefire.failIfNoSpecifiedTests=false", "-DfailIfNoTests=false");
+    }
+
+    /**
+     * Given:
+     * <p>
+     * A successful build of the branch feature/impact, then a push to the branch feature-impact.
+     * <p>
+     * Then:
+     * <p>
+     * - All tests run, the index of the other branch is not used.
+     */
+    @Test
+    public void givenBranchWithSimilarName_whenSelect_thenFullRun() throws Exception {
+        build(lastCommit);
+        write("src/main/java/com/example/Adder.java",
+                "package com.example; public class Adder { public int add(int a, int b) { return b + a; } }");
+        String after = commit();
+        PushEvent pushEvent = push(lastCommit, after);
+        pushEvent.setRef("refs/heads/feature-impact");
+
+        TestSelection selection = analyzer.select(pushEvent, checkout.toFile());
+
+        assertThat(selection.isFullRun()).isTrue();
+    }
+
+    /**
+     * Given:
+     * <p>
+     * A push that adds a test class and changes documentation.
+     * <p>
+     * Then:
+     * <p>
+     * - The new test class runs, although it is not in the index yet.
+     */
+    @Test
+    public void givenNewTestClass_whenSelect_thenItRuns() throws Exception {
+        build(lastCommit);
+        write("README.md", "# Calculator");
+        write("src/test/java/com/example/AdderTest.java",
+                "package com.example; public class AdderTest { public void add() { new Adder().add(1, 2); } }");
+        String after = commit();
+
+        TestSelection selection = analyzer.select(push(lastCommit, after), checkout.toFile());
+
+        assertThat(selection.isFullRun()).isFalse();
+        assertThat(selection.getTestClasses()).containsExactly("com.example.AdderTest");
+    }
+
+    /**
+     * Given:
+     * <p>
+     * A push that only changes documentation.
+     * <p>
+     * Then:
+     * <p>
+     * - No test runs.
+     */
+    @Test
+    public void givenDocumentationChange_whenSelect_thenNoTestRuns() throws Exception {
+        build(lastCommit);
+        write("README.md", "# Calculator");
+        String after = commit();
+
+        TestSelection selection = analyzer.select(push(lastCommit, after), checkout.toFile());
+
+        assertThat(selection.isFullRun()).isFalse();
+        assertThat(selection.getTestClasses()).isEmpty();
+        assertThat(selection.getMavenOptions()).startsWith("-Dtest=!**/*");
+    }
+
+    /**
+     * Given:
+     * <p>
+     * A push that changes the pom.
+     * <p>
+     * Then:
+     * <p>
+     * - All tests run.
+     */
+    @Test
+    public void givenBuildFileChange_whenSelect_thenAllTestsRun() throws Exception {
+        build(lastCommit);
+        write("pom.xml", "<project><!-- changed --></project>");
+        String after = commit();
+
+        TestSelection selection = analyzer.select(push(lastCommit, after), checkout.toFile());
+
+        assertThat(selection.isFullRun()).isTrue();
+        assertThat(selection.getReason()).isEqualTo("pom.xml changed");
+        assertThat(selection.getMavenOptions()).isEmpty();
+    }
+
+    /**
+     * Given:
+     * <p>
+     * The first push of a branch, and a push to a branch without a successful build.
+     * <p>
+     * Then:
+     * <p>
+     * - All tests run.
+     */
+    @Test
+    public void givenNoEarlierBuild_whenSelect_thenAllTestsRun() {
+        TestSelection newBranch = analyzer.select(push("0".repeat(40), lastCommit), checkout.toFile());
+        TestSelection noIndex = analyzer.select(push(lastCommit, lastCommit), checkout.toFile());
+
+        assertThat(newBranch.isFullRun()).isTrue();
+        assertThat(newBranch.getReason()).isEqualTo("new branch");
+        assertThat(noIndex.isFullRun()).isTrue();
+    }
+
+    /**
+     * Given:
+     * <p>
+     * A successful build whose commit was force-pushed away.
+     * <p>
+     * Then:
+     * <p>
+     * - All tests run.
+     */
+    @Test
+    public void givenRewrittenBranch_whenSelect_thenAllTestsRun() throws Exception {
+        String root = lastCommit;
+        write("src/main/java/com/example/Greeter.java",
+                "package com.example; public class Greeter { public String greet() { return \"hello\"; } }");
+        build(commit());
+        git.reset().setMode(ResetCommand.ResetType.HARD).setRef(root).call();
+        write("src/main/java/com/example/Adder.java",
+                "package com.example; public class Adder { public int add(int a, int b) { return b + a; } }");
+        String after = commit();
+
+        TestSelection selection = analyzer.select(push(lastCommit, after), checkout.toFile());
+
+        assertThat(selection.isFullRun()).isTrue();
+        assertThat(selection.getReason()).isEqualTo("the branch was rewritten since the last successful build");
+    }
+
+    /**
+     * Given:
+     * <p>
+     * Builds that only ran the affected tests, with a full run every 3 builds.
+     * <p>
+     * Then:
+     * <p>
+     * - Every third build runs all tests.
+     */
+    @Test
+    public void givenSelectiveRuns_whenFullRunIsDue_thenAllTestsRun() throws Exception {
+        analyzer = new TestImpactAnalyzer(true, tempDir.resolve("index").toString(), 3);
+        assertThat(build(lastCommit).isFullRun()).isTrue();
+
+        write("README.md", "1");
+        assertThat(build(commit()).isFullRun()).isFalse();
+        write("README.md", "2");
+        assertThat(build(commit()).isFullRun()).isFalse();
+        write("README.md", "3");
+        TestSelection third = build(commit());
+        write("README.md", "4");
+        TestSelection fourth = build(commit());
+
+        assertThat(third.isFullRun()).isTrue();
+        assertThat(third.getReason()).isEqualTo("periodic full run");
+        assertThat(fourth.isFullRun()).isFalse();
+    }
+
+    @Test
+    public void sourceFilesAreRelativeToTheirSourceRoot() {
+        assertThat(TestImpactAnalyzer.sourceFileOf("src/main/java/com/example/Adder.java"))
+                .isEqualTo("com/example/Adder.java");
+        assertThat(TestImpactAnalyzer.sourceFileOf("core/src/test/java/com/example/AdderTest.java"))
+                .isEqualTo("com/example/AdderTest.java");
+        assertThat(TestImpactAnalyzer.sourceFileOf("src/main/resources/application.properties")).isNull();
+        assertThat(TestImpactAnalyzer.sourceFileOf("scripts/Tool.java")).isNull();
+    }
+}
@@ -0,0 +1,131 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.database.BuildStore;
+import com.group12.ciserver.model.ci.StageDefinition;
+import com.group12.ciserver.model.ci.TestShard;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class TestSharderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Mock
+    private BuildStore buildStore;
+
+    @Test
+    public void longestTestClassesAreSpreadOverTheShards() {
+        List<TestShard> shards = TestSharder.assign(Map.of("A", 7L, "B", 5L, "C", 4L, "D", 3L, "E", 3L, "F", 2L), 3);
+
+        assertThat(shards).extracting(TestShard::getNumber).containsExactly(1, 2, 3);
+        assertThat(shards).extracting(TestShard::getTestClasses)
+                .containsExactly(List.of("A", "F"), List.of("B", "E"), List.of("C", "D"));
+        assertThat(shards).extracting(TestShard::getEstimatedMillis).containsExactly(9L, 8L, 7L);
+        assertThat(TestSharder.describe(shards))
+                .isEqualTo("Test sharding: running 6 test classes in 3 shards, expected 0 s, 0 s, 0 s");
+    }
+
+    @Test
+    public void noEmptyShardsAreMade() {
+        assertThat(TestSharder.assign(Map.of("A", 1L), 4)).hasSize(1);
+        assertThat(TestSharder.assign(Map.of(), 4)).isEmpty();
+    }
+
+    @Test
+    public void onlyStagesRunningJustTheTestsAreSharded() {
+        TestSharder sharder = new TestSharder(buildStore, 2, 20);
+        StageDefinition test = StageDefinition.builder().name("test").maven("test -Pci -Dgroups=fast").build();
+
+        assertThat(sharder.canShard(test)).isTrue();
+        assertThat(sharder.canShard(StageDefinition.builder().name("verify").maven("verify").build())).isFalse();
+        assertThat(sharder.canShard(StageDefinition.builder().name("both").maven("clean test").build())).isFalse();
+        assertThat(new TestSharder(buildStore, 1, 20).canShard(test)).isFalse();
+        assertThat(TestSharder.compileCommand(test)).isEqualTo("test-compile -Pci -Dgroups=fast");
+    }
+
+    @Test
+    public void testClassesOfAllModulesAreFound() throws IOException {
+        createFile("core/target/test-classes/com/example/AdderTest.class");
+        createFile("core/target/test-classes/com/example/AdderTest$Nested.class");
+        createFile("core/target/test-classes/com/example/TestData.class");
+        createFile("core/target/test-classes/com/example/Fixtures.class");
+        createFile("app/target/test-classes/com/example/AppTests.class");
+        createFile("app/target/classes/com/example/AppTest.class");
+
+        assertThat(TestSharder.findTestClasses(tempDir))
+                .containsExactly("com.example.AdderTest", "com.example.AppTests", "com.example.TestData");
+    }
+
+    @Test
+    public void testClassesWithoutHistoryGetTheAverageTime() throws IOException {
+        for (String testClass : List.of("ATest", "BTest", "CTest", "DTest")) {
+            createFile("target/test-classes/com/example/" + testClass + ".class");
+        }
+        when(buildStore.getTestClassDurations("Owner/Repository", 20)).thenReturn(Map.of(
+                "com.example.ATest", 6000L, "com.example.BTest", 2000L, "com.example.Removed", 100000L));
+        TestSharder sharder = new TestSharder(buildStore, 2, 20);
+
+        List<TestShard> shards = sharder.plan("Owner/Repository", tempDir.toFile(),
+                Set.of("com.example.ATest", "com.example.BTest", "com.example.CTest"));
+
+        // CTest is expected to take 4000 ms, the average of ATest and BTest
+        assertThat(shards).extracting(TestShard::getTestClasses)
+                .containsExactly(List.of("com.example.ATest"), List.of("com.example.CTest", "com.example.BTest"));
+        assertThat(shards).extracting(TestShard::getEstimatedMillis).containsExactly(6000L, 6000L);
+    }
+
+    @Test
+    public void withoutHistoryTestClassesAreSpreadEvenly() throws IOException {
+        for (String testClass : List.of("ATest", "BTest", "CTest")) {
+            createFile("target/test-classes/com/example/" + testClass + ".class");
+        }
+        when(buildStore.getTestClassDurations("Owner/Repository", 20)).thenReturn(null);
+
+        List<TestShard> shards = new TestSharder(buildStore, 2, 20).plan("Owner/Repository", tempDir.toFile(), null);
+
+        assertThat(shards).extracting(TestShard::getTestClasses)
+                .containsExactly(List.of("com.example.ATest", "com.example.CTest"), List.of("com.example.BTest"));
+        assertThat(shards.get(0).getMavenOptions()).containsExactly("-Dtest=com.example.ATest,com.example.CTest",
+                "-Dsurefire.failIfNoSpecifiedTests=false", "-DfailIfNoTests=false");
+    }
+
+    @Test
+    public void shardCopiesTheWorkspaceWithoutOldReportsAndReportsAreCollected() throws IOException {
+        Path workspace = tempDir.resolve("workspace");
+        createFile("workspace/target/test-classes/com/example/AdderTest.class");
+        createFile("workspace/target/surefire-reports/TEST-com.example.Old.xml");
+        TestShard shard = TestSharder.assign(Map.of("com.example.AdderTest", 1L), 2).get(0);
+        TestSharder sharder = new TestSharder(buildStore, 2, 20);
+
+        Path copy = sharder.prepareShard(workspace.toFile(), shard).toPath();
+        createFile("workspace-shard-1/target/surefire-reports/TEST-com.example.AdderTest.xml");
+        sharder.collectReports(copy.toFile(), workspace.toFile());
+
+        assertThat(copy).isEqualTo(tempDir.resolve("workspace-shard-1"));
+        assertThat(copy.resolve("target/test-classes/com/example/AdderTest.class")).exists();
+        assertThat(copy.resolve("target/surefire-reports/TEST-com.example.Old.xml")).doesNotExist();
+        assertThat(workspace.resolve("target/surefire-reports/TEST-com.example.AdderTest.xml")).exists();
+        sharder.shutdown();
+    }
+
+    private void createFile(String path) throws IOException {
+        Path file = tempDir.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.createFile(file);
+    }
+}
@@ -0,0 +1,166 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.service.WebhookAdmissionFilter.Admission;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WebhookAdmissionFilterTest {
+
+    private static final String SECRET = "It's a Secret to Everybody";
+
+    private static final String DELETED = "0000000000000000000000000000000000000000";
+
+    private final WebhookAdmissionFilter filter = new WebhookAdmissionFilter(SECRET,
+            "DD2480-G12/a2-ci-server=refs/heads/main,refs/heads/release/**;DD2480-G12/*=refs/heads/**");
+
+    private static byte[] push(String ref, String after, boolean deleted, String repository) {
+        // Shaped like a real push event, with the fields the filter skips
+        String[] name = repository.split("/");
+        StringBuilder commits = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            commits.append(i == 0 ? "" : ",").append("{\"id\":\"").append(after).append("\",\"message\":\"Commit ")
+                    .append(i).append("\",\"author\":{\"name\":\"Dev\",\"email\":\"dev@example.com\"},")
+                    .append("\"added\":[],\"removed\":[],\"modified\":[\"src/main/java/Example").append(i)
+                    .append(".java\"]}");
+        }
+        String json = "{\"ref\":\"" + ref + "\",\"before\":\"aabbccddee\",\"after\":\"" + after + "\","
+                + "\"repository\":{\"id\":1,\"name\":\"" + name[1] + "\",\"full_name\":\"" + repository + "\","
+                + "\"owner\":{\"name\":\"" + name[0] + "\",\"login\":\"" + name[0] + "\"},\"private\":false,"
+                + "\"topics\":[\"ci\",\"java\"],\"default_branch\":\"main\"},"
+                + "\"pusher\":{\"name\":\"Dev\"},\"sender\":{\"login\":\"Dev\",\"id\":2},"
+                + "\"created\":false,\"deleted\":" + deleted + ",\"forced\":false,\"base_ref\":null,"
+                + "\"commits\":[" + commits + "],\"head_commit\":null}";
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] push(String ref, String repository) {
+        return push(ref, "ffeeddccbbaa99887766554433221100ffeeddcc", false, repository);
+    }
+
+    private static String sign(byte[] body) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        StringBuilder signature = new StringBuilder("sha256=");
+        for (byte b : mac.doFinal(body)) {
+            signature.append(String.format("%02x", b));
+        }
+        return signature.toString();
+    }
+
+    private Admission admit(byte[] body) throws Exception {
+        return filter.admit("push", sign(body), body);
+    }
+
+    @Test
+    public void signedPushToBuiltRefIsAccepted() throws Exception {
+        assertThat(admit(push("refs/heads/main", "DD2480-G12/a2-ci-server"))).isEqualTo(Admission.ACCEPTED);
+        assertThat(admit(push("refs/heads/release/1.2", "DD2480-G12/a2-ci-server"))).isEqualTo(Admission.ACCEPTED);
+        assertThat(admit(push("refs/heads/feature/x", "DD2480-G12/a2-ci-test"))).isEqualTo(Admission.ACCEPTED);
+    }
+
+    @Test
+    public void forgedOrUnsignedPushIsRejected() throws Exception {
+        byte[] body = push("refs/heads/main", "DD2480-G12/a2-ci-server");
+        byte[] tampered = push("refs/heads/main", "DD2480-G12/a2-ci-test");
+
+        assertThat(filter.admit("push", null, body)).isEqualTo(Admission.BAD_SIGNATURE);
+        assertThat(filter.admit("push", sign(tampered), body)).isEqualTo(Admission.BAD_SIGNATURE);
+        assertThat(filter.admit("push", "sha256=xyz", body)).isEqualTo(Admission.BAD_SIGNATURE);
+        assertThat(filter.admit("push", sign(body).toUpperCase().replace("SHA256", "sha256"), body))
+                .isEqualTo(Admission.ACCEPTED);
+    }
+
+    @Test
+    public void pushesThatCannotBeBuiltAreDropped() throws Exception {
+        assertThat(admit(push("refs/tags/v1.0", "DD2480-G12/a2-ci-server"))).isEqualTo(Admission.IGNORED_REF);
+        assertThat(admit(push("refs/heads/feature", "DD2480-G12/a2-ci-server"))).isEqualTo(Admission.IGNORED_REF);
+        assertThat(admit(push("refs/heads/main", "Other/repository"))).isEqualTo(Admission.IGNORED_REF);
+        assertThat(admit(push("refs/heads/main", DELETED, true, "DD2480-G12/a2-ci-server")))
+                .isEqualTo(Admission.DELETED_REF);
+        assertThat(admit(push("refs/heads/main", "aabbccddee", true, "DD2480-G12/a2-ci-server")))
+                .isEqualTo(Admission.DELETED_REF);
+    }
+
+    @Test
+    public void otherEventsAndBadBodiesAreDropped() throws Exception {
+        byte[] ping = "{\"zen\":\"Keep it logically awesome.\",\"hook_id\":1}".getBytes(StandardCharsets.UTF_8);
+        byte[] truncated = "{\"ref\":\"refs/heads/main\",\"after\":".getBytes(StandardCharsets.UTF_8);
+        byte[] withoutRepository = "{\"ref\":\"refs/heads/main\",\"after\":\"aabbccddee\"}"
+                .getBytes(StandardCharsets.UTF_8);
+
+        assertThat(filter.admit("ping", sign(ping), ping)).isEqualTo(Admission.OTHER_EVENT);
+        assertThat(filter.admit(null, sign(truncated), truncated)).isEqualTo(Admission.MALFORMED);
+        assertThat(admit(withoutRepository)).isEqualTo(Admission.MALFORMED);
+        assertThat(admit("[1, 2]".getBytes(StandardCharsets.UTF_8))).isEqualTo(Admission.MALFORMED);
+    }
+
+    @Test
+    public void repositoryWithoutFullNameIsMatchedByOwnerAndName() throws Exception {
+        byte[] body = ("{\"ref\":\"refs/heads/main\",\"after\":\"ea312d0e44\",\"repository\":{\"name\":"
+                + "\"a2-ci-server\",\"owner\":{\"name\":\"DD2480-G12\"}}}").getBytes(StandardCharsets.UTF_8);
+
+        assertThat(admit(body)).isEqualTo(Admission.ACCEPTED);
+    }
+
+    @Test
+    public void withoutSecretSignaturesAreNotChecked() {
+        WebhookAdmissionFilter unsigned = new WebhookAdmissionFilter("", "**=refs/heads/**");
+
+        assertThat(unsigned.admit("push", null, push("refs/heads/main", "Any/repository")))
+                .isEqualTo(Admission.ACCEPTED);
+    }
+
+    @Test
+    public void droppedEventsAreCounted() throws Exception {
+        admit(push("refs/heads/main", "DD2480-G12/a2-ci-server"));
+        admit(push("refs/tags/v1.0", "DD2480-G12/a2-ci-server"));
+        admit(push("refs/tags/v1.1", "DD2480-G12/a2-ci-server"));
+        filter.admit("push", null, push("refs/heads/main", "DD2480-G12/a2-ci-server"));
+
+        assertThat(filter.getCounts())
+                .containsEntry(Admission.ACCEPTED, 1L)
+                .containsEntry(Admission.IGNORED_REF, 2L)
+                .containsEntry(Admission.BAD_SIGNATURE, 1L)
+                .containsEntry(Admission.DELETED_REF, 0L);
+    }
+
+    /**
+     * Measures the overhead of the filter per event, for the signature check alone and together with reading the
+     * body. A dropped event costs this instead of a clone and two maven runs.
+     */
+    @Test
+    public void filterOverheadBenchmark() throws Exception {
+        byte[] accepted = push("refs/heads/main", "DD2480-G12/a2-ci-server");
+        byte[] tag = push("refs/tags/v1.0", "DD2480-G12/a2-ci-server");
+        String acceptedSignature = sign(accepted);
+        String tagSignature = sign(tag);
+        WebhookAdmissionFilter unsigned = new WebhookAdmissionFilter("", "**=refs/heads/**");
+        int events = 100_000;
+        for (int i = 0; i < events; i++) {
+            filter.admit("push", acceptedSignature, accepted);
+            filter.admit("push", tagSignature, tag);
+            unsigned.admit("push", null, tag);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            filter.admit("push", tagSignature, tag);
+        }
+        double signedMicros = (System.nanoTime() - start) / 1e3 / events;
+        start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            unsigned.admit("push", null, tag);
+        }
+        double parseMicros = (System.nanoTime() - start) / 1e3 / events;
+
+        System.out.printf("Webhook admission of a %d byte event: %.2f us with signature check, %.2f us without%n",
+                tag.length, signedMicros, parseMicros);
+        assertThat(signedMicros).isLessThan(1000);
+        assertThat(parseMicros).isLessThan(signedMicros);
+    }
+}
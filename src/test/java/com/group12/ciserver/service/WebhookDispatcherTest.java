@@ -0,0 +1,112 @@
+package com.group12.ciserver.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.group12.ciserver.database.WebhookInbox;
+import com.group12.ciserver.model.github.PushEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class WebhookDispatcherTest {
+
+    private static final String PAYLOAD = "{\"ref\":\"refs/heads/main\",\"after\":\"aabbccddee\","
+            + "\"repository\":{\"name\":\"Repository\",\"owner\":{\"name\":\"Owner\"}},\"pusher\":{}}";
+
+    @TempDir
+    Path tempDir;
+
+    @Mock
+    private BuildScheduler buildScheduler;
+
+    private WebhookInbox webhookInbox;
+
+    private WebhookDispatcher webhookDispatcher;
+
+    @BeforeEach
+    public void init() throws Exception {
+        webhookInbox = openInbox();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (webhookDispatcher != null) {
+            webhookDispatcher.stop();
+        }
+        webhookInbox.close();
+    }
+
+    private WebhookInbox openInbox() throws Exception {
+        return new WebhookInbox(tempDir.resolve("inbox.journal").toString(), 100, 100, 100, 1024);
+    }
+
+    private void startDispatcher() {
+        // Like the ObjectMapper of Spring Boot, which ignores the fields of GitHub's events that are not mapped
+        ObjectMapper objectMapper = new ObjectMapper()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        webhookDispatcher = new WebhookDispatcher(webhookInbox, buildScheduler, objectMapper, 10);
+        webhookDispatcher.start();
+    }
+
+    /**
+     * Given:
+     * <p>
+     * A push event in the inbox and a full build queue.
+     * <p>
+     * Then:
+     * <p>
+     * - The event is submitted again until the queue accepts it, and stays in the inbox until its build finished.
+     */
+    @Test
+    public void givenFullQueue_whenDispatch_thenRetriedAndRemovedWhenBuildFinished() {
+        ArgumentCaptor<Runnable> onFinished = ArgumentCaptor.forClass(Runnable.class);
+        when(buildScheduler.submit(any(PushEvent.class), any(Runnable.class))).thenReturn(false, false, true);
+        webhookInbox.append("delivery-1", PAYLOAD);
+
+        startDispatcher();
+
+        verify(buildScheduler, timeout(5000).times(3)).submit(any(PushEvent.class), onFinished.capture());
+        assertThat(webhookInbox.pendingCount()).isEqualTo(1);
+        onFinished.getValue().run();
+        assertThat(webhookInbox.pendingCount()).isZero();
+    }
+
+    /**
+     * Given:
+     * <p>
+     * A push event that was dispatched, but whose build did not finish before the server stopped.
+     * <p>
+     * Then:
+     * <p>
+     * - The event is dispatched again after a restart.
+     */
+    @Test
+    public void givenUnfinishedBuild_whenRestart_thenEventDispatchedAgain() throws Exception {
+        ArgumentCaptor<PushEvent> pushEvent = ArgumentCaptor.forClass(PushEvent.class);
+        when(buildScheduler.submit(any(PushEvent.class), any(Runnable.class))).thenReturn(true);
+        webhookInbox.append("delivery-1", PAYLOAD);
+        startDispatcher();
+        verify(buildScheduler, timeout(5000)).submit(any(PushEvent.class), any(Runnable.class));
+
+        webhookDispatcher.stop();
+        webhookInbox.close();
+        webhookInbox = openInbox();
+        startDispatcher();
+
+        verify(buildScheduler, timeout(5000).times(2)).submit(pushEvent.capture(), any(Runnable.class));
+        assertThat(pushEvent.getValue().getAfter()).isEqualTo("aabbccddee");
+        assertThat(pushEvent.getValue().getRepository().getOwner().getName()).isEqualTo("Owner");
+    }
+}
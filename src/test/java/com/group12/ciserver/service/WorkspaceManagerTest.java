@@ -0,0 +1,137 @@
+package com.group12.ciserver.service;
+
+import com.group12.ciserver.client.RepositoryMirrorCache;
+import com.group12.ciserver.model.github.Owner;
+import com.group12.ciserver.model.github.PushEvent;
+import com.group12.ciserver.model.github.Repository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class WorkspaceManagerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void givenTwoConcurrentBuildsOfSameBranch_whenLease_thenDifferentDirectories() {
+        WorkspaceManager workspaceManager = new WorkspaceManager(tempDir.toString(), 1024);
+
+        Workspace first = workspaceManager.lease(pushEvent("refs/heads/main"));
+        Workspace second = workspaceManager.lease(pushEvent("refs/heads/main"));
+
+        assertThat(first.getDirectory()).isNotEqualTo(second.getDirectory());
+    }
+
+    @Test
+    public void givenReleasedWorkspace_whenLeaseSameBranch_thenWarmWorkspaceReused() throws Exception {
+        WorkspaceManager workspaceManager = new WorkspaceManager(tempDir.toString(), 1024);
+        Workspace first = workspaceManager.lease(pushEvent("refs/heads/main"));
+        writeFile(first, "target/classes/Main.class", 10);
+        workspaceManager.release(first);
+
+        Workspace second = workspaceManager.lease(pushEvent("refs/heads/main"));
+
+        assertThat(second.getDirectory()).isEqualTo(first.getDirectory());
+        assertThat(second.getDirectory().toPath().resolve("target/classes/Main.class")).exists();
+    }
+
+    @Test
+    public void givenDiscardedWorkspace_whenLease_thenNewWorkspaceAndOldOneDeleted() throws Exception {
+        WorkspaceManager workspaceManager = new WorkspaceManager(tempDir.toString(), 1024);
+        Workspace first = workspaceManager.lease(pushEvent("refs/heads/main"));
+        writeFile(first, "pom.xml", 10);
+        workspaceManager.discard(first);
+
+        Workspace second = workspaceManager.lease(pushEvent("refs/heads/main"));
+
+        assertThat(second.getDirectory()).isNotEqualTo(first.getDirectory());
+        waitUntil(() -> !first.getDirectory().exists());
+    }
+
+    @Test
+    public void givenWorkspace_whenDeleted_thenItsMirrorIsReleased() throws Exception {
+        RepositoryMirrorCache mirrorCache = mock(RepositoryMirrorCache.class);
+        WorkspaceManager workspaceManager = new WorkspaceManager(tempDir.toString(), 1024, mirrorCache);
+        Workspace idle = workspaceManager.lease(pushEvent("refs/heads/main"));
+        Workspace discarded = workspaceManager.lease(pushEvent("refs/heads/other"));
+        writeFile(idle, "pom.xml", 10);
+        writeFile(discarded, "pom.xml", 10);
+        workspaceManager.release(idle);
+
+        workspaceManager.discard(discarded);
+
+        verify(mirrorCache, timeout(5000)).release(discarded.getDirectory());
+        verify(mirrorCache, never()).release(idle.getDirectory());
+    }
+
+    @Test
+    public void givenDiskBudgetExceeded_whenRelease_thenLeastRecentlyUsedWorkspaceDeleted() throws Exception {
+        WorkspaceManager workspaceManager = new WorkspaceManager(tempDir.toString(), 1);
+        Workspace older = workspaceManager.lease(pushEvent("refs/heads/a"));
+        Workspace newer = workspaceManager.lease(pushEvent("refs/heads/b"));
+        writeFile(older, "target/big.jar", 700 * 1024);
+        writeFile(newer, "target/big.jar", 700 * 1024);
+
+        workspaceManager.release(older);
+        workspaceManager.release(newer);
+
+        waitUntil(() -> !older.getDirectory().exists());
+        assertThat(newer.getDirectory()).exists();
+    }
+
+    @Test
+    public void givenReleasedWorkspace_whenLeaseRepositoryWithSimilarName_thenNewWorkspace() throws Exception {
+        WorkspaceManager workspaceManager = new WorkspaceManager(tempDir.toString(), 1024);
+        Workspace first = workspaceManager.lease(pushEvent("a-b", "c", "refs/heads/main"));
+        writeFile(first, "target/classes/Main.class", 10);
+        workspaceManager.release(first);
+
+        Workspace second = workspaceManager.lease(pushEvent("a", "b-c", "refs/heads/main"));
+
+        assertThat(second.getDirectory()).isNotEqualTo(first.getDirectory());
+        assertThat(second.getDirectory().toPath().resolve("target/classes/Main.class")).doesNotExist();
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+
+    private static void writeFile(Workspace workspace, String path, int size) throws Exception {
+        Path file = workspace.getDirectory().toPath().resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[size]);
+    }
+
+    private static PushEvent pushEvent(String ref) {
+        return pushEvent("Owner", "Repository", ref);
+    }
+
+    private static PushEvent pushEvent(String ownerName, String repositoryName, String ref) {
+        Owner owner = new Owner();
+        owner.setName(ownerName);
+
+        Repository repository = new Repository();
+        repository.setName(repositoryName);
+        repository.setOwner(owner);
+
+        PushEvent pushEvent = new PushEvent();
+        pushEvent.setRef(ref);
+        pushEvent.setAfter("aabbccddee");
+        pushEvent.setRepository(repository);
+        return pushEvent;
+    }
+}